@@ -21,6 +21,11 @@ package com.hammingweight.kiss.crypto;
 public interface IHashAlgorithm {
 	public void update(byte[] messageBlock);
 	
+	public void update(byte[] buf, int offset, int len);
+	
+	// Returns the hash of the bytes passed to update() and resets the hash.
+	public byte[] digest();
+	
 	public byte[] doFinal(byte[] messageBlock);
 	
 	public int getHashSize();
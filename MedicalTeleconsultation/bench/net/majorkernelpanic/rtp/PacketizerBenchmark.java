@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2012 GUIGUI Simon, fyhertz@gmail.com
+ * 
+ * This file is part of Spydroid (http://code.google.com/p/spydroid-ipcamera/)
+ * 
+ * Spydroid is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package net.majorkernelpanic.rtp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a recorded elementary stream through a packetizer into memory and reports
+ * packets/s, payload bytes per packet and bytes allocated per packet.
+ * 
+ * This is not part of the android application, it runs on any JVM with the rtp package:
+ * 
+ *   javac -d out src/net/majorkernelpanic/rtp/*.java bench/net/majorkernelpanic/rtp/*.java
+ *   java -cp out net.majorkernelpanic.rtp.PacketizerBenchmark h264 capture.mp4 [iterations]
+ * 
+ * The input files are what MediaRecorder writes when a MediaStream is in MODE_DEFAULT,
+ * with the same settings as the streams:
+ *   h264, h263: mp4/3gp file, the packetizer skips everything up to mdat
+ *   amr: raw AMR-NB file starting with "#!AMR\n"
+ *   aac: ADTS file
+ * 
+ * A virtual clock is used so that the packetizers never sleep, timestamps are therefore meaningless.
+ */
+public class PacketizerBenchmark {
+
+	private static final int WARMUP = 3;
+	
+	private static final Logger QUIET = new Logger() {
+		public void d(String tag, String msg) {}
+		public void e(String tag, String msg) {}
+	};
+
+	private static final com.sun.management.ThreadMXBean threads = 
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+	
+	public static void main(String[] args) throws Exception {
+
+		if (args.length<2) {
+			System.err.println("Usage: PacketizerBenchmark <h264|h263|amr|aac> <file> [iterations]");
+			System.exit(1);
+		}
+		
+		String type = args[0];
+		byte[] data = read(new File(args[1]));
+		int iterations = args.length>2 ? Integer.parseInt(args[2]) : 10;
+		
+		System.out.println(type+": "+data.length+" bytes, "+WARMUP+" warmup runs, "+iterations+" runs");
+		
+		for (int i=0;i<WARMUP;i++) run(type, data);
+		
+		Result total = new Result();
+		for (int i=0;i<iterations;i++) {
+			Result r = run(type, data);
+			System.out.println(String.format("run %2d: %s", i, r));
+			total.add(r);
+		}
+		System.out.println("total : "+total);
+		
+		// The H.264 consumer thread stays blocked once the stream is over
+		System.exit(0);
+		
+	}
+	
+	private static Result run(String type, byte[] data) throws Exception {
+		
+		AbstractPacketizer packetizer;
+		MemorySink sink = new MemorySink(type.equals("h264"));
+		ReplayStream stream = new ReplayStream(data, type.equals("h264") ? sink : null);
+		
+		if (type.equals("h264")) packetizer = new H264Packetizer();
+		else if (type.equals("h263")) packetizer = new H263Packetizer();
+		else if (type.equals("amr")) packetizer = new AMRNBPacketizer();
+		else if (type.equals("aac")) packetizer = new AACADTSPacketizer();
+		else throw new IllegalArgumentException("Unknown stream type: "+type);
+		
+		packetizer.setRtpSocket(sink);
+		packetizer.setClock(new VirtualClock());
+		packetizer.setLogger(QUIET);
+		packetizer.setInputStream(stream);
+		packetizer.setDestination(InetAddress.getLoopbackAddress(), 5006);
+		
+		long start = System.nanoTime();
+		packetizer.start();
+		
+		// The packetizers have no completion callback, we wait until the stream is consumed and the sink idle
+		long packets = -1;
+		while (!stream.eof || packets!=sink.packets) {
+			packets = sink.packets;
+			Thread.sleep(20);
+		}
+		packetizer.stop();
+		sink.close();
+		
+		Result r = new Result();
+		r.packets = sink.packets;
+		r.bytes = sink.bytes;
+		r.nanos = sink.last-start;
+		r.allocated = sink.allocated()+stream.allocated(sink.sender);
+		return r;
+		
+	}
+	
+	private static byte[] read(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			byte[] data = new byte[(int) raf.length()];
+			raf.readFully(data);
+			return data;
+		} finally {
+			raf.close();
+		}
+	}
+	
+	private static long allocatedBytes() {
+		return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+	
+	private static class Result {
+		long packets, bytes, nanos, allocated;
+		
+		void add(Result r) {
+			packets += r.packets;
+			bytes += r.bytes;
+			nanos += r.nanos;
+			allocated += r.allocated;
+		}
+		
+		public String toString() {
+			double seconds = nanos/1e9;
+			return String.format("%8d packets  %10.0f packets/s  %7.1f Mbit/s  %6.1f payload bytes/packet  %6.1f bytes allocated/packet",
+					packets, packets/seconds, bytes*8/seconds/1e6, 
+					(double) bytes/Math.max(packets,1), (double) allocated/Math.max(packets,1));
+		}
+	}
+	
+	/** Time only moves forward when the packetizer sleeps */
+	private static class VirtualClock implements Clock {
+		private volatile long time = 0;
+		
+		public long elapsedRealtime() {
+			return time;
+		}
+
+		public void sleep(long millis) throws InterruptedException {
+			time += millis;
+		}
+	}
+	
+	/** Counts what the packetizer sends instead of sending it */
+	private static class MemorySink extends RtpSocket {
+		
+		private final boolean h264;
+		volatile long packets = 0, bytes = 0, last = 0;
+		
+		/** Bytes of the H.264 stream consumed by the packetizer, used to pace the replay */
+		volatile long consumed = 0;
+
+		/** Thread that sends the packets and its allocation counter at the first and at the last packet */
+		volatile long sender = -1;
+		private long firstAllocated, lastAllocated;
+		
+		public MemorySink(boolean h264) {
+			this.h264 = h264;
+		}
+		
+		protected void transmit(DatagramPacket packet) {
+			int length = packet.getLength();
+			byte[] data = packet.getData();
+			
+			if (sender<0) {
+				sender = Thread.currentThread().getId();
+				firstAllocated = allocatedBytes();
+			}
+			
+			if (h264) {
+				// Single NAL unit: NAL unit + 4 bytes of length in the stream
+				// FU-A: fragment, plus NAL header and length on the first fragment
+				if ((data[rtphl()]&0x1F)!=28) consumed += length-rtphl()+4;
+				else consumed += length-rtphl()-2 + ((data[rtphl()+1]&0x80)!=0 ? 5 : 0);
+			}
+			
+			bytes += length-rtphl();
+			packets++;
+			last = System.nanoTime();
+			lastAllocated = allocatedBytes();
+		}
+		
+		long allocated() {
+			return lastAllocated-firstAllocated;
+		}
+		
+		private static int rtphl() {
+			return RTP_HEADER_LENGTH;
+		}
+		
+	}
+	
+	/** 
+	 * Plays the recorded stream back from memory.
+	 * For H.264 the packetizer buffers what it reads in a fifo without flow control, 
+	 * like a camera we never get too far ahead of what has been sent.
+	 */
+	private static class ReplayStream extends InputStream {
+
+		private static final int WINDOW = 200000;
+		
+		private final byte[] data;
+		private final MemorySink pace;
+		private int position = 0;
+		volatile boolean eof = false;
+		
+		/** 
+		 * The reading thread may be another thread than the sending one (H.264 producer),
+		 * the H.264 packetizer also skips the mp4 header from the thread that calls start()
+		 */
+		private long reader = -1, firstAllocated, lastAllocated;
+		
+		public ReplayStream(byte[] data, MemorySink pace) {
+			this.data = data;
+			this.pace = pace;
+		}
+		
+		public int read() {
+			byte[] b = new byte[1];
+			return read(b,0,1)<0 ? -1 : b[0]&0xFF;
+		}
+		
+		public int read(byte[] b, int off, int len) {
+			if (reader!=Thread.currentThread().getId()) {
+				reader = Thread.currentThread().getId();
+				firstAllocated = allocatedBytes();
+			}
+			
+			if (position>=data.length) {
+				eof = true;
+				return -1;
+			}
+			
+			if (pace!=null) {
+				while (position-pace.consumed>=WINDOW) LockSupport.parkNanos(20000);
+				len = (int) Math.min(len, WINDOW-(position-pace.consumed));
+			}
+			
+			len = Math.min(len, data.length-position);
+			System.arraycopy(data, position, b, off, len);
+			position += len;
+			lastAllocated = allocatedBytes();
+			return len;
+		}
+		
+		public int available() {
+			return data.length-position;
+		}
+		
+		long allocated(long sender) {
+			return reader==sender || reader<0 ? 0 : lastAllocated-firstAllocated;
+		}
+		
+	}
+	
+}
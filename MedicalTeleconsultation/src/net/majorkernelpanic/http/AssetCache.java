@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2012 GUIGUI Simon, fyhertz@gmail.com
+ * 
+ * This file is part of Spydroid (http://code.google.com/p/spydroid-ipcamera/)
+ * 
+ * Spydroid is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package net.majorkernelpanic.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.impl.cookie.DateUtils;
+
+import android.content.res.AssetManager;
+import android.util.Log;
+
+/**
+ * Holds in memory every file found under a directory of the assets.
+ * Assets can't change while the application runs, so they are read once and each one
+ * gets an ETag. Text files may also be stored gzipped.
+ */
+class AssetCache {
+
+	public static final String TAG = "AssetCache";
+	
+	private final static String[] extensions = new String[] {
+		"htm", "html", "gif", "jpg", "png", "js", "css", "json", "txt", "woff", "eot"
+	};
+
+	private final static String[] mimeMediaTypes = new String[] {
+		"text/html", "text/html", "image/gif", "image/jpeg",
+		"image/png", "text/javascript", "text/css", "application/json", 
+		"text/plain", "application/font-woff", "application/vnd.ms-fontobject"
+	};
+	
+	static class Asset {
+		final byte[] content;
+		/** null when the file does not compress well */
+		final byte[] gzipped;
+		final String mimeType, etag, gzippedEtag;
+		
+		Asset(byte[] content, byte[] gzipped, String mimeType) {
+			CRC32 crc = new CRC32();
+			crc.update(content);
+			this.content = content;
+			this.gzipped = gzipped;
+			this.mimeType = mimeType;
+			this.etag = "\""+Long.toHexString(crc.getValue())+"-"+Integer.toHexString(content.length)+"\"";
+			this.gzippedEtag = "\""+Long.toHexString(crc.getValue())+"-"+Integer.toHexString(content.length)+"-gz\"";
+		}
+	}
+	
+	private final HashMap<String, Asset> assets = new HashMap<String, Asset>();
+	private final AssetManager assetManager;
+	private final boolean compress;
+	private final byte[] tmp = new byte[4096];
+	
+	/** Assets have no modification date, we use the time the cache was built (HTTP dates have a precision of one second) */
+	final long lastModified = System.currentTimeMillis()/1000*1000;
+	final String lastModifiedHeader = DateUtils.formatDate(new Date(lastModified));
+	
+	/**
+	 * Loads every file found under root
+	 * @param assetManager The AssetManager of the application
+	 * @param root Directory of the assets, "www" for instance 
+	 * @param compress Whether text files should also be stored gzipped
+	 */
+	public AssetCache(AssetManager assetManager, String root, boolean compress) {
+		this.assetManager = assetManager;
+		this.compress = compress;
+		try {
+			load(root, "");
+		} catch (IOException e) {
+			Log.e(TAG,"Assets could not be listed: "+e.getMessage());
+		}
+		Log.d(TAG,assets.size()+" files loaded from assets/"+root);
+	}
+	
+	/** Returns the file, url is relative to the root: /index.htm for instance */
+	public Asset get(String url) {
+		return assets.get(url);
+	}
+	
+	private void load(String path, String url) throws IOException {
+		String[] children = assetManager.list(path);
+		
+		// AssetManager.list() returns an empty array for files
+		if (children.length==0) {
+			try {
+				assets.put(url, read(path, url));
+			} catch (IOException e) {
+				// An empty directory
+			}
+			return;
+		}
+		
+		for (String child : children) {
+			load(path+"/"+child, url+"/"+child);
+		}
+	}
+	
+	private Asset read(String path, String url) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		InputStream stream = assetManager.open(path, AssetManager.ACCESS_STREAMING);
+		int length;
+		
+		// AAPT compresses assets so we can't know their length before reading them
+		try {
+			while ((length = stream.read(tmp)) != -1) buffer.write(tmp, 0, length);
+		} finally {
+			stream.close();
+		}
+		
+		byte[] content = buffer.toByteArray();
+		String mimeType = getMimeMediaType(url);
+		byte[] gzipped = null;
+		
+		if (compress && (mimeType.startsWith("text/") || mimeType.equals("application/json"))) {
+			buffer.reset();
+			GZIPOutputStream gzip = new GZIPOutputStream(buffer);
+			gzip.write(content);
+			gzip.close();
+			// Not worth it for tiny files
+			if (buffer.size()<content.length*9/10) gzipped = buffer.toByteArray();
+		}
+		
+		return new Asset(content, gzipped, mimeType);
+	}
+	
+	static String getMimeMediaType(String fileName) {
+		String extension = fileName.substring(fileName.lastIndexOf(".")+1).toLowerCase(Locale.ENGLISH);
+		for (int i=0;i<extensions.length;i++) {
+			if (extensions[i].equals(extension)) 
+				return mimeMediaTypes[i];
+		}
+		return "application/octet-stream";
+	}
+	
+}
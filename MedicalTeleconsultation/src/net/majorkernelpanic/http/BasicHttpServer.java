@@ -47,10 +47,7 @@
 
 package net.majorkernelpanic.http;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
@@ -62,6 +59,7 @@ import java.net.URLDecoder;
 import java.util.Locale;
 
 import org.apache.http.ConnectionClosedException;
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpException;
@@ -70,12 +68,14 @@ import org.apache.http.HttpResponse;
 import org.apache.http.HttpServerConnection;
 import org.apache.http.HttpStatus;
 import org.apache.http.MethodNotSupportedException;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.ContentProducer;
 import org.apache.http.entity.EntityTemplate;
-import org.apache.http.entity.InputStreamEntity;
 import org.apache.http.impl.DefaultConnectionReuseStrategy;
 import org.apache.http.impl.DefaultHttpResponseFactory;
 import org.apache.http.impl.DefaultHttpServerConnection;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.CoreConnectionPNames;
 import org.apache.http.params.CoreProtocolPNames;
@@ -90,7 +90,6 @@ import org.apache.http.protocol.ResponseConnControl;
 import org.apache.http.protocol.ResponseContent;
 import org.apache.http.protocol.ResponseDate;
 import org.apache.http.protocol.ResponseServer;
-import org.apache.http.util.EntityUtils;
 
 import android.content.res.AssetManager;
 import android.util.Log;
@@ -98,7 +97,7 @@ import android.util.Log;
 /**
  * HTTP server based on this one: http://hc.apache.org/httpcomponents-core-ga/examples.html
  * You may add some logic to this server with addRequestHandler()
- * By default it serves files from /assets/www
+ * By default it serves files from /assets/www, they are loaded in memory by start()
  */
 public class BasicHttpServer {
 
@@ -110,6 +109,7 @@ public class BasicHttpServer {
     private HttpRequestHandlerRegistry registry = new HttpRequestHandlerRegistry();
 	private boolean firstStart = true;
 	private boolean running = false;
+	private boolean compressAssets = true;
     
     public BasicHttpServer(final int port, final AssetManager assetManager) {
         this.port = port;
@@ -126,10 +126,18 @@ public class BasicHttpServer {
     	registry.register(pattern, handler);
     }
     
+    /**
+     * Text files of /assets/www are also kept gzipped to be sent to the browsers that accept it, true by default
+     * Must be called before the first call to start()
+     */
+    public void setAssetCompression(boolean compress) {
+    	compressAssets = compress;
+    }
+    
     public void start() throws IOException {
     	if (running) return;
     	if (firstStart) {
-    		registry.register("*", new HttpFileHandler(assetManager));
+    		registry.register("*", new HttpFileHandler(new AssetCache(assetManager, "www", compressAssets)));
     		firstStart = false;
     	}
     	requestListenerThread = new RequestListenerThread(port, assetManager, registry);
@@ -210,20 +218,11 @@ public class BasicHttpServer {
     
     static class HttpFileHandler implements HttpRequestHandler  {
         
-    	private final static  String[] extensions = new String[] {
-    		"htm", "html", "gif", "jpg", "png", "js", "css",
-    	};
-
-    	private final static String[] mimeMediaTypes = new String[] {
-    		"text/html", "text/html", "image/gif", "image/jpeg",
-    		"image/png", "text/javascript", "text/css"
-    	};
-
-    	private final AssetManager assetManager;
+    	private final AssetCache assets;
     	
-        public HttpFileHandler(final AssetManager assetManager) {
+        public HttpFileHandler(final AssetCache assets) {
             super();
-            this.assetManager = assetManager;
+            this.assets = assets;
         }
         
         public void handle(
@@ -231,11 +230,6 @@ public class BasicHttpServer {
                 final HttpResponse response,
                 final HttpContext context) throws HttpException, IOException {
 
-        	ByteArrayOutputStream buffer = new ByteArrayOutputStream(64000);
-        	byte[] tmp = new byte[4096]; 
-            int length; 
-            
-        	
             final String method = request.getRequestLine().getMethod().toUpperCase(Locale.ENGLISH);
             if (!method.equals("GET") && !method.equals("HEAD") && !method.equals("POST")) {
                 throw new MethodNotSupportedException(method + " method not supported"); 
@@ -244,16 +238,17 @@ public class BasicHttpServer {
             final String url = URLDecoder.decode(request.getRequestLine().getUri());
             if (request instanceof HttpEntityEnclosingRequest) {
                 HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
-                byte[] entityContent = EntityUtils.toByteArray(entity);
-                Log.d(TAG,"Incoming entity content (bytes): " + entityContent.length);
+                if (entity != null) {
+                	Log.d(TAG,"Incoming entity content (bytes): " + entity.getContentLength());
+                	entity.consumeContent();
+                }
             }
             
-            InputStream stream = null;
-            try {
-            	Log.i(TAG,"Requested: \""+url+"\"");
-            	stream =  assetManager.open("www"+(url.equals("/")?"/index.htm":url),AssetManager.ACCESS_STREAMING);
-            }
-            catch (IOException e) {
+            Log.i(TAG,"Requested: \""+url+"\"");
+            final String path = url.indexOf('?')<0 ? url : url.substring(0, url.indexOf('?'));
+            AssetCache.Asset asset = assets.get(path.equals("/")?"/index.htm":path);
+            
+            if (asset == null) {
             	// File does not exist
             	response.setStatusCode(HttpStatus.SC_NOT_FOUND);
             	EntityTemplate body = new EntityTemplate(new ContentProducer() {
@@ -261,37 +256,62 @@ public class BasicHttpServer {
             			OutputStreamWriter writer = new OutputStreamWriter(outstream, "UTF-8"); 
             			writer.write("<html><body><h1>");
             			writer.write("File ");
-            			writer.write("www"+url);
+            			writer.write("www"+path);
             			writer.write(" not found");
             			writer.write("</h1></body></html>");
             			writer.flush();
             		}
             	});
-            	body.setContentType(getMimeMediaType(url)+"; charset=UTF-8");
+            	body.setContentType("text/html; charset=UTF-8");
             	response.setEntity(body);
-            	Log.d(TAG,"File " + "www" + url + " not found");
+            	Log.d(TAG,"File " + "www" + path + " not found");
             	return;
-
             }
 
-            // File exist
-            // AAPT compresses assets so first we need to uncompress them to determine their length
-            while ((length = stream.read(tmp)) != -1) buffer.write(tmp, 0, length);
-            response.setEntity(new InputStreamEntity(new ByteArrayInputStream(buffer.toByteArray()), buffer.size()));
+            // File exists, the gzipped version is sent when the client accepts it
+            boolean gzip = asset.gzipped != null && acceptsGzip(request);
+            String etag = gzip ? asset.gzippedEtag : asset.etag;
+            
+            response.addHeader("ETag", etag);
+            response.addHeader("Last-Modified", assets.lastModifiedHeader);
+            if (asset.gzipped != null) response.addHeader("Vary", "Accept-Encoding");
+            
+            if (isNotModified(request, etag)) {
+            	response.setStatusCode(HttpStatus.SC_NOT_MODIFIED);
+            	Log.d(TAG,"File " + "www" + path + " not modified");
+            	return;
+            }
+            
+            // The entity is written straight from the cache
+            ByteArrayEntity body = new ByteArrayEntity(gzip ? asset.gzipped : asset.content);
+            body.setContentType(asset.mimeType);
+            if (gzip) body.setContentEncoding("gzip");
+            response.setEntity(body);
             response.setStatusCode(HttpStatus.SC_OK);
-            Log.d(TAG,"Serving file " + "www" + url);
-            stream.close();
-            buffer.flush(); 
-            buffer.reset();            
+            Log.d(TAG,"Serving file " + "www" + path);
+        }
+        
+        private boolean acceptsGzip(HttpRequest request) {
+        	Header header = request.getFirstHeader("Accept-Encoding");
+        	return header != null && header.getValue().toLowerCase(Locale.ENGLISH).indexOf("gzip") >= 0;
         }
         
-        private String getMimeMediaType(String fileName) {
-        	String extension = fileName.substring(fileName.lastIndexOf(".")+1, fileName.length()-1);
-        	for (int i=0;i<extensions.length;i++) {
-        		if (extensions[i]==extension) 
-        			return mimeMediaTypes[i];
+        /** Conditional GET, If-None-Match takes precedence over If-Modified-Since */
+        private boolean isNotModified(HttpRequest request, String etag) {
+        	Header header = request.getFirstHeader("If-None-Match");
+        	if (header != null) {
+        		String value = header.getValue();
+        		return value.equals("*") || value.indexOf(etag) >= 0;
+        	}
+        	header = request.getFirstHeader("If-Modified-Since");
+        	if (header != null) {
+        		try {
+        			return DateUtils.parseDate(header.getValue()).getTime() >= assets.lastModified;
+        		} catch (DateParseException e) {
+        			return false;
+        		}
         	}
-        	return mimeMediaTypes[0];
+        	return false;
         }
         
     }
@@ -59,12 +59,41 @@ public class MP4Config {
 		return stsdBox.getProfileLevel();
 	}
 	
+	/** Returns the first PPS found in the file */
 	public String getB64PPS() {
-		return stsdBox.getB64PPS();
+		return stsdBox.getB64PPS(0);
 	}
 	
+	/** Returns the first SPS found in the file */
 	public String getB64SPS() {
-		return stsdBox.getB64SPS();
+		return stsdBox.getB64SPS(0);
+	}
+	
+	public int getSPSCount() {
+		return stsdBox.getSPSCount();
+	}
+	
+	public int getPPSCount() {
+		return stsdBox.getPPSCount();
+	}
+	
+	public String getB64SPS(int i) {
+		return stsdBox.getB64SPS(i);
+	}
+	
+	public String getB64PPS(int i) {
+		return stsdBox.getB64PPS(i);
+	}
+	
+	/**
+	 * Returns every SPS followed by every PPS, base64 encoded and separated by commas,
+	 * as expected by the sprop-parameter-sets parameter of the SDP (RFC 3984)
+	 */
+	public String getSpropParameterSets() {
+		StringBuilder s = new StringBuilder();
+		for (int i=0;i<stsdBox.getSPSCount();i++) s.append(stsdBox.getB64SPS(i)).append(',');
+		for (int i=0;i<stsdBox.getPPSCount();i++) s.append(stsdBox.getB64PPS(i)).append(',');
+		return s.substring(0, s.length()-1);
 	}
 	
 }
\ No newline at end of file
@@ -21,142 +21,328 @@
 package net.majorkernelpanic.mp4;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 
 import android.util.Base64;
 import android.util.Log;
 
-
+/**
+ * Builds an index of every box of an mp4 file in one pass.
+ * Top level boxes are located with a few positional reads on the file channel,
+ * the ones that hold metadata (moov, moof...) are then memory-mapped and walked
+ * in place, so that mdat is never read. 64 bits boxes (largesize) are supported.
+ * A box that runs past the end of the file (interrupted recording) is cut there.
+ */
 public class MP4Parser {
 
 	private static final String TAG = "MP4Parser";
-	
-	private HashMap<String, Long> boxes = new HashMap<String, Long>();
-	private final RandomAccessFile fis;
-	private long pos = 0;
-	private byte[] buffer = new byte[8];
-	
+
+	/** Boxes that only contain other boxes */
+	private static final HashSet<String> CONTAINERS = new HashSet<String>(Arrays.asList(new String[] {
+			"moov","trak","edts","mdia","minf","dinf","stbl","mvex","moof","traf","mfra","udta","meta","ilst","tref","sinf","schi"
+	}));
+
+	/** Sample entries of the stsd box that describe a video track (ISO/IEC 14496-12, 8.5.2) */
+	private static final HashSet<String> VISUAL_SAMPLE_ENTRIES = new HashSet<String>(Arrays.asList(new String[] {
+			"avc1","avc3","encv","mp4v","s263","hvc1","hev1"
+	}));
+
+	/** Sample entries of the stsd box that describe an audio track */
+	private static final HashSet<String> AUDIO_SAMPLE_ENTRIES = new HashSet<String>(Arrays.asList(new String[] {
+			"mp4a","enca","samr","sawb"
+	}));
+
+	private final HashMap<String, ArrayList<Box>> boxes = new HashMap<String, ArrayList<Box>>();
+	private final ArrayList<Box> roots = new ArrayList<Box>();
+	private final FileChannel channel;
+	private final ByteBuffer header = ByteBuffer.allocate(16);
+
 	public MP4Parser(final RandomAccessFile fis) throws IOException {
 		long length = 0;
-		
-		this.fis = fis;
+
+		this.channel = fis.getChannel();
 		try {
-			length = fis.length();
+			length = channel.size();
 		} catch (IOException e) {
 			throw new IOException("Wrong size");
 		}
-		
-		if (!parse("",length)) throw new IOException("MP4 Parsing error");
+
+		parse(length);
 	}
-	
+
+	/** Returns the position in the file of the first box found at the given path, /moov/trak for instance */
 	public long getBoxPos(String box) throws IOException {
-		Long r = boxes.get(box);
-		
-		if (r==null) throw new IOException("box not found: "+box);
-		return boxes.get(box);
+		return getBox(box).offset;
+	}
+
+	/** Returns the first box found at the given path */
+	public Box getBox(String path) throws IOException {
+		List<Box> r = boxes.get(path);
+
+		if (r==null) throw new IOException("box not found: "+path);
+		return r.get(0);
 	}
-	
+
+	/** Returns every box found at the given path, in file order (there is one /moov/trak per track for instance) */
+	public List<Box> getBoxes(String path) {
+		List<Box> r = boxes.get(path);
+		if (r==null) return Collections.emptyList();
+		return Collections.unmodifiableList(r);
+	}
+
+	/** Returns the top level boxes of the file, their children form the complete box tree */
+	public List<Box> getRootBoxes() {
+		return Collections.unmodifiableList(roots);
+	}
+
 	public StsdBox getStsdBox() throws IOException {
-		try {
-			return new StsdBox(fis,getBoxPos("/moov/trak/mdia/minf/stbl/stsd"));
-		} catch (IOException e) {
-			throw new IOException("Error: stsd box could not be found");
+		for (String entry : new String[] {"avc1","avc3"}) {
+			for (Box avcC : getBoxes("/moov/trak/mdia/minf/stbl/stsd/"+entry+"/avcC")) {
+				return new StsdBox(avcC.getPayload());
+			}
 		}
+		throw new IOException("Error: stsd box could not be found");
 	}
-	
-	private boolean parse(String path, long len) {
-		String name="";
-		long sum = 0, newlen = 0;
 
-		boxes.put(path, pos-8);
-		
-		try {
+	private void parse(long length) throws IOException {
+		long pos = 0, size;
+		int headerSize;
+		String type;
 
-			while (sum<len) {
-				
-				fis.read(buffer,0,8); sum += 8; pos += 8;
-				if (validBoxName()) {
-					
-					newlen = ( buffer[3]&0xFF | (buffer[2]&0xFF)<<8 | (buffer[1]&0xFF)<<16 | (buffer[0]&0xFF)<<24 ) - 8;
-					if (newlen<0) return false;
-					name = new String(buffer,4,4);
-					Log.d(TAG,"Atom -> name: "+name+" newlen: "+newlen);
-					sum += newlen;
-					if (!parse(path+'/'+name,newlen)) return false;
-					
-				}
-				else {
-					if( len < 8){
-						fis.seek(fis.getFilePointer() - 8 + len);
-						sum += len-8;
-					} else {
-						fis.skipBytes((int) (len-8)); pos += len-8;
-						sum += len-8;
-					}
-				}
+		while (length-pos>=8) {
+
+			header.clear();
+			while (header.hasRemaining() && channel.read(header, pos+header.position())>0);
+			if (header.position()<8) throw new IOException("MP4 Parsing error");
+
+			size = header.getInt(0)&0xFFFFFFFFL;
+			type = fourcc(header,4);
+			headerSize = 8;
+			if (size==1) {
+				if (header.position()<16) throw new IOException("MP4 Parsing error: truncated box "+type);
+				size = header.getLong(8);
+				headerSize = 16;
+			} else if (size==0) {
+				// The box extends to the end of the file
+				size = length-pos;
 			}
-			
-		} catch (IOException e) {
-			return false;
+			if (size<headerSize) throw new IOException("MP4 Parsing error: wrong size for box "+type);
+			if (size>length-pos) {
+				// Truncated file (e.g. an interrupted recording), the last box stops at the end of the file
+				Log.w(TAG,"Box "+type+" is truncated: "+size+" bytes announced, "+(length-pos)+" available");
+				size = length-pos;
+			}
+
+			Box box = new Box(null, type, pos, size, headerSize);
+			Log.d(TAG,"Atom -> name: "+type+" size: "+size);
+			add(box);
+
+			if (CONTAINERS.contains(type)) {
+				if (size>Integer.MAX_VALUE) throw new IOException("MP4 Parsing error: box "+type+" is too large to be mapped");
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, pos, size);
+				box.data = buffer;
+				parseChildren(box, buffer, headerSize, (int) size);
+			}
+
+			pos += size;
+		}
+
+	}
+
+	/** Walks the boxes stored in buffer between start and end, buffer starts at the first byte of the top level box */
+	private void parseChildren(Box parent, ByteBuffer buffer, int start, int end) throws IOException {
+		int pos = start, headerSize;
+		long size;
+		String type;
+
+		while (end-pos>=8) {
+
+			size = buffer.getInt(pos)&0xFFFFFFFFL;
+			type = fourcc(buffer,pos+4);
+			headerSize = 8;
+			if (size==1) {
+				if (end-pos<16) throw new IOException("MP4 Parsing error: truncated box "+type);
+				size = buffer.getLong(pos+8);
+				headerSize = 16;
+			} else if (size==0) {
+				size = end-pos;
+			}
+			if (size<headerSize) throw new IOException("MP4 Parsing error: wrong size for box "+parent.path+"/"+type);
+			if (size>end-pos) {
+				Log.w(TAG,"Box "+parent.path+"/"+type+" is truncated: "+size+" bytes announced, "+(end-pos)+" available");
+				size = end-pos;
+			}
+
+			Box box = new Box(parent, type, parent.root().offset+pos, size, headerSize);
+			box.data = parent.root().data;
+			add(box);
+
+			int payload = pos+headerSize, next = (int) (pos+size);
+			if (type.equals("meta") && next-payload>=4 && buffer.getInt(payload)==0) {
+				// In ISO files meta is a full box, in QuickTime files it is a plain container
+				payload += 4;
+			}
+
+			if (type.equals("stsd")) {
+				// Full box header + entry count, then the sample entries
+				parseChildren(box, buffer, payload+8, next);
+			} else if (VISUAL_SAMPLE_ENTRIES.contains(type) && parent.type.equals("stsd")) {
+				// VisualSampleEntry fields take 78 bytes before the child boxes (avcC, btrt, pasp...)
+				parseChildren(box, buffer, payload+78, next);
+			} else if (AUDIO_SAMPLE_ENTRIES.contains(type) && parent.type.equals("stsd")) {
+				// AudioSampleEntry fields take 28 bytes before the child boxes (esds, damr...)
+				parseChildren(box, buffer, payload+28, next);
+			} else if (CONTAINERS.contains(type)) {
+				parseChildren(box, buffer, payload, next);
+			}
+
+			pos = next;
 		}
-		return true;
-		
+
 	}
 
-	private boolean validBoxName() {
-		for (int i=0;i<4;i++) {
-			if ((buffer[i+4]<97 || buffer[i+4]>122) && (buffer[i+4]<48 || buffer[i+4]>57) ) return false;
+	private void add(Box box) {
+		ArrayList<Box> list = boxes.get(box.path);
+		if (list==null) {
+			list = new ArrayList<Box>(1);
+			boxes.put(box.path, list);
 		}
-		return true;
+		list.add(box);
+		if (box.parent==null) roots.add(box);
+		else box.parent.children.add(box);
+	}
+
+	private static String fourcc(ByteBuffer buffer, int pos) {
+		char[] c = new char[4];
+		for (int i=0;i<4;i++) c[i] = (char) (buffer.get(pos+i)&0xFF);
+		return new String(c);
 	}
-	
-	
-	
+
+	/**
+	 * A box of the mp4 file.
+	 * offset and size are expressed in bytes and include the box header.
+	 */
+	public static class Box {
+
+		public final String type, path;
+		public final long offset, size;
+		public final int headerSize;
+
+		private final Box parent;
+		private final ArrayList<Box> children = new ArrayList<Box>(0);
+
+		/** Mapping of the top level box holding this box, null for boxes that are not mapped (mdat...) */
+		private ByteBuffer data;
+
+		private Box(Box parent, String type, long offset, long size, int headerSize) {
+			this.parent = parent;
+			this.type = type;
+			this.path = (parent==null ? "" : parent.path)+'/'+type;
+			this.offset = offset;
+			this.size = size;
+			this.headerSize = headerSize;
+		}
+
+		public Box getParent() {
+			return parent;
+		}
+
+		public List<Box> getChildren() {
+			return Collections.unmodifiableList(children);
+		}
+
+		/**
+		 * Returns a read-only view of the content of the box (header excluded).
+		 * Only available for boxes that are located inside a container (/moov/...).
+		 */
+		public ByteBuffer getPayload() throws IOException {
+			if (data==null) throw new IOException("box "+path+" is not mapped");
+			ByteBuffer payload = data.asReadOnlyBuffer();
+			int start = (int) (offset-root().offset)+headerSize;
+			payload.position(start);
+			payload.limit((int) (start+size-headerSize));
+			return payload.slice();
+		}
+
+		private Box root() {
+			Box box = this;
+			while (box.parent!=null) box = box.parent;
+			return box;
+		}
+
+	}
+
 }
 
 class StsdBox {
 
-	private RandomAccessFile fis;
-	private byte[] buffer = new byte[4];
-	private long pos = 0;
-	
-	private byte[] pps;
-	private byte[] sps;
-	private int spsLength, ppsLength;
-	
-	/** Parse the sdsd box in an mp4 file
-	 * fis: proper mp4 file
-	 * pos: stsd box's position in the file
+	private int profile, compatibility, level, lengthSize;
+	private byte[][] sps;
+	private byte[][] pps;
+
+	/** Parse the avcC box found in the stsd box of an mp4 file
+	 * avcC: content of the avcC box
 	 */
-	public StsdBox (RandomAccessFile fis, long pos) {
+	public StsdBox (ByteBuffer avcC) throws IOException {
+
+		try {
+			parseDecoderConfigurationRecord(avcC);
+		} catch (RuntimeException e) {
+			// BufferUnderflowException, NegativeArraySizeException...
+			throw new IOException("Error: invalid avcC box");
+		}
+		if (sps.length==0 || pps.length==0) throw new IOException("Error: no SPS or PPS found in the avcC box");
 
-		this.fis = fis;
-		this.pos = pos;
-		
-		findBoxAvcc();
-		findSPSandPPS();
-		
 	}
-	
+
 	public String getProfileLevel() {
-		return toHexString(sps,1,3);
+		return toHexString(new byte[] {(byte) profile,(byte) compatibility,(byte) level},0,3);
+	}
+
+	/** Returns the size in bytes of the NAL unit length fields of the samples */
+	public int getNALLengthSize() {
+		return lengthSize;
 	}
-	
-	public String getB64PPS() {
-		return Base64.encodeToString(pps, 0, ppsLength, Base64.NO_WRAP);
+
+	public int getSPSCount() {
+		return sps.length;
+	}
+
+	public int getPPSCount() {
+		return pps.length;
+	}
+
+	public String getB64PPS(int i) {
+		return Base64.encodeToString(pps[i], Base64.NO_WRAP);
+	}
+
+	public String getB64SPS(int i) {
+		return Base64.encodeToString(sps[i], Base64.NO_WRAP);
+	}
+
+	public byte[] getSPS(int i) {
+		return sps[i].clone();
 	}
-	
-	public String getB64SPS() {
-		return Base64.encodeToString(sps, 0, spsLength, Base64.NO_WRAP);
+
+	public byte[] getPPS(int i) {
+		return pps[i].clone();
 	}
-	
-	private boolean findSPSandPPS() {
+
+	private void parseDecoderConfigurationRecord(ByteBuffer buffer) {
 		/*
 		 *  SPS and PPS parameters are stored in the avcC box
-		 *  You may find really useful information about this box 
+		 *  You may find really useful information about this box
 		 *  in the document ISO-IEC 14496-15, part 5.2.4.1.1
 		 *  The box's structure is described there
-		 *  
+		 *
 		 *  aligned(8) class AVCDecoderConfigurationRecord {
 		 *		unsigned int(8) configurationVersion = 1;
 		 *		unsigned int(8) AVCProfileIndication;
@@ -177,45 +363,29 @@ class StsdBox {
 		 *		}
 		 *	}
 		 *
-		 *  
-		 *  
+		 *  Profile specific extensions (chroma format, bit depth...) may follow, we ignore them.
 		 */
-		try {
-			
-			// TODO: Here we assume that numOfSequenceParameterSets = 1, numOfPictureParameterSets = 1 !
-			// Here we extract the SPS parameter
-			fis.skipBytes(7);
-			spsLength  = 0xFF&fis.readByte();
-			sps = new byte[spsLength];
-			fis.read(sps,0,spsLength);
-			// Here we extract the PPS parameter
-			fis.skipBytes(2);
-			ppsLength = 0xFF&fis.readByte();
-			pps = new byte[ppsLength];
-			fis.read(pps,0,ppsLength);
-			
-		} catch (IOException e) {
-			return false;
+
+		buffer.get(); // configurationVersion
+		profile = buffer.get()&0xFF;
+		compatibility = buffer.get()&0xFF;
+		level = buffer.get()&0xFF;
+		lengthSize = (buffer.get()&0x03)+1;
+
+		sps = new byte[buffer.get()&0x1F][];
+		for (int i=0;i<sps.length;i++) {
+			sps[i] = new byte[buffer.getShort()&0xFFFF];
+			buffer.get(sps[i]);
 		}
-		
-		return true;
-	}
-	
-	private boolean findBoxAvcc() {
-		try {
-			fis.seek(pos+8);
-			while (true) {
-				while (fis.read() != 'a');
-				fis.read(buffer,0,3);
-				if (buffer[0] == 'v' && buffer[1] == 'c' && buffer[2] == 'C') break;
-			}
-		} catch (IOException e) {
-			return false;
+
+		pps = new byte[buffer.get()&0xFF][];
+		for (int i=0;i<pps.length;i++) {
+			pps[i] = new byte[buffer.getShort()&0xFFFF];
+			buffer.get(pps[i]);
 		}
-		return true;
-		
+
 	}
-	
+
 	static private String toHexString(byte[] buffer,int start, int len) {
 		String c;
 		StringBuilder s = new StringBuilder();
@@ -225,5 +395,5 @@ class StsdBox {
 		}
 		return s.toString();
 	}
-	
+
 }
@@ -30,6 +30,7 @@ import net.majorkernelpanic.streaming.audio.AMRNBStream;
 import net.majorkernelpanic.streaming.audio.GenericAudioStream;
 import net.majorkernelpanic.streaming.video.H263Stream;
 import net.majorkernelpanic.streaming.video.H264Stream;
+import net.majorkernelpanic.streaming.video.PreviewJpegSource;
 import net.majorkernelpanic.streaming.video.VideoQuality;
 import net.majorkernelpanic.streaming.video.VideoStream;
 import android.hardware.Camera.CameraInfo;
@@ -63,6 +64,7 @@ public class Session {
 	public static VideoQuality defaultVideoQuality = VideoQuality.defaultVideoQualiy.clone();
 	private static int defaultVideoEncoder = VIDEO_H264, defaultAudioEncoder = AUDIO_AMRNB;
 	private static int defaultCamera = CameraInfo.CAMERA_FACING_FRONT;
+	private static int defaultAudioPacketTime = 20;
 	
 	// Indicates if a session is already streaming audio or video
 	private static boolean cameraInUse = false;
@@ -95,11 +97,26 @@ public class Session {
 		defaultAudioEncoder = encoder;
 	}
 	
+	/** Set the audio duration (in ms) sent in each RTP packet by AMR and AAC tracks, it will be used by addAudioTrack */
+	public static void setDefaultAudioPacketTime(int ms) {
+		defaultAudioPacketTime = ms;
+	}
+	
 	/** Set the default video encoder, it will be used by addVideoTrack() */
 	public static void setDefaultVideoEncoder(int encoder) {
 		defaultVideoEncoder = encoder;
 	}
 	
+	/** Returns the camera used by addVideoTrack() */
+	public static int getDefaultCamera() {
+		return defaultCamera;
+	}
+	
+	/** Returns true while a session records video */
+	public static boolean isCameraInUse() {
+		return cameraInUse;
+	}
+	
 	/** Set the Surface required by MediaRecorder to record video */
 	public static void setSurfaceHolder(SurfaceHolder sh) {
 		surfaceHolder = sh;
@@ -133,6 +150,9 @@ public class Session {
 		Stream stream = null;
 		VideoQuality.merge(videoQuality,defaultVideoQuality);
 		
+		// The camera may be opened by the MJPEG viewers of the HTTP server
+		PreviewJpegSource.getInstance().suspend();
+		
 		switch (encoder) {
 		case VIDEO_H264:
 			Log.d(TAG,"Video streaming: H.264");
@@ -170,6 +190,7 @@ public class Session {
 		case AUDIO_AMRNB:
 			Log.d(TAG,"Audio streaming: AMR");
 			stream = new AMRNBStream();
+			((AMRNBStream) stream).setPacketTime(defaultAudioPacketTime);
 			break;
 		case AUDIO_ANDROID_AMR:
 			Log.d(TAG,"Audio streaming: GENERIC");
@@ -179,6 +200,7 @@ public class Session {
 			if (Integer.parseInt(android.os.Build.VERSION.SDK)<14) throw new IllegalStateException("This phone does not support AAC :/");
 			Log.d(TAG,"Audio streaming: AAC (experimental)");
 			stream = new AACStream();
+			((AACStream) stream).setPacketTime(defaultAudioPacketTime);
 			break;
 		}
 		
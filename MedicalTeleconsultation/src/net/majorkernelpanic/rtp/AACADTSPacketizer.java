@@ -22,25 +22,42 @@ package net.majorkernelpanic.rtp;
 
 import java.io.IOException;
 
-import android.util.Log;
-
 /**
  * RFC 3640  
  *
  * This packetizer must be fed with an InputStream containing ADTS AAC. 
  * AAC will basically be rewrapped in an RTP stream and sent over the network.
  * This packetizer only implements the aac-hbr mode (High Bit-rate AAC) and
- * each packet only carry a single and complete AAC access unit.
+ * each packet carries one or more complete AAC access units, see setFramesPerPacket().
  * 
  */
 public class AACADTSPacketizer extends AbstractPacketizer implements Runnable {
 
 	private final static String TAG = "AACADTSPacketizer";
 	
+	/** An access unit lasts 128 ms at 8 kHz, 2 access units (256 ms) is the upper bound we allow in one packet */
+	public static final int MAX_FRAMES_PER_PACKET = 2;
+	
+	private int framesPerPacket = 1;
+	private byte[] header = new byte[7];
+	
 	public AACADTSPacketizer() {
 		super();
 	}
 
+	/** 
+	 * Number of access units (1024 samples each) carried by each RTP packet, 1 by default.
+	 * Less access units are sent when they would not fit in the MTU.
+	 * Must be called before start().
+	 */
+	public void setFramesPerPacket(int n) {
+		framesPerPacket = Math.max(1, Math.min(n, MAX_FRAMES_PER_PACKET));
+	}
+	
+	public int getFramesPerPacket() {
+		return framesPerPacket;
+	}
+
 	public void start() {
 		if (!running) {
 			running = true;
@@ -56,56 +73,97 @@ public class AACADTSPacketizer extends AbstractPacketizer implements Runnable {
 		
 		// Adts header fields that we need to parse
 		boolean protection;
-		int frameLength, ts=0;
+		int frameLength, count = 0, n = framesPerPacket;
+		long ts = 0;
+		
+		// The AU-headers section is made of a 16 bits AU-headers-length field followed by 
+		// one 16 bits AU-header per access unit, the access units follow
+		final int auOffset = rtphl+2+2*n;
+		int offset = auOffset;
 
 		try {
 			while (running) {
 
 				// Parse adts header (ADTS packets start with a 7 or 9 byte long header)
-				is.read(buffer,rtphl,7);
+				fill(header,0,7);
 				// The protection bit indicates whether or not the header contains the two extra bytes
-				protection = (buffer[rtphl+1]&0x01)>0 ? true : false;
-				frameLength = (buffer[rtphl+3]&0x03) << 11 | 
-							  (buffer[rtphl+4]&0xFF) << 3 | 
-							  (buffer[rtphl+5]&0xFF) >> 5 ;
+				protection = (header[1]&0x01)>0 ? true : false;
+				frameLength = (header[3]&0x03) << 11 | 
+							  (header[4]&0xFF) << 3 | 
+							  (header[5]&0xFF) >> 5 ;
 				frameLength -= (protection ? 7 : 9);
 				
 				//Log.d(TAG,"frameLength: "+frameLength+" protection: "+protection);
 				
 				// Read CRS if any
-				if (!protection) is.read(buffer,rtphl,2);
-				
-				// Read frame
-				is.read(buffer,rtphl+4,frameLength);
+				if (!protection) fill(header,0,2);
 				
-				// AU-headers-length field: contains the size in bits of a AU-header
-				buffer[rtphl] = 0;
-				buffer[rtphl+1] = 0x10; // 13+3 = 16 bits -> 13bits for AU-size and 3bits for AU-Index / AU-Index-delta 
+				// This access unit does not fit in the current packet, we send what we have
+				if (count>0 && offset+frameLength>RtpSocket.MTU) {
+					send(count, offset, ts);
+					ts += 1024*count;
+					count = 0;
+					offset = auOffset;
+				}
 				
-				// AU-size
-				buffer[rtphl+2] = (byte) (frameLength>>5);
-				buffer[rtphl+3] = (byte) (frameLength<<3);
+				// Read frame
+				fill(buffer,offset,frameLength);
+				offset += frameLength;
 				
-				// AU-Index
-				buffer[rtphl+3] &= 0xF8;
-				buffer[rtphl+3] |= 0x00;
+				// AU-size (13 bits), the AU-Index / AU-Index-delta (3 bits) is always 0
+				// because the access units are consecutive
+				buffer[rtphl+2+2*count] = (byte) (frameLength>>5);
+				buffer[rtphl+3+2*count] = (byte) ((frameLength<<3)&0xF8);
+				count++;
 				
-				socket.markNextPacket();
-				ts += 1024;
-				socket.updateTimestamp(ts);
-				socket.send(rtphl+frameLength+4);
+				if (count==n) {
+					send(count, offset, ts);
+					ts += 1024*count;
+					count = 0;
+					offset = auOffset;
+				}
 
 			}
 		} catch (IOException e) {
-			Log.e(TAG,"IOException: "+e.getMessage());
+			log.e(TAG,"IOException: "+e.getMessage());
 			e.printStackTrace();
 		} catch (ArrayIndexOutOfBoundsException e) {
-			Log.e(TAG,"ArrayIndexOutOfBoundsException: "+e.getMessage());
+			log.e(TAG,"ArrayIndexOutOfBoundsException: "+e.getMessage());
 			e.printStackTrace();
 		} finally {
 			running = false;
 		}
 		
 	}
+	
+	/** 
+	 * Sends the count access units stored in the buffer, the AU-headers section 
+	 * is shrunk if the packet holds less access units than framesPerPacket
+	 */
+	private void send(int count, int length, long ts) throws IOException {
+		int gap = 2*(framesPerPacket-count);
+		
+		if (gap>0) {
+			System.arraycopy(buffer, rtphl+2+2*framesPerPacket, buffer, rtphl+2+2*count, length-(rtphl+2+2*framesPerPacket));
+			length -= gap;
+		}
+		
+		// AU-headers-length field: contains the size in bits of the AU-headers
+		buffer[rtphl] = (byte) ((16*count)>>8);
+		buffer[rtphl+1] = (byte) (16*count);
+		
+		socket.markNextPacket();
+		socket.updateTimestamp(ts);
+		socket.send(length);
+	}
+	
+	private void fill(byte[] b, int offset, int length) throws IOException {
+		int sum = 0, len;
+		while (sum<length) {
+			len = is.read(b, offset+sum, length-sum);
+			if (len<0) throw new IOException("End of stream");
+			sum += len;
+		}
+	}
 
 }
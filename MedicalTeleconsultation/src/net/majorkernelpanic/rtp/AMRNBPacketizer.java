@@ -23,9 +23,6 @@ package net.majorkernelpanic.rtp;
 
 import java.io.IOException;
 
-import android.os.SystemClock;
-import android.util.Log;
-
 /**
  * 
  *   RFC 3267
@@ -35,6 +32,9 @@ import android.util.Log;
  *   Must be fed with an InputStream containing raw amr nb
  *   Stream must begin with a 6 bytes long header: "#!AMR\n", it will be skipped
  *   
+ *   Several frames can be sent in one RTP packet (octet-aligned mode, one TOC entry per frame),
+ *   see setFramesPerPacket()
+ *   
  */
 public class AMRNBPacketizer extends AbstractPacketizer implements Runnable {
 	
@@ -47,11 +47,28 @@ public class AMRNBPacketizer extends AbstractPacketizer implements Runnable {
         4750, 5150, 5900, 6700, 7400, 7950, 1020, 1220
     };
     private static final int[] sFrameBits = {95, 103, 118, 134, 148, 159, 204, 244};
+    
+    /** A frame lasts 20 ms, 12 frames (240 ms) is the upper bound we allow in one packet */
+    public static final int MAX_FRAMES_PER_PACKET = 12;
 	
+    private int framesPerPacket = 1;
+    
 	public AMRNBPacketizer() {
 		super();
 	}
 
+	/** 
+	 * Number of AMR frames (20 ms each) carried by each RTP packet, 1 by default.
+	 * Must be called before start().
+	 */
+	public void setFramesPerPacket(int n) {
+		framesPerPacket = Math.max(1, Math.min(n, MAX_FRAMES_PER_PACKET));
+	}
+	
+	public int getFramesPerPacket() {
+		return framesPerPacket;
+	}
+
 	public void start() {
 		if (!running) {
 			running = true;
@@ -65,44 +82,71 @@ public class AMRNBPacketizer extends AbstractPacketizer implements Runnable {
 	
 	public void run() {
 	
-		int frameLength, frameType;
+		int frameLength, frameType, toc, offset, count, n = framesPerPacket;
 		long ts = 0;
 		
 		// Skip raw amr header
 		fill(rtphl,AMR_HEADER_LENGTH);
 		
+		// CMR: no mode request
 		buffer[rtphl] = (byte) 0xF0;
 		
+		// RFC 3267 Page 14: 
+		// "For AMR, the sampling frequency is 8 kHz, corresponding to
+		// 160 encoded speech samples per frame from each channel."
+		// The first packet starts a talkspurt
+		socket.markNextPacket();
+		
 		try {
 			while (running) {
 
-				// First we read the frame header
-				fill(rtphl+1,AMR_FRAME_HEADER_LENGTH);
-
-				// Then we calculate the frame payload length
-				frameType = (Math.abs(buffer[rtphl + 1]) >> 3) & 0x0f;
-				frameLength = (sFrameBits[frameType]+7)/8;
-
-				// And we read the payload
-				fill(rtphl+2,frameLength);
+				// The payload is made of the CMR, then a table of contents with one entry 
+				// per frame, then the frames themselves (RFC 3267, 4.4)
+				offset = rtphl+1+n;
+				count = 0;
+				
+				while (count<n) {
+					
+					toc = rtphl+1+count;
+					
+					// The frame header of the raw amr stream is identical to a TOC entry 
+					if (fill(toc,AMR_FRAME_HEADER_LENGTH)<AMR_FRAME_HEADER_LENGTH) break;
 
-				//Log.d(TAG,"Frame length: "+frameLength+" frameType: "+frameType);
+					// Then we calculate the frame payload length
+					frameType = (Math.abs(buffer[toc]) >> 3) & 0x0f;
+					frameLength = (sFrameBits[frameType]+7)/8;
 
-				// RFC 3267 Page 14: 
-				// "For AMR, the sampling frequency is 8 kHz, corresponding to
-				// 160 encoded speech samples per frame from each channel."
-				socket.updateTimestamp(ts); ts+=160;
-				socket.markNextPacket();
+					// And we read the payload
+					if (fill(offset,frameLength)<frameLength) break;
+					offset += frameLength;
+					
+					// The F bit tells that another TOC entry follows
+					buffer[toc] |= 0x80;
+					count++;
 
-				socket.send(rtphl+1+AMR_FRAME_HEADER_LENGTH+frameLength);
+					//Log.d(TAG,"Frame length: "+frameLength+" frameType: "+frameType);
+				}
+				
+				// End of stream before the first frame of the packet
+				if (count==0) break;
+				
+				// End of stream, the packet is partially filled: the unused TOC entries are removed
+				if (count<n) {
+					System.arraycopy(buffer, rtphl+1+n, buffer, rtphl+1+count, offset-(rtphl+1+n));
+					offset -= n-count;
+				}
+				buffer[rtphl+count] &= 0x7F;
+				
+				socket.updateTimestamp(ts); ts+=160*count;
+				socket.send(offset);
 			}
 		} catch (IOException e) {
 			running = false;
-			Log.e(TAG,"IOException: "+e.getMessage());
+			log.e(TAG,"IOException: "+e.getMessage());
 			e.printStackTrace();
 		}
 		
-		Log.d(TAG,"Packetizer stopped !");
+		log.d(TAG,"Packetizer stopped !");
 		
 	}
 
@@ -115,8 +159,9 @@ public class AMRNBPacketizer extends AbstractPacketizer implements Runnable {
 			try { 
 				len = is.read(buffer, offset+sum, length-sum);
 				if (len<0) {
-					Log.d(TAG,"End of stream");
+					log.d(TAG,"End of stream");
 					running = false;
+					return sum;
 				}
 				else sum+=len;
 			} catch (IOException e) {
@@ -36,6 +36,8 @@ abstract public class AbstractPacketizer {
 	protected InputStream is = null;
 	protected boolean running = false;
 	protected byte[] buffer;
+	protected Clock clock = Clock.SYSTEM;
+	protected Logger log = Logger.SYSTEM;
 	
 	public AbstractPacketizer() {
 		socket = new RtpSocket();
@@ -51,6 +53,22 @@ abstract public class AbstractPacketizer {
 		return socket;
 	}
 	
+	/** Replaces the socket used to send the RTP packets, must be called before start() */
+	public void setRtpSocket(RtpSocket socket) {
+		this.socket = socket;
+		this.buffer = socket.getBuffer();
+	}
+	
+	/** The packetizers use Clock.SYSTEM by default, must be called before start() */
+	public void setClock(Clock clock) {
+		this.clock = clock;
+	}
+	
+	/** The packetizers log to the standard outputs by default */
+	public void setLogger(Logger log) {
+		this.log = log;
+	}
+	
 	public void setInputStream(InputStream fis) {
 		this.is = fis;
 	}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2012 GUIGUI Simon, fyhertz@gmail.com
+ * 
+ * This file is part of Spydroid (http://code.google.com/p/spydroid-ipcamera/)
+ * 
+ * Spydroid is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package net.majorkernelpanic.rtp;
+
+/**
+ * Time source used by the packetizers to compute RTP timestamps.
+ * The rtp package does not depend on the android framework, MediaStream 
+ * plugs android.os.SystemClock in, other JVMs can keep the default one.
+ */
+public interface Clock {
+
+	/** Returns milliseconds since some fixed point in the past, it never goes backward */
+	public long elapsedRealtime();
+	
+	public void sleep(long millis) throws InterruptedException;
+	
+	/** Clock based on System.nanoTime() and Thread.sleep() */
+	public static final Clock SYSTEM = new Clock() {
+		public long elapsedRealtime() {
+			return System.nanoTime()/1000000;
+		}
+		public void sleep(long millis) throws InterruptedException {
+			Thread.sleep(millis);
+		}
+	};
+	
+}
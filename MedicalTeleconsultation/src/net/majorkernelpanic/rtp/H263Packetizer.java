@@ -22,9 +22,6 @@ package net.majorkernelpanic.rtp;
 
 import java.io.IOException;
 
-import android.os.SystemClock;
-import android.util.Log;
-
 /**
  * RFC 4629
  */
@@ -56,7 +53,7 @@ public class H263Packetizer extends AbstractPacketizer implements Runnable {
 		try {
 			skipHeader();
 		} catch (IOException e) {
-			Log.e(TAG,"Couldn't skip mp4 header :/");
+			log.e(TAG,"Couldn't skip mp4 header :/");
 			return;
 		}
 		
@@ -66,9 +63,9 @@ public class H263Packetizer extends AbstractPacketizer implements Runnable {
 		
 		try { 
 			while (running) {
-				time = SystemClock.elapsedRealtime();
+				time = clock.elapsedRealtime();
 				if (fill(rtphl+j+2,MAXPACKETSIZE-rtphl-j-2)<0) return;
-				duration += SystemClock.elapsedRealtime() - time;
+				duration += clock.elapsedRealtime() - time;
 				j = 0;
 				// Each h263 frame starts with: 0000 0000 0000 0000 1000 00??
 				// Here we search where the next frame begins in the bit stream
@@ -107,11 +104,11 @@ public class H263Packetizer extends AbstractPacketizer implements Runnable {
 			}
 		} catch (IOException e) {
 			running = false;
-			Log.e(TAG,"IOException: "+e.getMessage());
+			log.e(TAG,"IOException: "+e.getMessage());
 			e.printStackTrace();
 		}
 		
-		Log.d(TAG,"Packetizer stopped !");
+		log.d(TAG,"Packetizer stopped !");
 			
 	}
 
@@ -122,7 +119,7 @@ public class H263Packetizer extends AbstractPacketizer implements Runnable {
 		while (sum<length) {
 			len = is.read(buffer, offset+sum, length-sum);
 			if (len<0) {
-				Log.e(TAG,"End of stream");
+				log.e(TAG,"End of stream");
 				return -1;
 			}
 			else sum+=len;
@@ -143,10 +140,10 @@ public class H263Packetizer extends AbstractPacketizer implements Runnable {
 			if (buffer[rtphl+4] == 'm' && buffer[rtphl+5] == 'd' && buffer[rtphl+6] == 'a' && buffer[rtphl+7] == 't') break;
 			len = (buffer[rtphl+3]&0xFF) + (buffer[rtphl+2]&0xFF)*256 + (buffer[rtphl+1]&0xFF)*65536;
 			if (len<8 || len>1000) {
-				Log.e(TAG,"Malformed header :/ len: "+len+" available: "+is.available());
+				log.e(TAG,"Malformed header :/ len: "+len+" available: "+is.available());
 				break;
 			}
-			Log.d(TAG,"Atom skipped: "+printBuffer(rtphl+4,rtphl+8)+" size: "+len);
+			log.d(TAG,"Atom skipped: "+printBuffer(rtphl+4,rtphl+8)+" size: "+len);
 			is.read(buffer,rtphl,len-8);
 		}
 		
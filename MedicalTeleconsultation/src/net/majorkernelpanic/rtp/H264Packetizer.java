@@ -26,9 +26,6 @@ import java.util.LinkedList;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Semaphore;
 
-import android.os.SystemClock;
-import android.util.Log;
-
 /**
  *   RFC 3984
  *   
@@ -81,8 +78,8 @@ public class H264Packetizer extends AbstractPacketizer {
 		
 		// We start the two threads of the packetizer
 		long[] sleep = new long[1];
-		producer = new Producer(is, fifo, chunks, sync, sleep);
-		consumer = new Consumer(socket, fifo, chunks, sync, sleep);
+		producer = new Producer(is, fifo, chunks, sync, sleep, clock);
+		consumer = new Consumer(socket, fifo, chunks, sync, sleep, log);
 	}
 	
 	public void stop() {
@@ -101,13 +98,15 @@ public class H264Packetizer extends AbstractPacketizer {
 		private final ConcurrentLinkedQueue<Chunk> chunks;
 		private final InputStream is;
 		private final long[] sleep;
+		private final Clock clock;
 		
-		public Producer(InputStream is, SimpleFifo fifo, ConcurrentLinkedQueue<Chunk> chunks, Semaphore sync, long[] sleep) {
+		public Producer(InputStream is, SimpleFifo fifo, ConcurrentLinkedQueue<Chunk> chunks, Semaphore sync, long[] sleep, Clock clock) {
 			this.fifo = fifo;
 			this.chunks = chunks;
 			this.sync = sync;
 			this.is = is;
 			this.sleep = sleep;
+			this.clock = clock;
 			this.start();
 		}
 		
@@ -123,14 +122,16 @@ public class H264Packetizer extends AbstractPacketizer {
 					// But some cameras have this annoying habit of delivering more than one NAL unit at once: 
 					// for example if 10 NAL units are delivered every 10 sec we have to guess the duration of each nal unit
 					// And BECAUSE InputStream.read blocks, another thread is necessary to send the stuff :/
-					oldtime = SystemClock.elapsedRealtime(); sum = 0;
+					oldtime = clock.elapsedRealtime(); sum = 0;
 					try {
-						Thread.sleep(2*sleep[0]/3);
+						clock.sleep(2*sleep[0]/3);
 					} catch (InterruptedException e) {
 						break;
 					}
 					sum = fifo.write(is,100000);
-					duration = SystemClock.elapsedRealtime() - oldtime;
+					// End of stream
+					if (sum<0) break;
+					duration = clock.elapsedRealtime() - oldtime;
 					
 					//Log.d(TAG,"New chunk -> sleep: "+sleep[0]+" duration: "+duration+" sum: "+sum+" chunks: "+chunks.size());
 					chunks.offer(new Chunk(sum,duration));
@@ -159,14 +160,16 @@ public class H264Packetizer extends AbstractPacketizer {
 		private int cursor, naluLength = 0;
 		private Chunk chunk = new Chunk(0,0), tmpChunk = null;
 		private final long[] sleep;
+		private final Logger log;
 		
-		public Consumer(RtpSocket socket, SimpleFifo fifo, ConcurrentLinkedQueue<Chunk> chunks, Semaphore sync, long[] sleep) {
+		public Consumer(RtpSocket socket, SimpleFifo fifo, ConcurrentLinkedQueue<Chunk> chunks, Semaphore sync, long[] sleep, Logger log) {
 			this.fifo = fifo;
 			this.chunks = chunks;
 			this.sync = sync;
 			this.socket = socket;
 			this.buffer = socket.getBuffer();
 			this.sleep = sleep;
+			this.log = log;
 			this.start();
 		}
 		
@@ -198,11 +201,11 @@ public class H264Packetizer extends AbstractPacketizer {
 			} catch (InterruptedException e) {
 				e.printStackTrace();
 			} catch (IOException e) {
-				Log.e(TAG,"IOException: "+e.getMessage());
+				log.e(TAG,"IOException: "+e.getMessage());
 				e.printStackTrace();
 			}
 			
-			Log.d(TAG,"H264 packetizer stopped !");
+			log.d(TAG,"H264 packetizer stopped !");
 			
 		}
 		
@@ -351,10 +354,10 @@ public class H264Packetizer extends AbstractPacketizer {
 			if (buffer[rtphl+4] == 'm' && buffer[rtphl+5] == 'd' && buffer[rtphl+6] == 'a' && buffer[rtphl+7] == 't') break;
 			len = (buffer[rtphl+3]&0xFF) + (buffer[rtphl+2]&0xFF)*256 + (buffer[rtphl+1]&0xFF)*65536;
 			if (len<8 || len>1000) {
-				Log.e(TAG,"Malformed header :/ len: "+len+" available: "+is.available());
+				log.e(TAG,"Malformed header :/ len: "+len+" available: "+is.available());
 				break;
 			}
-			Log.d(TAG,"Atom skipped: "+printBuffer(rtphl+4,rtphl+8)+" size: "+len);
+			log.d(TAG,"Atom skipped: "+printBuffer(rtphl+4,rtphl+8)+" size: "+len);
 			is.read(buffer,rtphl,len-8);
 		}
 		
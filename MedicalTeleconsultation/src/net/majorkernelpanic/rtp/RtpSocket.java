@@ -112,7 +112,7 @@ public class RtpSocket {
 		
 		updateSequence();
 		upack.setLength(length);
-		usock.send(upack);
+		transmit(upack);
 		
 		if (upts) {
 			upts = false;
@@ -121,6 +121,11 @@ public class RtpSocket {
 		
 	}
 	
+	/** Sends the packet over UDP, may be overridden to send the packets somewhere else */
+	protected void transmit(DatagramPacket packet) throws IOException {
+		usock.send(packet);
+	}
+	
 	private void updateSequence() {
 		setLong(++seq, 2, 4);
 	}
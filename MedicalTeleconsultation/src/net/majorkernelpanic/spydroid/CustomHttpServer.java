@@ -32,6 +32,7 @@ import java.util.List;
 
 import net.majorkernelpanic.networking.HttpServer;
 import net.majorkernelpanic.networking.Session;
+import net.majorkernelpanic.streaming.video.PreviewJpegSource;
 import net.majorkernelpanic.streaming.video.VideoQuality;
 import postech.itce.teleconsultation.R;
 
@@ -41,6 +42,7 @@ import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.ContentProducer;
 import org.apache.http.entity.EntityTemplate;
 import org.apache.http.protocol.HttpContext;
@@ -54,6 +56,7 @@ import android.media.AudioManager;
 import android.media.SoundPool;
 import android.media.SoundPool.OnLoadCompleteListener;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.util.Log;
 
@@ -62,13 +65,15 @@ public class CustomHttpServer extends HttpServer {
 	/** 
 	 * HTTP server of Spydroid
 	 * Its document root is assets/www, it contains a little user-friendly website to control spydroid from a browser
-	 * The default behavior of HttpServer is enhanced with 3 RequestHandlers, they are briefly described in this file
+	 * The default behavior of HttpServer is enhanced with 5 RequestHandlers, they are briefly described in this file
 	 **/
 	public CustomHttpServer(int port, Context context, Handler handler) {
 		super(port, context, handler);
 		addRequestHandler("/sound.htm*", new SoundRequestHandler(context, handler));
 		addRequestHandler("/config.json*", new ConfigRequestHandler(context));
 		addRequestHandler("/js/params.js", new SoundsListRequestHandler(handler));
+		addRequestHandler("/video.mjpeg*", new JpegRequestHandler(false));
+		addRequestHandler("/snapshot.jpg*", new JpegRequestHandler(true));
 	}
 
 	private static boolean screenState = true;
@@ -198,6 +203,124 @@ public class CustomHttpServer extends HttpServer {
 		}
 	}
 	
+	/** 
+	 * Send the preview of the camera as JPEG, see PreviewJpegSource
+	 * /video.mjpeg sends a multipart/x-mixed-replace stream, its frame rate can be capped with ?fps=x
+	 * /snapshot.jpg sends a single frame
+	 * The camera is not available while a video stream is sent with RTSP
+	 **/
+	static class JpegRequestHandler implements HttpRequestHandler {
+
+		private final static String BOUNDARY = "spydroidframe";
+		private final static int FRAME_TIMEOUT = 5000;
+		private final boolean snapshot;
+		
+		public JpegRequestHandler(boolean snapshot) {
+			this.snapshot = snapshot;
+		}
+		
+		public void handle(HttpRequest request, HttpResponse response, HttpContext context) 
+				throws HttpException, IOException {
+			
+			final PreviewJpegSource source = PreviewJpegSource.getInstance();
+			final String uri = URLDecoder.decode(request.getRequestLine().getUri());
+			final List<NameValuePair> params = URLEncodedUtils.parse(URI.create(uri),"UTF-8");
+			int fps = 0;
+			
+			for (NameValuePair param : params) {
+				if (param.getName().equals("fps")) {
+					try {
+						fps = Integer.parseInt(param.getValue());
+					} catch (NumberFormatException ignore) {}
+				}
+			}
+			
+			source.setCamera(Session.getDefaultCamera());
+			source.setPreviewSize(Session.defaultVideoQuality.resX, Session.defaultVideoQuality.resY);
+			
+			if (Session.isCameraInUse()) {
+				unavailable(response);
+				return;
+			}
+
+			if (snapshot) {
+				PreviewJpegSource.Frame frame = null;
+				if (source.acquire()) {
+					try {
+						frame = source.waitForFrame(-1, FRAME_TIMEOUT);
+					} catch (InterruptedException ignore) {
+					} finally {
+						source.release();
+					}
+				}
+				if (frame == null) {
+					unavailable(response);
+					return;
+				}
+				ByteArrayEntity body = new ByteArrayEntity(frame.data);
+				body.setContentType("image/jpeg");
+				response.addHeader("Cache-Control", "no-cache");
+				response.setStatusCode(HttpStatus.SC_OK);
+				response.setEntity(body);
+				return;
+			}
+			
+			// Each viewer gets the last encoded frame when it is ready for a new one: 
+			// frames are dropped for slow viewers and the JPEG compression is shared
+			final long interval = fps>0 ? 1000/Math.min(fps,30) : 0;
+			EntityTemplate body = new EntityTemplate(new ContentProducer() {
+				public void writeTo(final OutputStream outstream) throws IOException {
+					if (!source.acquire()) return;
+					long sequence = -1, next = 0, wait;
+					try {
+						while (true) {
+							PreviewJpegSource.Frame frame = source.waitForFrame(sequence, FRAME_TIMEOUT);
+							if (frame == null) break;
+							sequence = frame.sequence;
+							
+							outstream.write(("--"+BOUNDARY+"\r\n" +
+									"Content-Type: image/jpeg\r\n" +
+									"Content-Length: "+frame.data.length+"\r\n\r\n").getBytes("US-ASCII"));
+							outstream.write(frame.data);
+							outstream.write(CRLF);
+							outstream.flush();
+							
+							// Frame rate requested by the viewer
+							wait = next-SystemClock.elapsedRealtime();
+							if (wait>0) Thread.sleep(wait);
+							next = SystemClock.elapsedRealtime()+interval;
+						}
+					} catch (InterruptedException ignore) {
+					} finally {
+						source.release();
+					}
+				}
+			});
+			
+			response.addHeader("Cache-Control", "no-cache");
+			response.setStatusCode(HttpStatus.SC_OK);
+			body.setContentType("multipart/x-mixed-replace; boundary="+BOUNDARY);
+			response.setEntity(body);
+			
+		}
+		
+		private final static byte[] CRLF = new byte[] {'\r','\n'};
+		
+		private void unavailable(HttpResponse response) {
+			response.setStatusCode(HttpStatus.SC_SERVICE_UNAVAILABLE);
+			EntityTemplate body = new EntityTemplate(new ContentProducer() {
+				public void writeTo(final OutputStream outstream) throws IOException {
+					OutputStreamWriter writer = new OutputStreamWriter(outstream, "UTF-8"); 
+					writer.write("Camera not available");
+					writer.flush();
+				}
+			});
+			body.setContentType("text/plain; charset=UTF-8");
+			response.setEntity(body);
+		}
+		
+	}
+	
 	/**	Play a sound on the phone **/
 	static class SoundRequestHandler implements HttpRequestHandler {
 
@@ -133,6 +133,7 @@ public class SpydroidActivity extends Activity implements OnSharedPreferenceChan
         Session.setSurfaceHolder(holder);
         Session.setHandler(handler);
         Session.setDefaultAudioEncoder(settings.getBoolean("stream_audio", false)?Integer.parseInt(settings.getString("audio_encoder", "3")):0);
+        Session.setDefaultAudioPacketTime(Integer.parseInt(settings.getString("audio_packet_time", "20")));
         Session.setDefaultVideoEncoder(settings.getBoolean("stream_video", true)?Integer.parseInt(settings.getString("video_encoder", "2")):0);
         Session.setDefaultVideoQuality(new VideoQuality(settings.getInt("video_resX", 0), 
         		settings.getInt("video_resY", 0), 
@@ -183,6 +184,9 @@ public class SpydroidActivity extends Activity implements OnSharedPreferenceChan
     	else if (key.equals("stream_audio") || key.equals("audio_encoder")) { 
     		Session.setDefaultAudioEncoder(sharedPreferences.getBoolean("stream_audio", true)?Integer.parseInt(sharedPreferences.getString("audio_encoder", "3")):0);
     	}
+    	else if (key.equals("audio_packet_time")) {
+    		Session.setDefaultAudioPacketTime(Integer.parseInt(sharedPreferences.getString("audio_packet_time", "20")));
+    	}
     	else if (key.equals("stream_video") || key.equals("video_encoder")) {
     		Session.setDefaultVideoEncoder(sharedPreferences.getBoolean("stream_video", true)?Integer.parseInt(sharedPreferences.getString("video_encoder", "2")):0);
     	}
@@ -112,6 +112,8 @@ public abstract class MediaStream extends MediaRecorder implements Stream {
 				// receiver.getInputStream contains the data from the camera
 				// the packetizer encapsulates this stream in an RTP stream and send it over the network
 				packetizer.setInputStream(receiver.getInputStream());
+				packetizer.setClock(AndroidClock.INSTANCE);
+				packetizer.setLogger(AndroidLogger.INSTANCE);
 				packetizer.start();
 			}
 			streaming = true;
@@ -40,6 +40,14 @@ public class AACStream extends MediaStream {
 		
 	}
 
+	/** 
+	 * Audio duration aggregated in each RTP packet, in ms. An access unit lasts 128 ms,
+	 * so the packets hold the closest number of access units, at most 2.
+	 */
+	public void setPacketTime(int ms) {
+		((AACADTSPacketizer) packetizer).setFramesPerPacket(Math.round(ms/128f));
+	}
+
 	public void prepare() throws IllegalStateException, IOException {
 		
 		setAudioSource(MediaRecorder.AudioSource.CAMCORDER);
@@ -64,7 +72,14 @@ public class AACStream extends MediaStream {
 		return "m=audio "+String.valueOf(getDestinationPort())+" RTP/AVP 96\r\n" +
 				"b=RR:0\r\n" +
 				"a=rtpmap:96 mpeg4-generic/8000\r\n" +
-				"a=fmtp:96 streamtype=5; profile-level-id=15; mode=AAC-hbr; config=1588; SizeLength=13; IndexLength=3; IndexDeltaLength=3; Profile=1;\r\n";
+				"a=fmtp:96 streamtype=5; profile-level-id=15; mode=AAC-hbr; config=1588; SizeLength=13; IndexLength=3; IndexDeltaLength=3; Profile=1;\r\n" +
+				"a=ptime:"+getPacketTime()+"\r\n" +
+				"a=maxptime:"+getPacketTime()+"\r\n";
+	}
+	
+	// An access unit holds 1024 samples, the sampling rate is 8000 Hz
+	private int getPacketTime() {
+		return 1024*((AACADTSPacketizer) packetizer).getFramesPerPacket()/8;
 	}
 	
 }
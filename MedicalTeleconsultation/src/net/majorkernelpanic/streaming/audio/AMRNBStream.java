@@ -39,6 +39,11 @@ public class AMRNBStream extends MediaStream {
 		
 	}
 
+	/** Audio duration aggregated in each RTP packet, in ms, rounded to the 20 ms of a frame */
+	public void setPacketTime(int ms) {
+		((AMRNBPacketizer) packetizer).setFramesPerPacket(Math.round(ms/20f));
+	}
+
 	public void prepare() throws IllegalStateException, IOException {
 		setAudioSource(MediaRecorder.AudioSource.CAMCORDER);
 		setOutputFormat(MediaRecorder.OutputFormat.RAW_AMR);
@@ -52,7 +57,13 @@ public class AMRNBStream extends MediaStream {
 				   "b=AS:128\r\n" +
 				   "b=RR:0\r\n" +
 				   "a=rtpmap:96 AMR/8000\r\n" +
-				   "a=fmtp:96 octet-align=1;\r\n";
+				   "a=fmtp:96 octet-align=1;\r\n" +
+				   "a=ptime:"+getPacketTime()+"\r\n" +
+				   "a=maxptime:"+getPacketTime()+"\r\n";
+	}
+	
+	private int getPacketTime() {
+		return 20*((AMRNBPacketizer) packetizer).getFramesPerPacket();
 	}
 	
 }
@@ -131,7 +131,7 @@ public class H264Stream extends VideoStream {
 		// Save test result
 		if (settings != null) {
 			Editor editor = settings.edit();
-			editor.putString(quality.frameRate+","+quality.resX+","+quality.resY, mp4Config.getProfileLevel()+","+mp4Config.getB64SPS()+","+mp4Config.getB64PPS());
+			editor.putString(quality.frameRate+","+quality.resX+","+quality.resY, mp4Config.getProfileLevel()+","+mp4Config.getSpropParameterSets());
 			editor.commit();
 		}
 		return mp4Config;
@@ -139,31 +139,29 @@ public class H264Stream extends VideoStream {
 	}
 	
 	public String generateSessionDescriptor() throws IllegalStateException, IOException {
-		String profile,sps,pps;
+		String profile,sprop;
 		
 		if (settings != null) {
 			if (!settings.contains(quality.frameRate+","+quality.resX+","+quality.resY)) {
 				testH264();
 				profile = mp4Config.getProfileLevel();
-				pps = mp4Config.getB64PPS();
-				sps = mp4Config.getB64SPS();
+				sprop = mp4Config.getSpropParameterSets();
 			} else {
-				String[] s = settings.getString(quality.frameRate+","+quality.resX+","+quality.resY, "").split(",");
-				profile = s[0];
-				sps = s[1];
-				pps = s[2];
+				// Saved as "profile,sps[,sps...],pps[,pps...]"
+				String s = settings.getString(quality.frameRate+","+quality.resX+","+quality.resY, "");
+				profile = s.substring(0, s.indexOf(','));
+				sprop = s.substring(s.indexOf(',')+1);
 			}
 		} else {
 			testH264();
 			profile = mp4Config.getProfileLevel();
-			pps = mp4Config.getB64PPS();
-			sps = mp4Config.getB64SPS();
+			sprop = mp4Config.getSpropParameterSets();
 		}
 
 		return "m=video "+String.valueOf(getDestinationPort())+" RTP/AVP 96\r\n" +
 				   "b=RR:0\r\n" +
 				   "a=rtpmap:96 H264/90000\r\n" +
-				   "a=fmtp:96 packetization-mode=1;profile-level-id="+profile+";sprop-parameter-sets="+sps+","+pps+";\r\n";
+				   "a=fmtp:96 packetization-mode=1;profile-level-id="+profile+";sprop-parameter-sets="+sprop+";\r\n";
 	}
 	
 }
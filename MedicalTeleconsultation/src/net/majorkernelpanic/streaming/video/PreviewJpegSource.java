@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2012 GUIGUI Simon, fyhertz@gmail.com
+ * 
+ * This file is part of Spydroid (http://code.google.com/p/spydroid-ipcamera/)
+ * 
+ * Spydroid is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This source code is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this source code; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package net.majorkernelpanic.streaming.video;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.SurfaceTexture;
+import android.graphics.YuvImage;
+import android.hardware.Camera;
+import android.hardware.Camera.Parameters;
+import android.hardware.Camera.Size;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Compresses the preview frames of the camera to JPEG on a background thread.
+ * The last encoded frame is shared by all the viewers (HTTP MJPEG clients for instance),
+ * so that the cost of the JPEG compression does not depend on the number of viewers.
+ * Preview frames that arrive while the encoder is busy are dropped.
+ * 
+ * The camera is opened by the first viewer and closed a few seconds after the last one leaves.
+ * It can't be used while a VideoStream records: call suspend() before that.
+ */
+public class PreviewJpegSource implements Camera.PreviewCallback {
+
+	public final static String TAG = "PreviewJpegSource";
+	
+	/** The camera is closed when no viewer has shown up during this delay (ms) */
+	private final static int IDLE_TIMEOUT = 5000;
+	
+	/** An encoded frame, it is shared by all the viewers and must not be modified */
+	public static class Frame {
+		public final byte[] data;
+		public final long sequence;
+		public final long timestamp;
+		
+		private Frame(byte[] data, long sequence, long timestamp) {
+			this.data = data;
+			this.sequence = sequence;
+			this.timestamp = timestamp;
+		}
+	}
+	
+	private static PreviewJpegSource instance = null;
+	
+	public static synchronized PreviewJpegSource getInstance() {
+		if (instance == null) instance = new PreviewJpegSource();
+		return instance;
+	}
+	
+	private final Object lock = new Object();
+	private final Handler handler = new Handler(Looper.getMainLooper());
+	private Camera camera = null;
+	private SurfaceTexture texture = null;
+	private int cameraId = 0, width = 640, height = 480, quality = 60, maxFrameRate = 15;
+	private int viewers = 0;
+	
+	/** Preview frame waiting for the encoder, null when the encoder is idle */
+	private byte[] pending = null;
+	private Frame latest = null;
+	private long sequence = 0, lastFrame = 0;
+	
+	private final Runnable closeCamera = new Runnable() {
+		public void run() {
+			synchronized (lock) {
+				if (viewers==0) close();
+			}
+		}
+	};
+	
+	private PreviewJpegSource() {}
+	
+	/** Takes effect the next time the camera is opened */
+	public void setCamera(int cameraId) {
+		this.cameraId = cameraId;
+	}
+	
+	/** The closest preview size supported by the camera is used, takes effect the next time the camera is opened */
+	public void setPreviewSize(int width, int height) {
+		this.width = width;
+		this.height = height;
+	}
+	
+	/** JPEG quality, from 0 to 100 */
+	public void setQuality(int quality) {
+		this.quality = quality;
+	}
+	
+	/** Upper bound for the number of frames encoded per second, whatever the number of viewers */
+	public void setMaxFrameRate(int maxFrameRate) {
+		this.maxFrameRate = Math.max(1, maxFrameRate);
+	}
+	
+	/**
+	 * Registers a viewer, the first one opens the camera.
+	 * Each successful call must be matched by a call to release().
+	 * @return false if the camera could not be opened
+	 */
+	public boolean acquire() {
+		synchronized (lock) {
+			handler.removeCallbacks(closeCamera);
+			if (camera == null) {
+				try {
+					open();
+				} catch (RuntimeException e) {
+					Log.e(TAG,"Camera could not be opened: "+e.getMessage());
+					close();
+					return false;
+				}
+			}
+			viewers++;
+			return true;
+		}
+	}
+	
+	public void release() {
+		synchronized (lock) {
+			if (viewers>0 && --viewers==0) handler.postDelayed(closeCamera, IDLE_TIMEOUT);
+		}
+	}
+	
+	/** Closes the camera right away, the viewers waiting for a frame get null */
+	public void suspend() {
+		synchronized (lock) {
+			handler.removeCallbacks(closeCamera);
+			if (camera != null) {
+				Log.d(TAG,"Camera needed by another stream, "+viewers+" viewer(s) disconnected");
+				close();
+			}
+		}
+	}
+	
+	/**
+	 * Waits for a frame more recent than the one with the given sequence number.
+	 * Use -1 to get the last encoded frame.
+	 * @return The frame or null if the camera was closed or if the timeout expired
+	 */
+	public Frame waitForFrame(long after, long timeout) throws InterruptedException {
+		long deadline = SystemClock.elapsedRealtime()+timeout, remaining;
+		synchronized (lock) {
+			while (camera != null && (latest == null || latest.sequence <= after)) {
+				remaining = deadline-SystemClock.elapsedRealtime();
+				if (remaining<=0) return null;
+				lock.wait(remaining);
+			}
+			return camera != null ? latest : null;
+		}
+	}
+	
+	public void onPreviewFrame(byte[] data, Camera camera) {
+		synchronized (lock) {
+			if (camera != this.camera) return;
+			long now = SystemClock.elapsedRealtime();
+			if (pending == null && now-lastFrame >= 1000/maxFrameRate) {
+				// The encoder gives the buffer back to the camera when it is done with it
+				pending = data;
+				lastFrame = now;
+				lock.notifyAll();
+				return;
+			}
+		}
+		// Encoder busy, the frame is dropped
+		camera.addCallbackBuffer(data);
+	}
+	
+	private void open() {
+		camera = Camera.open(cameraId);
+		
+		Parameters parameters = camera.getParameters();
+		Size size = getClosestPreviewSize(parameters.getSupportedPreviewSizes());
+		parameters.setPreviewSize(size.width, size.height);
+		parameters.setPreviewFormat(ImageFormat.NV21);
+		camera.setParameters(parameters);
+		
+		// Three buffers: one for the encoder, the others for the camera
+		int bufferSize = size.width*size.height*ImageFormat.getBitsPerPixel(ImageFormat.NV21)/8;
+		for (int i=0;i<3;i++) camera.addCallbackBuffer(new byte[bufferSize]);
+		camera.setPreviewCallbackWithBuffer(this);
+		
+		// The preview needs a surface, even if nothing is displayed
+		texture = new SurfaceTexture(0);
+		try {
+			camera.setPreviewTexture(texture);
+		} catch (IOException e) {
+			throw new RuntimeException(e.getMessage());
+		}
+		camera.startPreview();
+		
+		Log.d(TAG,"Camera opened, preview size: "+size.width+"x"+size.height);
+		new Encoder(camera, size.width, size.height).start();
+	}
+	
+	private void close() {
+		if (camera != null) {
+			try {
+				camera.setPreviewCallbackWithBuffer(null);
+				camera.stopPreview();
+				camera.release();
+			} catch (RuntimeException e) {
+				Log.e(TAG,"Error when closing the camera: "+e.getMessage());
+			}
+			camera = null;
+		}
+		if (texture != null) {
+			texture.release();
+			texture = null;
+		}
+		pending = null;
+		latest = null;
+		viewers = 0;
+		// Wakes up the encoder and the viewers
+		lock.notifyAll();
+	}
+	
+	private Size getClosestPreviewSize(List<Size> sizes) {
+		Size best = sizes.get(0);
+		for (Size size : sizes) {
+			if (Math.abs(size.width*size.height-width*height) < Math.abs(best.width*best.height-width*height)) best = size;
+		}
+		return best;
+	}
+	
+	/** Compresses the preview frames, it stops when the camera it was started for is closed */
+	private class Encoder extends Thread {
+		
+		private final Camera camera;
+		private final Rect rect;
+		private final int width, height;
+		private final ByteArrayOutputStream output = new ByteArrayOutputStream(64000);
+		
+		public Encoder(Camera camera, int width, int height) {
+			super("PreviewJpegEncoder");
+			this.camera = camera;
+			this.width = width;
+			this.height = height;
+			this.rect = new Rect(0, 0, width, height);
+		}
+		
+		public void run() {
+			byte[] nv21;
+			try {
+				while (true) {
+					synchronized (lock) {
+						while (pending == null && camera == PreviewJpegSource.this.camera) lock.wait();
+						if (camera != PreviewJpegSource.this.camera) break;
+						nv21 = pending;
+					}
+					
+					output.reset();
+					new YuvImage(nv21, ImageFormat.NV21, width, height, null).compressToJpeg(rect, quality, output);
+					byte[] jpeg = output.toByteArray();
+					
+					synchronized (lock) {
+						if (camera != PreviewJpegSource.this.camera) break;
+						pending = null;
+						latest = new Frame(jpeg, ++sequence, SystemClock.elapsedRealtime());
+						camera.addCallbackBuffer(nv21);
+						lock.notifyAll();
+					}
+				}
+			} catch (InterruptedException ignore) {}
+			Log.d(TAG,"Encoder stopped");
+		}
+		
+	}
+	
+}
@@ -18,11 +18,20 @@
 
 package com.hammingweight.kiss.crypto;
 
+/**
+ * AES-128 with 32-bit lookup tables: each round is sixteen table lookups
+ * and XORs on four column words, with SubBytes, ShiftRows and MixColumns
+ * folded into the tables. The tables are built once from the S-box and the
+ * encryption and decryption key schedules are expanded by setKey.
+ * 
+ * Besides the single block encryption of IBlockCipher, whole buffers can be
+ * processed in place in CBC and CTR mode without copying each block.
+ */
 public class Aes128 implements IBlockCipher {
 
 	private int[] expandedKey;
 
-	private byte[] matrixMult = new byte[16];
+	private int[] decryptionKey;
 
 	public static final byte[] sBox = { (byte) 0x63, (byte) 0x7c, (byte) 0x77,
 			(byte) 0x7b, (byte) 0xf2, (byte) 0x6b, (byte) 0x6f, (byte) 0xc5,
@@ -81,59 +90,65 @@ public class Aes128 implements IBlockCipher {
 			0x08000000, 0x10000000, 0x20000000, 0x40000000, 0x80000000,
 			0x1b000000, 0x36000000 };
 
-	private static final byte[] mult2 = { (byte) 0, (byte) 2, (byte) 4,
-			(byte) 6, (byte) 8, (byte) 10, (byte) 12, (byte) 14, (byte) 16,
-			(byte) 18, (byte) 20, (byte) 22, (byte) 24, (byte) 26, (byte) 28,
-			(byte) 30, (byte) 32, (byte) 34, (byte) 36, (byte) 38, (byte) 40,
-			(byte) 42, (byte) 44, (byte) 46, (byte) 48, (byte) 50, (byte) 52,
-			(byte) 54, (byte) 56, (byte) 58, (byte) 60, (byte) 62, (byte) 64,
-			(byte) 66, (byte) 68, (byte) 70, (byte) 72, (byte) 74, (byte) 76,
-			(byte) 78, (byte) 80, (byte) 82, (byte) 84, (byte) 86, (byte) 88,
-			(byte) 90, (byte) 92, (byte) 94, (byte) 96, (byte) 98, (byte) 100,
-			(byte) 102, (byte) 104, (byte) 106, (byte) 108, (byte) 110,
-			(byte) 112, (byte) 114, (byte) 116, (byte) 118, (byte) 120,
-			(byte) 122, (byte) 124, (byte) 126, (byte) 128, (byte) 130,
-			(byte) 132, (byte) 134, (byte) 136, (byte) 138, (byte) 140,
-			(byte) 142, (byte) 144, (byte) 146, (byte) 148, (byte) 150,
-			(byte) 152, (byte) 154, (byte) 156, (byte) 158, (byte) 160,
-			(byte) 162, (byte) 164, (byte) 166, (byte) 168, (byte) 170,
-			(byte) 172, (byte) 174, (byte) 176, (byte) 178, (byte) 180,
-			(byte) 182, (byte) 184, (byte) 186, (byte) 188, (byte) 190,
-			(byte) 192, (byte) 194, (byte) 196, (byte) 198, (byte) 200,
-			(byte) 202, (byte) 204, (byte) 206, (byte) 208, (byte) 210,
-			(byte) 212, (byte) 214, (byte) 216, (byte) 218, (byte) 220,
-			(byte) 222, (byte) 224, (byte) 226, (byte) 228, (byte) 230,
-			(byte) 232, (byte) 234, (byte) 236, (byte) 238, (byte) 240,
-			(byte) 242, (byte) 244, (byte) 246, (byte) 248, (byte) 250,
-			(byte) 252, (byte) 254, (byte) 27, (byte) 25, (byte) 31, (byte) 29,
-			(byte) 19, (byte) 17, (byte) 23, (byte) 21, (byte) 11, (byte) 9,
-			(byte) 15, (byte) 13, (byte) 3, (byte) 1, (byte) 7, (byte) 5,
-			(byte) 59, (byte) 57, (byte) 63, (byte) 61, (byte) 51, (byte) 49,
-			(byte) 55, (byte) 53, (byte) 43, (byte) 41, (byte) 47, (byte) 45,
-			(byte) 35, (byte) 33, (byte) 39, (byte) 37, (byte) 91, (byte) 89,
-			(byte) 95, (byte) 93, (byte) 83, (byte) 81, (byte) 87, (byte) 85,
-			(byte) 75, (byte) 73, (byte) 79, (byte) 77, (byte) 67, (byte) 65,
-			(byte) 71, (byte) 69, (byte) 123, (byte) 121, (byte) 127,
-			(byte) 125, (byte) 115, (byte) 113, (byte) 119, (byte) 117,
-			(byte) 107, (byte) 105, (byte) 111, (byte) 109, (byte) 99,
-			(byte) 97, (byte) 103, (byte) 101, (byte) 155, (byte) 153,
-			(byte) 159, (byte) 157, (byte) 147, (byte) 145, (byte) 151,
-			(byte) 149, (byte) 139, (byte) 137, (byte) 143, (byte) 141,
-			(byte) 131, (byte) 129, (byte) 135, (byte) 133, (byte) 187,
-			(byte) 185, (byte) 191, (byte) 189, (byte) 179, (byte) 177,
-			(byte) 183, (byte) 181, (byte) 171, (byte) 169, (byte) 175,
-			(byte) 173, (byte) 163, (byte) 161, (byte) 167, (byte) 165,
-			(byte) 219, (byte) 217, (byte) 223, (byte) 221, (byte) 211,
-			(byte) 209, (byte) 215, (byte) 213, (byte) 203, (byte) 201,
-			(byte) 207, (byte) 205, (byte) 195, (byte) 193, (byte) 199,
-			(byte) 197, (byte) 251, (byte) 249, (byte) 255, (byte) 253,
-			(byte) 243, (byte) 241, (byte) 247, (byte) 245, (byte) 235,
-			(byte) 233, (byte) 239, (byte) 237, (byte) 227, (byte) 225,
-			(byte) 231, (byte) 229 };
-
-	private int bytesToWord(byte[] b, int offset) {
-		return (b[offset++] << 24) + ((b[offset++] & 0xff) << 16)
-				+ ((b[offset++] & 0xff) << 8) + (b[offset] & 0xff);
+	private static final byte[] invSBox = new byte[256];
+
+	// Te0[x] is the column (2.S[x], S[x], S[x], 3.S[x]), Te1 to Te3 are its rotations.
+	private static final int[] Te0 = new int[256];
+	private static final int[] Te1 = new int[256];
+	private static final int[] Te2 = new int[256];
+	private static final int[] Te3 = new int[256];
+
+	// Td0[x] is the column (14.S'[x], 9.S'[x], 13.S'[x], 11.S'[x]) of the inverse S-box.
+	private static final int[] Td0 = new int[256];
+	private static final int[] Td1 = new int[256];
+	private static final int[] Td2 = new int[256];
+	private static final int[] Td3 = new int[256];
+
+	static {
+		for (int x = 0; x < 256; x++) {
+			int s = sBox[x] & 0xff;
+			invSBox[s] = (byte) x;
+			int s2 = mult(s, 2);
+			int e = (s2 << 24) | (s << 16) | (s << 8) | (s2 ^ s);
+			Te0[x] = e;
+			Te1[x] = (e >>> 8) | (e << 24);
+			Te2[x] = (e >>> 16) | (e << 16);
+			Te3[x] = (e >>> 24) | (e << 8);
+
+			int d = (mult(x, 14) << 24) | (mult(x, 9) << 16) | (mult(x, 13) << 8) | mult(x, 11);
+			Td0[s] = d;
+			Td1[s] = (d >>> 8) | (d << 24);
+			Td2[s] = (d >>> 16) | (d << 16);
+			Td3[s] = (d >>> 24) | (d << 8);
+		}
+	}
+
+	// Multiplication in GF(2^8), only used to build the tables.
+	private static int mult(int a, int b) {
+		int res = 0;
+		while (b != 0) {
+			if ((b & 1) != 0) {
+				res ^= a;
+			}
+			a <<= 1;
+			if ((a & 0x100) != 0) {
+				a ^= 0x11b;
+			}
+			b >>>= 1;
+		}
+		return res;
+	}
+
+	private static int bytesToWord(byte[] b, int offset) {
+		return (b[offset++] << 24) | ((b[offset++] & 0xff) << 16)
+				| ((b[offset++] & 0xff) << 8) | (b[offset] & 0xff);
+	}
+
+	private static void wordToBytes(int w, byte[] b, int offset) {
+		b[offset++] = (byte) (w >>> 24);
+		b[offset++] = (byte) (w >>> 16);
+		b[offset++] = (byte) (w >>> 8);
+		b[offset] = (byte) w;
 	}
 
 	private int rotWord(int w) {
@@ -141,25 +156,21 @@ public class Aes128 implements IBlockCipher {
 	}
 
 	private int subWord(int w) {
-		int res = sBox[w >>> 24] & 0xFF;
-		res <<= 8;
-		res += sBox[(w >>> 16) & 0xFF] & 0xFF;
-		res <<= 8;
-		res += sBox[(w >>> 8) & 0xFF] & 0xFF;
-		res <<= 8;
-		res += sBox[w & 0xFF] & 0xFF;
-
-		return res;
+		return ((sBox[w >>> 24] & 0xff) << 24)
+				| ((sBox[(w >>> 16) & 0xff] & 0xff) << 16)
+				| ((sBox[(w >>> 8) & 0xff] & 0xff) << 8)
+				| (sBox[w & 0xff] & 0xff);
 	}
 
 	public void setKey(byte[] key128) {
 		if (this.expandedKey == null) {
 			this.expandedKey = new int[44];
+			this.decryptionKey = new int[44];
 		}
 
 		int i = 0;
 		for (; i < 4; i++) {
-			this.expandedKey[i] = this.bytesToWord(key128, i * 4);
+			this.expandedKey[i] = bytesToWord(key128, i * 4);
 		}
 
 		while (i < 44) {
@@ -170,72 +181,195 @@ public class Aes128 implements IBlockCipher {
 			this.expandedKey[i] = temp ^ this.expandedKey[i - 4];
 			i++;
 		}
+
+		// The equivalent inverse cipher uses the round keys in reverse order,
+		// with InvMixColumns applied to those of the inner rounds.
+		for (int round = 0; round <= 10; round++) {
+			for (int j = 0; j < 4; j++) {
+				int w = this.expandedKey[40 - 4 * round + j];
+				if ((round > 0) && (round < 10)) {
+					w = Td0[sBox[w >>> 24] & 0xff]
+							^ Td1[sBox[(w >>> 16) & 0xff] & 0xff]
+							^ Td2[sBox[(w >>> 8) & 0xff] & 0xff]
+							^ Td3[sBox[w & 0xff] & 0xff];
+				}
+				this.decryptionKey[4 * round + j] = w;
+			}
+		}
 	}
 
-	private void addRoundKey(byte[] state, int keyOffset) {
-		int stateOffset = 0;
-		for (int i = 0; i < 4; i++) {
-			int keyWord = this.expandedKey[keyOffset++];
-			state[stateOffset++] ^= keyWord >> 24;
-			state[stateOffset++] ^= keyWord >> 16;
-			state[stateOffset++] ^= keyWord >> 8;
-			state[stateOffset++] ^= keyWord;
+	public void encryptBlock(byte[] block) {
+		encryptBlock(block, 0, block, 0);
+	}
+
+	public void encryptBlock(byte[] in, int inOffset, byte[] out, int outOffset) {
+		encrypt(bytesToWord(in, inOffset), bytesToWord(in, inOffset + 4),
+				bytesToWord(in, inOffset + 8), bytesToWord(in, inOffset + 12),
+				out, outOffset);
+	}
+
+	public void decryptBlock(byte[] in, int inOffset, byte[] out, int outOffset) {
+		decrypt(bytesToWord(in, inOffset), bytesToWord(in, inOffset + 4),
+				bytesToWord(in, inOffset + 8), bytesToWord(in, inOffset + 12),
+				out, outOffset);
+	}
+
+	/**
+	 * Encrypts length bytes (a multiple of 16) of buf in place in CBC mode.
+	 * The iv is replaced by the last ciphertext block, so that a following
+	 * call continues the chain.
+	 */
+	public void encryptCbc(byte[] iv, byte[] buf, int offset, int length) {
+		checkLength(length);
+		int c0 = bytesToWord(iv, 0);
+		int c1 = bytesToWord(iv, 4);
+		int c2 = bytesToWord(iv, 8);
+		int c3 = bytesToWord(iv, 12);
+		for (int end = offset + length; offset < end; offset += 16) {
+			encrypt(c0 ^ bytesToWord(buf, offset),
+					c1 ^ bytesToWord(buf, offset + 4),
+					c2 ^ bytesToWord(buf, offset + 8),
+					c3 ^ bytesToWord(buf, offset + 12), buf, offset);
+			c0 = bytesToWord(buf, offset);
+			c1 = bytesToWord(buf, offset + 4);
+			c2 = bytesToWord(buf, offset + 8);
+			c3 = bytesToWord(buf, offset + 12);
 		}
+		wordToBytes(c0, iv, 0);
+		wordToBytes(c1, iv, 4);
+		wordToBytes(c2, iv, 8);
+		wordToBytes(c3, iv, 12);
 	}
 
-	private void subBytes(byte[] block) {
-		for (int i = 0; i < 16; i++) {
-			block[i] = sBox[block[i] & 0xFF];
+	/**
+	 * Decrypts length bytes (a multiple of 16) of buf in place in CBC mode.
+	 * The iv is replaced by the last ciphertext block.
+	 */
+	public void decryptCbc(byte[] iv, byte[] buf, int offset, int length) {
+		checkLength(length);
+		int c0 = bytesToWord(iv, 0);
+		int c1 = bytesToWord(iv, 4);
+		int c2 = bytesToWord(iv, 8);
+		int c3 = bytesToWord(iv, 12);
+		for (int end = offset + length; offset < end; offset += 16) {
+			int n0 = bytesToWord(buf, offset);
+			int n1 = bytesToWord(buf, offset + 4);
+			int n2 = bytesToWord(buf, offset + 8);
+			int n3 = bytesToWord(buf, offset + 12);
+			decrypt(n0, n1, n2, n3, buf, offset);
+			xorWord(c0, buf, offset);
+			xorWord(c1, buf, offset + 4);
+			xorWord(c2, buf, offset + 8);
+			xorWord(c3, buf, offset + 12);
+			c0 = n0;
+			c1 = n1;
+			c2 = n2;
+			c3 = n3;
 		}
+		wordToBytes(c0, iv, 0);
+		wordToBytes(c1, iv, 4);
+		wordToBytes(c2, iv, 8);
+		wordToBytes(c3, iv, 12);
 	}
 
-	private void shiftRows(byte[] block) {
-		byte temp = block[1];
-		block[1] = block[5];
-		block[5] = block[9];
-		block[9] = block[13];
-		block[13] = temp;
-
-		temp = block[2];
-		block[2] = block[10];
-		block[10] = temp;
-		temp = block[6];
-		block[6] = block[14];
-		block[14] = temp;
-
-		temp = block[3];
-		block[3] = block[15];
-		block[15] = block[11];
-		block[11] = block[7];
-		block[7] = temp;
-	}
-
-	private void mixColumns(byte[] block) {
-		for (int i = 0; i < 16; i += 4) {
-			byte d = (byte) (block[i] ^ block[i + 1] ^ block[i + 2] ^ block[i + 3]);
-			this.matrixMult[i] = (byte) (d ^ block[i] ^ mult2[block[i] & 0xff] ^ mult2[block[i + 1] & 0xff]);
-			this.matrixMult[i + 1] = (byte) (d ^ block[i + 1]
-					^ mult2[block[i + 1] & 0xff] ^ mult2[block[i + 2] & 0xff]);
-			this.matrixMult[i + 2] = (byte) (d ^ block[i + 2]
-					^ mult2[block[i + 2] & 0xff] ^ mult2[block[i + 3] & 0xff]);
-			this.matrixMult[i + 3] = (byte) (d ^ block[i + 3]
-					^ mult2[block[i + 3] & 0xff] ^ mult2[block[i] & 0xff]);
+	/**
+	 * Encrypts or decrypts length bytes of buf in place in CTR mode. The
+	 * 16 byte counter is incremented as a big-endian number for each block,
+	 * a final partial block uses up a whole counter value.
+	 */
+	public void processCtr(byte[] counter, byte[] buf, int offset, int length) {
+		byte[] keyStream = new byte[16];
+		int end = offset + length;
+		while (offset < end) {
+			encryptBlock(counter, 0, keyStream, 0);
+			for (int i = 15; (i >= 0) && (++counter[i] == 0); i--) {
+			}
+			int n = Math.min(16, end - offset);
+			for (int i = 0; i < n; i++) {
+				buf[offset++] ^= keyStream[i];
+			}
 		}
+	}
 
-		System.arraycopy(this.matrixMult, 0, block, 0, 16);
+	private static void checkLength(int length) {
+		if ((length & 15) != 0) {
+			throw new IllegalArgumentException("Length must be a multiple of the block size.");
+		}
 	}
 
-	public void encryptBlock(byte[] block) {
-		for (int i = 0; i < 36; i += 4) {
-			addRoundKey(block, i);
-			subBytes(block);
-			shiftRows(block);
-			mixColumns(block);
+	private static void xorWord(int w, byte[] b, int offset) {
+		b[offset++] ^= w >>> 24;
+		b[offset++] ^= w >>> 16;
+		b[offset++] ^= w >>> 8;
+		b[offset] ^= w;
+	}
+
+	private void encrypt(int s0, int s1, int s2, int s3, byte[] out, int outOffset) {
+		int[] rk = this.expandedKey;
+		s0 ^= rk[0];
+		s1 ^= rk[1];
+		s2 ^= rk[2];
+		s3 ^= rk[3];
+		int k = 4;
+		for (int round = 1; round < 10; round++) {
+			int t0 = Te0[s0 >>> 24] ^ Te1[(s1 >>> 16) & 0xff]
+					^ Te2[(s2 >>> 8) & 0xff] ^ Te3[s3 & 0xff] ^ rk[k];
+			int t1 = Te0[s1 >>> 24] ^ Te1[(s2 >>> 16) & 0xff]
+					^ Te2[(s3 >>> 8) & 0xff] ^ Te3[s0 & 0xff] ^ rk[k + 1];
+			int t2 = Te0[s2 >>> 24] ^ Te1[(s3 >>> 16) & 0xff]
+					^ Te2[(s0 >>> 8) & 0xff] ^ Te3[s1 & 0xff] ^ rk[k + 2];
+			int t3 = Te0[s3 >>> 24] ^ Te1[(s0 >>> 16) & 0xff]
+					^ Te2[(s1 >>> 8) & 0xff] ^ Te3[s2 & 0xff] ^ rk[k + 3];
+			s0 = t0;
+			s1 = t1;
+			s2 = t2;
+			s3 = t3;
+			k += 4;
+		}
+
+		// The last round has no MixColumns.
+		wordToBytes(lastRound(sBox, s0, s1, s2, s3) ^ rk[40], out, outOffset);
+		wordToBytes(lastRound(sBox, s1, s2, s3, s0) ^ rk[41], out, outOffset + 4);
+		wordToBytes(lastRound(sBox, s2, s3, s0, s1) ^ rk[42], out, outOffset + 8);
+		wordToBytes(lastRound(sBox, s3, s0, s1, s2) ^ rk[43], out, outOffset + 12);
+	}
+
+	private void decrypt(int s0, int s1, int s2, int s3, byte[] out, int outOffset) {
+		int[] rk = this.decryptionKey;
+		s0 ^= rk[0];
+		s1 ^= rk[1];
+		s2 ^= rk[2];
+		s3 ^= rk[3];
+		int k = 4;
+		for (int round = 1; round < 10; round++) {
+			int t0 = Td0[s0 >>> 24] ^ Td1[(s3 >>> 16) & 0xff]
+					^ Td2[(s2 >>> 8) & 0xff] ^ Td3[s1 & 0xff] ^ rk[k];
+			int t1 = Td0[s1 >>> 24] ^ Td1[(s0 >>> 16) & 0xff]
+					^ Td2[(s3 >>> 8) & 0xff] ^ Td3[s2 & 0xff] ^ rk[k + 1];
+			int t2 = Td0[s2 >>> 24] ^ Td1[(s1 >>> 16) & 0xff]
+					^ Td2[(s0 >>> 8) & 0xff] ^ Td3[s3 & 0xff] ^ rk[k + 2];
+			int t3 = Td0[s3 >>> 24] ^ Td1[(s2 >>> 16) & 0xff]
+					^ Td2[(s1 >>> 8) & 0xff] ^ Td3[s0 & 0xff] ^ rk[k + 3];
+			s0 = t0;
+			s1 = t1;
+			s2 = t2;
+			s3 = t3;
+			k += 4;
 		}
-		addRoundKey(block, 36);
-		subBytes(block);
-		shiftRows(block);
-		addRoundKey(block, 40);
+
+		wordToBytes(lastRound(invSBox, s0, s3, s2, s1) ^ rk[40], out, outOffset);
+		wordToBytes(lastRound(invSBox, s1, s0, s3, s2) ^ rk[41], out, outOffset + 4);
+		wordToBytes(lastRound(invSBox, s2, s1, s0, s3) ^ rk[42], out, outOffset + 8);
+		wordToBytes(lastRound(invSBox, s3, s2, s1, s0) ^ rk[43], out, outOffset + 12);
+	}
+
+	// One output column of the last round: the S-box applied to the bytes
+	// of the four columns on the diagonal.
+	private static int lastRound(byte[] box, int a, int b, int c, int d) {
+		return ((box[a >>> 24] & 0xff) << 24)
+				| ((box[(b >>> 16) & 0xff] & 0xff) << 16)
+				| ((box[(c >>> 8) & 0xff] & 0xff) << 8)
+				| (box[d & 0xff] & 0xff);
 	}
 
 	public int getBlockSize() {
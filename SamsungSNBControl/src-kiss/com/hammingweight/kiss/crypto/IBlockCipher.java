@@ -23,5 +23,9 @@ public interface IBlockCipher {
 	
 	public void encryptBlock(byte[] block);
 	
+	// Encrypts whole blocks of buf in place in CBC mode, leaving the last
+	// ciphertext block in iv.
+	public void encryptCbc(byte[] iv, byte[] buf, int offset, int length);
+	
 	public int getBlockSize();
 }
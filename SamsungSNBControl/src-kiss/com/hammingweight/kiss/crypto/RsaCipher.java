@@ -30,31 +30,34 @@ public class RsaCipher implements IRsaCipher {
 
 	private int modulusLengthInWords;
 
-	private byte[] modulus;
+	private int[] modulus;
 
 	private byte[] exponent;
 
 	private int modulusLength;
 	
 	// A method to copy a byte array.
-	private static byte[] copyByteArray(byte[] b) {
+	static byte[] copyByteArray(byte[] b) {
 		byte[] copy = new byte[b.length];
 		System.arraycopy(b, 0, copy, 0, b.length);
 		return copy;
 	}
 
-	// This utility method multiplies two n-bit values together. The values
-	// are represented as arrays of 32 words.
-	private void multiply(int[] x, int[] y, int[] xy) {
-		for (int i = 0; i < 2 * modulusLengthInWords; i++) {
+	// The word arithmetic below works on little endian arrays of n words and
+	// is shared with RsaCrtCipher, which works modulo the half length primes.
+
+	// This utility method multiplies two n word values together giving a 2n
+	// word value.
+	static void multiply(int[] x, int[] y, int[] xy, int n) {
+		for (int i = 0; i < 2 * n; i++) {
 			xy[i] = 0;
 		}
 
-		for (int i = 0; i < modulusLengthInWords; i++) {
+		for (int i = 0; i < n; i++) {
 			long c = 0;
 			long xi = x[i];
 			xi &= MASK_32_BITS;
-			for (int j = 0; j < modulusLengthInWords; j++) {
+			for (int j = 0; j < n; j++) {
 				long p = xi;
 				long yj = y[j];
 				yj &= MASK_32_BITS;
@@ -64,32 +67,31 @@ public class RsaCipher implements IRsaCipher {
 				xy[i + j] = (int) p;
 				c = p >>> NUM_BITS_PER_WORD;
 			}
-			xy[i + modulusLengthInWords] = (int) c;
+			xy[i + n] = (int) c;
 		}
 	}
 
-	// This routine multiplies a n bit value by a 32 bit value and returns
-	// the resultant n+32 bit value.
-	private void multiply(int[] x, long q, int[] p) {
+	// This routine multiplies a n word value by a 32 bit value and returns
+	// the resultant n+1 word value.
+	private static void multiply(int[] x, long q, int[] p, int n) {
 		long c = 0;
-		for (int i = 0; i < modulusLengthInWords; i++) {
+		for (int i = 0; i < n; i++) {
 			long xi = x[i];
 			xi &= MASK_32_BITS;
 			long pr = xi * q + c;
 			p[i] = (int) (pr);
 			c = pr >>> NUM_BITS_PER_WORD;
 		}
-		p[modulusLengthInWords] = (int) c;
+		p[n] = (int) c;
 	}
 
-	// A routine to do a modular reduction of a 2n bit value by an n bit
-	// modulus.
-	private void modulo(int[] x, int[] y) {
-		long yt = y[this.modulusLengthInWords - 1] >>> 1;
-
-		int[] p = new int[this.modulusLengthInWords + 1];
+	// A routine to do a modular reduction of a 2n word value by an n word
+	// modulus whose MSB is set. The remainder is left in the low n words of
+	// x, p is scratch space of n+1 words.
+	static void modulo(int[] x, int[] y, int[] p, int n) {
+		long yt = y[n - 1] >>> 1;
 
-		for (int i = 2 * modulusLengthInWords - 1; i >= modulusLengthInWords; i--) {
+		for (int i = 2 * n - 1; i >= n; i--) {
 			long xt1 = x[i];
 			xt1 <<= NUM_BITS_PER_WORD;
 			long xt2 = x[i - 1];
@@ -99,11 +101,15 @@ public class RsaCipher implements IRsaCipher {
 			// We've already compensated for yt's sign bit above.
 			xt2 >>>= 1;
 			long q = xt2 / yt;
+			if (q > MASK_32_BITS) {
+				// The estimate can only be too large, never too small.
+				q = MASK_32_BITS;
+			}
 
-			multiply(y, q, p);
+			multiply(y, q, p, n);
 			long b = 0;
-			for (int j = 0; j <= modulusLengthInWords; j++) {
-				long s = x[i - modulusLengthInWords + j];
+			for (int j = 0; j <= n; j++) {
+				long s = x[i - n + j];
 				s &= MASK_32_BITS;
 				long t = p[j];
 				t &= MASK_32_BITS;
@@ -115,19 +121,19 @@ public class RsaCipher implements IRsaCipher {
 				} else {
 					b = 0;
 				}
-				x[i - modulusLengthInWords + j] = (int) s;
+				x[i - n + j] = (int) s;
 			}
 
 			while (x[i] != 0) {
 				long c = 0;
-				for (int j = 0; j < modulusLengthInWords; j++) {
-					long s = x[i - modulusLengthInWords + j];
+				for (int j = 0; j < n; j++) {
+					long s = x[i - n + j];
 					s &= MASK_32_BITS;
 					long t = y[j];
 					t &= MASK_32_BITS;
 					s += t;
 					s += c;
-					x[i - modulusLengthInWords + j] = (int) s;
+					x[i - n + j] = (int) s;
 					c = s >>> NUM_BITS_PER_WORD;
 				}
 				x[i] += (int) c;
@@ -135,15 +141,88 @@ public class RsaCipher implements IRsaCipher {
 		}
 	}
 
-	// A method to convert big endian byte representation to a little endian
-	// word representation.
-	private int[] convertBytesToWords(byte[] x) {
-		int[] xi = new int[modulusLengthInWords];
-		for (int i = 0; i < modulusLengthInWords; i++) {
+	// The remainder left by modulo() may still exceed the modulus; this
+	// subtracts the modulus until it doesn't.
+	static void reduce(int[] x, int[] y, int n) {
+		while (compare(x, y, n) >= 0) {
+			subtract(x, y, n);
+		}
+	}
+
+	static int compare(int[] x, int[] y, int n) {
+		for (int i = n - 1; i >= 0; i--) {
+			if (x[i] != y[i]) {
+				return ((x[i] & MASK_32_BITS) < (y[i] & MASK_32_BITS)) ? -1 : 1;
+			}
+		}
+		return 0;
+	}
+
+	// x -= y over n words, returns the borrow.
+	static int subtract(int[] x, int[] y, int n) {
+		long b = 0;
+		for (int i = 0; i < n; i++) {
+			long s = (x[i] & MASK_32_BITS) - (y[i] & MASK_32_BITS) - b;
+			x[i] = (int) s;
+			b = (s < 0) ? 1 : 0;
+		}
+		return (int) b;
+	}
+
+	// x += y over n words, returns the carry.
+	static int add(int[] x, int[] y, int n) {
+		long c = 0;
+		for (int i = 0; i < n; i++) {
+			long s = (x[i] & MASK_32_BITS) + (y[i] & MASK_32_BITS) + c;
+			x[i] = (int) s;
+			c = s >>> NUM_BITS_PER_WORD;
+		}
+		return (int) c;
+	}
+
+	// Sets y to x^exponent mod m, all of n words; x is overwritten.
+	static void modPow(int[] x, byte[] exponent, int[] m, int[] y, int n) {
+		int[] y2 = new int[2 * n];
+		int[] p = new int[n + 1];
+		for (int i = 0; i < n; i++) {
+			y[i] = 0;
+		}
+		y[0] = 1;
+
+		// Copy the exponent.
+		byte[] exp2 = copyByteArray(exponent);
+
+		// Do the exponentiation.
+		for (int i = exp2.length - 1; i >= 0; i--) {
+			for (int j = 0; j < 8; j++) {
+				if ((exp2[i] & 1) == 1) {
+					multiply(x, y, y2, n);
+					modulo(y2, m, p, n);
+					System.arraycopy(y2, 0, y, 0, n);
+				}
+				exp2[i] >>>= 1;
+				
+				if ((i == 0) && (exp2[i] == 0)) {
+					break;
+				}
+				multiply(x, x, y2, n);
+				modulo(y2, m, p, n);
+				System.arraycopy(y2, 0, x, 0, n);
+			}
+		}
+		reduce(y, m, n);
+	}
+
+	// A method to convert a big endian byte representation of 4n bytes to a
+	// little endian word representation of n words.
+	static int[] convertBytesToWords(byte[] x, int n) {
+		int[] xi = new int[n];
+		int length = n * NUM_BYTES_PER_WORD;
+		for (int i = 0; i < n; i++) {
 			int xi1 = 0;
 			for (int j = NUM_BYTES_PER_WORD; j > 0; j--) {
 				xi1 <<= 8;
-				int b = x[this.modulusLength - NUM_BYTES_PER_WORD * i - j];
+				int b = x[length - NUM_BYTES_PER_WORD * i - j];
 				b &= 0xFF;
 				xi1 += b;
 			}
@@ -153,19 +232,29 @@ public class RsaCipher implements IRsaCipher {
 		return xi;
 	}
 
-	// A method to convert a little endian word representation to a big endian
-	// byte representation.
-	private byte[] convertWordsToBytes(int[] p) {
-		byte[] x = new byte[this.modulusLength];
-		for (int i = 0; i < modulusLengthInWords; i++) {
+	// A method to convert a little endian word representation of n words to
+	// a big endian byte representation, written to the first 4n bytes of x.
+	static void convertWordsToBytes(int[] p, byte[] x, int n) {
+		int length = n * NUM_BYTES_PER_WORD;
+		for (int i = 0; i < n; i++) {
 			int pi1 = p[i];
 			for (int j = 1; j <= NUM_BYTES_PER_WORD; j++) {
-				x[this.modulusLength - 4 * i - j] = (byte) pi1;
+				x[length - 4 * i - j] = (byte) pi1;
 				pi1 >>= 8;
 			}
 		}
+	}
 
-		return x;
+	// The checks of setModulus, also applied to the primes of RsaCrtCipher.
+	static void checkModulus(byte[] modulus) {
+		if ((modulus[0] & 0x80) == 0) {
+			throw new IllegalArgumentException(
+					"The MSB of the modulus must be set.");
+		}
+		if ((modulus.length & 3) != 0) {
+			throw new IllegalArgumentException(
+					"The modulus length must be a multiple of 32 bits.");
+		}
 	}
 
 	public RsaCipher() {
@@ -178,39 +267,14 @@ public class RsaCipher implements IRsaCipher {
 	}
 
 	public void exponentiate(byte[] data) {
-		int[] x = convertBytesToWords(data);
-		int[] mi = convertBytesToWords(modulus);
+		int[] x = convertBytesToWords(data, this.modulusLengthInWords);
 
 		// y holds the result of the exponentiation.
 		int[] y = new int[this.modulusLengthInWords];
-		int[] y2 = new int[this.modulusLengthInWords * 2];
-		y[0] = 1;
-
-		// Copy the exponent.
-		byte[] exp2 = copyByteArray(this.exponent);
-
-		// Do the exponentiation.
-		for (int i = exp2.length - 1; i >= 0; i--) {
-			for (int j = 0; j < 8; j++) {
-				if ((exp2[i] & 1) == 1) {
-					multiply(x, y, y2);
-					modulo(y2, mi);
-					System.arraycopy(y2, 0, y, 0, this.modulusLengthInWords);
-				}
-				exp2[i] >>>= 1;
-				
-				if ((i == 0) && (exp2[i] == 0)) {
-					break;
-				}
-				multiply(x, x, y2);
-				modulo(y2, mi);
-				System.arraycopy(y2, 0, x, 0, this.modulusLengthInWords);
-			}
-		}
+		modPow(x, this.exponent, this.modulus, y, this.modulusLengthInWords);
 
 		// Convert the result from words to bytes.
-		byte[] temp = this.convertWordsToBytes(y);
-		System.arraycopy(temp, 0, data, 0, this.modulusLength);
+		convertWordsToBytes(y, data, this.modulusLengthInWords);
 	}
 
 	public int getModulusLength() {
@@ -222,17 +286,10 @@ public class RsaCipher implements IRsaCipher {
 	}
 
 	public void setModulus(byte[] modulus) {
-		if ((modulus[0] & 0x80) == 0) {
-			throw new IllegalArgumentException(
-					"The MSB of the modulus must be set.");
-		}
-		if ((modulus.length & 3) != 0) {
-			throw new IllegalArgumentException(
-					"The modulus length must be a multiple of 32 bits.");
-		}
-		this.modulus = copyByteArray(modulus);
+		checkModulus(modulus);
 		this.modulusLength = modulus.length;
 		this.modulusLengthInWords = modulus.length / NUM_BYTES_PER_WORD;
+		this.modulus = convertBytesToWords(modulus, this.modulusLengthInWords);
 	}
 
 }
@@ -0,0 +1,277 @@
+/*
+ * RsaCrtCipher.java
+ *  
+ * Copyright 2008 C.A. Meijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hammingweight.kiss.crypto;
+
+/**
+ * An RSA cipher for private key operations that uses the Chinese Remainder
+ * Theorem: the exponentiation is done modulo p and modulo q with the
+ * exponents dP and dQ, which is about four times faster than an
+ * exponentiation modulo n with d. The input is blinded with a random value
+ * so that the time taken doesn't depend on the data being decrypted or
+ * signed.
+ */
+public class RsaCrtCipher implements IRsaCipher {
+
+	private static final int NUM_BYTES_PER_WORD = 4;
+
+	private int modulusLength;
+
+	private int modulusLengthInWords;
+
+	private int primeLengthInWords;
+
+	private int[] modulus;
+
+	private byte[] exponent;
+
+	private int[] p;
+
+	private int[] q;
+
+	private byte[] dP;
+
+	private byte[] dQ;
+
+	private int[] qInv;
+
+	private IRandomNumberGenerator rng;
+
+	// The blinding value r^e mod n and its inverse r^-1 mod n. Both are
+	// squared after every exponentiation to get the next pair.
+	private int[] blind;
+
+	private int[] unblind;
+
+	// A method to convert a big endian byte representation of at most 4n
+	// significant bytes to a little endian word representation of n words.
+	private static int[] toWords(byte[] x, int n) {
+		byte[] padded = new byte[n * NUM_BYTES_PER_WORD];
+		int start = 0;
+		while ((start < x.length) && (x.length - start > padded.length)) {
+			if (x[start] != 0) {
+				throw new IllegalArgumentException("The value is too large.");
+			}
+			start++;
+		}
+		System.arraycopy(x, start, padded, padded.length - (x.length - start),
+				x.length - start);
+		return RsaCipher.convertBytesToWords(padded, n);
+	}
+
+	// x mod m where x has 2n words and m has n words.
+	private static int[] mod(int[] x, int[] m, int n) {
+		int[] x2 = new int[2 * n];
+		System.arraycopy(x, 0, x2, 0, 2 * n);
+
+		// RsaCipher.modulo() needs the top n words to be less than m; since
+		// the MSB of m is set one subtraction is enough.
+		int[] top = new int[n];
+		System.arraycopy(x2, n, top, 0, n);
+		RsaCipher.reduce(top, m, n);
+		System.arraycopy(top, 0, x2, n, n);
+		RsaCipher.modulo(x2, m, new int[n + 1], n);
+		int[] r = new int[n];
+		System.arraycopy(x2, 0, r, 0, n);
+		RsaCipher.reduce(r, m, n);
+		return r;
+	}
+
+	// x * y mod m, all of n words.
+	private static int[] multiplyMod(int[] x, int[] y, int[] m, int n) {
+		int[] xy = new int[2 * n];
+		RsaCipher.multiply(x, y, xy, n);
+		return mod(xy, m, n);
+	}
+
+	public RsaCrtCipher(IRandomNumberGenerator rng) {
+		this.rng = rng;
+	}
+
+	public RsaCrtCipher(byte[] modulus, byte[] exponent, byte[] p, byte[] q,
+			byte[] dP, byte[] dQ, byte[] qInv, IRandomNumberGenerator rng) {
+		this(rng);
+		setModulus(modulus);
+		setExponent(exponent);
+		setPrivateKey(p, q, dP, dQ, qInv);
+	}
+
+	public void setModulus(byte[] modulus) {
+		RsaCipher.checkModulus(modulus);
+		if ((modulus.length & 7) != 0) {
+			throw new IllegalArgumentException(
+					"The modulus length must be a multiple of 64 bits.");
+		}
+		this.modulusLength = modulus.length;
+		this.modulusLengthInWords = modulus.length / NUM_BYTES_PER_WORD;
+		this.primeLengthInWords = this.modulusLengthInWords / 2;
+		this.modulus = RsaCipher.convertBytesToWords(modulus,
+				this.modulusLengthInWords);
+		this.blind = null;
+	}
+
+	// The public exponent, which is needed to blind the input.
+	public void setExponent(byte[] exponent) {
+		this.exponent = RsaCipher.copyByteArray(exponent);
+		this.blind = null;
+	}
+
+	// The primes p and q must both be half the length of the modulus with
+	// their MSBs set; dP = d mod (p-1), dQ = d mod (q-1) and
+	// qInv = q^-1 mod p.
+	public void setPrivateKey(byte[] p, byte[] q, byte[] dP, byte[] dQ,
+			byte[] qInv) {
+		if (this.modulus == null) {
+			throw new IllegalStateException("The modulus must be set first.");
+		}
+		if ((p.length != this.modulusLength / 2)
+				|| (q.length != this.modulusLength / 2)) {
+			throw new IllegalArgumentException(
+					"The primes must be half the length of the modulus.");
+		}
+		RsaCipher.checkModulus(p);
+		RsaCipher.checkModulus(q);
+		this.p = RsaCipher.convertBytesToWords(p, this.primeLengthInWords);
+		this.q = RsaCipher.convertBytesToWords(q, this.primeLengthInWords);
+		this.dP = RsaCipher.copyByteArray(dP);
+		this.dQ = RsaCipher.copyByteArray(dQ);
+		this.qInv = toWords(qInv, this.primeLengthInWords);
+		this.blind = null;
+	}
+
+	// Combines m1 = m mod p and m2 = m mod q into m mod n using Garner's
+	// formula m = m2 + q * (qInv * (m1 - m2) mod p).
+	private int[] combine(int[] m1, int[] m2) {
+		int n = this.primeLengthInWords;
+
+		// q < 2p so m2 mod p needs at most one subtraction.
+		int[] h = new int[n];
+		System.arraycopy(m2, 0, h, 0, n);
+		RsaCipher.reduce(h, this.p, n);
+		if (RsaCipher.subtract(h, m1, n) == 0) {
+			// h = (m2 mod p) - m1, so m1 - m2 is p - h.
+			if (RsaCipher.compare(h, new int[n], n) != 0) {
+				int[] t = new int[n];
+				System.arraycopy(this.p, 0, t, 0, n);
+				RsaCipher.subtract(t, h, n);
+				h = t;
+			}
+		} else {
+			// The subtraction wrapped around, so m1 - m2 = -h mod 2^32n.
+			int[] t = new int[n];
+			RsaCipher.subtract(t, h, n);
+			h = t;
+		}
+		h = multiplyMod(this.qInv, h, this.p, n);
+
+		int[] m = new int[2 * n];
+		RsaCipher.multiply(h, this.q, m, n);
+		int[] m2Wide = new int[2 * n];
+		System.arraycopy(m2, 0, m2Wide, 0, n);
+		RsaCipher.add(m, m2Wide, 2 * n);
+		return m;
+	}
+
+	// Picks a random r and sets the blinding pair r^e and r^-1 mod n, with
+	// the inverse computed modulo each prime as r^(p-2) and r^(q-2).
+	private void initBlinding() {
+		int n = this.primeLengthInWords;
+		byte[] rb = new byte[this.modulusLength];
+		int[] r;
+		int[] rp;
+		int[] rq;
+		do {
+			this.rng.generate(rb);
+			rb[0] &= 0x7F;
+			r = RsaCipher.convertBytesToWords(rb, this.modulusLengthInWords);
+			rp = mod(r, this.p, n);
+			rq = mod(r, this.q, n);
+		} while (isZero(rp) || isZero(rq));
+
+		this.blind = new int[this.modulusLengthInWords];
+		int[] x = new int[this.modulusLengthInWords];
+		System.arraycopy(r, 0, x, 0, x.length);
+		RsaCipher.modPow(x, this.exponent, this.modulus, this.blind,
+				this.modulusLengthInWords);
+
+		int[] ip = new int[n];
+		RsaCipher.modPow(rp, primeMinusTwo(this.p), this.p, ip, n);
+		int[] iq = new int[n];
+		RsaCipher.modPow(rq, primeMinusTwo(this.q), this.q, iq, n);
+		this.unblind = combine(ip, iq);
+	}
+
+	private static boolean isZero(int[] x) {
+		for (int i = 0; i < x.length; i++) {
+			if (x[i] != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// The big endian bytes of p - 2, the exponent that inverts modulo p.
+	private byte[] primeMinusTwo(int[] p) {
+		int n = this.primeLengthInWords;
+		int[] t = new int[n];
+		System.arraycopy(p, 0, t, 0, n);
+		int[] two = new int[n];
+		two[0] = 2;
+		RsaCipher.subtract(t, two, n);
+		byte[] b = new byte[n * NUM_BYTES_PER_WORD];
+		RsaCipher.convertWordsToBytes(t, b, n);
+		return b;
+	}
+
+	public void exponentiate(byte[] data) {
+		if ((this.p == null) || (this.exponent == null)) {
+			throw new IllegalStateException("The private key must be set.");
+		}
+		if (this.blind == null) {
+			initBlinding();
+		}
+		int n = this.primeLengthInWords;
+		int[] c = RsaCipher.convertBytesToWords(data,
+				this.modulusLengthInWords);
+
+		// Blind the input: c * r^e mod n.
+		c = multiplyMod(c, this.blind, this.modulus, this.modulusLengthInWords);
+
+		int[] m1 = new int[n];
+		RsaCipher.modPow(mod(c, this.p, n), this.dP, this.p, m1, n);
+		int[] m2 = new int[n];
+		RsaCipher.modPow(mod(c, this.q, n), this.dQ, this.q, m2, n);
+		int[] m = combine(m1, m2);
+
+		// Unblind the result: (m * r) * r^-1 mod n.
+		m = multiplyMod(m, this.unblind, this.modulus,
+				this.modulusLengthInWords);
+		RsaCipher.convertWordsToBytes(m, data, this.modulusLengthInWords);
+
+		// Square the blinding pair for the next exponentiation.
+		this.blind = multiplyMod(this.blind, this.blind, this.modulus,
+				this.modulusLengthInWords);
+		this.unblind = multiplyMod(this.unblind, this.unblind, this.modulus,
+				this.modulusLengthInWords);
+	}
+
+	public int getModulusLength() {
+		return this.modulusLength;
+	}
+
+}
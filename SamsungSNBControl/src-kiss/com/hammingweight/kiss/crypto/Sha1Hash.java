@@ -34,7 +34,9 @@ public class Sha1Hash implements IHashAlgorithm {
 
 	private int h0, h1, h2, h3, h4;
 
-	private int numBytesDigested;
+	// The number of bytes hashed so far; the low 6 bits give the number of
+	// bytes waiting in block.
+	private long numBytesDigested;
 
 	private void init() {
 		h0 = 0x67452301;
@@ -56,13 +58,14 @@ public class Sha1Hash implements IHashAlgorithm {
 		return x + y;
 	}
 
-	private void bytesToInts() {
-		int index = 0;
+	// Loads the 64 byte block at offset into w and expands it.
+	private void bytesToInts(byte[] buf, int offset) {
+		int index = offset;
 		for (int i = 0; i < 16; i++) {
-			int c = (this.block[index++] & 0xFF) << 24;
-			c += (this.block[index++] & 0xFF) << 16;
-			c += (this.block[index++] & 0xFF) << 8;
-			this.w[i] = c + (this.block[index++] & 0xFF);
+			int c = (buf[index++] & 0xFF) << 24;
+			c += (buf[index++] & 0xFF) << 16;
+			c += (buf[index++] & 0xFF) << 8;
+			this.w[i] = c + (buf[index++] & 0xFF);
 		}
 
 		for (int i = 16; i < 80; i++) {
@@ -120,39 +123,77 @@ public class Sha1Hash implements IHashAlgorithm {
 		h4 += e;
 	}
 
-	private void updateByte(byte b) {
+	public void update(byte b) {
 		int blockOffset = (int) (0x3F & this.numBytesDigested++);
 		this.block[blockOffset] = b;
 		if (blockOffset == 0x3F) {
-			bytesToInts();
+			bytesToInts(this.block, 0);
 			compress();
 		}
 	}
 
-	public void update(byte[] messageBlock) {
-		for (int i = 0; i < messageBlock.length; i++) {
-			this.updateByte(messageBlock[i]);
+	// Hashes len bytes of buf starting at offset. Whole blocks are
+	// compressed straight from buf; only the bytes that don't fill a block
+	// are copied to be hashed with the next update.
+	public void update(byte[] buf, int offset, int len) {
+		int blockOffset = (int) (0x3F & this.numBytesDigested);
+		this.numBytesDigested += len;
+
+		if (blockOffset != 0) {
+			int n = Math.min(len, 64 - blockOffset);
+			System.arraycopy(buf, offset, this.block, blockOffset, n);
+			offset += n;
+			len -= n;
+			if (blockOffset + n < 64) {
+				return;
+			}
+			bytesToInts(this.block, 0);
+			compress();
+		}
+
+		while (len >= 64) {
+			bytesToInts(buf, offset);
+			compress();
+			offset += 64;
+			len -= 64;
 		}
+
+		System.arraycopy(buf, offset, this.block, 0, len);
 	}
 
-	public byte[] doFinal(byte[] messageBlock) {
-		update(messageBlock);
-		int messageLengthInBits = this.numBytesDigested * 8;
-		updateByte((byte) 0x80);
+	public void update(byte[] messageBlock) {
+		update(messageBlock, 0, messageBlock.length);
+	}
+
+	// Pads the message, returns its hash and resets this object so that it
+	// can hash another message.
+	public byte[] digest() {
+		long messageLengthInBits = this.numBytesDigested * 8;
+		int blockOffset = (int) (0x3F & this.numBytesDigested);
+		this.block[blockOffset++] = (byte) 0x80;
 
 		// Pad until we get to byte 56 in the last block. 
 		// The SHA spec refers to bit 448.  448 / 8 = 56;
 		// so bit 448 corresponds to byte 56.
-		while ((this.numBytesDigested & 0x3F) != 56) {
-			updateByte((byte) 0);
+		if (blockOffset > 56) {
+			while (blockOffset < 64) {
+				this.block[blockOffset++] = 0;
+			}
+			bytesToInts(this.block, 0);
+			compress();
+			blockOffset = 0;
+		}
+		while (blockOffset < 56) {
+			this.block[blockOffset++] = 0;
 		}
 
 		// Encode the length of the original message in the last
 		// 8 bytes.
 		for (int i = 0; i < 8; i++) {
-			updateByte(i < 4 ? (byte) 0
-					: (byte) (messageLengthInBits >>> (56 - 8 * i)));
+			this.block[56 + i] = (byte) (messageLengthInBits >>> (56 - 8 * i));
 		}
+		bytesToInts(this.block, 0);
+		compress();
 
 		// Convert the hash words to an array of bytes.
 		byte[] hash = new byte[20];
@@ -171,6 +212,11 @@ public class Sha1Hash implements IHashAlgorithm {
 		return hash;
 	}
 
+	public byte[] doFinal(byte[] messageBlock) {
+		update(messageBlock);
+		return digest();
+	}
+
 	public int getHashSize() {
 		return 20;
 	}
@@ -50,23 +50,15 @@ public abstract class AXmlBlockCipher implements IXmlCipher {
 		this.cipher.encryptBlock(this.block);
 		System.arraycopy(this.block, 0, enc, 0, this.blockSize);
 
-		int blockOffset = 0;
-		int encOffset = this.blockSize;
-		for (int i = 0; i < plaintext.length; i++) {
-			this.block[blockOffset++] ^= plaintext[i];
-			if (blockOffset == this.blockSize) {
-				this.cipher.encryptBlock(block);
-				blockOffset = 0;
-				System.arraycopy(block, 0, enc, encOffset, this.blockSize);
-				encOffset += this.blockSize;
-			}
-		}
-		
-		// Add padding to the last block.
-		this.rng.generate(this.block, blockOffset, this.blockSize - blockOffset - 1);
-		this.block[this.blockSize - 1] ^= (byte) (this.blockSize - blockOffset);
-		this.cipher.encryptBlock(this.block);
-		System.arraycopy(block, 0, enc, encOffset, this.blockSize);
+		// Copy the plaintext and add the padding: random bytes and the
+		// number of bytes added.
+		int padOffset = this.blockSize + plaintext.length;
+		System.arraycopy(plaintext, 0, enc, this.blockSize, plaintext.length);
+		this.rng.generate(enc, padOffset, encLen - padOffset - 1);
+		enc[encLen - 1] = (byte) (encLen - padOffset);
+
+		// Chain the blocks from the IV in place.
+		this.cipher.encryptCbc(this.block, enc, this.blockSize, encLen - this.blockSize);
 		
 		return enc;
 	}
@@ -41,13 +41,14 @@ public class RsaOaep implements IXmlKeyWrap {
 		// bytes).
 		byte[] T = new byte[numIterations * hLen];
 
-		// mgfC contains mgfSeed || C where C is a 4 byte counter.
-		byte[] mgfC = new byte[mgfSeed.length + 4];
-		System.arraycopy(mgfSeed, 0, mgfC, 0, mgfSeed.length);
+		// C is a 4 byte counter hashed after mgfSeed.
+		byte[] C = new byte[4];
 
 		for (int c = 0; c < numIterations; c++) {
-			mgfC[mgfC.length - 1] = (byte) c;
-			byte[] hash = this.hash.doFinal(mgfC);
+			C[3] = (byte) c;
+			this.hash.update(mgfSeed);
+			this.hash.update(C, 0, 4);
+			byte[] hash = this.hash.digest();
 			System.arraycopy(hash, 0, T, c * hLen, hLen);
 		}
 
@@ -0,0 +1,144 @@
+package onvif.model;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+
+import org.kxml2.io.KXmlParser;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Pulls the needed elements out of a SOAP response without building a DOM.
+ * Elements are matched by their local name, so "Hour" matches "tt:Hour"
+ * whatever prefix the device uses. The reader only moves forward: find the
+ * element, then read the values of its children, e.g.
+ * 
+ * <pre>
+ * ResponseReader reader = new ResponseReader(response);
+ * if (reader.find("MediaUri")) {
+ * 	String[] values = reader.readValues("Uri", "Timeout");
+ * }
+ * </pre>
+ * 
+ * The parser is the XmlPullParser of kxml2, from the ksoap2-android jar
+ * already in libs. javax.xml.stream of JavaSE-1.6 would do as well; the
+ * pull parser was chosen as the API that ksoap2 and Android also use.
+ */
+public class ResponseReader {
+
+	private XmlPullParser parser = new KXmlParser();
+	private boolean ok = true;
+
+	/**
+	 * Reading a response string
+	 * @param xml string
+	 * */
+	public ResponseReader(String xml) {
+		try {
+			parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+			parser.setInput(new StringReader(xml));
+		} catch (XmlPullParserException e) {
+			error(e);
+		}
+	}
+
+	/**
+	 * Reading a response as it arrives
+	 * @param in stream
+	 * @param encoding of the stream, null to detect it
+	 * */
+	public ResponseReader(InputStream in, String encoding) {
+		try {
+			parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+			parser.setInput(in, encoding);
+		} catch (XmlPullParserException e) {
+			error(e);
+		}
+	}
+
+	/**
+	 * Moving to the next element with the local name
+	 * @param name local name
+	 * @return false at the end of the document
+	 * */
+	public boolean find(String name) {
+		try {
+			while (ok) {
+				int event = parser.next();
+				if (event == XmlPullParser.END_DOCUMENT) {
+					return false;
+				}
+				if (event == XmlPullParser.START_TAG && name.equals(parser.getName())) {
+					return true;
+				}
+			}
+		} catch (XmlPullParserException e) {
+			error(e);
+		} catch (IOException e) {
+			error(e);
+		}
+		return false;
+	}
+
+	/**
+	 * Reading the text of the descendants of the current element, which is
+	 * left behind. Only the first element of each name is read.
+	 * @param names local names
+	 * @return the values in the order of the names, "" for the missing ones
+	 * */
+	public String[] readValues(String... names) {
+		String[] values = new String[names.length];
+		try {
+			int depth = parser.getDepth();
+			while (ok) {
+				int event = parser.next();
+				if (event == XmlPullParser.END_DOCUMENT
+						|| (event == XmlPullParser.END_TAG && parser.getDepth() == depth)) {
+					break;
+				}
+				if (event != XmlPullParser.START_TAG) {
+					continue;
+				}
+				for (int i = 0; i < names.length; i++) {
+					if (values[i] == null && names[i].equals(parser.getName())) {
+						values[i] = readText();
+						break;
+					}
+				}
+			}
+		} catch (XmlPullParserException e) {
+			error(e);
+		} catch (IOException e) {
+			error(e);
+		}
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] == null) {
+				values[i] = "";
+			}
+		}
+		return values;
+	}
+
+	// the first text child, as XMLParser.getElementValue(); the parser is
+	// left on the end tag of the element
+	private String readText() throws XmlPullParserException, IOException {
+		String text = null;
+		int depth = parser.getDepth();
+		int event;
+		while ((event = parser.next()) != XmlPullParser.END_DOCUMENT) {
+			if (event == XmlPullParser.END_TAG && parser.getDepth() == depth) {
+				break;
+			}
+			if (event == XmlPullParser.TEXT && text == null && parser.getDepth() == depth) {
+				text = parser.getText();
+			}
+		}
+		return (text == null) ? "" : text;
+	}
+
+	private void error(Exception e) {
+		ok = false;
+		System.err.println("Error: " + e.getMessage());
+	}
+}
@@ -9,11 +9,16 @@ import org.apache.http.HttpResponse;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.params.HttpClientParams;
 import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.params.HttpParams;
 import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.EntityUtils;
 
 public class WsHelper {
@@ -76,18 +81,49 @@ public class WsHelper {
 	
 
 	//SSL (12-11-14)
-	public static String callWebService(OnvifRequest request) {
-		
-		DefaultHttpClient httpClient = new DefaultHttpClient();
-		
-		httpClient = (DefaultHttpClient)WebClientDevWrapper.wrapClient(httpClient);		//SSL
-		
+	// one client for all the calls: its pool keeps the connections to each
+	// camera open between calls, and bounds the concurrent calls
+	private static final int MAX_CONNECTIONS = 16;
+	private static final int MAX_CONNECTIONS_PER_HOST = 4;
+	private static final long KEEP_ALIVE = 30000;	// if the camera doesn't say
+
+	private static DefaultHttpClient httpClient;
+
+	private static synchronized DefaultHttpClient getHttpClient() {
+		if (httpClient != null)
+			return httpClient;
+
+		PoolingClientConnectionManager cm = new PoolingClientConnectionManager();
+		cm.setMaxTotal(MAX_CONNECTIONS);
+		cm.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_HOST);
+
 		// request parameters
-		HttpParams params = httpClient.getParams();
+		HttpParams params = new BasicHttpParams();
 		HttpConnectionParams.setConnectionTimeout(params, 10000);
 		HttpConnectionParams.setSoTimeout(params, 15000);
+		HttpConnectionParams.setStaleCheckingEnabled(params, true);
+		HttpConnectionParams.setTcpNoDelay(params, true);	// the envelope follows the headers on a kept alive connection
+		HttpClientParams.setConnectionManagerTimeout(params, 10000);	// waiting for a free connection
 		// set parameter
-		HttpProtocolParams.setUseExpectContinue(httpClient.getParams(), false);	//IMPORTANT !!
+		HttpProtocolParams.setUseExpectContinue(params, false);	//IMPORTANT !!
+
+		DefaultHttpClient client = (DefaultHttpClient)WebClientDevWrapper.wrapClient(new DefaultHttpClient(cm, params));		//SSL
+		if (client == null)
+			client = new DefaultHttpClient(cm, params);
+		client.setKeepAliveStrategy(new DefaultConnectionKeepAliveStrategy() {
+			public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+				long duration = super.getKeepAliveDuration(response, context);
+				return (duration > 0) ? Math.min(duration, KEEP_ALIVE) : KEEP_ALIVE;
+			}
+		});
+		httpClient = client;
+		return httpClient;
+	}
+
+	public static String callWebService(OnvifRequest request) {
+		
+		DefaultHttpClient httpClient = getHttpClient();
+		httpClient.getConnectionManager().closeExpiredConnections();
 
 		// POST the envelope
 		HttpPost httpPost = new HttpPost(request.getUrl());
@@ -99,10 +135,11 @@ public class WsHelper {
 		try {
 
 			// the entity holds the request
-			HttpEntity entity = new StringEntity(request.getEnvelope());
+			HttpEntity entity = new StringEntity(request.getEnvelope(), "UTF-8");
 			httpPost.setEntity(entity);
 
-			// Response handler
+			// Response handler, the connection goes back to the pool once
+			// the entity is read
 			ResponseHandler<String> rh = new ResponseHandler<String>() {
 				// invoked when client receives response
 				public String handleResponse(HttpResponse response)
@@ -110,25 +147,27 @@ public class WsHelper {
 
 					// get response entity
 					HttpEntity entity = response.getEntity();
-
-					// read the response as byte array
-					StringBuffer out = new StringBuffer();
-					byte[] b = EntityUtils.toByteArray(entity);
-
-					// write the response byte array to a string buffer
-					out.append(new String(b, 0, b.length));
-					return out.toString();
+					if (entity == null)
+						return "";
+					return EntityUtils.toString(entity, "UTF-8");
 				}
 			};
 
 			responseString = httpClient.execute(httpPost, rh);
 
 		} catch (Exception e) {
+			httpPost.abort();
 			e.printStackTrace();
 		}
 
-		// close the connection
-		httpClient.getConnectionManager().shutdown();
 		return responseString;
 	}
+
+	// closes the pooled connections, e.g. when the application exits
+	public static synchronized void shutdown() {
+		if (httpClient != null) {
+			httpClient.getConnectionManager().shutdown();
+			httpClient = null;
+		}
+	}
 }
@@ -1,9 +1,5 @@
 package onvif.model.device;
 
-import org.w3c.dom.Document;
-
-import test.XMLParser;
-
 public class GetCapabilitiesResponse {
 
 	
@@ -15,10 +11,7 @@ public class GetCapabilitiesResponse {
 	public GetCapabilitiesResponse(String response){
 		
 		
-		//
-		XMLParser parser = new XMLParser();
-		Document doc = parser.getDomElement(response);
-		//
+		//nothing is read from the response yet, see ResponseReader
 		
 	}
 }
@@ -1,10 +1,6 @@
 package onvif.model.device;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-
-import test.XMLParser;
+import onvif.model.ResponseReader;
 
 public class GetSystemDateAndTimeResponse {
 	
@@ -21,27 +17,29 @@ public class GetSystemDateAndTimeResponse {
 	}
 	
 	public GetSystemDateAndTimeResponse(String response){
-		String TIME_ITEM = "tt:Time";
-		String DATE_ITEM = "tt:Date"; 
+		String TIME_ITEM = "Time";
+		String DATE_ITEM = "Date"; 
 		
 		
-		XMLParser parser = new XMLParser();
-		Document doc = parser.getDomElement(response);
+		// the UTCDateTime comes first, and its Time before its Date
+		ResponseReader reader = new ResponseReader(response);
 		//Time
-		NodeList nl = doc.getElementsByTagName(TIME_ITEM);
+		if (!reader.find(TIME_ITEM))
+			return;
 		//
-		Element e = (Element)nl.item(0);
-		hour = Integer.parseInt(parser.getValue(e, "tt:Hour"));
-		minute = Integer.parseInt(parser.getValue(e, "tt:Minute"));
-		second = Integer.parseInt(parser.getValue(e, "tt:Second"));
+		String[] values = reader.readValues("Hour", "Minute", "Second");
+		hour = Integer.parseInt(values[0]);
+		minute = Integer.parseInt(values[1]);
+		second = Integer.parseInt(values[2]);
 		
 		//Date
-		nl = doc.getElementsByTagName(DATE_ITEM);
+		if (!reader.find(DATE_ITEM))
+			return;
 		//
-		e = (Element)nl.item(0);
-		year = Integer.parseInt(parser.getValue(e, "tt:Year"));
-		month = Integer.parseInt(parser.getValue(e, "tt:Month"));
-		day = Integer.parseInt(parser.getValue(e, "tt:Day"));
+		values = reader.readValues("Year", "Month", "Day");
+		year = Integer.parseInt(values[0]);
+		month = Integer.parseInt(values[1]);
+		day = Integer.parseInt(values[2]);
 	}
 
 	//
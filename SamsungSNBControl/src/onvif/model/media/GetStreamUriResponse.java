@@ -1,10 +1,6 @@
 package onvif.model.media;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-
-import test.XMLParser;
+import onvif.model.ResponseReader;
 
 public class GetStreamUriResponse {
 
@@ -20,16 +16,16 @@ public class GetStreamUriResponse {
 	
 	public GetStreamUriResponse(String response){
 		
-		XMLParser parser = new XMLParser();
-		Document doc = parser.getDomElement(response);
+		ResponseReader reader = new ResponseReader(response);
 		//
-		NodeList nl = doc.getElementsByTagName("trt:MediaUri");
+		if (!reader.find("MediaUri"))
+			return;
 		//
-		Element e = (Element)nl.item(0);
-		uri = parser.getValue(e, "tt:Uri");
-		invalidAfterConnect = Boolean.parseBoolean(parser.getValue(e, "tt:InvalidAfterConnect"));
-		invalidAfterReboot = Boolean.parseBoolean(parser.getValue(e, "tt:InvalidAfterReboot"));
-		timeout = parser.getValue(e, "tt:Timeout");
+		String[] values = reader.readValues("Uri", "InvalidAfterConnect", "InvalidAfterReboot", "Timeout");
+		uri = values[0];
+		invalidAfterConnect = Boolean.parseBoolean(values[1]);
+		invalidAfterReboot = Boolean.parseBoolean(values[2]);
+		timeout = values[3];
 	}
 
 	//
@@ -0,0 +1,269 @@
+package test;
+
+import java.math.BigInteger;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.interfaces.RSAPrivateCrtKey;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.hammingweight.kiss.crypto.Aes128;
+import com.hammingweight.kiss.crypto.IRandomNumberGenerator;
+import com.hammingweight.kiss.crypto.RsaCipher;
+import com.hammingweight.kiss.crypto.RsaCrtCipher;
+import com.hammingweight.kiss.crypto.Sha1Hash;
+
+/**
+ * Known answer tests of the kiss crypto classes, checked against the
+ * published test vectors and the JCE of the desktop JVM, followed by a
+ * throughput benchmark. Run as a plain Java application.
+ */
+public class CryptoTest {
+
+	private static int failures = 0;
+
+	public static void main(String[] args) throws Exception {
+		testAesKnownAnswers();
+		testAesAgainstJce();
+		benchmarkAes();
+		testSha1();
+		benchmarkSha1();
+		testRsaCrt();
+
+		System.out.println(failures == 0 ? "All tests passed" : failures + " test(s) failed");
+	}
+
+	// FIPS-197 appendix C.1 and SP 800-38A F.2.1, F.2.2, F.5.1
+	private static void testAesKnownAnswers() {
+		Aes128 aes = new Aes128();
+		aes.setKey(hex("000102030405060708090a0b0c0d0e0f"));
+		byte[] block = hex("00112233445566778899aabbccddeeff");
+		aes.encryptBlock(block);
+		check("FIPS-197 C.1 encrypt", "69c4e0d86a7b0430d8cdb78070b4c55a", block);
+		aes.decryptBlock(block, 0, block, 0);
+		check("FIPS-197 C.1 decrypt", "00112233445566778899aabbccddeeff", block);
+
+		String plaintext = "6bc1bee22e409f96e93d7e117393172aae2d8a571e03ac9c9eb76fac45af8e51"
+				+ "30c81c46a35ce411e5fbc1191a0a52eff69f2445df4f9b17ad2b417be66c3710";
+		aes.setKey(hex("2b7e151628aed2a6abf7158809cf4f3c"));
+
+		byte[] buf = hex(plaintext);
+		byte[] iv = hex("000102030405060708090a0b0c0d0e0f");
+		aes.encryptCbc(iv, buf, 0, buf.length);
+		check("SP 800-38A F.2.1 CBC encrypt", "7649abac8119b246cee98e9b12e9197d5086cb9b507219ee95db113a917678b2"
+				+ "73bed6b8e3c1743b7116e69e222295163ff1caa1681fac09120eca307586e1a7", buf);
+		check("SP 800-38A F.2.1 CBC chaining value", "3ff1caa1681fac09120eca307586e1a7", iv);
+
+		iv = hex("000102030405060708090a0b0c0d0e0f");
+		aes.decryptCbc(iv, buf, 0, buf.length);
+		check("SP 800-38A F.2.2 CBC decrypt", plaintext, buf);
+
+		byte[] counter = hex("f0f1f2f3f4f5f6f7f8f9fafbfcfdfeff");
+		aes.processCtr(counter, buf, 0, buf.length);
+		check("SP 800-38A F.5.1 CTR encrypt", "874d6191b620e3261bef6864990db6ce9806f66b7970fdff8617187bb9fffdff"
+				+ "5ae4df3edbd5d35e5b4f09020db03eab1e031dda2fbe03d1792170a0f3009cee", buf);
+		check("SP 800-38A CTR counter wraps", "f0f1f2f3f4f5f6f7f8f9fafbfcfdff03", counter);
+	}
+
+	// Random keys, lengths and offsets against AES of the JCE
+	private static void testAesAgainstJce() throws Exception {
+		Random random = new Random(1);
+		Aes128 aes = new Aes128();
+		boolean ok = true;
+		for (int n = 0; ok && (n < 200); n++) {
+			byte[] key = new byte[16];
+			byte[] iv = new byte[16];
+			random.nextBytes(key);
+			random.nextBytes(iv);
+			int length = 16 * random.nextInt(40);
+			int offset = random.nextInt(5);
+			byte[] data = new byte[offset + length + 16];
+			random.nextBytes(data);
+			aes.setKey(key);
+
+			Cipher jce = Cipher.getInstance("AES/CBC/NoPadding");
+			jce.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+			byte[] expected = jce.doFinal(data, offset, length);
+			byte[] buf = data.clone();
+			aes.encryptCbc(iv.clone(), buf, offset, length);
+			ok &= Arrays.equals(expected, Arrays.copyOfRange(buf, offset, offset + length));
+			aes.decryptCbc(iv.clone(), buf, offset, length);
+			ok &= Arrays.equals(data, buf);
+
+			jce = Cipher.getInstance("AES/CTR/NoPadding");
+			jce.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+			int ctrLength = length + random.nextInt(16);
+			expected = jce.doFinal(data, offset, ctrLength);
+			buf = data.clone();
+			aes.processCtr(iv.clone(), buf, offset, ctrLength);
+			ok &= Arrays.equals(expected, Arrays.copyOfRange(buf, offset, offset + ctrLength));
+		}
+		report("AES CBC and CTR against the JCE", ok);
+	}
+
+	private static void benchmarkAes() {
+		Aes128 aes = new Aes128();
+		aes.setKey(hex("2b7e151628aed2a6abf7158809cf4f3c"));
+		byte[] buf = new byte[1 << 20];
+		byte[] iv = new byte[16];
+		for (int run = 0; run < 5; run++) {
+			long start = System.nanoTime();
+			byte[] block = new byte[16];
+			for (int offset = 0; offset < buf.length; offset += 16) {
+				for (int i = 0; i < 16; i++) {
+					block[i] ^= buf[offset + i];
+				}
+				aes.encryptBlock(block);
+			}
+			long blockwise = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			aes.encryptCbc(iv, buf, 0, buf.length);
+			long bulk = System.nanoTime() - start;
+
+			System.out.println("AES-128 CBC, 1 MB: block by block " + mbPerSecond(buf.length, blockwise)
+					+ " MB/s, in place " + mbPerSecond(buf.length, bulk) + " MB/s");
+		}
+	}
+
+	// FIPS 180-2 appendix A vectors, then random messages hashed in random
+	// pieces against the SHA-1 of the JCE
+	private static void testSha1() throws Exception {
+		Sha1Hash sha = new Sha1Hash();
+		check("FIPS 180-2 A.1 abc", "a9993e364706816aba3e25717850c26c9cd0d89d", sha.doFinal("abc".getBytes("US-ASCII")));
+		sha.update("abcdbcdecdefdefgefghfghighijhijkijkljklmklmnlmnomnopnopq".getBytes("US-ASCII"));
+		check("FIPS 180-2 A.2 two blocks", "84983e441c3bd26ebaae4aa1f95129e5e54670f1", sha.digest());
+		byte[] a = new byte[1000000];
+		Arrays.fill(a, (byte) 'a');
+		check("FIPS 180-2 A.3 a million a's", "34aa973cd4c4daa4f61eeb2bdbad27316534016f", sha.doFinal(a));
+
+		Random random = new Random(2);
+		MessageDigest jce = MessageDigest.getInstance("SHA-1");
+		boolean ok = true;
+		for (int n = 0; ok && (n < 500); n++) {
+			byte[] message = new byte[random.nextInt(600)];
+			random.nextBytes(message);
+			int offset = 0;
+			while (offset < message.length) {
+				int len = Math.min(message.length - offset, random.nextInt(150));
+				if (len == 1) {
+					sha.update(message[offset]);
+				} else {
+					sha.update(message, offset, len);
+				}
+				offset += len;
+			}
+			ok &= Arrays.equals(jce.digest(message), sha.digest());
+		}
+		report("SHA-1 streamed against the JCE", ok);
+	}
+
+	private static void benchmarkSha1() {
+		Sha1Hash sha = new Sha1Hash();
+		byte[] buf = new byte[1 << 20];
+		for (int run = 0; run < 5; run++) {
+			long start = System.nanoTime();
+			sha.doFinal(buf);
+			long nanos = System.nanoTime() - start;
+			System.out.println("SHA-1, 1 MB: " + mbPerSecond(buf.length, nanos) + " MB/s");
+		}
+	}
+
+	// The private key operation of RsaCrtCipher against RsaCipher with the
+	// full private exponent and against BigInteger
+	private static void testRsaCrt() throws Exception {
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(1024);
+		RSAPrivateCrtKey key = (RSAPrivateCrtKey) generator.generateKeyPair().getPrivate();
+		int length = 128;
+		byte[] n = unsigned(key.getModulus(), length);
+		RsaCipher plain = new RsaCipher(n, unsigned(key.getPrivateExponent(), length));
+		RsaCrtCipher crt = new RsaCrtCipher(n, key.getPublicExponent().toByteArray(),
+				unsigned(key.getPrimeP(), length / 2), unsigned(key.getPrimeQ(), length / 2),
+				key.getPrimeExponentP().toByteArray(), key.getPrimeExponentQ().toByteArray(),
+				key.getCrtCoefficient().toByteArray(), new JavaRandom());
+
+		Random random = new Random(3);
+		boolean ok = true;
+		for (int i = 0; ok && (i < 50); i++) {
+			BigInteger c = new BigInteger(1023, random);
+			byte[] expected = unsigned(c.modPow(key.getPrivateExponent(), key.getModulus()), length);
+			byte[] data1 = unsigned(c, length);
+			byte[] data2 = data1.clone();
+			plain.exponentiate(data1);
+			crt.exponentiate(data2);
+			ok &= Arrays.equals(expected, data1) && Arrays.equals(expected, data2);
+		}
+		report("RSA-1024 CRT with blinding against RsaCipher and BigInteger", ok);
+
+		byte[] data = unsigned(new BigInteger(1023, random), length);
+		for (int run = 0; run < 3; run++) {
+			long start = System.nanoTime();
+			for (int i = 0; i < 20; i++) {
+				plain.exponentiate(data);
+			}
+			long full = (System.nanoTime() - start) / 20000;
+			start = System.nanoTime();
+			for (int i = 0; i < 20; i++) {
+				crt.exponentiate(data);
+			}
+			long split = (System.nanoTime() - start) / 20000;
+			System.out.println("RSA-1024 private key: modulo n " + full + " us, CRT " + split + " us");
+		}
+	}
+
+	private static class JavaRandom implements IRandomNumberGenerator {
+		private Random random = new Random(4);
+
+		public int generate(byte[] b) {
+			return generate(b, 0, b.length);
+		}
+
+		public int generate(byte[] b, int offset, int len) {
+			for (int i = 0; i < len; i++) {
+				b[offset + i] = generateByte();
+			}
+			return len;
+		}
+
+		public byte generateByte() {
+			return (byte) random.nextInt();
+		}
+	}
+
+	// The big endian bytes of x, left padded to length bytes
+	private static byte[] unsigned(BigInteger x, int length) {
+		byte[] b = x.toByteArray();
+		byte[] u = new byte[length];
+		int n = Math.min(b.length, length);
+		System.arraycopy(b, b.length - n, u, length - n, n);
+		return u;
+	}
+
+	private static long mbPerSecond(int bytes, long nanos) {
+		return bytes * 1000L / Math.max(1, nanos / 1000L) * 1000L / (1 << 20);
+	}
+
+	private static void check(String name, String expected, byte[] actual) {
+		report(name, Arrays.equals(hex(expected), actual));
+	}
+
+	private static void report(String name, boolean ok) {
+		if (!ok) {
+			failures++;
+		}
+		System.out.println((ok ? "PASS " : "FAIL ") + name);
+	}
+
+	private static byte[] hex(String s) {
+		byte[] b = new byte[s.length() / 2];
+		for (int i = 0; i < b.length; i++) {
+			b[i] = (byte) Integer.parseInt(s.substring(2 * i, 2 * i + 2), 16);
+		}
+		return b;
+	}
+}
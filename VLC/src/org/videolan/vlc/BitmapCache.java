@@ -31,13 +31,19 @@ public class BitmapCache {
     public final static String TAG = "VLC/BitmapCache";
     private final static boolean LOG_ENABLED = false;
 
-    private static BitmapCache mInstance;
+    private static volatile BitmapCache mInstance;
     private final LruCache<String, Bitmap> mMemCache;
 
     public static BitmapCache getInstance() {
-        if (mInstance == null)
-            mInstance = new BitmapCache();
-        return mInstance;
+        BitmapCache instance = mInstance;
+        if (instance == null) {
+            synchronized (BitmapCache.class) {
+                if (mInstance == null)
+                    mInstance = new BitmapCache();
+                instance = mInstance;
+            }
+        }
+        return instance;
     }
 
     private BitmapCache() {
@@ -24,20 +24,28 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.util.Log;
 
 public class DatabaseManager {
     public final static String TAG = "VLC/DatabaseManager";
@@ -46,12 +54,22 @@ public class DatabaseManager {
 
     private SQLiteDatabase mDb;
     private final String DB_NAME = "vlc_database";
-    private final int DB_VERSION = 7;
+    private final int DB_VERSION = 8;
     private final int CHUNK_SIZE = 50;
+    private final int BATCH_SIZE = 500;
+    private final long BATCH_DELAY = 500; // ms
+    private final int MAX_WRITE_ATTEMPTS = 3;
 
     private final String DIR_TABLE_NAME = "directories_table";
     private final String DIR_ROW_PATH = "path";
 
+    private final String SCANNED_DIR_TABLE_NAME = "scanned_directories_table";
+    private final String SCANNED_DIR_PATH = "path";
+    private final String SCANNED_DIR_MTIME = "mtime";
+    private final String SCANNED_DIR_FILES = "files";
+    private final String SCANNED_DIR_DIRS = "dirs";
+    private final String SCANNED_DIR_IGNORED = "ignored";
+
     private final String MEDIA_TABLE_NAME = "media_table";
     private final String MEDIA_LOCATION = "location";
     private final String MEDIA_TIME = "time";
@@ -78,12 +96,70 @@ public class DatabaseManager {
     private final String SEARCHHISTORY_DATE = "date";
     private final String SEARCHHISTORY_KEY = "key";
 
+    /*
+     * Writes to the media table are buffered and applied together in one
+     * transaction, when BATCH_SIZE writes are waiting or BATCH_DELAY after
+     * the first one. Resume times are written at once, with the writes queued
+     * before them. The reads that must see the queued medias and deletions
+     * flush them first. A failed batch is retried with a growing delay, a
+     * write that failed MAX_WRITE_ATTEMPTS times is dropped.
+     */
+    private final ArrayList<PendingWrite> mPendingWrites = new ArrayList<PendingWrite>();
+    private boolean mFlushScheduled = false;
+    private int mFailedFlushes = 0;
+    private final ScheduledExecutorService mFlushExecutor;
+    private SQLiteStatement mReplaceMediaStatement;
+    private SQLiteStatement mDeleteMediaStatement;
+    private SQLiteStatement mUpdateTimeStatement;
+    private SQLiteStatement mUpdatePictureStatement;
+
+    private static class PendingWrite {
+        static final int REPLACE = 0;
+        static final int DELETE = 1;
+        static final int TIME = 2;
+        static final int PICTURE = 3;
+
+        final int type;
+        final String location;
+        Media media;
+        long time;
+        byte[] picture;
+        int attempts = 0;
+
+        PendingWrite(int type, String location) {
+            this.type = type;
+            this.location = location;
+        }
+    }
+
     public enum mediaColumn {
         MEDIA_TABLE_NAME, MEDIA_PATH, MEDIA_TIME, MEDIA_LENGTH,
         MEDIA_TYPE, MEDIA_PICTURE, MEDIA_TITLE, MEDIA_ARTIST, MEDIA_GENRE, MEDIA_ALBUM,
         MEDIA_WIDTH, MEDIA_HEIGHT, MEDIA_ARTWORKURL
     }
 
+    /**
+     * A directory seen by the last media scan: its modification time and the
+     * number of media files and directories it contained. The scan does not
+     * list the directories which did not change since.
+     */
+    public static class ScannedDirectory {
+        public final String path;
+        public final long mtime;
+        public final int files;
+        public final int dirs;
+        /** .nomedia folder or path already scanned through another link */
+        public final boolean ignored;
+
+        public ScannedDirectory(String path, long mtime, int files, int dirs, boolean ignored) {
+            this.path = path;
+            this.mtime = mtime;
+            this.files = files;
+            this.dirs = dirs;
+            this.ignored = ignored;
+        }
+    }
+
     /**
      * Constructor
      *
@@ -93,6 +169,15 @@ public class DatabaseManager {
         // create or open database
         DatabaseHelper helper = new DatabaseHelper(context);
         this.mDb = helper.getWritableDatabase();
+
+        mFlushExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "VLC/DatabaseFlush");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
     }
 
     public synchronized static DatabaseManager getInstance(Context context) {
@@ -132,6 +217,18 @@ public class DatabaseManager {
             db.execSQL(query);
         }
 
+        public void createScannedDirTableQuery(SQLiteDatabase db) {
+            String query = "CREATE TABLE IF NOT EXISTS "
+                    + SCANNED_DIR_TABLE_NAME + " ("
+                    + SCANNED_DIR_PATH + " TEXT PRIMARY KEY NOT NULL, "
+                    + SCANNED_DIR_MTIME + " INTEGER, "
+                    + SCANNED_DIR_FILES + " INTEGER, "
+                    + SCANNED_DIR_DIRS + " INTEGER, "
+                    + SCANNED_DIR_IGNORED + " INTEGER"
+                    + ");";
+            db.execSQL(query);
+        }
+
         @Override
         public void onCreate(SQLiteDatabase db) {
 
@@ -146,6 +243,9 @@ public class DatabaseManager {
             // Create the media table
             createMediaTabelQuery(db);
 
+            // Create the scanned directories table
+            createScannedDirTableQuery(db);
+
             String createPlaylistTableQuery = "CREATE TABLE IF NOT EXISTS " +
                     PLAYLIST_TABLE_NAME + " (" +
                     PLAYLIST_NAME + " VARCHAR(200) PRIMARY KEY NOT NULL);";
@@ -172,10 +272,13 @@ public class DatabaseManager {
 
         @Override
         public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-            if (oldVersion < 7 && newVersion == 7) {
+            if (oldVersion < 7) {
                 dropMediaTabelQuery(db);
                 createMediaTabelQuery(db);
             }
+            if (oldVersion < 8) {
+                createScannedDirTableQuery(db);
+            }
         }
     }
 
@@ -232,26 +335,143 @@ public class DatabaseManager {
 
     /**
      * Add a new media to the database. The picture can only added by update.
+     * The media is written with the next batch.
      * @param meida which you like to add to the database
      */
-    public synchronized void addMedia(Media media) {
+    public void addMedia(Media media) {
+        PendingWrite write = new PendingWrite(PendingWrite.REPLACE, media.getLocation());
+        write.media = media;
+        addPendingWrite(write);
+    }
 
-        ContentValues values = new ContentValues();
+    private void addPendingWrite(PendingWrite write) {
+        boolean full;
+        synchronized (mPendingWrites) {
+            mPendingWrites.add(write);
+            // after a failure the writes wait for the retry
+            full = mPendingWrites.size() >= BATCH_SIZE && mFailedFlushes == 0;
+            if (!full && !mFlushScheduled)
+                scheduleFlush(BATCH_DELAY);
+        }
+        if (full)
+            flush();
+    }
+
+    /* Called with the mPendingWrites lock held */
+    private void scheduleFlush(long delay) {
+        mFlushScheduled = true;
+        mFlushExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Apply the buffered writes of the media table now
+     */
+    public synchronized void flush() {
+        ArrayList<PendingWrite> writes;
+        synchronized (mPendingWrites) {
+            mFlushScheduled = false;
+            if (mPendingWrites.isEmpty())
+                return;
+            writes = new ArrayList<PendingWrite>(mPendingWrites);
+            mPendingWrites.clear();
+        }
+
+        if (mReplaceMediaStatement == null) {
+            mReplaceMediaStatement = mDb.compileStatement(String.format(Locale.US,
+                    "INSERT OR REPLACE INTO %s (%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s) VALUES (?,?,?,?,?,?,?,?,?,?,?)",
+                    MEDIA_TABLE_NAME,
+                    MEDIA_LOCATION, MEDIA_TIME, MEDIA_LENGTH, MEDIA_TYPE, MEDIA_TITLE,
+                    MEDIA_ARTIST, MEDIA_GENRE, MEDIA_ALBUM, MEDIA_WIDTH, MEDIA_HEIGHT,
+                    MEDIA_ARTWORKURL));
+            mDeleteMediaStatement = mDb.compileStatement(String.format(Locale.US,
+                    "DELETE FROM %s WHERE %s=?", MEDIA_TABLE_NAME, MEDIA_LOCATION));
+            mUpdateTimeStatement = mDb.compileStatement(String.format(Locale.US,
+                    "UPDATE %s SET %s=? WHERE %s=?", MEDIA_TABLE_NAME, MEDIA_TIME, MEDIA_LOCATION));
+            mUpdatePictureStatement = mDb.compileStatement(String.format(Locale.US,
+                    "UPDATE %s SET %s=? WHERE %s=?", MEDIA_TABLE_NAME, MEDIA_PICTURE, MEDIA_LOCATION));
+        }
 
-        values.put(MEDIA_LOCATION, media.getLocation());
-        values.put(MEDIA_TIME, media.getTime());
-        values.put(MEDIA_LENGTH, media.getLength());
-        values.put(MEDIA_TYPE, media.getType());
-        values.put(MEDIA_TITLE, media.getTitle());
-        values.put(MEDIA_ARTIST, media.getArtist());
-        values.put(MEDIA_GENRE, media.getGenre());
-        values.put(MEDIA_ALBUM, media.getAlbum());
-        values.put(MEDIA_WIDTH, media.getWidth());
-        values.put(MEDIA_HEIGHT, media.getHeight());
-        values.put(MEDIA_ARTWORKURL, media.getArtworkURL());
+        try {
+            applyWrites(writes);
+        } catch (SQLiteException e) {
+            // e.g. a full disk: keep the batch in front of the newer writes
+            // and retry it later, unless it keeps failing
+            Log.e(TAG, "Can't write " + writes.size() + " medias", e);
+            ArrayList<PendingWrite> retries = new ArrayList<PendingWrite>(writes.size());
+            for (PendingWrite write : writes) {
+                if (++write.attempts < MAX_WRITE_ATTEMPTS)
+                    retries.add(write);
+            }
+            if (retries.size() < writes.size())
+                Log.w(TAG, "Dropping " + (writes.size() - retries.size()) + " media writes after "
+                        + MAX_WRITE_ATTEMPTS + " attempts");
+            synchronized (mPendingWrites) {
+                mFailedFlushes++;
+                mPendingWrites.addAll(0, retries);
+                if (!mPendingWrites.isEmpty() && !mFlushScheduled)
+                    scheduleFlush(BATCH_DELAY << Math.min(mFailedFlushes, 6));
+            }
+            return;
+        }
+        synchronized (mPendingWrites) {
+            mFailedFlushes = 0;
+        }
+    }
 
-        mDb.replace(MEDIA_TABLE_NAME, "NULL", values);
+    private void applyWrites(ArrayList<PendingWrite> writes) {
+        mDb.beginTransaction();
+        try {
+            for (PendingWrite write : writes) {
+                SQLiteStatement statement;
+                switch (write.type) {
+                    case PendingWrite.REPLACE:
+                        Media media = write.media;
+                        statement = mReplaceMediaStatement;
+                        bind(statement, 1, media.getLocation());
+                        statement.bindLong(2, media.getTime());
+                        statement.bindLong(3, media.getLength());
+                        statement.bindLong(4, media.getType());
+                        bind(statement, 5, media.getTitle());
+                        bind(statement, 6, media.getArtist());
+                        bind(statement, 7, media.getGenre());
+                        bind(statement, 8, media.getAlbum());
+                        statement.bindLong(9, media.getWidth());
+                        statement.bindLong(10, media.getHeight());
+                        bind(statement, 11, media.getArtworkURL());
+                        break;
+                    case PendingWrite.DELETE:
+                        statement = mDeleteMediaStatement;
+                        bind(statement, 1, write.location);
+                        break;
+                    case PendingWrite.TIME:
+                        statement = mUpdateTimeStatement;
+                        statement.bindLong(1, write.time);
+                        bind(statement, 2, write.location);
+                        break;
+                    default:
+                        statement = mUpdatePictureStatement;
+                        statement.bindBlob(1, write.picture);
+                        bind(statement, 2, write.location);
+                        break;
+                }
+                statement.execute();
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
 
+    private static void bind(SQLiteStatement statement, int index, String value) {
+        if (value != null)
+            statement.bindString(index, value);
+        else
+            statement.bindNull(index);
     }
 
     //    /**
@@ -275,6 +495,7 @@ public class DatabaseManager {
      * @return list of File
      */
     public synchronized HashSet<File> getMediaFiles() {
+        flush();
 
         HashSet<File> files = new HashSet<File>();
         Cursor cursor;
@@ -296,6 +517,7 @@ public class DatabaseManager {
     }
 
     public synchronized HashMap<String, Media> getMedias(Context context) {
+        flush();
 
         Cursor cursor;
         HashMap<String, Media> medias = new HashMap<String, Media>();
@@ -350,6 +572,7 @@ public class DatabaseManager {
     }
 
     public synchronized HashMap<String, Long> getVideoTimes(Context context) {
+        flush();
 
         Cursor cursor;
         HashMap<String, Long> times = new HashMap<String, Long>();
@@ -385,6 +608,7 @@ public class DatabaseManager {
     }
 
     public synchronized Media getMedia(Context context, String location) {
+        flush();
 
         Cursor cursor;
         Media media = null;
@@ -447,48 +671,52 @@ public class DatabaseManager {
         return picture;
     }
 
-    public synchronized void removeMedia(String location) {
-        mDb.delete(MEDIA_TABLE_NAME, MEDIA_LOCATION + "=?", new String[] { location });
+    public void removeMedia(String location) {
+        addPendingWrite(new PendingWrite(PendingWrite.DELETE, location));
     }
 
     public void removeMedias(Set<String> locations) {
-        mDb.beginTransaction();
-        try {
-            for (String location : locations)
-                mDb.delete(MEDIA_TABLE_NAME, MEDIA_LOCATION + "=?", new String[] { location });
-            mDb.setTransactionSuccessful();
-        } finally {
-            mDb.endTransaction();
-        }
+        for (String location : locations)
+            addPendingWrite(new PendingWrite(PendingWrite.DELETE, location));
     }
 
-    public synchronized void updateMedia(String location, mediaColumn col,
+    /**
+     * Update a column of a media. The picture is compressed by the calling
+     * thread and written with the next batch. The time is written before
+     * returning, it must survive the activity being killed.
+     */
+    public void updateMedia(String location, mediaColumn col,
             Object object) {
 
         if (location == null)
             return;
 
-        ContentValues values = new ContentValues();
+        PendingWrite write;
         switch (col) {
             case MEDIA_PICTURE:
+                write = new PendingWrite(PendingWrite.PICTURE, location);
                 if (object != null) {
                     Bitmap picture = (Bitmap) object;
                     ByteArrayOutputStream out = new ByteArrayOutputStream();
                     picture.compress(Bitmap.CompressFormat.JPEG, 90, out);
-                    values.put(MEDIA_PICTURE, out.toByteArray());
+                    write.picture = out.toByteArray();
                 }
                 else {
-                    values.put(MEDIA_PICTURE, new byte[1]);
+                    write.picture = new byte[1];
                 }
                 break;
             case MEDIA_TIME:
-                if (object != null)
-                    values.put(MEDIA_TIME, (Long)object);
-                break;
+                if (object == null)
+                    return;
+                write = new PendingWrite(PendingWrite.TIME, location);
+                write.time = (Long)object;
+                addPendingWrite(write);
+                flush();
+                return;
             default:
                 return;
         }
-        mDb.update(MEDIA_TABLE_NAME, values, MEDIA_LOCATION + "=?", new String[] { location });
+        addPendingWrite(write);
     }
 
     /**
@@ -548,6 +776,62 @@ public class DatabaseManager {
         return paths;
     }
 
+    /**
+     * Get the directories seen by the last media scan
+     * @return map of the directories by path
+     */
+    public synchronized HashMap<String, ScannedDirectory> getScannedDirectories() {
+        HashMap<String, ScannedDirectory> dirs = new HashMap<String, ScannedDirectory>();
+
+        Cursor cursor = mDb.query(
+                SCANNED_DIR_TABLE_NAME,
+                new String[] {
+                        SCANNED_DIR_PATH, //0 string
+                        SCANNED_DIR_MTIME, //1 long
+                        SCANNED_DIR_FILES, //2 int
+                        SCANNED_DIR_DIRS, //3 int
+                        SCANNED_DIR_IGNORED //4 int
+                },
+                null, null, null, null, null);
+        while (cursor.moveToNext()) {
+            ScannedDirectory dir = new ScannedDirectory(
+                    cursor.getString(0),
+                    cursor.getLong(1),
+                    cursor.getInt(2),
+                    cursor.getInt(3),
+                    cursor.getInt(4) != 0);
+            dirs.put(dir.path, dir);
+        }
+        cursor.close();
+
+        return dirs;
+    }
+
+    /**
+     * Save the directories listed by a media scan and forget the ones which
+     * no longer exist, in one transaction
+     */
+    public synchronized void updateScannedDirectories(Collection<ScannedDirectory> dirs,
+            Collection<String> removedPaths) {
+        mDb.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            for (ScannedDirectory dir : dirs) {
+                values.put(SCANNED_DIR_PATH, dir.path);
+                values.put(SCANNED_DIR_MTIME, dir.mtime);
+                values.put(SCANNED_DIR_FILES, dir.files);
+                values.put(SCANNED_DIR_DIRS, dir.dirs);
+                values.put(SCANNED_DIR_IGNORED, dir.ignored ? 1 : 0);
+                mDb.replace(SCANNED_DIR_TABLE_NAME, "NULL", values);
+            }
+            for (String path : removedPaths)
+                mDb.delete(SCANNED_DIR_TABLE_NAME, SCANNED_DIR_PATH + "=?", new String[] { path });
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
     public synchronized boolean mediaDirExists(String path) {
         Cursor cursor = mDb.query(DIR_TABLE_NAME,
                 new String[] { DIR_ROW_PATH },
@@ -599,6 +883,10 @@ public class DatabaseManager {
      * Empty the database for debugging purposes
      */
     public synchronized void emptyDatabase() {
+        synchronized (mPendingWrites) {
+            mPendingWrites.clear();
+        }
         mDb.delete(MEDIA_TABLE_NAME, null, null);
+        mDb.delete(SCANNED_DIR_TABLE_NAME, null, null);
     }
 }
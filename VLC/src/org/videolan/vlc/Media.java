@@ -20,10 +20,10 @@
 
 package org.videolan.vlc;
 
+import java.io.File;
 import java.util.HashSet;
 
 import android.content.Context;
-import android.database.sqlite.SQLiteFullException;
 import android.graphics.Bitmap;
 import android.util.Log;
 
@@ -119,6 +119,8 @@ public class Media implements Comparable<Media> {
     private int mHeight = 0;
     private Bitmap mPicture;
     private boolean mIsPictureParsed;
+    /* The thumbnail cache file, resolved once as it stats the media file */
+    private File mThumbnailFile;
 
     /**
      * Create a new Media
@@ -145,6 +147,8 @@ public class Media implements Comparable<Media> {
             // Add this item to database
             DatabaseManager db = DatabaseManager.getInstance(VLCApplication.getAppContext());
             db.addMedia(this);
+            // built by the media library scan, off the UI thread
+            resolveThumbnailFile();
         }
     }
 
@@ -220,6 +224,12 @@ public class Media implements Comparable<Media> {
         mGenre = Util.getValue(genre, R.string.unknown_genre);
         mAlbum = Util.getValue(album, R.string.unknown_album);
         mArtworkURL = artworkURL;
+        resolveThumbnailFile();
+    }
+
+    private void resolveThumbnailFile() {
+        if (mType == TYPE_VIDEO)
+            mThumbnailFile = ThumbnailCache.getInstance(VLCApplication.getAppContext()).getFile(mLocation);
     }
 
     /**
@@ -278,11 +288,19 @@ public class Media implements Comparable<Media> {
             Bitmap picture = cache.getBitmapFromMemCache(mLocation);
             if (picture == null) {
                 /* Not in memcache:
-                 * serving the file from the database and
-                 * adding it to the memcache for later use.
+                 * serving the file from the thumbnail cache and adding it
+                 * to the memcache for later use. Without a file the
+                 * thumbnailer makes it, or moves there the thumbnail that
+                 * older versions stored in the database.
                  */
                 Context c = VLCApplication.getAppContext();
-                picture = DatabaseManager.getInstance(c).getPicture(c, mLocation);
+                ThumbnailCache thumbnails = ThumbnailCache.getInstance(c);
+                if (mThumbnailFile == null)
+                    mThumbnailFile = thumbnails.getFile(mLocation);
+                if (thumbnails.contains(mThumbnailFile)) {
+                    picture = thumbnails.get(mThumbnailFile);
+                    mIsPictureParsed = true;
+                }
                 cache.addBitmapToMemCache(mLocation, picture);
             }
             return picture;
@@ -293,15 +311,10 @@ public class Media implements Comparable<Media> {
 
     public void setPicture(Context context, Bitmap p) {
         Log.d(TAG, "Set new picture for " + getTitle());
-        try {
-            DatabaseManager.getInstance(context).updateMedia(
-                mLocation,
-                DatabaseManager.mediaColumn.MEDIA_PICTURE,
-                p);
-        } catch (SQLiteFullException e) {
-            // TODO: do something clever
-            e.printStackTrace();
-        }
+        ThumbnailCache thumbnails = ThumbnailCache.getInstance(context);
+        mThumbnailFile = thumbnails.getFile(mLocation);
+        thumbnails.put(mThumbnailFile, mLocation, p);
+        BitmapCache.getInstance().addBitmapToMemCache(mLocation, p);
         mIsPictureParsed = true;
     }
 
@@ -0,0 +1,281 @@
+/*****************************************************************************
+ * MediaCatalog.java
+ *****************************************************************************
+ * Copyright © 2013 VLC authors and VideoLAN
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston MA 02110-1301, USA.
+ *****************************************************************************/
+
+package org.videolan.vlc;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The media items of the library, indexed by location, by type and, for the
+ * audio items, by artist, album and genre.
+ *
+ * The indexes are published as an immutable snapshot: readers take the
+ * current snapshot without locking and keep a consistent view while the
+ * scan updates the catalog. Writers are serialized and build the next
+ * snapshot from the previous one, copying only the lists they change.
+ */
+public class MediaCatalog {
+
+    private volatile Snapshot mSnapshot = new Snapshot();
+
+    public static class Snapshot {
+        private final Map<String, Media> mByLocation;
+        private final List<Media> mItems;
+        private final List<Media> mVideoItems;
+        private final List<Media> mAudioItems;
+        private final Map<String, List<Media>> mByArtist;
+        private final Map<String, List<Media>> mByAlbum;
+        private final Map<String, List<Media>> mByGenre;
+        private final MediaSearchIndex mSearchIndex;
+
+        private Snapshot() {
+            this(Collections.<String, Media>emptyMap(), Collections.<Media>emptyList(),
+                 Collections.<Media>emptyList(), Collections.<Media>emptyList(),
+                 Collections.<String, List<Media>>emptyMap(),
+                 Collections.<String, List<Media>>emptyMap(),
+                 Collections.<String, List<Media>>emptyMap(),
+                 new MediaSearchIndex());
+        }
+
+        /* The maps and lists are not modified once published */
+        private Snapshot(Map<String, Media> byLocation, List<Media> items,
+                List<Media> videoItems, List<Media> audioItems,
+                Map<String, List<Media>> byArtist, Map<String, List<Media>> byAlbum,
+                Map<String, List<Media>> byGenre, MediaSearchIndex searchIndex) {
+            mByLocation = byLocation;
+            mItems = items;
+            mVideoItems = videoItems;
+            mAudioItems = audioItems;
+            mByArtist = byArtist;
+            mByAlbum = byAlbum;
+            mByGenre = byGenre;
+            mSearchIndex = searchIndex;
+        }
+
+        public int size() {
+            return mItems.size();
+        }
+
+        public Media get(String location) {
+            return mByLocation.get(location);
+        }
+
+        public boolean contains(String location) {
+            return mByLocation.containsKey(location);
+        }
+
+        public List<Media> getItems() {
+            return mItems;
+        }
+
+        public List<Media> getVideoItems() {
+            return mVideoItems;
+        }
+
+        public List<Media> getAudioItems() {
+            return mAudioItems;
+        }
+
+        /**
+         * @return the audio items of an artist, never null
+         */
+        public List<Media> getByArtist(String artist) {
+            return get(mByArtist, artist);
+        }
+
+        public List<Media> getByAlbum(String album) {
+            return get(mByAlbum, album);
+        }
+
+        public List<Media> getByGenre(String genre) {
+            return get(mByGenre, genre);
+        }
+
+        public MediaSearchIndex getSearchIndex() {
+            return mSearchIndex;
+        }
+
+        private static List<Media> get(Map<String, List<Media>> index, String key) {
+            List<Media> list = index.get(key);
+            return list != null ? list : Collections.<Media>emptyList();
+        }
+    }
+
+    /**
+     * @return the current snapshot, a consistent view of the catalog which
+     * is not modified by later updates
+     */
+    public Snapshot getSnapshot() {
+        return mSnapshot;
+    }
+
+    public void add(Collection<Media> added) {
+        update(added, Collections.<Media>emptyList());
+    }
+
+    public void remove(Media media) {
+        update(Collections.<Media>emptyList(), Collections.singletonList(media));
+    }
+
+    public synchronized void clear() {
+        mSnapshot = new Snapshot();
+    }
+
+    /**
+     * Publish a new snapshot with the removed items taken out and the added
+     * items appended. An added item replaces the item of the same location.
+     */
+    public synchronized void update(Collection<Media> added, Collection<Media> removed) {
+        if (added.isEmpty() && removed.isEmpty())
+            return;
+        Snapshot current = mSnapshot;
+
+        // Items leaving the catalog, by location
+        HashSet<Media> gone = new HashSet<Media>();
+        for (Media media : removed) {
+            Media item = current.mByLocation.get(media.getLocation());
+            if (item != null)
+                gone.add(item);
+        }
+        for (Media media : added) {
+            Media item = current.mByLocation.get(media.getLocation());
+            if (item != null && item != media)
+                gone.add(item);
+        }
+        ArrayList<Media> fresh = new ArrayList<Media>();
+        for (Media media : added) {
+            if (current.mByLocation.get(media.getLocation()) != media)
+                fresh.add(media);
+        }
+        if (gone.isEmpty() && fresh.isEmpty())
+            return;
+
+        HashMap<String, Media> byLocation = new HashMap<String, Media>(current.mByLocation);
+        for (Media media : gone)
+            byLocation.remove(media.getLocation());
+        for (Media media : fresh)
+            byLocation.put(media.getLocation(), media);
+
+        // Only the indexes of the types which changed are copied
+        ArrayList<Media> audioAdded = new ArrayList<Media>();
+        ArrayList<Media> audioGone = new ArrayList<Media>();
+        ArrayList<Media> videoAdded = new ArrayList<Media>();
+        boolean videoGone = false;
+        for (Media media : fresh) {
+            if (media.getType() == Media.TYPE_AUDIO)
+                audioAdded.add(media);
+            else if (media.getType() == Media.TYPE_VIDEO)
+                videoAdded.add(media);
+        }
+        for (Media media : gone) {
+            if (media.getType() == Media.TYPE_AUDIO)
+                audioGone.add(media);
+            else if (media.getType() == Media.TYPE_VIDEO)
+                videoGone = true;
+        }
+        boolean video = videoGone || !videoAdded.isEmpty();
+        boolean audio = !audioGone.isEmpty() || !audioAdded.isEmpty();
+
+        mSnapshot = new Snapshot(Collections.unmodifiableMap(byLocation),
+                update(current.mItems, fresh, gone),
+                video ? update(current.mVideoItems, videoAdded, gone) : current.mVideoItems,
+                audio ? update(current.mAudioItems, audioAdded, gone) : current.mAudioItems,
+                audio ? update(current.mByArtist, audioAdded, audioGone, KEY_ARTIST) : current.mByArtist,
+                audio ? update(current.mByAlbum, audioAdded, audioGone, KEY_ALBUM) : current.mByAlbum,
+                audio ? update(current.mByGenre, audioAdded, audioGone, KEY_GENRE) : current.mByGenre,
+                current.mSearchIndex.update(fresh, gone));
+    }
+
+    private static List<Media> update(List<Media> list, List<Media> added, Collection<Media> gone) {
+        ArrayList<Media> result = new ArrayList<Media>(list.size() + added.size());
+        if (gone.isEmpty()) {
+            result.addAll(list);
+        } else {
+            for (Media media : list)
+                if (!gone.contains(media))
+                    result.add(media);
+        }
+        result.addAll(added);
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Copy the index and only the lists of the keys which changed
+     */
+    private static Map<String, List<Media>> update(Map<String, List<Media>> index,
+            List<Media> added, List<Media> gone, Key key) {
+        HashMap<String, List<Media>> result = new HashMap<String, List<Media>>(index);
+        HashMap<String, ArrayList<Media>> changed = new HashMap<String, ArrayList<Media>>();
+        HashSet<Media> goneSet = new HashSet<Media>(gone);
+        for (Media media : gone)
+            if (!changed.containsKey(key.get(media)))
+                changed.put(key.get(media), new ArrayList<Media>());
+        for (Media media : added) {
+            ArrayList<Media> list = changed.get(key.get(media));
+            if (list == null) {
+                list = new ArrayList<Media>();
+                changed.put(key.get(media), list);
+            }
+            list.add(media);
+        }
+        for (Map.Entry<String, ArrayList<Media>> entry : changed.entrySet()) {
+            List<Media> previous = index.get(entry.getKey());
+            if (previous == null)
+                previous = Collections.emptyList();
+            List<Media> list = update(previous, entry.getValue(), goneSet);
+            if (list.isEmpty())
+                result.remove(entry.getKey());
+            else
+                result.put(entry.getKey(), list);
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    private interface Key {
+        String get(Media media);
+    }
+
+    private final static Key KEY_ARTIST = new Key() {
+        @Override
+        public String get(Media media) {
+            return media.getArtist();
+        }
+    };
+
+    private final static Key KEY_ALBUM = new Key() {
+        @Override
+        public String get(Media media) {
+            return media.getAlbum();
+        }
+    };
+
+    private final static Key KEY_GENRE = new Key() {
+        @Override
+        public String get(Media media) {
+            return media.getGenre();
+        }
+    };
+}
@@ -28,8 +28,16 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.Stack;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.videolan.vlc.DatabaseManager.ScannedDirectory;
 import org.videolan.vlc.gui.MainActivity;
 import org.videolan.vlc.gui.audio.AudioBrowserFragment;
 import org.videolan.vlc.gui.video.VideoGridFragment;
@@ -46,16 +54,18 @@ public class MediaLibrary {
     public static final int MEDIA_ITEMS_UPDATED = 100;
 
     private static MediaLibrary mInstance;
-    private final ArrayList<Media> mItemList;
+    private final MediaCatalog mCatalog;
     private final ArrayList<Handler> mUpdateHandler;
     private boolean isStopping = false;
     private boolean mRestart = false;
+    private boolean mLoaded = false;
+    private boolean mReload = false;
     private Context mRestartContext;
     protected Thread mLoadingThread;
 
     private MediaLibrary(Context context) {
         mInstance = this;
-        mItemList = new ArrayList<Media>();
+        mCatalog = new MediaCatalog();
         mUpdateHandler = new ArrayList<Handler>();
     }
 
@@ -79,6 +89,15 @@ public class MediaLibrary {
         }
     }
 
+    /**
+     * Load the media list from scratch with a full scan, e.g. after the
+     * database has been emptied
+     */
+    public void reload(Context context) {
+        mReload = true;
+        loadMediaItems(context, true);
+    }
+
     public void stop() {
         isStopping = true;
     }
@@ -107,82 +126,102 @@ public class MediaLibrary {
     }
 
     public ArrayList<Media> getVideoItems() {
-        ArrayList<Media> videoItems = new ArrayList<Media>();
-        for (int i = 0; i < mItemList.size(); i++) {
-            Media item = mItemList.get(i);
-            if (item != null && item.getType() == Media.TYPE_VIDEO) {
-                videoItems.add(item);
-            }
-        }
-        return videoItems;
+        return new ArrayList<Media>(mCatalog.getSnapshot().getVideoItems());
     }
 
     public ArrayList<Media> getAudioItems() {
-        ArrayList<Media> audioItems = new ArrayList<Media>();
-        for (int i = 0; i < mItemList.size(); i++) {
-            Media item = mItemList.get(i);
-            if (item.getType() == Media.TYPE_AUDIO) {
-                audioItems.add(item);
-            }
-        }
-        return audioItems;
+        return new ArrayList<Media>(mCatalog.getSnapshot().getAudioItems());
     }
 
     public ArrayList<Media> getAudioItems(String name, String name2, int mode) {
-        ArrayList<Media> audioItems = new ArrayList<Media>();
-        for (int i = 0; i < mItemList.size(); i++) {
-            Media item = mItemList.get(i);
-            if (item.getType() == Media.TYPE_AUDIO) {
-
-                boolean valid = false;
-                switch (mode) {
-                    case AudioBrowserFragment.MODE_ARTIST:
-                        valid = name.equals(item.getArtist()) && (name2 == null || name2.equals(item.getAlbum()));
-                        break;
-                    case AudioBrowserFragment.MODE_ALBUM:
-                        valid = name.equals(item.getAlbum());
-                        break;
-                    case AudioBrowserFragment.MODE_GENRE:
-                        valid = name.equals(item.getGenre()) && (name2 == null || name2.equals(item.getAlbum()));
-                        break;
-                    default:
-                        break;
-                }
-                if (valid)
-                    audioItems.add(item);
+        MediaCatalog.Snapshot snapshot = mCatalog.getSnapshot();
+        List<Media> items;
+        switch (mode) {
+            case AudioBrowserFragment.MODE_ARTIST:
+                items = snapshot.getByArtist(name);
+                break;
+            case AudioBrowserFragment.MODE_ALBUM:
+                items = snapshot.getByAlbum(name);
+                name2 = null;
+                break;
+            case AudioBrowserFragment.MODE_GENRE:
+                items = snapshot.getByGenre(name);
+                break;
+            default:
+                return new ArrayList<Media>();
+        }
 
-            }
+        if (name2 == null)
+            return new ArrayList<Media>(items);
+        ArrayList<Media> audioItems = new ArrayList<Media>();
+        for (Media item : items) {
+            if (name2.equals(item.getAlbum()))
+                audioItems.add(item);
         }
         return audioItems;
     }
 
+    /**
+     * @return a copy of the media list, use removeMediaItem() to change it
+     */
     public ArrayList<Media> getMediaItems() {
-        return mItemList;
+        return new ArrayList<Media>(mCatalog.getSnapshot().getItems());
+    }
+
+    public void removeMediaItem(Media media) {
+        mCatalog.remove(media);
+    }
+
+    /**
+     * @return the search index of the current media list
+     */
+    public MediaSearchIndex getSearchIndex() {
+        return mCatalog.getSnapshot().getSearchIndex();
     }
 
     public Media getMediaItem(String location) {
-        for (int i = 0; i < mItemList.size(); i++) {
-            Media item = mItemList.get(i);
-            if (item.getLocation().equals(location)) {
-                return item;
-            }
-        }
-        return null;
+        return mCatalog.getSnapshot().get(location);
     }
 
     public ArrayList<Media> getMediaItems(List<String> pathList) {
+        MediaCatalog.Snapshot snapshot = mCatalog.getSnapshot();
         ArrayList<Media> items = new ArrayList<Media>();
         for (int i = 0; i < pathList.size(); i++) {
-            Media item = getMediaItem(pathList.get(i));
+            Media item = snapshot.get(pathList.get(i));
             items.add(item);
         }
         return items;
     }
 
+    /**
+     * Changes made to the media list by a scan, sent as the object of the
+     * MEDIA_ITEMS_UPDATED messages. When full is set the list has been loaded
+     * from scratch and the receivers should rebuild their views.
+     */
+    public static class Delta {
+        public final ArrayList<Media> added = new ArrayList<Media>();
+        public final ArrayList<Media> removed = new ArrayList<Media>();
+        public boolean full = false;
+
+        public boolean isEmpty() {
+            return !full && added.isEmpty() && removed.isEmpty();
+        }
+
+        public boolean contains(int type) {
+            if (full)
+                return true;
+            for (Media media : added)
+                if (media.getType() == type)
+                    return true;
+            for (Media media : removed)
+                if (media.getType() == type)
+                    return true;
+            return false;
+        }
+    }
+
     private class GetMediaItemsRunnable implements Runnable {
 
-        private final Stack<File> directories = new Stack<File>();
-        private final HashSet<String> directoriesScanned = new HashSet<String>();
         private Context mContext;
 
         public GetMediaItemsRunnable(Context context) {
@@ -193,6 +232,7 @@ public class MediaLibrary {
         public void run() {
             // Initialize variables
             final DatabaseManager DBManager = DatabaseManager.getInstance(VLCApplication.getAppContext());
+            final Delta delta = new Delta();
 
             // show progressbar in footer
             MainActivity.showProgressBar(mContext);
@@ -207,115 +247,99 @@ public class MediaLibrary {
                         mediaDirs.add(f);
                 }
             }
-            directories.addAll(mediaDirs);
-
-            // get all existing media items
-            HashMap<String, Media> existingMedias = DBManager.getMedias(mContext);
-
-            // list of all added files
-            HashSet<String> addedLocations = new HashSet<String>();
-
-            // clear all old items
-            mItemList.clear();
 
-            MediaItemFilter mediaFileFilter = new MediaItemFilter();
+            if (mReload) {
+                mReload = false;
+                mLoaded = false;
+            }
 
-            int count = 0;
+            // get all existing media items, from the database for the first scan
+            HashMap<String, Media> existingMedias;
+            HashSet<String> listedLocations = new HashSet<String>();
+            if (!mLoaded) {
+                existingMedias = DBManager.getMedias(mContext);
+                delta.full = true;
+            } else {
+                existingMedias = new HashMap<String, Media>();
+                for (Media media : mCatalog.getSnapshot().getItems()) {
+                    existingMedias.put(media.getLocation(), media);
+                    listedLocations.add(media.getLocation());
+                }
+            }
 
-            ArrayList<File> mediaToScan = new ArrayList<File>();
             try {
-                // Count total files, and stack them
-                while (!directories.isEmpty()) {
-                    File dir = directories.pop();
-                    String dirPath = dir.getAbsolutePath();
-                    File[] f = null;
-
-                    // Skip some system folders
-                    if (dirPath.startsWith("/proc/") || dirPath.startsWith("/sys/") || dirPath.startsWith("/dev/"))
-                        continue;
-
-                    // Do not scan again if same canonical path
-                    try {
-                        dirPath = dir.getCanonicalPath();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                    if (directoriesScanned.contains(dirPath))
-                        continue;
-                    else
-                        directoriesScanned.add(dirPath);
-
-                    // Do no scan media in .nomedia folders
-                    if (new File(dirPath + "/.nomedia").exists()) {
-                        continue;
-                    }
-
-                    // Filter the extensions and the folders
-                    try {
-                        if ((f = dir.listFiles(mediaFileFilter)) != null) {
-                            for (File file : f) {
-                                if (file.isFile()) {
-                                    mediaToScan.add(file);
-                                } else if (file.isDirectory()) {
-                                    directories.push(file);
-                                }
-                            }
-                        }
-                    } catch (Exception e)
-                    {
-                        // listFiles can fail in OutOfMemoryError, go to the next folder
-                        continue;
-                    }
-
-                    if (isStopping) {
-                        Log.d(TAG, "Stopping scan");
-                        return;
-                    }
+                // Walk the storage roots, only the changed directories are listed
+                DirectoryWalker walker = new DirectoryWalker(
+                        DBManager.getScannedDirectories(), existingMedias.keySet());
+                if (!walker.walk(mediaDirs)) {
+                    Log.d(TAG, "Stopping scan");
+                    return;
                 }
 
-                // Process the stacked items
-                for (File file : mediaToScan) {
+                // list of all found files
+                HashSet<String> foundLocations = walker.mLocations;
+
+                // Parse the new files
+                int count = 0;
+                for (File file : walker.mNewFiles) {
                     String fileURI = Util.PathToURI(file.getPath());
                     MainActivity.sendTextInfo(mContext, file.getName(), count,
-                            mediaToScan.size());
+                            walker.mNewFiles.size());
                     count++;
-                    if (existingMedias.containsKey(fileURI)) {
-                        /**
-                         * only add file if it is not already in the list. eg. if
-                         * user select an subfolder as well
-                         */
-                        if (!addedLocations.contains(fileURI)) {
-                            // get existing media item from database
-                            mItemList.add(existingMedias.get(fileURI));
-                            addedLocations.add(fileURI);
-                        }
-                    } else {
-                        // create new media item
-                        mItemList.add(new Media(fileURI, true));
+                    /**
+                     * only add file if it is not already in the list. eg. if
+                     * user select an subfolder as well
+                     */
+                    if (!foundLocations.contains(fileURI)) {
+                        if (!existingMedias.containsKey(fileURI))
+                            existingMedias.put(fileURI, new Media(fileURI, true));
+                        foundLocations.add(fileURI);
                     }
                     if (isStopping) {
                         Log.d(TAG, "Stopping scan");
                         return;
                     }
                 }
-            } finally {
-                // update the video and audio activities
-                for (int i = 0; i < mUpdateHandler.size(); i++) {
-                    Handler h = mUpdateHandler.get(i);
-                    h.sendEmptyMessage(MEDIA_ITEMS_UPDATED);
+
+                // Compute the changes of the list
+                for (String fileURI : foundLocations) {
+                    if (!listedLocations.contains(fileURI))
+                        delta.added.add(existingMedias.get(fileURI));
+                }
+                for (String fileURI : listedLocations) {
+                    if (!foundLocations.contains(fileURI))
+                        delta.removed.add(existingMedias.get(fileURI));
                 }
+                if (delta.full)
+                    mCatalog.clear();
+                mCatalog.update(delta.added, delta.removed);
+                mLoaded = true;
+                Log.d(TAG, "Scan done: " + walker.mListedDirs + " directories listed, "
+                        + delta.added.size() + " medias added, " + delta.removed.size() + " removed");
 
                 // remove old files & folders from database if storage is mounted
-                if (!isStopping && Environment.getExternalStorageState().equals(Environment.MEDIA_MOUNTED)) {
-                    for (String fileURI : addedLocations) {
-                        existingMedias.remove(fileURI);
-                    }
-                    DBManager.removeMedias(existingMedias.keySet());
+                if (Environment.getExternalStorageState().equals(Environment.MEDIA_MOUNTED)) {
+                    HashSet<String> oldLocations = new HashSet<String>(existingMedias.keySet());
+                    oldLocations.removeAll(foundLocations);
+                    DBManager.removeMedias(oldLocations);
+                    ThumbnailCache thumbnails = ThumbnailCache.getInstance(mContext);
+                    for (String location : oldLocations)
+                        thumbnails.remove(location);
+                    DBManager.updateScannedDirectories(walker.mDirectories, walker.getRemovedDirectories());
 
                     for (File file : DBManager.getMediaDirs())
                         if (!file.isDirectory())
                             DBManager.removeDir(file.getAbsolutePath());
                 }
+                DBManager.flush();
+            } finally {
+                // update the video and audio activities
+                if (!delta.isEmpty()) {
+                    for (int i = 0; i < mUpdateHandler.size(); i++) {
+                        Handler h = mUpdateHandler.get(i);
+                        h.obtainMessage(MEDIA_ITEMS_UPDATED, delta).sendToTarget();
+                    }
+                }
 
                 // hide progressbar in footer
                 MainActivity.clearTextInfo(mContext);
@@ -335,6 +359,200 @@ public class MediaLibrary {
         }
     };
 
+    /**
+     * Walks the storage roots in parallel, one thread per root. A directory
+     * is only listed when its modification time or its content changed since
+     * the last scan, otherwise its known media files and subdirectories are
+     * taken from the previous scan.
+     */
+    private class DirectoryWalker {
+
+        /** A change in a directory updates its mtime a bit later on some file systems */
+        private final static long MTIME_GRANULARITY = 3000;
+        private final static int MAX_THREADS = 4;
+
+        private final HashMap<String, ScannedDirectory> mScannedDirs;
+        private final HashMap<String, ArrayList<String>> mChildren = new HashMap<String, ArrayList<String>>();
+        private final HashMap<String, String> mKnownPaths = new HashMap<String, String>();
+        private final HashMap<String, ArrayList<String>> mKnownByDir = new HashMap<String, ArrayList<String>>();
+        private final ConcurrentHashMap<String, Boolean> mVisited = new ConcurrentHashMap<String, Boolean>();
+        private final ConcurrentHashMap<String, Boolean> mCanonicalPaths = new ConcurrentHashMap<String, Boolean>();
+
+        /* Results, merged from the threads */
+        public final HashSet<String> mLocations = new HashSet<String>();
+        public final ArrayList<File> mNewFiles = new ArrayList<File>();
+        public final ArrayList<ScannedDirectory> mDirectories = new ArrayList<ScannedDirectory>();
+        public int mListedDirs = 0;
+
+        public DirectoryWalker(HashMap<String, ScannedDirectory> scannedDirs, Set<String> knownLocations) {
+            mScannedDirs = scannedDirs;
+            for (String path : scannedDirs.keySet()) {
+                String parent = new File(path).getParent();
+                if (parent != null)
+                    add(mChildren, parent, path);
+            }
+            for (String location : knownLocations) {
+                File file = Util.URItoFile(location);
+                mKnownPaths.put(file.getPath(), location);
+                add(mKnownByDir, file.getParent(), location);
+            }
+        }
+
+        /**
+         * @return false if the scan was stopped
+         */
+        public boolean walk(List<File> roots) {
+            if (roots.isEmpty())
+                return true;
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(roots.size(), MAX_THREADS));
+            try {
+                ArrayList<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+                for (final File root : roots) {
+                    results.add(executor.submit(new Callable<Boolean>() {
+                        @Override
+                        public Boolean call() {
+                            return walk(root);
+                        }
+                    }));
+                }
+                boolean completed = true;
+                for (Future<Boolean> result : results)
+                    completed &= result.get();
+                return completed;
+            } catch (InterruptedException e) {
+                return false;
+            } catch (ExecutionException e) {
+                Log.e(TAG, "Scan failed", e.getCause());
+                return false;
+            } finally {
+                executor.shutdown();
+            }
+        }
+
+        private boolean walk(File root) {
+            MediaItemFilter mediaFileFilter = new MediaItemFilter();
+            Stack<File> directories = new Stack<File>();
+            HashSet<String> locations = new HashSet<String>();
+            ArrayList<File> newFiles = new ArrayList<File>();
+            ArrayList<ScannedDirectory> scanned = new ArrayList<ScannedDirectory>();
+            int listed = 0;
+
+            directories.push(root);
+            while (!directories.isEmpty()) {
+                if (isStopping)
+                    return false;
+
+                File dir = directories.pop();
+                String dirPath = dir.getAbsolutePath();
+
+                // Skip some system folders
+                if (dirPath.startsWith("/proc/") || dirPath.startsWith("/sys/") || dirPath.startsWith("/dev/"))
+                    continue;
+
+                // Roots may contain each other
+                if (mVisited.putIfAbsent(dirPath, Boolean.TRUE) != null)
+                    continue;
+
+                long mtime = dir.lastModified();
+                if (mtime == 0)
+                    continue;
+
+                // Unchanged since the last scan
+                ScannedDirectory previous = mScannedDirs.get(dirPath);
+                ArrayList<String> known = mKnownByDir.get(dirPath);
+                ArrayList<String> children = mChildren.get(dirPath);
+                if (previous != null && previous.mtime == mtime
+                        && previous.files == (known != null ? known.size() : 0)
+                        && previous.dirs == (children != null ? children.size() : 0)) {
+                    if (previous.ignored)
+                        continue;
+                    if (known != null)
+                        locations.addAll(known);
+                    if (children != null)
+                        for (String child : children)
+                            directories.push(new File(child));
+                    continue;
+                }
+
+                listed++;
+                boolean ignored = false;
+                int files = 0, dirs = 0;
+
+                // Do not scan again if same canonical path
+                String canonicalPath = dirPath;
+                try {
+                    canonicalPath = dir.getCanonicalPath();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                if (mCanonicalPaths.putIfAbsent(canonicalPath, Boolean.TRUE) != null)
+                    ignored = true;
+                // Do no scan media in .nomedia folders
+                else if (new File(canonicalPath + "/.nomedia").exists())
+                    ignored = true;
+
+                if (!ignored) {
+                    // Filter the extensions and the folders
+                    File[] f = null;
+                    try {
+                        f = dir.listFiles(mediaFileFilter);
+                    } catch (Exception e) {
+                        // listFiles can fail in OutOfMemoryError, go to the next folder
+                        continue;
+                    }
+                    if (f != null) {
+                        for (File file : f) {
+                            if (file.isFile()) {
+                                files++;
+                                String location = mKnownPaths.get(file.getPath());
+                                if (location != null)
+                                    locations.add(location);
+                                else
+                                    newFiles.add(file);
+                            } else if (file.isDirectory()) {
+                                dirs++;
+                                directories.push(file);
+                            }
+                        }
+                    }
+                }
+
+                // A directory modified right now may change again without a new mtime
+                if (System.currentTimeMillis() - mtime < MTIME_GRANULARITY)
+                    mtime = -1;
+                scanned.add(new ScannedDirectory(dirPath, mtime, files, dirs, ignored));
+            }
+
+            synchronized (this) {
+                mLocations.addAll(locations);
+                mNewFiles.addAll(newFiles);
+                mDirectories.addAll(scanned);
+                mListedDirs += listed;
+            }
+            return true;
+        }
+
+        /**
+         * @return the directories of the previous scan which were not seen
+         */
+        public ArrayList<String> getRemovedDirectories() {
+            ArrayList<String> removed = new ArrayList<String>();
+            for (String path : mScannedDirs.keySet())
+                if (!mVisited.containsKey(path))
+                    removed.add(path);
+            return removed;
+        }
+
+        private void add(HashMap<String, ArrayList<String>> map, String key, String value) {
+            ArrayList<String> list = map.get(key);
+            if (list == null) {
+                list = new ArrayList<String>();
+                map.put(key, list);
+            }
+            list.add(value);
+        }
+    }
+
     private Handler restartHandler = new Handler() {
         @Override
         public void handleMessage(final Message msgs) {
@@ -0,0 +1,380 @@
+/*****************************************************************************
+ * MediaSearchIndex.java
+ *****************************************************************************
+ * Copyright © 2013 VLC authors and VideoLAN
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston MA 02110-1301, USA.
+ *****************************************************************************/
+
+package org.videolan.vlc;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Search index of the titles and locations of the media items, part of the
+ * snapshots of the MediaCatalog and immutable like them.
+ *
+ * The texts are split in tokens (runs of letters and digits) and each
+ * token lists the items containing it. The tokens themselves are indexed by
+ * trigram, so the tokens containing a part of a word are found without
+ * going through the whole vocabulary. A query matches the same items as a
+ * plain substring search of its words in the title or the location: the
+ * index only narrows down the items to check.
+ */
+public class MediaSearchIndex {
+
+    private final static int GRAM = 3;
+    private final static int PAGE_SIZE = 50;
+
+    /* The maps and lists are not modified once published */
+    private final Map<String, Entry> mEntries;
+    private final Map<String, List<Entry>> mPostings;
+    private final Map<String, List<String>> mGrams;
+
+    public interface ResultListener {
+        /**
+         * @return true if the results are not needed anymore
+         */
+        boolean isCancelled();
+
+        /**
+         * Called with the results by page, in rank order
+         */
+        void onResults(List<Media> results, boolean last);
+    }
+
+    private static class Entry {
+        final Media media;
+        final String title;
+        final String location;
+        final String[] tokens;
+
+        Entry(Media media) {
+            this.media = media;
+            title = media.getTitle().toLowerCase();
+            location = media.getLocation().toLowerCase();
+            HashSet<String> set = new HashSet<String>();
+            tokenize(title, set);
+            tokenize(location, set);
+            tokens = set.toArray(new String[set.size()]);
+        }
+    }
+
+    private static class Result {
+        final Entry entry;
+        final int score;
+
+        Result(Entry entry, int score) {
+            this.entry = entry;
+            this.score = score;
+        }
+    }
+
+    MediaSearchIndex() {
+        this(Collections.<String, Entry>emptyMap(),
+             Collections.<String, List<Entry>>emptyMap(),
+             Collections.<String, List<String>>emptyMap());
+    }
+
+    private MediaSearchIndex(Map<String, Entry> entries,
+            Map<String, List<Entry>> postings, Map<String, List<String>> grams) {
+        mEntries = entries;
+        mPostings = postings;
+        mGrams = grams;
+    }
+
+    /**
+     * @return a new index with the gone items removed and the added ones
+     * indexed, the lists of the tokens which did not change are shared
+     */
+    MediaSearchIndex update(Collection<Media> added, Collection<Media> gone) {
+        HashMap<String, Entry> entries = new HashMap<String, Entry>(mEntries);
+        HashMap<String, ArrayList<Entry>> addedByToken = new HashMap<String, ArrayList<Entry>>();
+        HashSet<Entry> goneEntries = new HashSet<Entry>();
+
+        for (Media media : gone) {
+            Entry entry = entries.remove(media.getLocation());
+            if (entry == null)
+                continue;
+            goneEntries.add(entry);
+            for (String token : entry.tokens)
+                if (!addedByToken.containsKey(token))
+                    addedByToken.put(token, new ArrayList<Entry>());
+        }
+        for (Media media : added) {
+            Entry entry = new Entry(media);
+            entries.put(media.getLocation(), entry);
+            for (String token : entry.tokens) {
+                ArrayList<Entry> list = addedByToken.get(token);
+                if (list == null) {
+                    list = new ArrayList<Entry>();
+                    addedByToken.put(token, list);
+                }
+                list.add(entry);
+            }
+        }
+
+        // Copy the lists of the changed tokens, note the vocabulary changes
+        HashMap<String, List<Entry>> postings = new HashMap<String, List<Entry>>(mPostings);
+        ArrayList<String> newTokens = new ArrayList<String>();
+        HashSet<String> goneTokens = new HashSet<String>();
+        for (Map.Entry<String, ArrayList<Entry>> changed : addedByToken.entrySet()) {
+            String token = changed.getKey();
+            List<Entry> previous = mPostings.get(token);
+            ArrayList<Entry> list = new ArrayList<Entry>();
+            if (previous != null) {
+                for (Entry entry : previous)
+                    if (!goneEntries.contains(entry))
+                        list.add(entry);
+            }
+            list.addAll(changed.getValue());
+
+            if (list.isEmpty()) {
+                postings.remove(token);
+                if (previous != null)
+                    goneTokens.add(token);
+            } else {
+                postings.put(token, Collections.unmodifiableList(list));
+                if (previous == null)
+                    newTokens.add(token);
+            }
+        }
+
+        Map<String, List<String>> grams = mGrams;
+        if (!newTokens.isEmpty() || !goneTokens.isEmpty())
+            grams = updateGrams(newTokens, goneTokens);
+
+        return new MediaSearchIndex(Collections.unmodifiableMap(entries),
+                Collections.unmodifiableMap(postings), grams);
+    }
+
+    private Map<String, List<String>> updateGrams(List<String> newTokens, HashSet<String> goneTokens) {
+        HashMap<String, ArrayList<String>> changed = new HashMap<String, ArrayList<String>>();
+        for (String token : goneTokens)
+            for (String gram : grams(token))
+                if (!changed.containsKey(gram))
+                    changed.put(gram, new ArrayList<String>());
+        for (String token : newTokens) {
+            for (String gram : grams(token)) {
+                ArrayList<String> list = changed.get(gram);
+                if (list == null) {
+                    list = new ArrayList<String>();
+                    changed.put(gram, list);
+                }
+                list.add(token);
+            }
+        }
+
+        HashMap<String, List<String>> grams = new HashMap<String, List<String>>(mGrams);
+        for (Map.Entry<String, ArrayList<String>> entry : changed.entrySet()) {
+            List<String> previous = mGrams.get(entry.getKey());
+            ArrayList<String> list = new ArrayList<String>();
+            if (previous != null) {
+                for (String token : previous)
+                    if (!goneTokens.contains(token))
+                        list.add(token);
+            }
+            list.addAll(entry.getValue());
+            if (list.isEmpty())
+                grams.remove(entry.getKey());
+            else
+                grams.put(entry.getKey(), Collections.unmodifiableList(list));
+        }
+        return Collections.unmodifiableMap(grams);
+    }
+
+    /**
+     * Find the items of the given type (or Media.TYPE_ALL) whose title or
+     * location contains all the words of the query. Runs on the calling
+     * thread, meant for a background thread: the listener is checked
+     * between the steps and the search stops as soon as it is cancelled.
+     *
+     * The results are ranked: a word at the start of the title, then at the
+     * start of a word of the title, then inside the title, then only in the
+     * location. Items of the same rank are sorted by title.
+     */
+    public void search(String query, int type, ResultListener listener) {
+        String[] keys = splitQuery(query.toLowerCase());
+        if (keys.length == 0) {
+            listener.onResults(Collections.<Media>emptyList(), true);
+            return;
+        }
+
+        Collection<Entry> candidates = candidates(keys, listener);
+        if (candidates == null)
+            return;
+
+        ArrayList<Result> results = new ArrayList<Result>();
+        int checked = 0;
+        for (Entry entry : candidates) {
+            if ((++checked % 1000) == 0 && listener.isCancelled())
+                return;
+            if (type != Media.TYPE_ALL && type != entry.media.getType())
+                continue;
+            int score = score(entry, keys);
+            if (score >= 0)
+                results.add(new Result(entry, score));
+        }
+        if (listener.isCancelled())
+            return;
+
+        Collections.sort(results, byRank);
+        for (int i = 0; i == 0 || i < results.size(); i += PAGE_SIZE) {
+            if (listener.isCancelled())
+                return;
+            int end = Math.min(i + PAGE_SIZE, results.size());
+            ArrayList<Media> page = new ArrayList<Media>(end - i);
+            for (int j = i; j < end; j++)
+                page.add(results.get(j).entry.media);
+            listener.onResults(page, end == results.size());
+        }
+    }
+
+    /**
+     * @return the items which may match the query, null if cancelled
+     */
+    private Collection<Entry> candidates(String[] keys, ResultListener listener) {
+        // Each token of a key is part of a token of the matching items: take
+        // the key token with the fewest items
+        List<String> best = null;
+        int bestCount = Integer.MAX_VALUE;
+        for (String key : keys) {
+            ArrayList<String> keyTokens = new ArrayList<String>();
+            tokenize(key, keyTokens);
+            for (String keyToken : keyTokens) {
+                if (listener.isCancelled())
+                    return null;
+                List<String> tokens = tokensContaining(keyToken);
+                int count = 0;
+                for (String token : tokens)
+                    count += mPostings.get(token).size();
+                if (count < bestCount) {
+                    best = tokens;
+                    bestCount = count;
+                }
+            }
+        }
+
+        // Only separators in the query
+        if (best == null)
+            return mEntries.values();
+
+        if (best.size() == 1)
+            return mPostings.get(best.get(0));
+        HashSet<Entry> candidates = new HashSet<Entry>();
+        for (String token : best)
+            candidates.addAll(mPostings.get(token));
+        return candidates;
+    }
+
+    private List<String> tokensContaining(String keyToken) {
+        ArrayList<String> tokens = new ArrayList<String>();
+        if (keyToken.length() < GRAM) {
+            for (String token : mPostings.keySet())
+                if (token.contains(keyToken))
+                    tokens.add(token);
+            return tokens;
+        }
+
+        // The tokens having the rarest trigram of the key token
+        List<String> rarest = null;
+        for (String gram : grams(keyToken)) {
+            List<String> list = mGrams.get(gram);
+            if (list == null)
+                return tokens;
+            if (rarest == null || list.size() < rarest.size())
+                rarest = list;
+        }
+        for (String token : rarest)
+            if (token.contains(keyToken))
+                tokens.add(token);
+        return tokens;
+    }
+
+    /**
+     * @return the rank of the entry for the keys, -1 if it does not match
+     */
+    private static int score(Entry entry, String[] keys) {
+        int score = 0;
+        for (String key : keys) {
+            int index = entry.title.indexOf(key);
+            if (index == 0) {
+                score += 3;
+            } else if (index > 0) {
+                score += 1;
+                for (; index > 0; index = entry.title.indexOf(key, index + 1)) {
+                    if (!Character.isLetterOrDigit(entry.title.charAt(index - 1))) {
+                        score += 1;
+                        break;
+                    }
+                }
+            } else if (!entry.location.contains(key)) {
+                return -1;
+            }
+        }
+        return score;
+    }
+
+    private final static Comparator<Result> byRank = new Comparator<Result>() {
+        @Override
+        public int compare(Result r1, Result r2) {
+            if (r1.score != r2.score)
+                return r1.score > r2.score ? -1 : 1;
+            return r1.entry.title.compareTo(r2.entry.title);
+        }
+    };
+
+    private static String[] splitQuery(String query) {
+        ArrayList<String> keys = new ArrayList<String>();
+        int start = -1;
+        for (int i = 0; i <= query.length(); i++) {
+            boolean space = i == query.length() || Character.isWhitespace(query.charAt(i));
+            if (space && start >= 0) {
+                keys.add(query.substring(start, i));
+                start = -1;
+            } else if (!space && start < 0) {
+                start = i;
+            }
+        }
+        return keys.toArray(new String[keys.size()]);
+    }
+
+    private static void tokenize(String text, Collection<String> tokens) {
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean letter = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (!letter && start >= 0) {
+                tokens.add(text.substring(start, i));
+                start = -1;
+            } else if (letter && start < 0) {
+                start = i;
+            }
+        }
+    }
+
+    private static HashSet<String> grams(String token) {
+        HashSet<String> grams = new HashSet<String>();
+        for (int i = 0; i + GRAM <= token.length(); i++)
+            grams.add(token.substring(i, i + GRAM));
+        return grams;
+    }
+}
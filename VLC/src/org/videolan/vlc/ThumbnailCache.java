@@ -0,0 +1,154 @@
+/*****************************************************************************
+ * ThumbnailCache.java
+ *****************************************************************************
+ * Copyright © 2013 VLC authors and VideoLAN
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston MA 02110-1301, USA.
+ *****************************************************************************/
+
+package org.videolan.vlc;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+/**
+ * Video thumbnails stored as JPEG files in the cache directory of the
+ * application, one file per media named after the hash of its location and
+ * the modification time of the media file, so a modified video gets a new
+ * thumbnail. The files are spread in 256 subdirectories by hash to keep the
+ * directories small. An empty file records that no thumbnail can be made.
+ */
+public class ThumbnailCache {
+    public final static String TAG = "VLC/ThumbnailCache";
+
+    private final static int SHARDS = 256;
+    private final static int QUALITY = 90;
+
+    private static ThumbnailCache mInstance;
+    private final File mDir;
+
+    public synchronized static ThumbnailCache getInstance(Context context) {
+        if (mInstance == null)
+            mInstance = new ThumbnailCache(context.getApplicationContext());
+        return mInstance;
+    }
+
+    private ThumbnailCache(Context context) {
+        mDir = new File(context.getCacheDir(), "thumbnails");
+    }
+
+    /**
+     * @param file the cache file of the media, from getFile()
+     * @return the thumbnail of the media, null if there is none or it could
+     * not be made
+     */
+    public Bitmap get(File file) {
+        if (file.length() == 0)
+            return null;
+        return BitmapFactory.decodeFile(file.getPath());
+    }
+
+    /**
+     * @return true if the thumbnailer already went through the media, even
+     * if no thumbnail could be made
+     */
+    public boolean contains(File file) {
+        return file.exists();
+    }
+
+    /**
+     * Store the thumbnail of the media in its cache file from getFile(),
+     * null to record that there is none. The thumbnail of a previous version
+     * of the media file is removed.
+     */
+    public void put(File file, String location, Bitmap thumbnail) {
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.w(TAG, "Can't create " + dir.getPath());
+            return;
+        }
+
+        // write in a temporary file so readers never see a partial file
+        File tmp = new File(dir, file.getName() + ".tmp");
+        OutputStream out = null;
+        try {
+            out = new BufferedOutputStream(new FileOutputStream(tmp), 4096);
+            if (thumbnail != null)
+                thumbnail.compress(CompressFormat.JPEG, QUALITY, out);
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file))
+                throw new IOException("rename failed");
+        } catch (IOException e) {
+            Log.w(TAG, "Can't write the thumbnail of " + location, e);
+            tmp.delete();
+            return;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+
+        String prefix = getPrefix(location);
+        String[] names = dir.list();
+        if (names != null) {
+            for (String name : names)
+                if (name.startsWith(prefix) && !name.equals(file.getName()))
+                    new File(dir, name).delete();
+        }
+    }
+
+    public void remove(String location) {
+        File dir = getFile(location).getParentFile();
+        String prefix = getPrefix(location);
+        String[] names = dir.list();
+        if (names != null) {
+            for (String name : names)
+                if (name.startsWith(prefix))
+                    new File(dir, name).delete();
+        }
+    }
+
+    /**
+     * The cache file of the media. Its name depends on the modification
+     * time of the media file, so it costs a stat of the media: resolve it
+     * off the UI thread and keep it with the media.
+     */
+    public File getFile(String location) {
+        int hash = MurmurHash.hash32(location);
+        File media = Util.URItoFile(location);
+        long mtime = media != null ? media.lastModified() : 0;
+        String shard = String.format("%02x", hash & (SHARDS - 1));
+        return new File(new File(mDir, shard), getPrefix(location) + mtime + ".jpg");
+    }
+
+    /* Files of the media, whatever the modification time */
+    private static String getPrefix(String location) {
+        int hash = MurmurHash.hash32(location);
+        return (hash >= 0 ? "" + hash : "m" + (-hash)) + "_";
+    }
+}
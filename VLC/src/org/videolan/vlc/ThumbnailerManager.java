@@ -20,11 +20,10 @@
 
 package org.videolan.vlc;
 
-import java.lang.Thread.State;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.LinkedList;
-import java.util.Queue;
-import java.util.concurrent.BrokenBarrierException;
+import java.util.List;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -39,21 +38,33 @@ import android.util.DisplayMetrics;
 import android.util.Log;
 import android.view.Display;
 
+/**
+ * Makes the thumbnails of the videos on a few worker threads. The jobs are
+ * taken in order, except the ones moved ahead by prioritize(). The
+ * thumbnails are stored by Media.setPicture() and the video grid is told
+ * about them without waiting for it.
+ */
 public class ThumbnailerManager implements Runnable {
     public final static String TAG = "VLC/ThumbnailerManager";
 
+    /* Each thumbnail uses its own media player in libvlc */
+    private final static int MAX_WORKERS = 2;
+
     private VideoGridFragment mVideoGridFragment;
 
-    private final Queue<Media> mItems = new LinkedList<Media>();
+    private final LinkedList<Media> mItems = new LinkedList<Media>();
 
-    private boolean isStopping = false;
+    private volatile boolean isStopping = false;
     private final Lock lock = new ReentrantLock();
     private final Condition notEmpty = lock.newCondition();
 
-    protected Thread mThread;
+    private final ArrayList<Thread> mThreads = new ArrayList<Thread>();
+    private int mRunning = 0; // workers alive
+    private int mBusy = 0; // workers making a thumbnail
     private LibVLC mLibVlc;
     private final Context mContext;
     private int totalCount;
+    private int mCount;
     private final float mDensity;
     private final String mPrefix;
 
@@ -76,19 +87,28 @@ public class ThumbnailerManager implements Runnable {
             }
         }
 
+        lock.lock();
         isStopping = false;
-        if (mThread == null || mThread.getState() == State.TERMINATED) {
+        if (mRunning == 0) {
             mVideoGridFragment = videoGridFragment;
             mVideoGridFragment.setThumbnailerManager(this);
-            mThread = new Thread(this);
-            mThread.start();
+            int workers = Math.max(1, Math.min(MAX_WORKERS, Runtime.getRuntime().availableProcessors()));
+            mThreads.clear();
+            for (int i = 0; i < workers; i++)
+                mThreads.add(new Thread(this, "Thumbnailer " + i));
+            mRunning = workers;
+            for (Thread thread : mThreads)
+                thread.start();
         }
+        lock.unlock();
     }
 
     public void stop() {
         isStopping = true;
-        if (mThread != null)
-            mThread.interrupt();
+        lock.lock();
+        for (Thread thread : mThreads)
+            thread.interrupt();
+        lock.unlock();
     }
 
     /**
@@ -98,6 +118,7 @@ public class ThumbnailerManager implements Runnable {
         lock.lock();
         mItems.clear();
         totalCount = 0;
+        mCount = 0;
         lock.unlock();
     }
 
@@ -115,84 +136,111 @@ public class ThumbnailerManager implements Runnable {
     }
 
     /**
-     * Thread main function.
+     * Make the thumbnails of these items before the others, if they are
+     * still waiting.
+     * @param items the items visible on screen, in display order
+     */
+    public void prioritize(List<Media> items) {
+        lock.lock();
+        for (int i = items.size() - 1; i >= 0; i--) {
+            Media item = items.get(i);
+            if (mItems.remove(item))
+                mItems.addFirst(item);
+        }
+        lock.unlock();
+    }
+
+    /**
+     * Worker thread main function.
      */
     @Override
     public void run() {
-        int count = 0;
-        int total = 0;
+        int width = (int) (120 * mDensity);
+        int height = (int) (80 * mDensity);
+        // the pixels of libvlc are copied in this bitmap, kept for the next jobs
+        Bitmap buffer = null;
 
         Log.d(TAG, "Thumbnailer started");
 
-        while (!isStopping) {
-            mVideoGridFragment.resetBarrier();
-            lock.lock();
-            // Get the id of the file browser item to create its thumbnail.
-            boolean interrupted = false;
-            while (mItems.size() == 0) {
+        try {
+            while (!isStopping) {
+                Media item;
+                int count, total;
+                lock.lock();
                 try {
-                    MainActivity.hideProgressBar(mContext);
-                    MainActivity.clearTextInfo(mContext);
-                    totalCount = 0;
-                    notEmpty.await();
-                } catch (InterruptedException e) {
-                    interrupted = true;
-                    Log.i(TAG, "interruption probably requested by stop()");
-                    break;
+                    // Get the id of the file browser item to create its thumbnail.
+                    while (mItems.size() == 0) {
+                        if (mBusy == 0) {
+                            MainActivity.hideProgressBar(mContext);
+                            MainActivity.clearTextInfo(mContext);
+                            totalCount = 0;
+                            mCount = 0;
+                        }
+                        notEmpty.await();
+                    }
+                    item = mItems.poll();
+                    count = mCount++;
+                    total = totalCount;
+                    mBusy++;
+                } finally {
+                    lock.unlock();
                 }
-            }
-            if (interrupted) {
-                lock.unlock();
-                break;
-            }
-            total = totalCount;
-            Media item = mItems.poll();
-            lock.unlock();
-
-            MainActivity.showProgressBar(mContext);
 
-            MainActivity.sendTextInfo(mContext, String.format("%s %s", mPrefix, item.getFileName()), count, total);
-            count++;
-
-            int width = (int) (120 * mDensity);
-            int height = (int) (80 * mDensity);
-
-            // Get the thumbnail.
-            Bitmap thumbnail = Bitmap.createBitmap(width, height, Config.ARGB_8888);
-            //Log.i(TAG, "create new bitmap for: " + item.getName());
-            byte[] b = mLibVlc.getThumbnail(item.getLocation(), width, height);
-
-            if (b == null) {// We were not able to create a thumbnail for this item.
-                item.setPicture(mContext, null);
-                continue;
+                try {
+                    MainActivity.showProgressBar(mContext);
+                    MainActivity.sendTextInfo(mContext, String.format("%s %s", mPrefix, item.getFileName()), count, total);
+
+                    // Thumbnails of older versions are in the database, they move to the file cache
+                    Bitmap thumbnail = DatabaseManager.getInstance(mContext).getPicture(mContext, item.getLocation());
+                    if (thumbnail == null) {
+                        if (buffer == null)
+                            buffer = Bitmap.createBitmap(width, height, Config.ARGB_8888);
+                        thumbnail = getThumbnail(item, buffer, width, height);
+                    }
+
+                    // null records that no thumbnail can be made for this item
+                    item.setPicture(mContext, thumbnail);
+                    if (thumbnail != null) {
+                        Log.i(TAG, "Thumbnail created for " + item.getFileName());
+                        // Post to the file browser the new item.
+                        mVideoGridFragment.setItemToUpdate(item);
+                    }
+                } finally {
+                    lock.lock();
+                    mBusy--;
+                    lock.unlock();
+                }
             }
-
-            thumbnail.copyPixelsFromBuffer(ByteBuffer.wrap(b));
-            thumbnail = Util.cropBorders(thumbnail, width, height);
-
-            Log.i(TAG, "Thumbnail created for " + item.getFileName());
-
-            item.setPicture(mContext, thumbnail);
-            // Post to the file browser the new item.
-            mVideoGridFragment.setItemToUpdate(item);
-
-            // Wait for the file browser to process the change.
-            try {
-                mVideoGridFragment.await();
-            } catch (InterruptedException e) {
-                Log.i(TAG, "interruption probably requested by stop()");
-                break;
-            } catch (BrokenBarrierException e) {
-                Log.e(TAG, "Unexpected BrokenBarrierException");
-                e.printStackTrace();
-                break;
+        } catch (InterruptedException e) {
+            Log.i(TAG, "interruption probably requested by stop()");
+        } finally {
+            lock.lock();
+            boolean last = --mRunning == 0;
+            lock.unlock();
+            /* cleanup */
+            if (last) {
+                MainActivity.hideProgressBar(mContext);
+                MainActivity.clearTextInfo(mContext);
+                mVideoGridFragment.setThumbnailerManager(null);
+                mVideoGridFragment = null;
+                Log.d(TAG, "Thumbnailer stopped");
             }
         }
-        /* cleanup */
-        MainActivity.hideProgressBar(mContext);
-        MainActivity.clearTextInfo(mContext);
-        mVideoGridFragment.setThumbnailerManager(null);
-        mVideoGridFragment = null;
-        Log.d(TAG, "Thumbnailer stopped");
+    }
+
+    /**
+     * @return the thumbnail of the item, null if it can't be made
+     */
+    private Bitmap getThumbnail(Media item, Bitmap buffer, int width, int height) {
+        byte[] b = mLibVlc.getThumbnail(item.getLocation(), width, height);
+        if (b == null)
+            return null;
+
+        buffer.copyPixelsFromBuffer(ByteBuffer.wrap(b));
+        Bitmap thumbnail = Util.cropBorders(buffer, width, height);
+        // The buffer is overwritten by the next thumbnail
+        if (thumbnail == buffer)
+            thumbnail = buffer.copy(Config.ARGB_8888, false);
+        return thumbnail;
     }
 }
@@ -21,11 +21,16 @@
 package org.videolan.vlc.gui;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.videolan.vlc.AudioServiceController;
 import org.videolan.vlc.DatabaseManager;
 import org.videolan.vlc.Media;
 import org.videolan.vlc.MediaLibrary;
+import org.videolan.vlc.MediaSearchIndex;
 import org.videolan.vlc.R;
 import org.videolan.vlc.gui.audio.AudioPlayerActivity;
 import org.videolan.vlc.gui.video.VideoPlayerActivity;
@@ -35,6 +40,7 @@ import android.app.SearchManager;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.Handler;
 import android.text.Editable;
 import android.text.TextWatcher;
 import android.view.KeyEvent;
@@ -59,6 +65,13 @@ public class SearchActivity extends ListActivity {
     private SearchResultAdapter mResultAdapter;
     private LinearLayout mListHeader;
 
+    /* Queries run one at a time, a new query cancels the previous one */
+    private final ExecutorService mSearchExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mHandler = new Handler();
+    private Future<?> mSearchTask;
+    private int mSearchGeneration = 0;
+    private int mResults;
+
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -102,43 +115,71 @@ public class SearchActivity extends ListActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        cancelSearch();
+        mSearchExecutor.shutdownNow();
         mHistoryAdapter.clear();
         mResultAdapter.clear();
     }
 
-    private void search(CharSequence key, int type) {
-
-        // set result adapter to the list
-        mResultAdapter.clear();
-        String[] keys = key.toString().split("\\s+");
-        ArrayList<Media> allItems = MediaLibrary.getInstance(this).getMediaItems();
-        int results = 0;
-        for (int i = 0; i < allItems.size(); i++) {
-            Media item = allItems.get(i);
-            if (type != Media.TYPE_ALL && type != item.getType())
-                continue;
-            boolean add = true;
-            String name = item.getTitle().toLowerCase();
-            String MRL = item.getLocation().toLowerCase();
-            for (int k = 0; k < keys.length; k++) {
-                if (!(name.contains(keys[k].toLowerCase()) || MRL.contains(keys[k].toLowerCase()))) {
-                    add = false;
-                    break;
-                }
+    private void search(CharSequence key, final int type) {
+        cancelSearch();
+        final int generation = mSearchGeneration;
+        final String query = key.toString();
+        final MediaSearchIndex index = MediaLibrary.getInstance(this).getSearchIndex();
+
+        // the previous results stay until the first page of the new ones
+        mSearchTask = mSearchExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                index.search(query, type, new MediaSearchIndex.ResultListener() {
+                    private boolean mFirst = true;
+
+                    @Override
+                    public boolean isCancelled() {
+                        return Thread.currentThread().isInterrupted();
+                    }
+
+                    @Override
+                    public void onResults(final List<Media> results, final boolean last) {
+                        final boolean first = mFirst;
+                        mFirst = false;
+                        mHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (generation == mSearchGeneration)
+                                    showResults(results, first);
+                            }
+                        });
+                    }
+                });
             }
+        });
+    }
 
-            if (add) {
-                mResultAdapter.add(item);
-                results++;
-            }
+    private void cancelSearch() {
+        mSearchGeneration++;
+        if (mSearchTask != null) {
+            mSearchTask.cancel(true);
+            mSearchTask = null;
+        }
+    }
 
+    private void showResults(List<Media> results, boolean first) {
+        mResultAdapter.setNotifyOnChange(false);
+        if (first) {
+            mResultAdapter.clear();
+            mResults = 0;
         }
-        mResultAdapter.sort();
+        for (Media item : results)
+            mResultAdapter.add(item);
+        mResults += results.size();
+        mResultAdapter.notifyDataSetChanged();
 
-        String headerText = getResources().getQuantityString(R.plurals.search_found_results_quantity, results, results);
+        String headerText = getResources().getQuantityString(R.plurals.search_found_results_quantity, mResults, mResults);
         showListHeader(headerText);
 
-        setListAdapter(mResultAdapter);
+        if (getListAdapter() != mResultAdapter)
+            setListAdapter(mResultAdapter);
     }
 
     private void showListHeader(String text) {
@@ -178,6 +219,7 @@ public class SearchActivity extends ListActivity {
             if (s.length() > 0) {
                 search(s, Media.TYPE_ALL);
             } else {
+                cancelSearch();
                 showSearchHistory();
             }
         }
@@ -283,7 +283,7 @@ public class AudioBrowserFragment extends SherlockFragment implements ISortable
                         @Override
                         public void run(Object o) {
                             Media aMedia = (Media) o;
-                            mMediaLibrary.getMediaItems().remove(aMedia);
+                            mMediaLibrary.removeMediaItem(aMedia);
                             updateLists();
                         }
                     });
@@ -384,7 +384,10 @@ public class AudioBrowserFragment extends SherlockFragment implements ISortable
 
             switch (msg.what) {
                 case MediaLibrary.MEDIA_ITEMS_UPDATED:
-                    fragment.updateLists();
+                    // Only audio changes matter here
+                    MediaLibrary.Delta delta = (MediaLibrary.Delta) msg.obj;
+                    if (delta == null || delta.contains(Media.TYPE_AUDIO))
+                        fragment.updateLists();
                     break;
             }
         }
@@ -23,15 +23,12 @@ package org.videolan.vlc.gui.audio;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.videolan.vlc.BitmapCache;
 import org.videolan.vlc.Media;
 import org.videolan.vlc.R;
 import org.videolan.vlc.Util;
 
 import android.content.Context;
 import android.content.res.ColorStateList;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -90,18 +87,7 @@ public class AudioListAdapter extends ArrayAdapter<Media> {
 
         Media media = getItem(position);
 
-        Bitmap cover = AudioUtil.getCover(v.getContext(), media, 64);
-
-        if (cover == null) {
-            BitmapCache cache = BitmapCache.getInstance();
-            cover = cache.getBitmapFromMemCache(R.drawable.icon);
-            if (cover == null) {
-                cover = BitmapFactory.decodeResource(v.getResources(), R.drawable.icon);
-                cache.addBitmapToMemCache(R.drawable.icon, cover);
-            }
-        }
-
-        holder.cover.setImageBitmap(cover);
+        CoverLoader.load(holder.cover, media, 64);
 
         Util.setItemBackground(holder.layout, position);
         holder.title.setText(media.getTitle());
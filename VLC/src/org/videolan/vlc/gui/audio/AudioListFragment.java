@@ -159,7 +159,7 @@ public class AudioListFragment extends SherlockListFragment {
                     new VlcRunnable(media) {
                         @Override
                         public void run(Object o) {
-                            mMediaLibrary.getMediaItems().remove(media);
+                            mMediaLibrary.removeMediaItem(media);
                             updateList();
                         }
                     });
@@ -206,7 +206,10 @@ public class AudioListFragment extends SherlockListFragment {
 
             switch (msg.what) {
                 case MediaLibrary.MEDIA_ITEMS_UPDATED:
-                    fragment.updateList();
+                    // Only audio changes matter here
+                    MediaLibrary.Delta delta = (MediaLibrary.Delta) msg.obj;
+                    if (delta == null || delta.contains(Media.TYPE_AUDIO))
+                        fragment.updateList();
                     break;
             }
         }
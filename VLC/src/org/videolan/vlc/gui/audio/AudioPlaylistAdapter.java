@@ -24,15 +24,12 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 
-import org.videolan.vlc.BitmapCache;
 import org.videolan.vlc.Media;
 import org.videolan.vlc.R;
 import org.videolan.vlc.Util;
 
 import android.content.Context;
 import android.content.res.Resources;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -169,18 +166,7 @@ public class AudioPlaylistAdapter extends BaseExpandableListAdapter {
         int countMedia = list.size();
         Resources res = mContext.getResources();
 
-        Bitmap cover = AudioUtil.getCover(v.getContext(), list.get(0), 64);
-
-        if (cover == null) {
-            BitmapCache cache = BitmapCache.getInstance();
-            cover = cache.getBitmapFromMemCache(R.drawable.icon);
-            if (cover == null) {
-                cover = BitmapFactory.decodeResource(v.getResources(), R.drawable.icon);
-                cache.addBitmapToMemCache(R.drawable.icon, cover);
-            }
-        }
-
-        holder.cover.setImageBitmap(cover);
+        CoverLoader.load(holder.cover, list.get(0), 64);
 
         Util.setItemBackground(holder.layout, groupPosition);
         holder.title.setText(name);
@@ -220,18 +206,7 @@ public class AudioPlaylistAdapter extends BaseExpandableListAdapter {
         int count = list.size();
         Resources res = mContext.getResources();
 
-        Bitmap cover = AudioUtil.getCover(v.getContext(), list.get(0), 64);
-
-        if (cover == null) {
-            BitmapCache cache = BitmapCache.getInstance();
-            cover = cache.getBitmapFromMemCache(R.drawable.icon);
-            if (cover == null) {
-                cover = BitmapFactory.decodeResource(v.getResources(), R.drawable.icon);
-                cache.addBitmapToMemCache(R.drawable.icon, cover);
-            }
-        }
-
-        holder.cover.setImageBitmap(cover);
+        CoverLoader.load(holder.cover, list.get(0), 64);
 
         Util.setItemBackground(holder.layout, childPosition);
         if (name != null)
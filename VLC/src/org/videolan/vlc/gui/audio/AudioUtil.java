@@ -28,6 +28,10 @@ import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import org.videolan.vlc.BitmapCache;
 import org.videolan.vlc.Media;
@@ -58,6 +62,10 @@ public class AudioUtil {
     public static String CACHE_DIR = null;
     public static String COVER_DIR = null;
 
+    /* Covers being loaded, by cache path */
+    private final static ConcurrentHashMap<String, FutureTask<Bitmap>> mLoadingCovers =
+            new ConcurrentHashMap<String, FutureTask<Bitmap>>();
+
     public static void setRingtone( Media song, Activity activity){
         File newringtone = Util.URItoFile(song.getLocation());
         ContentValues values = new ContentValues();
@@ -160,12 +168,22 @@ public class AudioUtil {
         return null;
     }
 
-    @SuppressLint("NewApi")
-    public synchronized static Bitmap getCover(Context context, Media media, int width) {
-        String coverPath = null;
-        Bitmap cover = null;
-        String cachePath = null;
+    /**
+     * @return the key of the cover of the album of the media, both in the
+     * memory cache and in the storage cache
+     */
+    public static String getCoverCachePath(Media media, int width) {
+        int hash = MurmurHash.hash32(media.getArtist()+media.getAlbum());
+        return COVER_DIR + (hash >= 0 ? "" + hash : "m" + (-hash)) + "_" + width;
+    }
 
+    /**
+     * Get the cover of the album of the media, loading it on the calling
+     * thread if it is not in the memory cache. Concurrent requests for the
+     * same cover wait for a single load, requests for other covers are not
+     * blocked by it.
+     */
+    public static Bitmap getCover(final Context context, final Media media, final int width) {
         if (width <= 0) {
             Log.e(TAG, "Invalid cover width requested");
             return null;
@@ -175,17 +193,44 @@ public class AudioUtil {
         if (!Util.hasExternalStorage())
             return null;
 
+        // try to get the cover from the LRUCache first
+        final String cachePath = getCoverCachePath(media, width);
+        Bitmap cover = BitmapCache.getInstance().getBitmapFromMemCache(cachePath);
+        if (cover != null)
+            return cover;
+
+        FutureTask<Bitmap> task = new FutureTask<Bitmap>(new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() {
+                return loadCover(context, media, width, cachePath);
+            }
+        });
+        FutureTask<Bitmap> loading = mLoadingCovers.putIfAbsent(cachePath, task);
+        if (loading == null) {
+            loading = task;
+            try {
+                task.run();
+            } finally {
+                mLoadingCovers.remove(cachePath, task);
+            }
+        }
+
         try {
-            // try to load from cache
-            int hash = MurmurHash.hash32(media.getArtist()+media.getAlbum());
-            cachePath = COVER_DIR + (hash >= 0 ? "" + hash : "m" + (-hash)) + "_" + width;
+            return loading.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
 
-            // try to get the cover from the LRUCache first
-            BitmapCache cache = BitmapCache.getInstance();
-            cover = cache.getBitmapFromMemCache(cachePath);
-            if (cover != null)
-                return cover;
+    @SuppressLint("NewApi")
+    private static Bitmap loadCover(Context context, Media media, int width, String cachePath) {
+        String coverPath = null;
+        Bitmap cover = null;
 
+        try {
             // try to get the cover from the storage cache
             File cacheFile = new File(cachePath);
             if (cacheFile != null && cacheFile.exists()) {
@@ -212,7 +257,7 @@ public class AudioUtil {
 
             // store cover into both cache
             writeBitmap(cover, cachePath);
-            cache.addBitmapToMemCache(cachePath, cover);
+            BitmapCache.getInstance().addBitmapToMemCache(cachePath, cover);
 
         } catch (Exception e) {
             e.printStackTrace();
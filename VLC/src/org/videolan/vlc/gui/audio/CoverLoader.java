@@ -0,0 +1,144 @@
+/*****************************************************************************
+ * CoverLoader.java
+ *****************************************************************************
+ * Copyright © 2013 VLC authors and VideoLAN
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston MA 02110-1301, USA.
+ *****************************************************************************/
+
+package org.videolan.vlc.gui.audio;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.videolan.vlc.BitmapCache;
+import org.videolan.vlc.Media;
+import org.videolan.vlc.R;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.widget.ImageView;
+
+/**
+ * Show the album covers in the list views without loading them on the UI
+ * thread. A cover in the memory cache is set at once, otherwise the view
+ * shows the default icon while the cover is loaded by a small pool of
+ * threads. The request of a recycled view is cancelled: a queued load is
+ * dropped and the result of a running load is not set on the view.
+ */
+public class CoverLoader {
+    public final static String TAG = "VLC/CoverLoader";
+
+    private final static int THREADS = 2;
+
+    private final static ExecutorService mExecutor = Executors.newFixedThreadPool(THREADS,
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "CoverLoader");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+    private final static Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private static class Request implements Runnable {
+        final ImageView view;
+        final Context context;
+        final Media media;
+        final int width;
+        volatile boolean cancelled = false;
+        Future<?> future;
+
+        Request(ImageView view, Media media, int width) {
+            this.view = view;
+            this.context = view.getContext().getApplicationContext();
+            this.media = media;
+            this.width = width;
+        }
+
+        @Override
+        public void run() {
+            if (cancelled)
+                return;
+            final Bitmap cover = AudioUtil.getCover(context, media, width);
+            if (cover == null || cancelled)
+                return;
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    // the view may show another item by now
+                    if (!cancelled && view.getTag() == Request.this) {
+                        view.setTag(null);
+                        view.setImageBitmap(cover);
+                    }
+                }
+            });
+        }
+
+        void cancel() {
+            cancelled = true;
+            if (future != null)
+                future.cancel(false);
+        }
+    }
+
+    /**
+     * Show the cover of the album of the media in the view, or the default
+     * icon if there is none. Must be called on the UI thread.
+     */
+    public static void load(ImageView view, Media media, int width) {
+        cancel(view);
+
+        String cachePath = AudioUtil.getCoverCachePath(media, width);
+        Bitmap cover = BitmapCache.getInstance().getBitmapFromMemCache(cachePath);
+        if (cover != null) {
+            view.setImageBitmap(cover);
+            return;
+        }
+
+        view.setImageBitmap(getDefaultCover(view.getContext()));
+        Request request = new Request(view, media, width);
+        view.setTag(request);
+        request.future = mExecutor.submit(request);
+    }
+
+    /**
+     * Cancel the pending request of the view, if any
+     */
+    public static void cancel(ImageView view) {
+        Object tag = view.getTag();
+        if (tag instanceof Request) {
+            ((Request) tag).cancel();
+            view.setTag(null);
+        }
+    }
+
+    private static Bitmap getDefaultCover(Context context) {
+        BitmapCache cache = BitmapCache.getInstance();
+        Bitmap cover = cache.getBitmapFromMemCache(R.drawable.icon);
+        if (cover == null) {
+            cover = BitmapFactory.decodeResource(context.getResources(), R.drawable.icon);
+            cache.addBitmapToMemCache(R.drawable.icon, cover);
+        }
+        return cover;
+    }
+}
@@ -20,10 +20,9 @@
 
 package org.videolan.vlc.gui.video;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.BrokenBarrierException;
-import java.util.concurrent.CyclicBarrier;
 
 import org.videolan.android.ui.SherlockGridFragment;
 import org.videolan.vlc.DatabaseManager;
@@ -59,6 +58,8 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
 import android.widget.AdapterView.AdapterContextMenuInfo;
 import android.widget.GridView;
 import android.widget.LinearLayout;
@@ -73,6 +74,8 @@ public class VideoGridFragment extends SherlockGridFragment implements ISortable
     protected static final String ACTION_SCAN_START = "org.videolan.vlc.gui.ScanStart";
     protected static final String ACTION_SCAN_STOP = "org.videolan.vlc.gui.ScanStop";
     protected static final int UPDATE_ITEM = 0;
+    /* New thumbnails are shown together, at most once per delay */
+    private static final int UPDATE_ITEM_DELAY = 300;
 
     /* Constants used to switch from Grid to List and vice versa */
     //FIXME If you know a way to do this in pure XML please do it!
@@ -86,8 +89,7 @@ public class VideoGridFragment extends SherlockGridFragment implements ISortable
 
     protected LinearLayout mLayoutFlipperLoading;
     protected TextView mTextViewNomedia;
-    protected Media mItemToUpdate;
-    protected final CyclicBarrier mBarrier = new CyclicBarrier(2);
+    protected final ArrayList<Media> mItemsToUpdate = new ArrayList<Media>();
 
     private VideoListAdapter mVideoAdapter;
     private MediaLibrary mMediaLibrary;
@@ -124,6 +126,7 @@ public class VideoGridFragment extends SherlockGridFragment implements ISortable
     public void onViewCreated(View view, Bundle savedInstanceState) {
         super.onViewCreated(view, savedInstanceState);
         registerForContextMenu(getGridView());
+        getGridView().setOnScrollListener(mScrollListener);
 
         // init the information for the scan (2/2)
         IntentFilter filter = new IntentFilter();
@@ -169,7 +172,6 @@ public class VideoGridFragment extends SherlockGridFragment implements ISortable
     @Override
     public void onDestroy() {
         super.onDestroy();
-        mBarrier.reset();
         mVideoAdapter.clear();
     }
 
@@ -329,28 +331,59 @@ public class VideoGridFragment extends SherlockGridFragment implements ISortable
 
             switch (msg.what) {
             case UPDATE_ITEM:
-                fragment.updateItem();
+                fragment.updateItems();
                 break;
             case MediaLibrary.MEDIA_ITEMS_UPDATED:
                 // Don't update the adapter while the layout animation is running
                 if (fragment.mAnimator.isAnimationDone())
-                    fragment.updateList();
+                    fragment.updateList((MediaLibrary.Delta) msg.obj);
                 else
-                    sendEmptyMessageDelayed(msg.what, 500);
+                    sendMessageDelayed(obtainMessage(msg.what, msg.obj), 500);
                 break;
             }
         }
     };
 
-    private void updateItem() {
-        mVideoAdapter.update(mItemToUpdate);
-        try {
-            mBarrier.await();
-        } catch (InterruptedException e) {
-        } catch (BrokenBarrierException e) {
+    private void updateItems() {
+        boolean shown = false;
+        synchronized (mItemsToUpdate) {
+            for (Media item : mItemsToUpdate)
+                shown |= mVideoAdapter.getPosition(item) != -1;
+            mItemsToUpdate.clear();
         }
+        // the thumbnails are read from the cache when the views are drawn
+        if (shown)
+            mVideoAdapter.notifyDataSetChanged();
     }
 
+    /**
+     * Make the thumbnails of the items on screen first
+     */
+    private void prioritizeVisibleItems() {
+        if (mThumbnailerManager == null || getView() == null)
+            return;
+        GridView gv = getGridView();
+        int first = Math.max(0, gv.getFirstVisiblePosition());
+        int last = Math.min(mVideoAdapter.getCount() - 1, gv.getLastVisiblePosition());
+        ArrayList<Media> visible = new ArrayList<Media>();
+        for (int i = first; i <= last; i++)
+            visible.add(mVideoAdapter.getItem(i));
+        mThumbnailerManager.prioritize(visible);
+    }
+
+    private final OnScrollListener mScrollListener = new OnScrollListener() {
+        @Override
+        public void onScrollStateChanged(AbsListView view, int scrollState) {
+            if (scrollState == OnScrollListener.SCROLL_STATE_IDLE)
+                prioritizeVisibleItems();
+        }
+
+        @Override
+        public void onScroll(AbsListView view, int firstVisibleItem,
+                int visibleItemCount, int totalItemCount) {
+        }
+    };
+
     private void updateList() {
         List<Media> itemList = mMediaLibrary.getVideoItems();
 
@@ -371,6 +404,35 @@ public class VideoGridFragment extends SherlockGridFragment implements ISortable
             }
             mVideoAdapter.sort();
         }
+        prioritizeVisibleItems();
+    }
+
+    /**
+     * Apply the changes of a media scan to the adapter
+     */
+    private void updateList(MediaLibrary.Delta delta) {
+        if (delta == null || delta.full) {
+            updateList();
+            return;
+        }
+        if (!delta.contains(Media.TYPE_VIDEO))
+            return;
+
+        mVideoAdapter.setNotifyOnChange(false);
+        for (Media item : delta.removed) {
+            if (item.getType() == Media.TYPE_VIDEO)
+                mVideoAdapter.remove(item);
+        }
+        for (Media item : delta.added) {
+            if (item.getType() == Media.TYPE_VIDEO) {
+                mVideoAdapter.add(item);
+                if (mThumbnailerManager != null && item.getPicture() == null && !item.isPictureParsed())
+                    mThumbnailerManager.addJob(item);
+            }
+        }
+        mVideoAdapter.sort();
+        mVideoAdapter.notifyDataSetChanged();
+        prioritizeVisibleItems();
     }
 
     @Override
@@ -378,17 +440,16 @@ public class VideoGridFragment extends SherlockGridFragment implements ISortable
         mVideoAdapter.sortBy(sortby);
     }
 
+    /**
+     * Called by the thumbnailer threads when the thumbnail of an item is
+     * ready, the grid is refreshed once for the items of the next delay
+     */
     public void setItemToUpdate(Media item) {
-        mItemToUpdate = item;
-        mHandler.sendEmptyMessage(UPDATE_ITEM);
-    }
-
-    public void await() throws InterruptedException, BrokenBarrierException {
-        mBarrier.await();
-    }
-
-    public void resetBarrier() {
-        mBarrier.reset();
+        synchronized (mItemsToUpdate) {
+            mItemsToUpdate.add(item);
+            if (mItemsToUpdate.size() == 1)
+                mHandler.sendEmptyMessageDelayed(UPDATE_ITEM, UPDATE_ITEM_DELAY);
+        }
     }
 
     private final BroadcastReceiver messageReceiverVideoListFragment = new BroadcastReceiver() {
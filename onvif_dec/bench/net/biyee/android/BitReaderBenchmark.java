@@ -0,0 +1,325 @@
+package net.biyee.android;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+/*
+ * Checks BitReader against a reference bit writer and times it against the
+ * bit-at-a-time reads of BitInputStream. Not part of the application, it
+ * runs on any JVM:
+ *
+ *   javac -d out src/net/biyee/android/BitReader.java bench/net/biyee/android/BitReaderBenchmark.java
+ *   java -cp out net.biyee.android.BitReaderBenchmark [iterations]
+ *
+ * BitInputStream.java is a decompiler listing (monitorenter/monitorexit)
+ * and doesn't compile, so its algorithm is reproduced in
+ * SynchronizedBitStream: a synchronized call per bit over an InputStream,
+ * the exp-Golomb codes decoded bit by bit on top of it.
+ */
+public class BitReaderBenchmark
+{
+  private static final int WARMUP = 3;
+  private static int iFailures = 0;
+
+  public static void main(String[] args)
+    throws Exception
+  {
+    int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : 10;
+
+    checkFields(false);
+    checkFields(true);
+    checkEmulationPrevention();
+    checkEnd();
+    checkAgainstBitInputStream();
+
+    benchmark(iterations);
+
+    java.lang.System.out.println((iFailures == 0) ? "All checks passed" : iFailures + " check(s) failed");
+    if (iFailures > 0)
+      java.lang.System.exit(1);
+  }
+
+  /* Random fixed fields of 1 to 32 bits and ue/se codes, written and read back */
+  private static void checkFields(boolean bEscaped)
+    throws IOException
+  {
+    Random random = new Random(bEscaped ? 2 : 1);
+    boolean ok = true;
+    for (int n = 0; ok && n < 2000; n++)
+    {
+      int iCount = 1 + random.nextInt(64);
+      int[] arrayKinds = new int[iCount];
+      int[] arrayWidths = new int[iCount];
+      int[] arrayValues = new int[iCount];
+      BitWriter writer = new BitWriter();
+      for (int i = 0; i < iCount; i++)
+      {
+        arrayKinds[i] = random.nextInt(3);
+        switch (arrayKinds[i])
+        {
+        case 0:
+          arrayWidths[i] = 1 + random.nextInt(32);
+          arrayValues[i] = (arrayWidths[i] == 32) ? random.nextInt() : random.nextInt(1 << arrayWidths[i] - 1) << 1 | random.nextInt(2);
+          writer.writeBits(arrayValues[i], arrayWidths[i]);
+          break;
+        case 1:
+          // mostly small codes, as in the headers, some up to 2^20
+          arrayValues[i] = random.nextBoolean() ? random.nextInt(16) : random.nextInt(1 << 20);
+          writer.writeUE(arrayValues[i]);
+          break;
+        default:
+          arrayValues[i] = random.nextInt(1 << 16) - (1 << 15);
+          writer.writeSE(arrayValues[i]);
+          break;
+        }
+      }
+      byte[] arrayOfByte = bEscaped ? escape(writer.toByteArray()) : writer.toByteArray();
+      int iOffset = random.nextInt(4);
+      byte[] arrayPadded = new byte[iOffset + arrayOfByte.length + 4];
+      java.lang.System.arraycopy(arrayOfByte, 0, arrayPadded, iOffset, arrayOfByte.length);
+      BitReader reader = new BitReader(arrayPadded, iOffset, arrayOfByte.length, bEscaped);
+      for (int i = 0; ok && i < iCount; i++)
+      {
+        int iValue;
+        if (arrayKinds[i] == 0)
+          iValue = reader.readBits(arrayWidths[i]);
+        else if (arrayKinds[i] == 1)
+          iValue = reader.readUE();
+        else
+          iValue = reader.readSE();
+        ok = (iValue == arrayValues[i]);
+      }
+      ok &= (reader.getBitsRead() == writer.iBits);
+    }
+    report("readBits/readUE/readSE " + (bEscaped ? "escaped" : "plain"), ok);
+  }
+
+  /* 00 00 03 xx is read as 00 00 xx, a 03 not after two zeros is data */
+  private static void checkEmulationPrevention()
+    throws IOException
+  {
+    byte[] arrayOfByte = { 0, 0, 3, 1, 3, 0, 0, 3, 3, (byte)0xFF };
+    BitReader reader = new BitReader(arrayOfByte, 0, arrayOfByte.length, true);
+    boolean ok = reader.readBits(24) == 0x000001 && reader.readBits(8) == 3 && reader.readBits(16) == 0 && reader.readBits(16) == 0x03FF && !reader.hasMoreBits();
+    report("emulation prevention bytes", ok);
+  }
+
+  private static void checkEnd()
+  {
+    BitReader reader = new BitReader(new byte[] { (byte)0xA5 });
+    boolean ok;
+    try
+    {
+      ok = reader.readBits(3) == 5 && reader.peekBits(5) == 5;
+      reader.skipBits(5);
+      ok &= !reader.hasMoreBits();
+      reader.readBit();
+      ok = false;
+    }
+    catch (EOFException localEOFException)
+    {
+      ok = true;
+    }
+    report("EOFException at the end of the data", ok);
+  }
+
+  /* The AAC AU header fields read as RTSPoverHTTPDecoderRunnable did */
+  private static void checkAgainstBitInputStream()
+    throws IOException
+  {
+    Random random = new Random(3);
+    boolean ok = true;
+    for (int n = 0; ok && n < 2000; n++)
+    {
+      byte[] arrayOfByte = new byte[8 + random.nextInt(32)];
+      random.nextBytes(arrayOfByte);
+      BitReader reader = new BitReader(arrayOfByte);
+      SynchronizedBitStream stream = new SynchronizedBitStream(new ByteArrayInputStream(arrayOfByte));
+      int iLeft = arrayOfByte.length * 8;
+      while (ok && iLeft > 0)
+      {
+        int iBits = Math.min(iLeft, 1 + random.nextInt(16));
+        ok = reader.readBits(iBits) == stream.readBitsBigEndian((short)iBits);
+        iLeft -= iBits;
+      }
+    }
+    report("readBits against BitInputStream.readBitsBigEndian", ok);
+  }
+
+  private static void benchmark(int iterations)
+    throws IOException
+  {
+    // a slice header like mix: ue/se codes and flags, some fixed fields
+    Random random = new Random(4);
+    BitWriter writer = new BitWriter();
+    for (int i = 0; i < 40; i++)
+    {
+      writer.writeUE(random.nextInt(32));
+      writer.writeSE(random.nextInt(64) - 32);
+      writer.writeBits(random.nextInt(2), 1);
+      writer.writeBits(random.nextInt(1 << 13), 13);
+    }
+    byte[] arrayHeader = writer.toByteArray();
+    int iParses = 20000;
+
+    for (int run = -WARMUP; run < iterations; run++)
+    {
+      long start = java.lang.System.nanoTime();
+      int iSum = 0;
+      for (int n = 0; n < iParses; n++)
+      {
+        SynchronizedBitStream stream = new SynchronizedBitStream(new ByteArrayInputStream(arrayHeader));
+        for (int i = 0; i < 40; i++)
+          iSum += stream.readUE() + stream.readSE() + stream.readBitsBigEndian((short)1) + stream.readBitsBigEndian((short)13);
+      }
+      long lStream = java.lang.System.nanoTime() - start;
+
+      start = java.lang.System.nanoTime();
+      for (int n = 0; n < iParses; n++)
+      {
+        BitReader reader = new BitReader(arrayHeader);
+        for (int i = 0; i < 40; i++)
+          iSum -= reader.readUE() + reader.readSE() + reader.readBits(1) + reader.readBits(13);
+      }
+      long lReader = java.lang.System.nanoTime() - start;
+
+      if (iSum != 0)
+        report("benchmark parses agree", false);
+      if (run >= 0)
+        java.lang.System.out.println(String.format("run %2d: BitInputStream %6.2f us, BitReader %5.2f us per header (%.1fx)", run, lStream / 1000.0D / iParses, lReader / 1000.0D / iParses, lStream / (double)lReader));
+    }
+  }
+
+  private static void report(String sName, boolean ok)
+  {
+    if (!ok)
+      iFailures++;
+    java.lang.System.out.println((ok ? "PASS " : "FAIL ") + sName);
+  }
+
+  /* Insert an emulation prevention byte where 00 00 is followed by 00..03 */
+  private static byte[] escape(byte[] paramArrayOfByte)
+  {
+    ByteArrayOutputStream localByteArrayOutputStream = new ByteArrayOutputStream();
+    int iZeros = 0;
+    for (int i = 0; i < paramArrayOfByte.length; i++)
+    {
+      int b = paramArrayOfByte[i] & 0xFF;
+      if (iZeros >= 2 && b <= 3)
+      {
+        localByteArrayOutputStream.write(3);
+        iZeros = 0;
+      }
+      localByteArrayOutputStream.write(b);
+      iZeros = (b == 0) ? iZeros + 1 : 0;
+    }
+    return localByteArrayOutputStream.toByteArray();
+  }
+
+  /* Reference writer, a bit at a time */
+  static class BitWriter
+  {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    int iCurrent = 0;
+    int iBits = 0;
+
+    void writeBit(int iBit)
+    {
+      this.iCurrent = this.iCurrent << 1 | iBit;
+      if (++this.iBits % 8 == 0)
+      {
+        this.out.write(this.iCurrent);
+        this.iCurrent = 0;
+      }
+    }
+
+    void writeBits(int iValue, int iCount)
+    {
+      for (int i = iCount - 1; i >= 0; i--)
+        writeBit(iValue >>> i & 1);
+    }
+
+    void writeUE(int iValue)
+    {
+      long l = iValue + 1L;
+      int iLength = 64 - Long.numberOfLeadingZeros(l);
+      for (int i = 1; i < iLength; i++)
+        writeBit(0);
+      for (int i = iLength - 1; i >= 0; i--)
+        writeBit((int)(l >>> i) & 1);
+    }
+
+    void writeSE(int iValue)
+    {
+      writeUE((iValue > 0) ? 2 * iValue - 1 : -2 * iValue);
+    }
+
+    byte[] toByteArray()
+    {
+      ByteArrayOutputStream localByteArrayOutputStream = new ByteArrayOutputStream();
+      localByteArrayOutputStream.write(this.out.toByteArray(), 0, this.out.size());
+      if (this.iBits % 8 != 0)
+        localByteArrayOutputStream.write(this.iCurrent << 8 - this.iBits % 8);
+      return localByteArrayOutputStream.toByteArray();
+    }
+  }
+
+  /* The algorithm of BitInputStream */
+  static class SynchronizedBitStream
+  {
+    private int iBuffer;
+    private InputStream iIs;
+    private int iNextBit = 8;
+
+    SynchronizedBitStream(InputStream paramInputStream)
+    {
+      this.iIs = paramInputStream;
+    }
+
+    synchronized int readBitBigEndian()
+      throws IOException
+    {
+      if (this.iIs == null)
+        throw new IOException("Already closed");
+      if (this.iNextBit == 8)
+      {
+        this.iBuffer = this.iIs.read();
+        if (this.iBuffer == -1)
+          throw new EOFException();
+        this.iNextBit = 0;
+      }
+      int i = this.iBuffer & 1 << 7 - this.iNextBit;
+      this.iNextBit += 1;
+      return (i == 0) ? 0 : 1;
+    }
+
+    synchronized int readBitsBigEndian(short paramShort)
+      throws IOException
+    {
+      int i = 0;
+      for (int j = paramShort - 1; j >= 0; j--)
+        i |= readBitBigEndian() << j;
+      return i;
+    }
+
+    int readUE()
+      throws IOException
+    {
+      int i = 0;
+      while (readBitBigEndian() == 0)
+        i++;
+      return (1 << i) - 1 + readBitsBigEndian((short)i);
+    }
+
+    int readSE()
+      throws IOException
+    {
+      int i = readUE();
+      return ((i & 1) != 0) ? (i + 1) / 2 : -(i / 2);
+    }
+  }
+}
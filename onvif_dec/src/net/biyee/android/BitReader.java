@@ -0,0 +1,192 @@
+package net.biyee.android;
+
+import java.io.EOFException;
+
+/*
+ * Big endian bit reader over a byte array for the bit fields of the stream
+ * headers (H.264 parameter sets and slice headers, AAC AU headers). Up to
+ * 64 bits are cached in a long, so a field of up to 32 bits is read with a
+ * shift instead of a call per bit, and the exp-Golomb codes of H.264 are
+ * decoded with a single count of the leading zeros when the code is in the
+ * cache. With bUnescape the emulation prevention bytes (0x03 following two
+ * zero bytes) of a NAL unit payload are skipped while the cache is filled.
+ * Not thread safe.
+ */
+public class BitReader
+{
+  private final byte[] arrayData;
+  private final int iEnd;
+  private final boolean bUnescape;
+  private int iPosition;
+  private int iZeros = 0;
+  private long lCache = 0L;
+  private int iCacheBits = 0;
+  private int iBitsRead = 0;
+
+  public BitReader(byte[] paramArrayOfByte)
+  {
+    this(paramArrayOfByte, 0, paramArrayOfByte.length, false);
+  }
+
+  public BitReader(byte[] paramArrayOfByte, int iOffset, int iLength, boolean bUnescape)
+  {
+    this.arrayData = paramArrayOfByte;
+    this.iPosition = iOffset;
+    this.iEnd = iOffset + iLength;
+    this.bUnescape = bUnescape;
+  }
+
+  /* Fill the cache with whole bytes, the bits are kept left aligned */
+  private void refill()
+  {
+    if (!this.bUnescape && this.iCacheBits == 0 && this.iPosition + 8 <= this.iEnd)
+    {
+      byte[] arrayOfByte = this.arrayData;
+      int i = this.iPosition;
+      this.lCache = (arrayOfByte[i] & 0xFFL) << 56 | (arrayOfByte[i + 1] & 0xFFL) << 48 | (arrayOfByte[i + 2] & 0xFFL) << 40 | (arrayOfByte[i + 3] & 0xFFL) << 32 | (arrayOfByte[i + 4] & 0xFFL) << 24 | (arrayOfByte[i + 5] & 0xFFL) << 16 | (arrayOfByte[i + 6] & 0xFFL) << 8 | arrayOfByte[i + 7] & 0xFFL;
+      this.iPosition = i + 8;
+      this.iCacheBits = 64;
+      return;
+    }
+    while (this.iCacheBits <= 56 && this.iPosition < this.iEnd)
+    {
+      int b = this.arrayData[this.iPosition++] & 0xFF;
+      if (this.bUnescape)
+      {
+        if (b == 3 && this.iZeros >= 2)
+        {
+          this.iZeros = 0;
+          continue;
+        }
+        this.iZeros = (b == 0) ? this.iZeros + 1 : 0;
+      }
+      this.lCache |= (long)b << 56 - this.iCacheBits;
+      this.iCacheBits += 8;
+    }
+  }
+
+  private void ensure(int iBits)
+    throws EOFException
+  {
+    if (this.iCacheBits < iBits)
+    {
+      refill();
+      if (this.iCacheBits < iBits)
+        throw new EOFException();
+    }
+  }
+
+  public int readBit()
+    throws EOFException
+  {
+    ensure(1);
+    int i = (int)(this.lCache >>> 63);
+    this.lCache <<= 1;
+    this.iCacheBits -= 1;
+    this.iBitsRead += 1;
+    return i;
+  }
+
+  public boolean readBool()
+    throws EOFException
+  {
+    return readBit() != 0;
+  }
+
+  /* Read iBits (0 to 32) bits as an unsigned number, 32 bits wrap to int */
+  public int readBits(int iBits)
+    throws EOFException
+  {
+    if (iBits == 0)
+      return 0;
+    ensure(iBits);
+    int i = (int)(this.lCache >>> 64 - iBits);
+    this.lCache <<= iBits;
+    this.iCacheBits -= iBits;
+    this.iBitsRead += iBits;
+    return i;
+  }
+
+  public int peekBits(int iBits)
+    throws EOFException
+  {
+    if (iBits == 0)
+      return 0;
+    ensure(iBits);
+    return (int)(this.lCache >>> 64 - iBits);
+  }
+
+  public void skipBits(int iBits)
+    throws EOFException
+  {
+    while (iBits > 32)
+    {
+      readBits(32);
+      iBits -= 32;
+    }
+    readBits(iBits);
+  }
+
+  /* Unsigned exp-Golomb code ue(v), H.264 9.1 */
+  public int readUE()
+    throws EOFException
+  {
+    if (this.iCacheBits < 32)
+      refill();
+    int iLeadingZeros = Long.numberOfLeadingZeros(this.lCache);
+    int iCodeBits = 2 * iLeadingZeros + 1;
+    if (iCodeBits <= this.iCacheBits)
+    {
+      int i = (int)(this.lCache >>> 64 - iCodeBits) - 1;
+      this.lCache <<= iCodeBits;
+      this.iCacheBits -= iCodeBits;
+      this.iBitsRead += iCodeBits;
+      return i;
+    }
+
+    // long code or the end of the data: one bit at a time
+    iLeadingZeros = 0;
+    while (readBit() == 0)
+    {
+      iLeadingZeros++;
+      if (iLeadingZeros > 31)
+        throw new EOFException("Invalid exp-Golomb code");
+    }
+    return (int)((1L << iLeadingZeros) - 1L + (readBits(iLeadingZeros) & 0xFFFFFFFFL));
+  }
+
+  /* Signed exp-Golomb code se(v), H.264 9.1.1 */
+  public int readSE()
+    throws EOFException
+  {
+    int i = readUE();
+    if ((i & 1) != 0)
+      return (i >>> 1) + 1;
+    return -(i >>> 1);
+  }
+
+  public boolean isByteAligned()
+  {
+    return (this.iBitsRead & 7) == 0;
+  }
+
+  public void byteAlign()
+    throws EOFException
+  {
+    readBits(-this.iBitsRead & 7);
+  }
+
+  /* Number of bits read so far, emulation prevention bytes not counted */
+  public int getBitsRead()
+  {
+    return this.iBitsRead;
+  }
+
+  /* Whether there is at least one more bit to read */
+  public boolean hasMoreBits()
+  {
+    if (this.iCacheBits == 0)
+      refill();
+    return this.iCacheBits > 0;
+  }
+}
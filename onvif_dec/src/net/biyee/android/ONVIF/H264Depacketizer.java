@@ -0,0 +1,284 @@
+package net.biyee.android.ONVIF;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedList;
+
+/*
+ * Turns the H.264 RTP payloads (RFC 6184: single NAL unit, STAP-A and FU-A
+ * packets) into an Annex B byte stream read by the decoder thread. The NAL
+ * units of an access unit are written with their start codes into a buffer
+ * of a small pool, and the buffer is handed to the reader as a whole when
+ * the marker bit or a new timestamp ends the access unit. The reader blocks
+ * until an access unit is available and reads it in bulk.
+ *
+ * When the reader falls behind and no buffer is free, the access units
+ * waiting to be read are dropped and the stream resumes at the next one
+ * starting a coded video sequence (SPS or IDR), so the latency stays bounded
+ * and the decoder never sees a frame whose references are missing.
+ */
+public class H264Depacketizer extends InputStream
+{
+  static final byte[] START_CODE = { 0, 0, 0, 1 };
+
+  private LinkedList<AccessUnit> listFree = new LinkedList<AccessUnit>();
+  private LinkedList<AccessUnit> listQueued = new LinkedList<AccessUnit>();
+  private AccessUnit auWriting = null;
+  private AccessUnit auReading = null;
+  private int iTimestamp;
+  private boolean bInFragment = false;
+  private boolean bWaitKeyFrame = true;
+  private boolean bClosed = false;
+  public int iNALCount = 0;
+  public int iDroppedUnits = 0;
+  public boolean bIDR = false;
+
+  static class AccessUnit
+  {
+    byte[] arrayData = new byte[65536];
+    int iLength = 0;
+    int iPosition = 0;
+    boolean bKeyFrame = false;
+
+    void append(byte[] paramArrayOfByte, int iOffset, int iLength)
+    {
+      if (this.iLength + iLength > this.arrayData.length)
+      {
+        byte[] arrayOfByte = new byte[Math.max(2 * this.arrayData.length, this.iLength + iLength)];
+        java.lang.System.arraycopy(this.arrayData, 0, arrayOfByte, 0, this.iLength);
+        this.arrayData = arrayOfByte;
+      }
+      java.lang.System.arraycopy(paramArrayOfByte, iOffset, this.arrayData, this.iLength, iLength);
+      this.iLength += iLength;
+    }
+
+    void append(byte b)
+    {
+      if (this.iLength == this.arrayData.length)
+      {
+        byte[] arrayOfByte = new byte[2 * this.arrayData.length];
+        java.lang.System.arraycopy(this.arrayData, 0, arrayOfByte, 0, this.iLength);
+        this.arrayData = arrayOfByte;
+      }
+      this.arrayData[this.iLength++] = b;
+    }
+  }
+
+  public H264Depacketizer(int iBuffers)
+  {
+    for (int i = 0; i < iBuffers; i++)
+      this.listFree.add(new AccessUnit());
+  }
+
+  /*
+   * Parameter sets from the SDP (sprop-parameter-sets), sent in front of
+   * the first access unit
+   */
+  public synchronized void addParameterSets(byte[] arraySPS, byte[] arrayPPS)
+  {
+    if (!startUnit())
+      return;
+    addNAL(arraySPS, 0, arraySPS.length);
+    addNAL(arrayPPS, 0, arrayPPS.length);
+  }
+
+  /*
+   * Add the H.264 payload of an RTP packet, found at iStart in the packet
+   */
+  public synchronized void addPayload(byte[] paramArrayOfByte, int iStart, int iLength, int paramTimestamp, boolean bMarker)
+    throws Exception
+  {
+    if (this.auWriting != null && paramTimestamp != this.iTimestamp)
+      endUnit();
+    this.iTimestamp = paramTimestamp;
+    if (iLength < 1)
+      return;
+
+    int iNALHeader = paramArrayOfByte[iStart];
+    int iType = iNALHeader & 0x1F;
+    if (iType >= 1 && iType <= 23)
+    {
+      // single NAL unit packet, the SEI are not passed to the decoder
+      this.bInFragment = false;
+      if (iType != 6 && startUnit())
+        addNAL(paramArrayOfByte, iStart, iLength);
+    }
+    else if (iType == 24)
+    {
+      // STAP-A: NAL units preceded by their 16 bit size
+      this.bInFragment = false;
+      int i = iStart + 1;
+      int iEnd = iStart + iLength;
+      while (i + 2 <= iEnd)
+      {
+        int iSize = ((paramArrayOfByte[i] & 0xFF) << 8) | (paramArrayOfByte[i + 1] & 0xFF);
+        i += 2;
+        if (iSize == 0 || i + iSize > iEnd)
+          break;
+        if ((paramArrayOfByte[i] & 0x1F) != 6 && startUnit())
+          addNAL(paramArrayOfByte, i, iSize);
+        i += iSize;
+      }
+    }
+    else if (iType == 28)
+    {
+      // FU-A: the NAL header is rebuilt from the FU indicator and header
+      if (iLength < 2)
+        return;
+      int iFUHeader = paramArrayOfByte[iStart + 1];
+      if ((iFUHeader & 0x80) != 0)
+      {
+        int iNALType = iFUHeader & 0x1F;
+        this.bInFragment = (iNALType != 6) && startUnit();
+        if (this.bInFragment)
+        {
+          this.auWriting.append(START_CODE, 0, START_CODE.length);
+          this.auWriting.append((byte)(iNALHeader & 0xE0 | iNALType));
+          noteNAL(iNALType);
+        }
+      }
+      // the fragments following a lost one are dropped up to the next start
+      if (this.bInFragment)
+        this.auWriting.append(paramArrayOfByte, iStart + 2, iLength - 2);
+      if ((iFUHeader & 0x40) != 0)
+        this.bInFragment = false;
+    }
+    else if (iType == 0 || iType >= 30)
+    {
+      throw new Exception("Unhandled undefined H.264 payload type: " + String.valueOf(iType));
+    }
+    else
+    {
+      throw new Exception("This type in H.264 payload in a TCP packet (see Table 1 of RTP Payload Format for H.264 Video)  is not supported: " + String.valueOf(iType));
+    }
+
+    if (bMarker)
+      endUnit();
+  }
+
+  private void addNAL(byte[] paramArrayOfByte, int iOffset, int iLength)
+  {
+    this.auWriting.append(START_CODE, 0, START_CODE.length);
+    this.auWriting.append(paramArrayOfByte, iOffset, iLength);
+    noteNAL(paramArrayOfByte[iOffset] & 0x1F);
+  }
+
+  private void noteNAL(int iType)
+  {
+    this.iNALCount++;
+    if (iType == 5 || iType == 7)
+      this.auWriting.bKeyFrame = true;
+    if (iType == 5)
+      this.bIDR = true;
+    else if (iType == 1)
+      this.bIDR = false;
+  }
+
+  /* Make sure there is a buffer for the access unit, false if there is none */
+  private boolean startUnit()
+  {
+    if (this.auWriting != null)
+      return true;
+    if (this.listFree.isEmpty())
+    {
+      // the reader is behind: drop what it has not started reading
+      this.iDroppedUnits += this.listQueued.size();
+      this.listFree.addAll(this.listQueued);
+      this.listQueued.clear();
+      this.bWaitKeyFrame = true;
+      if (this.listFree.isEmpty())
+        return false;
+    }
+    this.auWriting = this.listFree.removeFirst();
+    this.auWriting.iLength = 0;
+    this.auWriting.iPosition = 0;
+    this.auWriting.bKeyFrame = false;
+    return true;
+  }
+
+  private void endUnit()
+  {
+    AccessUnit localAccessUnit = this.auWriting;
+    this.auWriting = null;
+    this.bInFragment = false;
+    if (localAccessUnit == null)
+      return;
+    if (localAccessUnit.iLength == 0 || (this.bWaitKeyFrame && !localAccessUnit.bKeyFrame))
+    {
+      if (localAccessUnit.iLength > 0)
+        this.iDroppedUnits++;
+      this.listFree.add(localAccessUnit);
+      return;
+    }
+    this.bWaitKeyFrame = false;
+    this.listQueued.add(localAccessUnit);
+    notifyAll();
+  }
+
+  public synchronized int read(byte[] paramArrayOfByte, int iOffset, int iLength)
+    throws IOException
+  {
+    if (iLength == 0)
+      return 0;
+    if (!nextUnit())
+      return -1;
+    int n = Math.min(iLength, this.auReading.iLength - this.auReading.iPosition);
+    java.lang.System.arraycopy(this.auReading.arrayData, this.auReading.iPosition, paramArrayOfByte, iOffset, n);
+    this.auReading.iPosition += n;
+    return n;
+  }
+
+  public synchronized int read()
+    throws IOException
+  {
+    if (!nextUnit())
+      return -1;
+    return this.auReading.arrayData[this.auReading.iPosition++] & 0xFF;
+  }
+
+  /* Wait for data to read, false at the end of the stream */
+  private boolean nextUnit()
+    throws IOException
+  {
+    while (this.auReading == null || this.auReading.iPosition == this.auReading.iLength)
+    {
+      if (this.auReading != null)
+      {
+        this.listFree.add(this.auReading);
+        this.auReading = null;
+      }
+      while (this.listQueued.isEmpty())
+      {
+        if (this.bClosed)
+          return false;
+        try
+        {
+          wait();
+        }
+        catch (InterruptedException localInterruptedException)
+        {
+          throw new IOException("Interrupted");
+        }
+      }
+      this.auReading = this.listQueued.removeFirst();
+    }
+    return true;
+  }
+
+  public synchronized int available()
+  {
+    int i = 0;
+    if (this.auReading != null)
+      i = this.auReading.iLength - this.auReading.iPosition;
+    if (i == 0 && !this.listQueued.isEmpty())
+      i = this.listQueued.getFirst().iLength;
+    return i;
+  }
+
+  /* The reader gets the end of the stream once the queued units are read */
+  public synchronized void close()
+  {
+    this.bClosed = true;
+    notifyAll();
+  }
+}
@@ -0,0 +1,421 @@
+package net.biyee.android.ONVIF;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import net.biyee.android.utility;
+
+/*
+ * Reassembles the JPEG frames of an RTP/JPEG stream (RFC 2435). The
+ * fragments are copied at their offset in a frame buffer allocated once,
+ * after room kept for the JFIF headers. The headers only depend on the
+ * type, size, Q, restart interval and quantization tables of the frames,
+ * which seldom change in a session: they are rebuilt in front of the scan
+ * data only when one of them changes. The frames are decoded into two
+ * bitmaps reused in turn, the one on screen is never decoded into.
+ */
+public class RTPJPEGAssembler
+{
+  static final int HEADER_SPACE = 1024;
+
+  // Natural order of the coefficients in zigzag order
+  static final int[] ZIGZAG = { 0, 1, 8, 16, 9, 2, 3, 10, 17, 24, 32, 25, 18, 11, 4, 5, 12, 19, 26,
+    33, 40, 48, 41, 34, 27, 20, 13, 6, 7, 14, 21, 28, 35, 42, 49, 56, 57, 50, 43, 36, 29, 22, 15, 23,
+    30, 37, 44, 51, 58, 59, 52, 45, 38, 31, 39, 46, 53, 60, 61, 54, 47, 55, 62, 63 };
+
+  // Tables K.1 and K.2 of the JPEG specification, natural order
+  static final int[] LUMA_QUANTIZER = { 16, 11, 10, 16, 24, 40, 51, 61, 12, 12, 14, 19, 26, 58, 60,
+    55, 14, 13, 16, 24, 40, 57, 69, 56, 14, 17, 22, 29, 51, 87, 80, 62, 18, 22, 37, 56, 68, 109,
+    103, 77, 24, 35, 55, 64, 81, 104, 113, 92, 49, 64, 78, 87, 103, 121, 120, 101, 72, 92, 95, 98,
+    112, 100, 103, 99 };
+  static final int[] CHROMA_QUANTIZER = { 17, 18, 24, 47, 99, 99, 99, 99, 18, 21, 26, 66, 99, 99,
+    99, 99, 24, 26, 56, 99, 99, 99, 99, 99, 47, 66, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99,
+    99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99,
+    99, 99 };
+
+  // Standard Huffman tables (RFC 2435, appendix B)
+  static final byte[] lum_dc_codelens = {
+    0, 1, 5, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0, 0, 0 };
+  static final byte[] lum_dc_symbols = {
+    0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11 };
+  static final byte[] lum_ac_codelens = {
+    0, 2, 1, 3, 3, 2, 4, 3, 5, 5, 4, 4, 0, 0, 1, 125 };
+  static final byte[] lum_ac_symbols = {
+    1, 2, 3, 0, 4, 17, 5, 18, 33, 49, 65, 6, 19, 81, 97, 7, 34, 113, 20, 50, -127, -111, -95, 8,
+    35, 66, -79, -63, 21, 82, -47, -16, 36, 51, 98, 114, -126, 9, 10, 22, 23, 24, 25, 26, 37, 38,
+    39, 40, 41, 42, 52, 53, 54, 55, 56, 57, 58, 67, 68, 69, 70, 71, 72, 73, 74, 83, 84, 85, 86, 87,
+    88, 89, 90, 99, 100, 101, 102, 103, 104, 105, 106, 115, 116, 117, 118, 119, 120, 121, 122,
+    -125, -124, -123, -122, -121, -120, -119, -118, -110, -109, -108, -107, -106, -105, -104, -103,
+    -102, -94, -93, -92, -91, -90, -89, -88, -87, -86, -78, -77, -76, -75, -74, -73, -72, -71, -70,
+    -62, -61, -60, -59, -58, -57, -56, -55, -54, -46, -45, -44, -43, -42, -41, -40, -39, -38, -31,
+    -30, -29, -28, -27, -26, -25, -24, -23, -22, -15, -14, -13, -12, -11, -10, -9, -8, -7, -6 };
+  static final byte[] chm_dc_codelens = {
+    0, 3, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0 };
+  static final byte[] chm_dc_symbols = {
+    0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11 };
+  static final byte[] chm_ac_codelens = {
+    0, 2, 1, 2, 4, 4, 3, 4, 7, 5, 4, 4, 0, 1, 2, 119 };
+  static final byte[] chm_ac_symbols = {
+    0, 1, 2, 3, 17, 4, 5, 33, 49, 6, 18, 65, 81, 7, 97, 113, 19, 34, 50, -127, 8, 20, 66, -111,
+    -95, -79, -63, 9, 35, 51, 82, -16, 21, 98, 114, -47, 10, 22, 36, 52, -31, 37, -15, 23, 24, 25,
+    26, 38, 39, 40, 41, 42, 53, 54, 55, 56, 57, 58, 67, 68, 69, 70, 71, 72, 73, 74, 83, 84, 85, 86,
+    87, 88, 89, 90, 99, 100, 101, 102, 103, 104, 105, 106, 115, 116, 117, 118, 119, 120, 121, 122,
+    -126, -125, -124, -123, -122, -121, -120, -119, -118, -110, -109, -108, -107, -106, -105, -104,
+    -103, -102, -94, -93, -92, -91, -90, -89, -88, -87, -86, -78, -77, -76, -75, -74, -73, -72,
+    -71, -70, -62, -61, -60, -59, -58, -57, -56, -55, -54, -46, -45, -44, -43, -42, -41, -40, -39,
+    -38, -30, -29, -28, -27, -26, -25, -24, -23, -22, -14, -13, -12, -11, -10, -9, -8, -7, -6 };
+
+  static final byte[] arrayHuffmanHeader = makeHuffmanHeader();
+
+  private byte[] arrayFrame = new byte[HEADER_SPACE + 262144];
+  private byte[][] arrayQuantizationTables = new byte[256][];
+
+  // Frame being assembled
+  private boolean bStarted = false;
+  private boolean bComplete = false;
+  private boolean bFirst;
+  private int iTimestamp;
+  private int iReceived;
+  private int iTotal;
+  private int iType;
+  private int iQ;
+  private int iWidth;
+  private int iHeight;
+  private int iRestartInterval;
+
+  // Headers in front of the scan data, and what they were made from
+  private int iHeaderLength = 0;
+  private int iHeaderType = -1;
+  private int iHeaderWidth;
+  private int iHeaderHeight;
+  private int iHeaderRestartInterval;
+  private byte[] arrayHeaderTables;
+
+  private int iFrameOffset;
+  private int iFrameLength;
+  public int iDroppedFrames = 0;
+  public int iSkippedFrames = 0;
+
+  // Bitmaps decoded into in turn
+  private Bitmap[] arrayBitmap = new Bitmap[2];
+  private BitmapFactory.Options options = new BitmapFactory.Options();
+  private volatile Bitmap bitmapDisplayed;
+  private volatile boolean bFramePending = false;
+
+  /*
+   * Add the payload of an RTP packet, from iStart to the end of the packet.
+   * Returns true when the packet completes a frame.
+   */
+  public boolean addPayload(byte[] paramArrayOfByte, int iStart, boolean bMarker, int paramTimestamp)
+  {
+    int iEnd = paramArrayOfByte.length;
+    if (iEnd - iStart < 8)
+      return false;
+
+    if (!this.bStarted || paramTimestamp != this.iTimestamp)
+    {
+      if (this.bStarted && !this.bComplete)
+        this.iDroppedFrames++;
+      this.bStarted = true;
+      this.bComplete = false;
+      this.bFirst = false;
+      this.iTimestamp = paramTimestamp;
+      this.iReceived = 0;
+      this.iTotal = -1;
+    }
+    if (this.bComplete)
+      return false;
+
+    int iOffset = (utility.ib(paramArrayOfByte[iStart + 1]) << 16) | (utility.ib(paramArrayOfByte[iStart + 2]) << 8) | utility.ib(paramArrayOfByte[iStart + 3]);
+    int iPacketType = utility.ib(paramArrayOfByte[iStart + 4]);
+    int i = iStart + 8;
+    int iDRI = 0;
+    if (iPacketType >= 64 && iPacketType < 128)
+    {
+      if (iEnd < i + 4)
+        return false;
+      iDRI = (utility.ib(paramArrayOfByte[i]) << 8) | utility.ib(paramArrayOfByte[i + 1]);
+      i += 4;
+    }
+    if ((iPacketType & ~64) > 1)
+      return false;
+
+    if (iOffset == 0)
+    {
+      this.iType = iPacketType;
+      this.iQ = utility.ib(paramArrayOfByte[iStart + 5]);
+      this.iWidth = 8 * utility.ib(paramArrayOfByte[iStart + 6]);
+      this.iHeight = 8 * utility.ib(paramArrayOfByte[iStart + 7]);
+      this.iRestartInterval = iDRI;
+      if (this.iQ >= 128)
+      {
+        if (iEnd < i + 4)
+          return false;
+        int iPrecision = utility.ib(paramArrayOfByte[i + 1]);
+        int iLength = (utility.ib(paramArrayOfByte[i + 2]) << 8) | utility.ib(paramArrayOfByte[i + 3]);
+        i += 4;
+        if (iEnd < i + iLength)
+          return false;
+        // 16 bit tables are not supported, no table means the ones of a
+        // previous frame with the same Q
+        if (iLength > 0 && (iPrecision != 0 || iLength != 128))
+          return false;
+        if (iLength > 0)
+          setQuantizationTables(this.iQ, paramArrayOfByte, i);
+        i += iLength;
+      }
+      else if (this.arrayQuantizationTables[this.iQ] == null)
+      {
+        this.arrayQuantizationTables[this.iQ] = makeQuantizationTables(this.iQ);
+      }
+      this.bFirst = true;
+    }
+
+    int n = iEnd - i;
+    if (HEADER_SPACE + iOffset + n + 2 > this.arrayFrame.length)
+    {
+      byte[] arrayOfByte = new byte[Math.max(2 * this.arrayFrame.length, HEADER_SPACE + iOffset + n + 2)];
+      java.lang.System.arraycopy(this.arrayFrame, 0, arrayOfByte, 0, this.arrayFrame.length);
+      this.arrayFrame = arrayOfByte;
+    }
+    java.lang.System.arraycopy(paramArrayOfByte, i, this.arrayFrame, HEADER_SPACE + iOffset, n);
+    this.iReceived += n;
+    if (bMarker)
+      this.iTotal = iOffset + n;
+
+    if (!this.bFirst || this.iTotal < 0 || this.iReceived < this.iTotal)
+      return false;
+    this.bComplete = true;
+    byte[] arrayTables = this.arrayQuantizationTables[this.iQ];
+    if (arrayTables == null)
+    {
+      this.iDroppedFrames++;
+      return false;
+    }
+
+    if (this.iType != this.iHeaderType || this.iWidth != this.iHeaderWidth || this.iHeight != this.iHeaderHeight || this.iRestartInterval != this.iHeaderRestartInterval || arrayTables != this.arrayHeaderTables)
+    {
+      makeHeader(arrayTables);
+      this.iHeaderType = this.iType;
+      this.iHeaderWidth = this.iWidth;
+      this.iHeaderHeight = this.iHeight;
+      this.iHeaderRestartInterval = this.iRestartInterval;
+      this.arrayHeaderTables = arrayTables;
+    }
+    this.iFrameOffset = HEADER_SPACE - this.iHeaderLength;
+    this.arrayFrame[HEADER_SPACE + this.iTotal] = -1;
+    this.arrayFrame[HEADER_SPACE + this.iTotal + 1] = -39;
+    this.iFrameLength = this.iHeaderLength + this.iTotal + 2;
+    return true;
+  }
+
+  public byte[] getFrame()
+  {
+    return this.arrayFrame;
+  }
+
+  public int getFrameOffset()
+  {
+    return this.iFrameOffset;
+  }
+
+  public int getFrameLength()
+  {
+    return this.iFrameLength;
+  }
+
+  /*
+   * Decode the complete frame into the bitmap which is not on screen. Returns
+   * null when the previous frame has not been shown yet: the frame is skipped
+   * rather than queued behind a slow display.
+   */
+  public Bitmap decodeFrame()
+  {
+    if (this.bFramePending)
+    {
+      this.iSkippedFrames++;
+      return null;
+    }
+    int i = (this.arrayBitmap[0] == this.bitmapDisplayed) ? 1 : 0;
+    Bitmap localBitmap = this.arrayBitmap[i];
+    if (localBitmap != null && (localBitmap.getWidth() != this.iWidth || localBitmap.getHeight() != this.iHeight))
+      localBitmap = null;
+    if (Build.VERSION.SDK_INT >= 11)
+    {
+      this.options.inMutable = true;
+      this.options.inBitmap = localBitmap;
+    }
+    Bitmap localBitmapDecoded;
+    try
+    {
+      localBitmapDecoded = BitmapFactory.decodeByteArray(this.arrayFrame, this.iFrameOffset, this.iFrameLength, this.options);
+    }
+    catch (IllegalArgumentException localIllegalArgumentException)
+    {
+      // the bitmap cannot be reused for this frame
+      if (Build.VERSION.SDK_INT < 11 || this.options.inBitmap == null)
+        throw localIllegalArgumentException;
+      this.options.inBitmap = null;
+      localBitmapDecoded = BitmapFactory.decodeByteArray(this.arrayFrame, this.iFrameOffset, this.iFrameLength, this.options);
+    }
+    if (localBitmapDecoded == null)
+      return null;
+    this.arrayBitmap[i] = localBitmapDecoded;
+    this.bFramePending = true;
+    return localBitmapDecoded;
+  }
+
+  /*
+   * Called on the UI thread with the frame returned by decodeFrame() once it
+   * is set on the view, or not shown because the display is paused
+   */
+  public void frameDone(Bitmap paramBitmap, boolean bShown)
+  {
+    if (bShown)
+      this.bitmapDisplayed = paramBitmap;
+    this.bFramePending = false;
+  }
+
+  private void setQuantizationTables(int q, byte[] paramArrayOfByte, int iStart)
+  {
+    byte[] arrayOfByte = this.arrayQuantizationTables[q];
+    if (arrayOfByte != null)
+    {
+      int i = 0;
+      while (i < 128 && arrayOfByte[i] == paramArrayOfByte[iStart + i])
+        i++;
+      if (i == 128)
+        return;
+    }
+    // a new array, so the headers made from the previous tables are rebuilt
+    arrayOfByte = new byte[128];
+    java.lang.System.arraycopy(paramArrayOfByte, iStart, arrayOfByte, 0, 128);
+    this.arrayQuantizationTables[q] = arrayOfByte;
+  }
+
+  /* Quantization tables for Q below 128 (RFC 2435, appendix A), zigzag order */
+  static byte[] makeQuantizationTables(int q)
+  {
+    int iFactor = Math.max(1, Math.min(99, q));
+    int iScale = (q < 50) ? 5000 / iFactor : 200 - 2 * iFactor;
+    byte[] arrayOfByte = new byte[128];
+    for (int i = 0; i < 64; i++)
+    {
+      int iLuma = (LUMA_QUANTIZER[ZIGZAG[i]] * iScale + 50) / 100;
+      int iChroma = (CHROMA_QUANTIZER[ZIGZAG[i]] * iScale + 50) / 100;
+      arrayOfByte[i] = (byte)Math.max(1, Math.min(255, iLuma));
+      arrayOfByte[i + 64] = (byte)Math.max(1, Math.min(255, iChroma));
+    }
+    return arrayOfByte;
+  }
+
+  /* JFIF headers in front of the scan data (RFC 2435, appendix B) */
+  private void makeHeader(byte[] paramArrayOfByte)
+  {
+    byte[] arrayOfByte = new byte[HEADER_SPACE];
+    int i = 0;
+    // SOI, APP0
+    i = putMarker(arrayOfByte, i, 0xD8);
+    i = putMarker(arrayOfByte, i, 0xE0);
+    i = putShort(arrayOfByte, i, 16);
+    arrayOfByte[i++] = 'J';
+    arrayOfByte[i++] = 'F';
+    arrayOfByte[i++] = 'I';
+    arrayOfByte[i++] = 'F';
+    arrayOfByte[i++] = 0;
+    i = putShort(arrayOfByte, i, 0x0101);
+    arrayOfByte[i++] = 0;
+    i = putShort(arrayOfByte, i, 1);
+    i = putShort(arrayOfByte, i, 1);
+    arrayOfByte[i++] = 0;
+    arrayOfByte[i++] = 0;
+    // DQT, luma and chroma
+    for (int j = 0; j < 2; j++)
+    {
+      i = putMarker(arrayOfByte, i, 0xDB);
+      i = putShort(arrayOfByte, i, 67);
+      arrayOfByte[i++] = (byte)j;
+      java.lang.System.arraycopy(paramArrayOfByte, 64 * j, arrayOfByte, i, 64);
+      i += 64;
+    }
+    // DRI
+    if (this.iRestartInterval > 0)
+    {
+      i = putMarker(arrayOfByte, i, 0xDD);
+      i = putShort(arrayOfByte, i, 4);
+      i = putShort(arrayOfByte, i, this.iRestartInterval);
+    }
+    // SOF0
+    i = putMarker(arrayOfByte, i, 0xC0);
+    i = putShort(arrayOfByte, i, 17);
+    arrayOfByte[i++] = 8;
+    i = putShort(arrayOfByte, i, this.iHeight);
+    i = putShort(arrayOfByte, i, this.iWidth);
+    arrayOfByte[i++] = 3;
+    arrayOfByte[i++] = 1;
+    arrayOfByte[i++] = (byte)((this.iType & 0x3F) == 0 ? 0x21 : 0x22);
+    arrayOfByte[i++] = 0;
+    arrayOfByte[i++] = 2;
+    arrayOfByte[i++] = 0x11;
+    arrayOfByte[i++] = 1;
+    arrayOfByte[i++] = 3;
+    arrayOfByte[i++] = 0x11;
+    arrayOfByte[i++] = 1;
+    // DHT
+    java.lang.System.arraycopy(arrayHuffmanHeader, 0, arrayOfByte, i, arrayHuffmanHeader.length);
+    i += arrayHuffmanHeader.length;
+    // SOS
+    i = putMarker(arrayOfByte, i, 0xDA);
+    i = putShort(arrayOfByte, i, 12);
+    arrayOfByte[i++] = 3;
+    arrayOfByte[i++] = 1;
+    arrayOfByte[i++] = 0;
+    arrayOfByte[i++] = 2;
+    arrayOfByte[i++] = 0x11;
+    arrayOfByte[i++] = 3;
+    arrayOfByte[i++] = 0x11;
+    arrayOfByte[i++] = 0;
+    arrayOfByte[i++] = 63;
+    arrayOfByte[i++] = 0;
+
+    // the headers stay in front of the scan data of the next frames
+    java.lang.System.arraycopy(arrayOfByte, 0, this.arrayFrame, HEADER_SPACE - i, i);
+    this.iHeaderLength = i;
+  }
+
+  private static byte[] makeHuffmanHeader()
+  {
+    byte[] arrayOfByte = new byte[4 * 5 + lum_dc_codelens.length + lum_dc_symbols.length + lum_ac_codelens.length + lum_ac_symbols.length + chm_dc_codelens.length + chm_dc_symbols.length + chm_ac_codelens.length + chm_ac_symbols.length];
+    int i = 0;
+    i = putHuffmanTable(arrayOfByte, i, lum_dc_codelens, lum_dc_symbols, 0, 0);
+    i = putHuffmanTable(arrayOfByte, i, lum_ac_codelens, lum_ac_symbols, 0, 1);
+    i = putHuffmanTable(arrayOfByte, i, chm_dc_codelens, chm_dc_symbols, 1, 0);
+    i = putHuffmanTable(arrayOfByte, i, chm_ac_codelens, chm_ac_symbols, 1, 1);
+    return arrayOfByte;
+  }
+
+  private static int putHuffmanTable(byte[] arrayOfByte, int i, byte[] arrayCodelens, byte[] arraySymbols, int iTable, int iClass)
+  {
+    i = putMarker(arrayOfByte, i, 0xC4);
+    i = putShort(arrayOfByte, i, 3 + arrayCodelens.length + arraySymbols.length);
+    arrayOfByte[i++] = (byte)(iTable | iClass << 4);
+    java.lang.System.arraycopy(arrayCodelens, 0, arrayOfByte, i, arrayCodelens.length);
+    i += arrayCodelens.length;
+    java.lang.System.arraycopy(arraySymbols, 0, arrayOfByte, i, arraySymbols.length);
+    return i + arraySymbols.length;
+  }
+
+  private static int putMarker(byte[] arrayOfByte, int i, int iMarker)
+  {
+    arrayOfByte[i++] = -1;
+    arrayOfByte[i++] = (byte)iMarker;
+    return i;
+  }
+
+  private static int putShort(byte[] arrayOfByte, int i, int iValue)
+  {
+    arrayOfByte[i++] = (byte)(iValue >> 8);
+    arrayOfByte[i++] = (byte)iValue;
+    return i;
+  }
+}
@@ -0,0 +1,239 @@
+package net.biyee.android.ONVIF;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+ * Splits the stream tunnelled over HTTP into the interleaved RTP/RTCP
+ * frames ("$", channel, 16 bit length, data) and the HTTP/RTSP responses.
+ * The data is kept in a byte ring which the socket reads into directly;
+ * a frame is handed to the listener in place, it is only copied when it
+ * wraps around the end of the ring. Each byte is looked at a bounded number
+ * of times, so the demux is linear in the size of the stream.
+ */
+public class RTSPInterleavedDemuxer
+{
+  static final int INITIAL_CAPACITY = 262144;
+  static final int MAX_CAPACITY = 4194304;
+  static final int MAX_HEADER = 65536;
+  static final Pattern patternContentLength = Pattern.compile("^Content-Length:\\s*(\\d+)", Pattern.CASE_INSENSITIVE | Pattern.MULTILINE);
+
+  private byte[] arrayRing = new byte[INITIAL_CAPACITY];
+  private byte[] arrayFrame = new byte[65535];
+  private int iHead = 0;
+  private int iSize = 0;
+  private int iScanned = 0;
+  private Listener listener;
+
+  public interface Listener
+  {
+    /* The frame is only valid during the call */
+    void onInterleavedFrame(int iChannel, byte[] paramArrayOfByte, int iOffset, int iLength);
+
+    /* HTTP or RTSP response with its header and its body */
+    void onRTSPMessage(String sMessage);
+  }
+
+  public RTSPInterleavedDemuxer(Listener paramListener)
+  {
+    this.listener = paramListener;
+  }
+
+  public int size()
+  {
+    return this.iSize;
+  }
+
+  /*
+   * Read from the stream into the free space of the ring, returns the
+   * number of bytes read or -1 at the end of the stream
+   */
+  public int fill(InputStream paramInputStream)
+    throws IOException
+  {
+    if (this.iSize == this.arrayRing.length)
+      grow();
+    int iTail = (this.iHead + this.iSize) & (this.arrayRing.length - 1);
+    int iFree;
+    if (iTail < this.iHead)
+      iFree = this.iHead - iTail;
+    else
+      iFree = this.arrayRing.length - iTail;
+    int i = paramInputStream.read(this.arrayRing, iTail, iFree);
+    if (i > 0)
+      this.iSize += i;
+    return i;
+  }
+
+  public void write(byte[] paramArrayOfByte, int iOffset, int iLength)
+    throws IOException
+  {
+    while (this.iSize + iLength > this.arrayRing.length)
+      grow();
+    int iTail = (this.iHead + this.iSize) & (this.arrayRing.length - 1);
+    int i = Math.min(iLength, this.arrayRing.length - iTail);
+    java.lang.System.arraycopy(paramArrayOfByte, iOffset, this.arrayRing, iTail, i);
+    java.lang.System.arraycopy(paramArrayOfByte, iOffset + i, this.arrayRing, 0, iLength - i);
+    this.iSize += iLength;
+  }
+
+  /*
+   * Hand all the complete frames and responses to the listener, the
+   * incomplete one stays in the ring until more data is read
+   */
+  public void process()
+  {
+    while (this.iSize > 0)
+    {
+      int b = get(0);
+      if (b == '$')
+      {
+        if (this.iSize < 4)
+          return;
+        int iLength = (get(2) << 8) | get(3);
+        if (this.iSize < 4 + iLength)
+          return;
+        int iStart = (this.iHead + 4) & (this.arrayRing.length - 1);
+        if (iStart + iLength <= this.arrayRing.length)
+        {
+          this.listener.onInterleavedFrame(get(1), this.arrayRing, iStart, iLength);
+        }
+        else
+        {
+          copy(4, this.arrayFrame, iLength);
+          this.listener.onInterleavedFrame(get(1), this.arrayFrame, 0, iLength);
+        }
+        skip(4 + iLength);
+        continue;
+      }
+
+      int iStarts = startsMessage();
+      if (iStarts < 0)
+        return;
+      if (iStarts == 0)
+      {
+        skipGarbage();
+        continue;
+      }
+
+      int iHeaderEnd = findHeaderEnd();
+      if (iHeaderEnd < 0)
+      {
+        if (this.iSize < MAX_HEADER)
+          return;
+        skipGarbage();
+        continue;
+      }
+      byte[] arrayHeader = new byte[iHeaderEnd];
+      copy(0, arrayHeader, iHeaderEnd);
+      String sHeader = new String(arrayHeader);
+
+      // The body of the tunnel response is the tunnelled stream itself
+      int iContentLength = 0;
+      Matcher localMatcher = patternContentLength.matcher(sHeader);
+      if (sHeader.startsWith("RTSP/") && localMatcher.find())
+        iContentLength = Integer.parseInt(localMatcher.group(1));
+      if (this.iSize < iHeaderEnd + iContentLength)
+      {
+        if (iHeaderEnd + iContentLength <= MAX_CAPACITY)
+          return;
+        skipGarbage();
+        continue;
+      }
+      String sMessage = sHeader;
+      if (iContentLength > 0)
+      {
+        byte[] arrayBody = new byte[iContentLength];
+        copy(iHeaderEnd, arrayBody, iContentLength);
+        sMessage = sHeader + new String(arrayBody);
+      }
+      skip(iHeaderEnd + iContentLength);
+      this.listener.onRTSPMessage(sMessage);
+    }
+  }
+
+  public void clear()
+  {
+    this.iHead = 0;
+    this.iSize = 0;
+    this.iScanned = 0;
+  }
+
+  private int get(int i)
+  {
+    return this.arrayRing[(this.iHead + i) & (this.arrayRing.length - 1)] & 0xFF;
+  }
+
+  private void copy(int iFrom, byte[] paramArrayOfByte, int iLength)
+  {
+    int iStart = (this.iHead + iFrom) & (this.arrayRing.length - 1);
+    int i = Math.min(iLength, this.arrayRing.length - iStart);
+    java.lang.System.arraycopy(this.arrayRing, iStart, paramArrayOfByte, 0, i);
+    java.lang.System.arraycopy(this.arrayRing, 0, paramArrayOfByte, i, iLength - i);
+  }
+
+  private void skip(int iLength)
+  {
+    this.iHead = (this.iHead + iLength) & (this.arrayRing.length - 1);
+    this.iSize -= iLength;
+    this.iScanned = 0;
+    if (this.iSize == 0)
+      this.iHead = 0;
+  }
+
+  /* Drop bytes up to the next possible start of a frame or a response */
+  private void skipGarbage()
+  {
+    int i = 1;
+    while (i < this.iSize)
+    {
+      int b = get(i);
+      if (b == '$' || b == 'R' || b == 'H')
+        break;
+      i++;
+    }
+    skip(i);
+  }
+
+  /* 1 if the data starts with a response, 0 if not, -1 if not known yet */
+  private int startsMessage()
+  {
+    if (matches("RTSP/") || matches("HTTP/"))
+      return this.iSize < 5 ? -1 : 1;
+    return 0;
+  }
+
+  private boolean matches(String sPrefix)
+  {
+    int n = Math.min(this.iSize, sPrefix.length());
+    for (int i = 0; i < n; i++)
+      if (get(i) != sPrefix.charAt(i))
+        return false;
+    return true;
+  }
+
+  /* Length of the header up to the empty line, -1 if not received yet */
+  private int findHeaderEnd()
+  {
+    for (int i = Math.max(this.iScanned, 3); i < this.iSize; i++)
+    {
+      if (get(i) == '\n' && get(i - 1) == '\r' && get(i - 2) == '\n' && get(i - 3) == '\r')
+        return i + 1;
+    }
+    this.iScanned = Math.max(this.iSize, 3);
+    return -1;
+  }
+
+  private void grow()
+    throws IOException
+  {
+    if (this.arrayRing.length >= MAX_CAPACITY)
+      throw new IOException("RTSP stream buffer overflow");
+    byte[] arrayOfByte = new byte[2 * this.arrayRing.length];
+    copy(0, arrayOfByte, this.iSize);
+    this.arrayRing = arrayOfByte;
+    this.iHead = 0;
+  }
+}
@@ -3,14 +3,13 @@ package net.biyee.android.ONVIF;
 import android.app.Activity;
 import android.app.ProgressDialog;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.BitmapFactory.Options;
 import android.media.AudioTrack;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.SystemClock;
 import android.util.Log;
 import android.widget.ImageView;
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -19,11 +18,8 @@ import java.net.SocketTimeoutException;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Queue;
 import java.util.UUID;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import net.biyee.android.BoolClass;
@@ -32,6 +28,7 @@ import org.jcodec.codecs.h264.H264Decoder;
 import org.jcodec.codecs.h264.annexb.AnnexBDemuxer;
 
 public class RTSPoverHTTPDecoder extends AsyncTask<String, Bitmap, String>
+  implements RTSPInterleavedDemuxer.Listener
 {
   public static UUID uid = UUID.randomUUID();
   String _PathComplete;
@@ -51,17 +48,13 @@ public class RTSPoverHTTPDecoder extends AsyncTask<String, Bitmap, String>
   byte byteAudioRTPChannel = -1;
   byte byteVideoRTPCPChannel = -1;
   byte byteVideoRTPChannel = -1;
-  byte[] chm_ac_codelens;
-  byte[] chm_ac_symbols;
-  byte[] chm_dc_codelens;
-  byte[] chm_dc_symbols;
+  RTSPInterleavedDemuxer demuxer = new RTSPInterleavedDemuxer(this);
   float fFrameRate = 0.0F;
   private int iAudioPayloadtype;
   private int iAudioSetupSeq;
   private int iClockRate;
   int iDisplayedFrames = 0;
   int iIndexPacketStart = 0;
-  int iJPEGSizeMax;
   int iPort;
   int iProcessedFrames = 0;
   private int iSequencePre = 0;
@@ -69,15 +62,10 @@ public class RTSPoverHTTPDecoder extends AsyncTask<String, Bitmap, String>
   private int iVideoSetupSeq;
   int icSeq = 0;
   ImageView iv = null;
+  RTPJPEGAssembler jpegAssembler = new RTPJPEGAssembler();
   long lProfiledTime = 0L;
   long lTimeStartMS;
   long liTimeLastData = 9223372036854775807L;
-  ArrayList<ArrayList<Byte>> listQuantizationTables = new ArrayList();
-  ArrayList<Byte> listSample = new ArrayList();
-  byte[] lum_ac_codelens;
-  byte[] lum_ac_symbols;
-  byte[] lum_dc_codelens;
-  byte[] lum_dc_symbols;
   OutputStream osPost;
   private String packetization_mode;
   Pattern patternAuthentication;
@@ -86,7 +74,7 @@ public class RTSPoverHTTPDecoder extends AsyncTask<String, Bitmap, String>
   Pattern patternPlay;
   ProgressDialog pd;
   private String profile_level_id;
-  Queue<Byte> qH264Stream = new ArrayBlockingQueue(196608);
+  H264Depacketizer h264Stream = new H264Depacketizer(8);
   private String sAudioControlURL;
   private String sEncodingName;
   String sPlayURL;
@@ -104,412 +92,6 @@ public class RTSPoverHTTPDecoder extends AsyncTask<String, Bitmap, String>
 
   public RTSPoverHTTPDecoder(Activity paramActivity, StreamInfo paramStreamInfo, ImageView paramImageView, ProgressDialog paramProgressDialog, BoolClass paramBoolClass1, BoolClass paramBoolClass2, BoolClass paramBoolClass3, BoolClass paramBoolClass4)
   {
-    byte[] arrayOfByte1 = new byte[16];
-    arrayOfByte1[1] = 1;
-    arrayOfByte1[2] = 5;
-    arrayOfByte1[3] = 1;
-    arrayOfByte1[4] = 1;
-    arrayOfByte1[5] = 1;
-    arrayOfByte1[6] = 1;
-    arrayOfByte1[7] = 1;
-    arrayOfByte1[8] = 1;
-    this.lum_dc_codelens = arrayOfByte1;
-    byte[] arrayOfByte2 = new byte[12];
-    arrayOfByte2[1] = 1;
-    arrayOfByte2[2] = 2;
-    arrayOfByte2[3] = 3;
-    arrayOfByte2[4] = 4;
-    arrayOfByte2[5] = 5;
-    arrayOfByte2[6] = 6;
-    arrayOfByte2[7] = 7;
-    arrayOfByte2[8] = 8;
-    arrayOfByte2[9] = 9;
-    arrayOfByte2[10] = 10;
-    arrayOfByte2[11] = 11;
-    this.lum_dc_symbols = arrayOfByte2;
-    byte[] arrayOfByte3 = new byte[16];
-    arrayOfByte3[1] = 2;
-    arrayOfByte3[2] = 1;
-    arrayOfByte3[3] = 3;
-    arrayOfByte3[4] = 3;
-    arrayOfByte3[5] = 2;
-    arrayOfByte3[6] = 4;
-    arrayOfByte3[7] = 3;
-    arrayOfByte3[8] = 5;
-    arrayOfByte3[9] = 5;
-    arrayOfByte3[10] = 4;
-    arrayOfByte3[11] = 4;
-    arrayOfByte3[14] = 1;
-    arrayOfByte3[15] = 125;
-    this.lum_ac_codelens = arrayOfByte3;
-    byte[] arrayOfByte4 = new byte['¢'];
-    arrayOfByte4[0] = 1;
-    arrayOfByte4[1] = 2;
-    arrayOfByte4[2] = 3;
-    arrayOfByte4[4] = 4;
-    arrayOfByte4[5] = 17;
-    arrayOfByte4[6] = 5;
-    arrayOfByte4[7] = 18;
-    arrayOfByte4[8] = 33;
-    arrayOfByte4[9] = 49;
-    arrayOfByte4[10] = 65;
-    arrayOfByte4[11] = 6;
-    arrayOfByte4[12] = 19;
-    arrayOfByte4[13] = 81;
-    arrayOfByte4[14] = 97;
-    arrayOfByte4[15] = 7;
-    arrayOfByte4[16] = 34;
-    arrayOfByte4[17] = 113;
-    arrayOfByte4[18] = 20;
-    arrayOfByte4[19] = 50;
-    arrayOfByte4[20] = -127;
-    arrayOfByte4[21] = -111;
-    arrayOfByte4[22] = -95;
-    arrayOfByte4[23] = 8;
-    arrayOfByte4[24] = 35;
-    arrayOfByte4[25] = 66;
-    arrayOfByte4[26] = -79;
-    arrayOfByte4[27] = -63;
-    arrayOfByte4[28] = 21;
-    arrayOfByte4[29] = 82;
-    arrayOfByte4[30] = -47;
-    arrayOfByte4[31] = -16;
-    arrayOfByte4[32] = 36;
-    arrayOfByte4[33] = 51;
-    arrayOfByte4[34] = 98;
-    arrayOfByte4[35] = 114;
-    arrayOfByte4[36] = -126;
-    arrayOfByte4[37] = 9;
-    arrayOfByte4[38] = 10;
-    arrayOfByte4[39] = 22;
-    arrayOfByte4[40] = 23;
-    arrayOfByte4[41] = 24;
-    arrayOfByte4[42] = 25;
-    arrayOfByte4[43] = 26;
-    arrayOfByte4[44] = 37;
-    arrayOfByte4[45] = 38;
-    arrayOfByte4[46] = 39;
-    arrayOfByte4[47] = 40;
-    arrayOfByte4[48] = 41;
-    arrayOfByte4[49] = 42;
-    arrayOfByte4[50] = 52;
-    arrayOfByte4[51] = 53;
-    arrayOfByte4[52] = 54;
-    arrayOfByte4[53] = 55;
-    arrayOfByte4[54] = 56;
-    arrayOfByte4[55] = 57;
-    arrayOfByte4[56] = 58;
-    arrayOfByte4[57] = 67;
-    arrayOfByte4[58] = 68;
-    arrayOfByte4[59] = 69;
-    arrayOfByte4[60] = 70;
-    arrayOfByte4[61] = 71;
-    arrayOfByte4[62] = 72;
-    arrayOfByte4[63] = 73;
-    arrayOfByte4[64] = 74;
-    arrayOfByte4[65] = 83;
-    arrayOfByte4[66] = 84;
-    arrayOfByte4[67] = 85;
-    arrayOfByte4[68] = 86;
-    arrayOfByte4[69] = 87;
-    arrayOfByte4[70] = 88;
-    arrayOfByte4[71] = 89;
-    arrayOfByte4[72] = 90;
-    arrayOfByte4[73] = 99;
-    arrayOfByte4[74] = 100;
-    arrayOfByte4[75] = 101;
-    arrayOfByte4[76] = 102;
-    arrayOfByte4[77] = 103;
-    arrayOfByte4[78] = 104;
-    arrayOfByte4[79] = 105;
-    arrayOfByte4[80] = 106;
-    arrayOfByte4[81] = 115;
-    arrayOfByte4[82] = 116;
-    arrayOfByte4[83] = 117;
-    arrayOfByte4[84] = 118;
-    arrayOfByte4[85] = 119;
-    arrayOfByte4[86] = 120;
-    arrayOfByte4[87] = 121;
-    arrayOfByte4[88] = 122;
-    arrayOfByte4[89] = -125;
-    arrayOfByte4[90] = -124;
-    arrayOfByte4[91] = -123;
-    arrayOfByte4[92] = -122;
-    arrayOfByte4[93] = -121;
-    arrayOfByte4[94] = -120;
-    arrayOfByte4[95] = -119;
-    arrayOfByte4[96] = -118;
-    arrayOfByte4[97] = -110;
-    arrayOfByte4[98] = -109;
-    arrayOfByte4[99] = -108;
-    arrayOfByte4[100] = -107;
-    arrayOfByte4[101] = -106;
-    arrayOfByte4[102] = -105;
-    arrayOfByte4[103] = -104;
-    arrayOfByte4[104] = -103;
-    arrayOfByte4[105] = -102;
-    arrayOfByte4[106] = -94;
-    arrayOfByte4[107] = -93;
-    arrayOfByte4[108] = -92;
-    arrayOfByte4[109] = -91;
-    arrayOfByte4[110] = -90;
-    arrayOfByte4[111] = -89;
-    arrayOfByte4[112] = -88;
-    arrayOfByte4[113] = -87;
-    arrayOfByte4[114] = -86;
-    arrayOfByte4[115] = -78;
-    arrayOfByte4[116] = -77;
-    arrayOfByte4[117] = -76;
-    arrayOfByte4[118] = -75;
-    arrayOfByte4[119] = -74;
-    arrayOfByte4[120] = -73;
-    arrayOfByte4[121] = -72;
-    arrayOfByte4[122] = -71;
-    arrayOfByte4[123] = -70;
-    arrayOfByte4[124] = -62;
-    arrayOfByte4[125] = -61;
-    arrayOfByte4[126] = -60;
-    arrayOfByte4[127] = -59;
-    arrayOfByte4[''] = -58;
-    arrayOfByte4[''] = -57;
-    arrayOfByte4[''] = -56;
-    arrayOfByte4[''] = -55;
-    arrayOfByte4[''] = -54;
-    arrayOfByte4[''] = -46;
-    arrayOfByte4[''] = -45;
-    arrayOfByte4[''] = -44;
-    arrayOfByte4[''] = -43;
-    arrayOfByte4[''] = -42;
-    arrayOfByte4[''] = -41;
-    arrayOfByte4[''] = -40;
-    arrayOfByte4[''] = -39;
-    arrayOfByte4[''] = -38;
-    arrayOfByte4[''] = -31;
-    arrayOfByte4[''] = -30;
-    arrayOfByte4[''] = -29;
-    arrayOfByte4[''] = -28;
-    arrayOfByte4[''] = -27;
-    arrayOfByte4[''] = -26;
-    arrayOfByte4[''] = -25;
-    arrayOfByte4[''] = -24;
-    arrayOfByte4[''] = -23;
-    arrayOfByte4[''] = -22;
-    arrayOfByte4[''] = -15;
-    arrayOfByte4[''] = -14;
-    arrayOfByte4[''] = -13;
-    arrayOfByte4[''] = -12;
-    arrayOfByte4[''] = -11;
-    arrayOfByte4[''] = -10;
-    arrayOfByte4[''] = -9;
-    arrayOfByte4[''] = -8;
-    arrayOfByte4[' '] = -7;
-    arrayOfByte4['¡'] = -6;
-    this.lum_ac_symbols = arrayOfByte4;
-    byte[] arrayOfByte5 = new byte[16];
-    arrayOfByte5[1] = 3;
-    arrayOfByte5[2] = 1;
-    arrayOfByte5[3] = 1;
-    arrayOfByte5[4] = 1;
-    arrayOfByte5[5] = 1;
-    arrayOfByte5[6] = 1;
-    arrayOfByte5[7] = 1;
-    arrayOfByte5[8] = 1;
-    arrayOfByte5[9] = 1;
-    arrayOfByte5[10] = 1;
-    this.chm_dc_codelens = arrayOfByte5;
-    byte[] arrayOfByte6 = new byte[12];
-    arrayOfByte6[1] = 1;
-    arrayOfByte6[2] = 2;
-    arrayOfByte6[3] = 3;
-    arrayOfByte6[4] = 4;
-    arrayOfByte6[5] = 5;
-    arrayOfByte6[6] = 6;
-    arrayOfByte6[7] = 7;
-    arrayOfByte6[8] = 8;
-    arrayOfByte6[9] = 9;
-    arrayOfByte6[10] = 10;
-    arrayOfByte6[11] = 11;
-    this.chm_dc_symbols = arrayOfByte6;
-    byte[] arrayOfByte7 = new byte[16];
-    arrayOfByte7[1] = 2;
-    arrayOfByte7[2] = 1;
-    arrayOfByte7[3] = 2;
-    arrayOfByte7[4] = 4;
-    arrayOfByte7[5] = 4;
-    arrayOfByte7[6] = 3;
-    arrayOfByte7[7] = 4;
-    arrayOfByte7[8] = 7;
-    arrayOfByte7[9] = 5;
-    arrayOfByte7[10] = 4;
-    arrayOfByte7[11] = 4;
-    arrayOfByte7[13] = 1;
-    arrayOfByte7[14] = 2;
-    arrayOfByte7[15] = 119;
-    this.chm_ac_codelens = arrayOfByte7;
-    byte[] arrayOfByte8 = new byte['¢'];
-    arrayOfByte8[1] = 1;
-    arrayOfByte8[2] = 2;
-    arrayOfByte8[3] = 3;
-    arrayOfByte8[4] = 17;
-    arrayOfByte8[5] = 4;
-    arrayOfByte8[6] = 5;
-    arrayOfByte8[7] = 33;
-    arrayOfByte8[8] = 49;
-    arrayOfByte8[9] = 6;
-    arrayOfByte8[10] = 18;
-    arrayOfByte8[11] = 65;
-    arrayOfByte8[12] = 81;
-    arrayOfByte8[13] = 7;
-    arrayOfByte8[14] = 97;
-    arrayOfByte8[15] = 113;
-    arrayOfByte8[16] = 19;
-    arrayOfByte8[17] = 34;
-    arrayOfByte8[18] = 50;
-    arrayOfByte8[19] = -127;
-    arrayOfByte8[20] = 8;
-    arrayOfByte8[21] = 20;
-    arrayOfByte8[22] = 66;
-    arrayOfByte8[23] = -111;
-    arrayOfByte8[24] = -95;
-    arrayOfByte8[25] = -79;
-    arrayOfByte8[26] = -63;
-    arrayOfByte8[27] = 9;
-    arrayOfByte8[28] = 35;
-    arrayOfByte8[29] = 51;
-    arrayOfByte8[30] = 82;
-    arrayOfByte8[31] = -16;
-    arrayOfByte8[32] = 21;
-    arrayOfByte8[33] = 98;
-    arrayOfByte8[34] = 114;
-    arrayOfByte8[35] = -47;
-    arrayOfByte8[36] = 10;
-    arrayOfByte8[37] = 22;
-    arrayOfByte8[38] = 36;
-    arrayOfByte8[39] = 52;
-    arrayOfByte8[40] = -31;
-    arrayOfByte8[41] = 37;
-    arrayOfByte8[42] = -15;
-    arrayOfByte8[43] = 23;
-    arrayOfByte8[44] = 24;
-    arrayOfByte8[45] = 25;
-    arrayOfByte8[46] = 26;
-    arrayOfByte8[47] = 38;
-    arrayOfByte8[48] = 39;
-    arrayOfByte8[49] = 40;
-    arrayOfByte8[50] = 41;
-    arrayOfByte8[51] = 42;
-    arrayOfByte8[52] = 53;
-    arrayOfByte8[53] = 54;
-    arrayOfByte8[54] = 55;
-    arrayOfByte8[55] = 56;
-    arrayOfByte8[56] = 57;
-    arrayOfByte8[57] = 58;
-    arrayOfByte8[58] = 67;
-    arrayOfByte8[59] = 68;
-    arrayOfByte8[60] = 69;
-    arrayOfByte8[61] = 70;
-    arrayOfByte8[62] = 71;
-    arrayOfByte8[63] = 72;
-    arrayOfByte8[64] = 73;
-    arrayOfByte8[65] = 74;
-    arrayOfByte8[66] = 83;
-    arrayOfByte8[67] = 84;
-    arrayOfByte8[68] = 85;
-    arrayOfByte8[69] = 86;
-    arrayOfByte8[70] = 87;
-    arrayOfByte8[71] = 88;
-    arrayOfByte8[72] = 89;
-    arrayOfByte8[73] = 90;
-    arrayOfByte8[74] = 99;
-    arrayOfByte8[75] = 100;
-    arrayOfByte8[76] = 101;
-    arrayOfByte8[77] = 102;
-    arrayOfByte8[78] = 103;
-    arrayOfByte8[79] = 104;
-    arrayOfByte8[80] = 105;
-    arrayOfByte8[81] = 106;
-    arrayOfByte8[82] = 115;
-    arrayOfByte8[83] = 116;
-    arrayOfByte8[84] = 117;
-    arrayOfByte8[85] = 118;
-    arrayOfByte8[86] = 119;
-    arrayOfByte8[87] = 120;
-    arrayOfByte8[88] = 121;
-    arrayOfByte8[89] = 122;
-    arrayOfByte8[90] = -126;
-    arrayOfByte8[91] = -125;
-    arrayOfByte8[92] = -124;
-    arrayOfByte8[93] = -123;
-    arrayOfByte8[94] = -122;
-    arrayOfByte8[95] = -121;
-    arrayOfByte8[96] = -120;
-    arrayOfByte8[97] = -119;
-    arrayOfByte8[98] = -118;
-    arrayOfByte8[99] = -110;
-    arrayOfByte8[100] = -109;
-    arrayOfByte8[101] = -108;
-    arrayOfByte8[102] = -107;
-    arrayOfByte8[103] = -106;
-    arrayOfByte8[104] = -105;
-    arrayOfByte8[105] = -104;
-    arrayOfByte8[106] = -103;
-    arrayOfByte8[107] = -102;
-    arrayOfByte8[108] = -94;
-    arrayOfByte8[109] = -93;
-    arrayOfByte8[110] = -92;
-    arrayOfByte8[111] = -91;
-    arrayOfByte8[112] = -90;
-    arrayOfByte8[113] = -89;
-    arrayOfByte8[114] = -88;
-    arrayOfByte8[115] = -87;
-    arrayOfByte8[116] = -86;
-    arrayOfByte8[117] = -78;
-    arrayOfByte8[118] = -77;
-    arrayOfByte8[119] = -76;
-    arrayOfByte8[120] = -75;
-    arrayOfByte8[121] = -74;
-    arrayOfByte8[122] = -73;
-    arrayOfByte8[123] = -72;
-    arrayOfByte8[124] = -71;
-    arrayOfByte8[125] = -70;
-    arrayOfByte8[126] = -62;
-    arrayOfByte8[127] = -61;
-    arrayOfByte8[''] = -60;
-    arrayOfByte8[''] = -59;
-    arrayOfByte8[''] = -58;
-    arrayOfByte8[''] = -57;
-    arrayOfByte8[''] = -56;
-    arrayOfByte8[''] = -55;
-    arrayOfByte8[''] = -54;
-    arrayOfByte8[''] = -46;
-    arrayOfByte8[''] = -45;
-    arrayOfByte8[''] = -44;
-    arrayOfByte8[''] = -43;
-    arrayOfByte8[''] = -42;
-    arrayOfByte8[''] = -41;
-    arrayOfByte8[''] = -40;
-    arrayOfByte8[''] = -39;
-    arrayOfByte8[''] = -38;
-    arrayOfByte8[''] = -30;
-    arrayOfByte8[''] = -29;
-    arrayOfByte8[''] = -28;
-    arrayOfByte8[''] = -27;
-    arrayOfByte8[''] = -26;
-    arrayOfByte8[''] = -25;
-    arrayOfByte8[''] = -24;
-    arrayOfByte8[''] = -23;
-    arrayOfByte8[''] = -22;
-    arrayOfByte8[''] = -14;
-    arrayOfByte8[''] = -13;
-    arrayOfByte8[''] = -12;
-    arrayOfByte8[''] = -11;
-    arrayOfByte8[''] = -10;
-    arrayOfByte8[''] = -9;
-    arrayOfByte8[''] = -8;
-    arrayOfByte8[' '] = -7;
-    arrayOfByte8['¡'] = -6;
-    this.chm_ac_symbols = arrayOfByte8;
-    this.iJPEGSizeMax = 1024;
     this._bJPEGErrorReported = false;
     this.patternOptions = Pattern.compile("^RTSP/1.0 200 OK.*?Public.+?\\r\\n$", 40);
     this.patternDescribe = Pattern.compile("RTSP/1.0 200 OK.*?^Content-Type:.*?application/sdp.+?\\r\\n$.+?\\r\\n$", 42);
@@ -527,28 +109,6 @@ public class RTSPoverHTTPDecoder extends AsyncTask<String, Bitmap, String>
     this.bMuted = paramBoolClass4;
   }
 
-  private void MakeHuffmanHeader(ArrayList<Byte> paramArrayList, byte[] paramArrayOfByte1, byte[] paramArrayOfByte2, int paramInt1, int paramInt2)
-  {
-    paramArrayList.add(Byte.valueOf(-1));
-    paramArrayList.add(Byte.valueOf(-60));
-    paramArrayList.add(Byte.valueOf(0));
-    paramArrayList.add(Byte.valueOf((byte)(3 + paramArrayOfByte1.length + paramArrayOfByte2.length)));
-    paramArrayList.add(Byte.valueOf((byte)(paramInt1 | paramInt2 << 4)));
-    int i = 0;
-    if (i >= paramArrayOfByte1.length);
-    for (int j = 0; ; j++)
-    {
-      if (j >= paramArrayOfByte2.length)
-      {
-        return;
-        paramArrayList.add(Byte.valueOf(paramArrayOfByte1[i]));
-        i++;
-        break;
-      }
-      paramArrayList.add(Byte.valueOf(paramArrayOfByte2[j]));
-    }
-  }
-
   private void ProcessAudioPayload(byte[] paramArrayOfByte, boolean paramBoolean, int paramInt1, int paramInt2)
   {
     short[] arrayOfShort;
@@ -593,576 +153,89 @@ public class RTSPoverHTTPDecoder extends AsyncTask<String, Bitmap, String>
     }
   }
 
-  private boolean ProcessData(ArrayList<Byte> paramArrayList, boolean paramBoolean)
-  {
-    boolean bool = false;
-    PackeType localPackeType = PackeType.VideoRTPCP;
-    int i = 0;
-    label853: 
-    do
-    {
-      while (true)
-      {
-        byte[] arrayOfByte2;
-        int i6;
-        try
-        {
-          int j = utility.listIndexOf(paramArrayList, utility.ToByteArray(("$" + (char)this.byteVideoRTPChannel).getBytes()));
-          this.iIndexPacketStart = j;
-          if (j < 0)
-            continue;
-          localPackeType = PackeType.VideoRTP;
-          i = 1;
-          if (i == 0)
-            break;
-          if (paramArrayList.size() <= 2 + (2 + this.iIndexPacketStart))
-            break label859;
-          int i4 = (utility.ib(((Byte)paramArrayList.get(2 + this.iIndexPacketStart)).byteValue()) << 8) + utility.ib(((Byte)paramArrayList.get(3 + this.iIndexPacketStart)).byteValue());
-          if (this.iIndexPacketStart <= 0)
-            continue;
-          ArrayList localArrayList = new ArrayList();
-          int i5 = 0;
-          if (i5 < this.iIndexPacketStart)
-            continue;
-          paramArrayList.subList(0, this.iIndexPacketStart).clear();
-          bool = true;
-          break label853;
-          int k = utility.listIndexOf(paramArrayList, utility.ToByteArray(("$" + (char)this.byteVideoRTPCPChannel).getBytes()));
-          this.iIndexPacketStart = k;
-          if (k < 0)
-            continue;
-          localPackeType = PackeType.VideoRTPCP;
-          i = 1;
-          continue;
-          int m = utility.listIndexOf(paramArrayList, utility.ToByteArray(("$" + (char)this.byteAudioRTPChannel).getBytes()));
-          this.iIndexPacketStart = m;
-          if (m < 0)
-            continue;
-          localPackeType = PackeType.AudioRTP;
-          i = 1;
-          continue;
-          int n = utility.listIndexOf(paramArrayList, utility.ToByteArray(("$" + (char)this.byteAudioRTPCPChannel).getBytes()));
-          this.iIndexPacketStart = n;
-          if (n < 0)
-            continue;
-          localPackeType = PackeType.AudioRTPCP;
-          i = 1;
-          continue;
-          localArrayList.add((Byte)paramArrayList.get(i5));
-          i5++;
-          continue;
-          bool = ProcessData(localArrayList, bool);
-          break label853;
-          if (paramArrayList.size() < i4 + (2 + (2 + this.iIndexPacketStart)))
-            break label859;
-          arrayOfByte2 = new byte[i4];
-          i6 = 0;
-          if (i6 >= i4)
-          {
-            paramArrayList.subList(0, i4 + 4).clear();
-            if (paramArrayList.size() <= 0)
-              continue;
-            bool = true;
-            if (i4 <= 12)
-              break label859;
-            Process_RTP_RTCP_acket(localPackeType, arrayOfByte2);
-          }
-        }
-        catch (Exception localException)
-        {
-          utility.logMessageAsync(this.activity, "Error in ProcessData of RTSPoverHTTPDecoder(): " + localException.getMessage());
-        }
-        int i7 = i6 + 4;
-        arrayOfByte2[i6] = ((Byte)paramArrayList.get(i7)).byteValue();
-        i6++;
-      }
-      int i1 = 2 + utility.listLastIndexOf(paramArrayList, utility.ToByteArray("\r\n".getBytes()));
-      byte[] arrayOfByte1 = new byte[i1];
-      String str;
-      Pattern localPattern2;
-      for (int i2 = 0; ; i2++)
-      {
-        if (i2 >= i1)
-        {
-          str = new String(arrayOfByte1);
-          Pattern localPattern1 = Pattern.compile(".+?/1.0 200 OK.+?application/x-rtsp-tunnelled.*?\\r\\n\\r\\n", 32);
-          localPattern2 = Pattern.compile("(RTSP/1.0 200 OK.+?\r\n\r\n)|(RTSP/1.0.+?WWW-Authenticate.+?\r\n\r\n)", 32);
-          Matcher localMatcher1 = localPattern1.matcher(str);
-          if (!localMatcher1.find())
-            break;
-          localMatcher1.find(0);
-          paramArrayList.subList(0, localMatcher1.start() + localMatcher1.group().length()).clear();
-          if (paramArrayList.size() > 0)
-            bool = true;
-          this.sProgress = "Communication channels have been established. Requesting video source information...";
-          Bitmap[] arrayOfBitmap = new Bitmap[1];
-          arrayOfBitmap[0] = null;
-          publishProgress(arrayOfBitmap);
-          break label859;
-        }
-        arrayOfByte1[i2] = ((Byte)paramArrayList.get(i2)).byteValue();
-      }
-      Matcher localMatcher2 = localPattern2.matcher(str);
-      if (!localMatcher2.find())
-        break;
-      localMatcher2.find(0);
-      if (localMatcher2.group().contains("Content-Length:"))
-      {
-        Matcher localMatcher3 = Pattern.compile("RTSP/1.0 200 OK.+?^Content-Length:.+?\r\n$.+?\r\n$", 40).matcher(str);
-        if (localMatcher3.find())
-        {
-          localMatcher3.find(0);
-          ProcessRTSPResponse(localMatcher3.group());
-          paramArrayList.subList(0, localMatcher3.start() + localMatcher3.group().length()).clear();
-          if (paramArrayList.size() <= 0)
-            break;
-          bool = true;
-          break;
-        }
-        utility.logMessageAsync(this.activity, "Unknown RTSP commmand");
-        break;
-      }
-      ProcessRTSPResponse(localMatcher2.group());
-      paramArrayList.subList(0, localMatcher2.start() + localMatcher2.group().length()).clear();
-      int i3 = paramArrayList.size();
-      if (i3 <= 0)
-        break;
-      bool = true;
-      break;
-    }
-    while (bool);
-    bool = true;
-    label859: return bool;
-  }
-
-  private void ProcessH264Payload(byte[] paramArrayOfByte, int paramInt1, int paramInt2, int paramInt3)
+  private void ProcessH264Payload(byte[] paramArrayOfByte, int paramInt1, int paramInt2, int paramInt3, boolean paramBoolean)
     throws Exception
   {
-    byte[] arrayOfByte1;
-    byte[] arrayOfByte2;
-    int i9;
-    int i11;
-    label79: int i;
-    int j;
-    int k;
-    int m;
-    int n;
-    label197: int i1;
-    label232: int i4;
     if (!this.bH264Initialized)
     {
       String[] arrayOfString = this.sprop_parameter_sets.trim().split(",");
-      arrayOfByte1 = org.kobjects.base64.Base64.decode(arrayOfString[0]);
-      arrayOfByte2 = org.kobjects.base64.Base64.decode(arrayOfString[1]);
-      addH264StartPrefix(this.qH264Stream);
-      int i8 = arrayOfByte1.length;
-      i9 = 0;
-      if (i9 >= i8)
+      byte[] arrayOfByte1 = org.kobjects.base64.Base64.decode(arrayOfString[0]);
+      byte[] arrayOfByte2 = org.kobjects.base64.Base64.decode(arrayOfString[1]);
+      this.h264Stream.addParameterSets(arrayOfByte1, arrayOfByte2);
+      Thread localThread = new Thread(new Runnable()
       {
-        addH264StartPrefix(this.qH264Stream);
-        int i10 = arrayOfByte2.length;
-        i11 = 0;
-        if (i11 < i10)
-          break label316;
-        2 local2 = new Runnable()
+        public void run()
         {
-          public void run()
+          try
           {
-            RTSPoverHTTPDecoder.InputStreamH264 localInputStreamH264 = new RTSPoverHTTPDecoder.InputStreamH264(RTSPoverHTTPDecoder.this, RTSPoverHTTPDecoder.this.qH264Stream);
-            try
-            {
-              H264Decoder localH264Decoder = new H264Decoder(new AnnexBDemuxer(localInputStreamH264));
-              while (true)
-              {
-                if (RTSPoverHTTPDecoder.this.bDisposed.bValue)
-                  return;
-                if (localH264Decoder.nextPicture() == null)
-                  break;
-                Log.d("ProcessH264Payload", "A picture has been decoded");
-              }
-            }
-            catch (IOException localIOException)
+            // the decoder pulls the stream byte by byte, so it reads through a buffer
+            H264Decoder localH264Decoder = new H264Decoder(new AnnexBDemuxer(new BufferedInputStream(RTSPoverHTTPDecoder.this.h264Stream, 65536)));
+            while (!RTSPoverHTTPDecoder.this.bDisposed.bValue)
             {
-              while (true)
+              if (localH264Decoder.nextPicture() == null)
               {
-                Log.d("ProcessH264Payload", localIOException.getMessage());
-                break;
                 Log.d("ProcessH264Payload", "A null picture has been decoded");
-                Thread.sleep(50L);
+                return;
               }
-            }
-            catch (InterruptedException localInterruptedException)
-            {
-              Log.d("ProcessH264Payload Thread.sleep()", localInterruptedException.getMessage());
+              Log.d("ProcessH264Payload", "A picture has been decoded");
             }
           }
-        };
-        new Thread(local2).start();
-        this.bH264Initialized = true;
-      }
+          catch (IOException localIOException)
+          {
+            Log.d("ProcessH264Payload", String.valueOf(localIOException.getMessage()));
+          }
+        }
+      }, "H264Decoder");
+      localThread.setDaemon(true);
+      localThread.start();
+      this.bH264Initialized = true;
     }
-    else
+    this.h264Stream.addPayload(paramArrayOfByte, paramInt2, paramInt3, paramInt1, paramBoolean);
+    this._bIDR = this.h264Stream.bIDR;
+    if (this._iNALCount != this.h264Stream.iNALCount)
     {
-      i = paramInt2 + 1;
-      j = paramArrayOfByte[paramInt2];
-      k = utility.GetBigEndianBits(j, 3, 5);
-      m = 0;
-      n = 0;
-      switch (k)
-      {
-      default:
-        if (k < 24)
-          if ((k == 1) || (k == 5) || (k == 13))
-            if (k == 5)
-            {
-              this._bIDR = true;
-              if (n == 0)
-              {
-                addH264StartPrefix(this.qH264Stream);
-                this.qH264Stream.offer(Byte.valueOf(j));
-              }
-              m = 1;
-              i1 = i;
-              if (n != 0)
-                break;
-              i4 = 0;
-            }
-      case 28:
-      }
-    }
-    label316: label370: int i6;
-    for (int i5 = i1; ; i5 = i6)
-    {
-      if (i4 >= paramInt3 - (i5 - paramInt2))
-      {
-        this._iNALCount = (1 + this._iNALCount);
-        utility.logd("NAL Count", String.valueOf(this._iNALCount));
-        if (m != 0);
-        return;
-        byte b2 = arrayOfByte1[i9];
-        this.qH264Stream.offer(Byte.valueOf(b2));
-        i9++;
-        break;
-        byte b3 = arrayOfByte2[i11];
-        this.qH264Stream.offer(Byte.valueOf(b3));
-        i11++;
-        break label79;
-        i1 = i + 1;
-        byte b1 = paramArrayOfByte[i];
-        int i2;
-        int i3;
-        if (utility.GetBigEndianBits(b1, 0, 1) == 1)
-        {
-          i2 = 1;
-          if (utility.GetBigEndianBits(b1, 1, 1) != 1)
-            break label472;
-          i3 = 1;
-          label384: if (utility.GetBigEndianBits(b1, 3, 5) != 5)
-            break label478;
-          this._bIDR = true;
-          label400: if (i2 == 0)
-            break label486;
-          addH264StartPrefix(this.qH264Stream);
-          int i7 = j & 0xE0 | b1 & 0x1F;
-          this.qH264Stream.offer(Byte.valueOf(i7));
-        }
-        while (true)
-        {
-          if (utility.GetBigEndianBits(b1, 2, 1) != 1)
-            break label495;
-          utility.ShowMessage(this.activity, "The reserved R bit of FU-A packet's FU header is not zero");
-          break;
-          i2 = 0;
-          break label370;
-          label472: i3 = 0;
-          break label384;
-          label478: this._bIDR = false;
-          break label400;
-          label486: if (i3 == 0)
-            continue;
-          m = 1;
-        }
-        label495: break label232;
-        this._bIDR = false;
-        break label197;
-        if (k == 6)
-        {
-          n = 1;
-          break label197;
-        }
-        if ((k == 7) || (k == 8))
-          break label197;
-        throw new Exception("Unhandled H.264 payload type: " + String.valueOf(k));
-        if (k >= 30)
-          throw new Exception("Unhandled undefined H.264 payload type: " + String.valueOf(k));
-        throw new Exception("This type in H.264 payload in a TCP packet (see Table 1 of RTP Payload Format for H.264 Video)  is not supported: " + String.valueOf(k));
-      }
-      Queue localQueue = this.qH264Stream;
-      i6 = i5 + 1;
-      localQueue.offer(Byte.valueOf(paramArrayOfByte[i5]));
-      i4++;
+      this._iNALCount = this.h264Stream.iNALCount;
+      utility.logd("NAL Count", String.valueOf(this._iNALCount));
     }
   }
 
   private void ProcessJPEGPayload(byte[] paramArrayOfByte, boolean paramBoolean, int paramInt1, int paramInt2)
   {
-    int i = paramInt2 + 1;
-    paramArrayOfByte[paramInt2];
-    int j = i + 1;
-    int k = utility.ib(paramArrayOfByte[i]) << 16;
-    int m = j + 1;
-    int n = k + (utility.ib(paramArrayOfByte[j]) << 8);
-    int i1 = m + 1;
-    int i2 = n + utility.ib(paramArrayOfByte[m]);
-    int i3 = i1 + 1;
-    int i4 = paramArrayOfByte[i1];
-    int i5 = i3 + 1;
-    int i6 = utility.ib(paramArrayOfByte[i3]);
-    int i7 = i5 + 1;
-    int i8 = paramArrayOfByte[i5];
-    int i9 = i7 + 1;
-    int i10 = paramArrayOfByte[i7];
-    if ((i4 != 0) && (i4 != 1));
-    while (true)
-    {
+    if (!this.jpegAssembler.addPayload(paramArrayOfByte, paramInt2, paramBoolean, paramInt1))
       return;
-      label195: int i21;
-      int i24;
-      int i15;
-      label752: int i13;
-      label1106: byte[] arrayOfByte;
-      int i11;
-      BitmapFactory.Options localOptions;
-      if (i2 == 0)
-      {
-        if (i6 >= 128)
-        {
-          Iterator localIterator2 = this.listQuantizationTables.iterator();
-          int i19;
-          while (true)
-          {
-            if (!localIterator2.hasNext())
-            {
-              i19 = i9 + 1;
-              if (paramArrayOfByte[i9] == 0)
-                break label195;
-              break;
-            }
-            ((ArrayList)localIterator2.next()).clear();
-          }
-          int i20 = i19 + 1;
-          i21 = utility.ib(paramArrayOfByte[i19]);
-          int i22 = i20 + 1;
-          int i23 = utility.ib(paramArrayOfByte[i20]) << 8;
-          i9 = i22 + 1;
-          if (i23 + utility.ib(paramArrayOfByte[i22]) != 128)
-            continue;
-          i24 = 0;
-          int i25 = this.listQuantizationTables.size();
-          if (i24 < i25);
-        }
-        else
-        {
-          this.listSample.clear();
-          this.listSample.ensureCapacity(this.iJPEGSizeMax);
-          this.listSample.add(Byte.valueOf(-1));
-          this.listSample.add(Byte.valueOf(-40));
-          this.listSample.add(Byte.valueOf(-1));
-          this.listSample.add(Byte.valueOf(-32));
-          this.listSample.add(Byte.valueOf(0));
-          this.listSample.add(Byte.valueOf(16));
-          this.listSample.add(Byte.valueOf(74));
-          this.listSample.add(Byte.valueOf(70));
-          this.listSample.add(Byte.valueOf(73));
-          this.listSample.add(Byte.valueOf(70));
-          this.listSample.add(Byte.valueOf(0));
-          this.listSample.add(Byte.valueOf(1));
-          this.listSample.add(Byte.valueOf(1));
-          this.listSample.add(Byte.valueOf(0));
-          this.listSample.add(Byte.valueOf(0));
-          this.listSample.add(Byte.valueOf(1));
-          this.listSample.add(Byte.valueOf(0));
-          this.listSample.add(Byte.valueOf(1));
-          this.listSample.add(Byte.valueOf(0));
-          this.listSample.add(Byte.valueOf(0));
-          i15 = 0;
-          int i16 = this.listQuantizationTables.size();
-          if (i15 < i16)
-            break label1451;
-          int i17 = i8 * 8;
-          int i18 = i10 * 8;
-          this.listSample.add(Byte.valueOf(-1));
-          this.listSample.add(Byte.valueOf(-64));
-          this.listSample.add(Byte.valueOf(0));
-          this.listSample.add(Byte.valueOf(17));
-          this.listSample.add(Byte.valueOf(8));
-          this.listSample.add(Byte.valueOf((byte)(i18 >> 8)));
-          this.listSample.add(Byte.valueOf((byte)(i18 & 0xFF)));
-          this.listSample.add(Byte.valueOf((byte)(i17 >> 8)));
-          this.listSample.add(Byte.valueOf((byte)(i17 & 0xFF)));
-          this.listSample.add(Byte.valueOf(3));
-          this.listSample.add(Byte.valueOf(1));
-        }
-      }
-      else
-        switch (i4)
-        {
-        default:
-          this.listSample.add(Byte.valueOf(0));
-          this.listSample.add(Byte.valueOf(2));
-          this.listSample.add(Byte.valueOf(17));
-          this.listSample.add(Byte.valueOf(1));
-          this.listSample.add(Byte.valueOf(3));
-          this.listSample.add(Byte.valueOf(17));
-          this.listSample.add(Byte.valueOf(1));
-          MakeHuffmanHeader(this.listSample, this.lum_dc_codelens, this.lum_dc_symbols, 0, 0);
-          MakeHuffmanHeader(this.listSample, this.lum_ac_codelens, this.lum_ac_symbols, 0, 1);
-          MakeHuffmanHeader(this.listSample, this.chm_dc_codelens, this.chm_dc_symbols, 1, 0);
-          MakeHuffmanHeader(this.listSample, this.chm_ac_codelens, this.chm_ac_symbols, 1, 1);
-          this.listSample.add(Byte.valueOf(-1));
-          this.listSample.add(Byte.valueOf(-38));
-          this.listSample.add(Byte.valueOf(0));
-          this.listSample.add(Byte.valueOf(12));
-          this.listSample.add(Byte.valueOf(3));
-          this.listSample.add(Byte.valueOf(1));
-          this.listSample.add(Byte.valueOf(0));
-          this.listSample.add(Byte.valueOf(2));
-          this.listSample.add(Byte.valueOf(17));
-          this.listSample.add(Byte.valueOf(3));
-          this.listSample.add(Byte.valueOf(17));
-          this.listSample.add(Byte.valueOf(0));
-          this.listSample.add(Byte.valueOf(63));
-          this.listSample.add(Byte.valueOf(0));
-          long l1 = System.currentTimeMillis();
-          if (this.listSample.size() < 1000000)
-          {
-            i13 = i9;
-            int i14 = paramArrayOfByte.length;
-            if (i13 < i14);
-          }
-          else
-          {
-            utility.logd("Onvifer", "Add data to listSample time (ms): " + (System.currentTimeMillis() - l1));
-            if (!paramBoolean)
-              continue;
-            arrayOfByte = new byte[this.listSample.size()];
-            i11 = 0;
-            int i12 = this.listSample.size();
-            if (i11 < i12)
-              break label1649;
-            this.iJPEGSizeMax = Math.max(this.iJPEGSizeMax, this.listSample.size());
-            localOptions = new BitmapFactory.Options();
-          }
-        case 0:
-        case 1:
-        }
-      try
+    try
+    {
+      this.iProcessedFrames = (1 + this.iProcessedFrames);
+      long l = System.currentTimeMillis();
+      Bitmap localBitmap = this.jpegAssembler.decodeFrame();
+      if (localBitmap == null)
+        return;
+      utility.logd("BitmapFactory.decodeByteArray (ms)", " " + (System.currentTimeMillis() - l));
+      Bitmap[] arrayOfBitmap = new Bitmap[1];
+      arrayOfBitmap[0] = localBitmap;
+      publishProgress(arrayOfBitmap);
+      this.ulFrameTime = ((0xFFFFFFFFL & paramInt1) * 1000L / 90000L);
+      this.uireceivedPacketCount = (1 + this.uireceivedPacketCount);
+      if (this.uireceivedPacketCount % 5 != 0)
+        return;
+      if ((this.ulFrameTimeRe != 0L) && (this.ulFrameTime > this.ulFrameTimeRe))
       {
-        this.iProcessedFrames = (1 + this.iProcessedFrames);
-        long l2 = System.currentTimeMillis();
-        Bitmap localBitmap = BitmapFactory.decodeByteArray(arrayOfByte, 0, arrayOfByte.length, localOptions);
-        utility.logd("BitmapFactory.decodeByteArray (ms)", " " + (System.currentTimeMillis() - l2));
-        Bitmap[] arrayOfBitmap3 = new Bitmap[1];
-        arrayOfBitmap3[0] = localBitmap;
-        publishProgress(arrayOfBitmap3);
-        this.ulFrameTime = (paramInt1 * 1000 / 90000);
-        this.uireceivedPacketCount = (1 + this.uireceivedPacketCount);
-        if (this.uireceivedPacketCount % 5 != 0)
-          continue;
-        if (this.ulFrameTimeRe != 0L)
-        {
-          f = (float)(5000L / (this.ulFrameTime - this.ulFrameTimeRe));
-          if (this.fFrameRate == 0.0F)
-            this.fFrameRate = f;
-        }
+        float f = (float)(5000L / (this.ulFrameTime - this.ulFrameTimeRe));
+        if (this.fFrameRate == 0.0F)
+          this.fFrameRate = f;
         else
-        {
-          this.ulFrameTimeRe = this.ulFrameTime;
-          continue;
-          int i26 = 64;
-          if ((0x1 & i21 >> i24) == 1)
-            i26 = 128;
-          int i27 = 0;
-          int i29;
-          for (int i28 = i9; ; i28 = i29)
-          {
-            if (i27 >= i26)
-            {
-              i24++;
-              i9 = i28;
-              break;
-            }
-            ArrayList localArrayList = (ArrayList)this.listQuantizationTables.get(i24);
-            i29 = i28 + 1;
-            localArrayList.add(Byte.valueOf(paramArrayOfByte[i28]));
-            i27++;
-          }
-          label1451: this.listSample.add(Byte.valueOf(-1));
-          this.listSample.add(Byte.valueOf(-37));
-          this.listSample.add(Byte.valueOf(0));
-          this.listSample.add(Byte.valueOf((byte)(3 + ((ArrayList)this.listQuantizationTables.get(i15)).size())));
-          this.listSample.add(Byte.valueOf((byte)i15));
-          Iterator localIterator1 = ((ArrayList)this.listQuantizationTables.get(i15)).iterator();
-          while (true)
-          {
-            if (!localIterator1.hasNext())
-            {
-              i15++;
-              break;
-            }
-            byte b = ((Byte)localIterator1.next()).byteValue();
-            this.listSample.add(Byte.valueOf(b));
-          }
-          this.listSample.add(Byte.valueOf(33));
-          break label752;
-          this.listSample.add(Byte.valueOf(34));
-          break label752;
-          this.listSample.add(Byte.valueOf(paramArrayOfByte[i13]));
-          i13++;
-          break label1106;
-          label1649: arrayOfByte[i11] = ((Byte)this.listSample.get(i11)).byteValue();
-          i11++;
-        }
-      }
-      catch (Exception localException)
-      {
-        while (this._bJPEGErrorReported);
-        this._bJPEGErrorReported = true;
-        if (localException.getMessage() == null);
-        for (String str2 = "Unknown"; ; str2 = localException.getMessage())
-        {
-          utility.logMessageAsync(this.activity, "JPEG Decoding error: " + str2);
-          utility.logd("BitmapFactory.decodeByteArray Exception: ", str2);
-          this.sProgress = "The streamed JPEG image cannot be decoded.";
-          Bitmap[] arrayOfBitmap2 = new Bitmap[1];
-          arrayOfBitmap2[0] = null;
-          publishProgress(arrayOfBitmap2);
-          break;
-        }
-      }
-      catch (Error localError)
-      {
-        while (true)
-        {
-          float f;
-          if (this._bJPEGErrorReported)
-            continue;
-          this.pd.dismiss();
-          this._bJPEGErrorReported = true;
-          if (localError.getMessage() == null);
-          for (String str1 = "Unknown"; ; str1 = localError.getMessage())
-          {
-            utility.logMessageAsync(this.activity, "JPEG Decoding error: " + str1);
-            utility.logd("BitmapFactory.decodeByteArray Exception: ", str1);
-            this.sProgress = "The streamed JPEG image cannot be decoded.";
-            Bitmap[] arrayOfBitmap1 = new Bitmap[1];
-            arrayOfBitmap1[0] = null;
-            publishProgress(arrayOfBitmap1);
-            break;
-          }
           this.fFrameRate = (0.95F * this.fFrameRate + 0.05F * f);
-        }
       }
+      this.ulFrameTimeRe = this.ulFrameTime;
+    }
+    catch (Exception localException)
+    {
+      reportJPEGError(localException.getMessage());
+    }
+    catch (Error localError)
+    {
+      this.pd.dismiss();
+      reportJPEGError(localError.getMessage());
     }
   }
 
@@ -1222,7 +295,7 @@ public class RTSPoverHTTPDecoder extends AsyncTask<String, Bitmap, String>
       {
         try
         {
-          ProcessH264Payload(paramArrayOfByte, n, i9, i10);
+          ProcessH264Payload(paramArrayOfByte, n, i9, i10, bool);
           return;
           i = 0;
           break;
@@ -1711,24 +784,12 @@ public class RTSPoverHTTPDecoder extends AsyncTask<String, Bitmap, String>
     }
   }
 
-  public void addH264StartPrefix(Queue<Byte> paramQueue)
-  {
-    paramQueue.offer(Byte.valueOf(0));
-    paramQueue.offer(Byte.valueOf(0));
-    paramQueue.offer(Byte.valueOf(0));
-    paramQueue.offer(Byte.valueOf(1));
-  }
-
   protected String doInBackground(String[] paramArrayOfString)
   {
-    this.listQuantizationTables.add(new ArrayList());
-    this.listQuantizationTables.add(new ArrayList());
     this.sURL = this.si.sStreamURL.replace("http:", "rtsp:");
     this.uri = Uri.parse(this.sURL);
     if (this.uri.getQuery() == null)
       this._PathComplete = this.uri.getPath();
-    byte[] arrayOfByte;
-    ArrayList localArrayList;
     int i;
     while (true)
     {
@@ -1769,8 +830,7 @@ public class RTSPoverHTTPDecoder extends AsyncTask<String, Bitmap, String>
           int k = this.icSeq;
           this.icSeq = (k + 1);
           SendRTSPCommand(new StringBuilder(String.valueOf(new StringBuilder(String.valueOf(localStringBuilder.append(String.valueOf(k)).toString())).append("\r\nAccept: application/sdp").toString())).append("\r\nBandwidth: 512000").toString() + "\r\nAccept-Language: en-US", "DESCRIBE");
-          arrayOfByte = new byte[65536];
-          localArrayList = new ArrayList();
+          this.demuxer.clear();
           if (this.bDisposed != null)
           {
             boolean bool1 = this.bDisposed.bValue;
@@ -1797,7 +857,7 @@ public class RTSPoverHTTPDecoder extends AsyncTask<String, Bitmap, String>
           InputStream localInputStream;
           this.bTimedout.bValue = true;
           continue;
-          i = localInputStream.read(arrayOfByte);
+          i = this.demuxer.fill(localInputStream);
           if (i != -1)
             break label1100;
           if (SystemClock.elapsedRealtime() - this.liTimeLastData <= 10000L)
@@ -1815,39 +875,43 @@ public class RTSPoverHTTPDecoder extends AsyncTask<String, Bitmap, String>
         }
       }
     }
-    label1100: int j;
-    if (localArrayList.size() < 1048576)
+    label1100: this.demuxer.process();
+    this.liTimeLastData = SystemClock.elapsedRealtime();
+    if (i < 1000)
+      Thread.sleep(100L);
+  }
+
+  public void onInterleavedFrame(int iChannel, byte[] paramArrayOfByte, int iOffset, int iLength)
+  {
+    PackeType localPackeType;
+    if (iChannel == utility.ib(this.byteVideoRTPChannel))
+      localPackeType = PackeType.VideoRTP;
+    else if (iChannel == utility.ib(this.byteVideoRTPCPChannel))
+      localPackeType = PackeType.VideoRTPCP;
+    else if (iChannel == utility.ib(this.byteAudioRTPChannel))
+      localPackeType = PackeType.AudioRTP;
+    else if (iChannel == utility.ib(this.byteAudioRTPCPChannel))
+      localPackeType = PackeType.AudioRTPCP;
+    else
+      return;
+    if (iLength <= 12)
+      return;
+    try
     {
-      localArrayList.ensureCapacity(i + localArrayList.size());
-      j = 0;
+      byte[] arrayOfByte = new byte[iLength];
+      java.lang.System.arraycopy(paramArrayOfByte, iOffset, arrayOfByte, 0, iLength);
+      Process_RTP_RTCP_acket(localPackeType, arrayOfByte);
     }
-    while (true)
+    catch (Exception localException)
     {
-      if (!bool2)
-      {
-        this.liTimeLastData = SystemClock.elapsedRealtime();
-        if (i >= 1000)
-          break;
-        Thread.sleep(100L);
-        break;
-      }
-      do
-      {
-        localArrayList.add(Byte.valueOf(arrayOfByte[j]));
-        j++;
-        continue;
-        boolean bool3 = ProcessData(localArrayList, bool2);
-        bool2 = bool3;
-        break;
-      }
-      while (j < i);
-      boolean bool2 = true;
+      utility.logMessageAsync(this.activity, "Error in ProcessData of RTSPoverHTTPDecoder(): " + localException.getMessage());
     }
   }
 
   protected void onPostExecute(String paramString)
   {
     super.onPostExecute(paramString);
+    this.h264Stream.close();
     if (this.track != null)
       this.track.stop();
     if (this.bTimedout.bValue)
@@ -1908,48 +972,54 @@ public class RTSPoverHTTPDecoder extends AsyncTask<String, Bitmap, String>
       if (this.pd.isShowing())
         this.pd.dismiss();
     }
+    if (paramArrayOfBitmap[0] != null)
+      this.jpegAssembler.frameDone(paramArrayOfBitmap[0], !this.bPaused.bValue);
     if (!this.sProgress.equals(""))
       this.pd.setMessage(this.sProgress);
   }
 
-  class InputStreamH264 extends InputStream
+  public void onRTSPMessage(String sMessage)
   {
-    Queue<Byte> qStream;
-
-    public InputStreamH264()
-    {
-      Object localObject;
-      this.qStream = localObject;
-    }
-
-    public int read()
-      throws IOException
+    try
     {
-      Byte localByte = (Byte)this.qStream.poll();
-      while (true)
+      if (sMessage.startsWith("HTTP/"))
       {
-        if ((localByte != null) || (RTSPoverHTTPDecoder.this.bDisposed.bValue));
-        try
-        {
-          Thread.sleep(100000L);
-          return 0xFF & localByte.byteValue();
-          try
-          {
-            Thread.sleep(300L);
-            localByte = (Byte)this.qStream.poll();
-          }
-          catch (InterruptedException localInterruptedException2)
-          {
-            localByte = Byte.valueOf(-1);
-          }
-        }
-        catch (InterruptedException localInterruptedException1)
+        if (sMessage.contains(" 200 OK") && sMessage.contains("application/x-rtsp-tunnelled"))
         {
-          while (true)
-            localInterruptedException1.printStackTrace();
+          this.sProgress = "Communication channels have been established. Requesting video source information...";
+          Bitmap[] arrayOfBitmap = new Bitmap[1];
+          arrayOfBitmap[0] = null;
+          publishProgress(arrayOfBitmap);
         }
       }
+      else if (sMessage.startsWith("RTSP/1.0 200 OK") || sMessage.contains("WWW-Authenticate"))
+      {
+        ProcessRTSPResponse(sMessage);
+      }
+      else
+      {
+        utility.logMessageAsync(this.activity, "Unknown RTSP commmand");
+      }
     }
+    catch (Exception localException)
+    {
+      utility.logMessageAsync(this.activity, "Error in ProcessData of RTSPoverHTTPDecoder(): " + localException.getMessage());
+    }
+  }
+
+  private void reportJPEGError(String paramString)
+  {
+    if (this._bJPEGErrorReported)
+      return;
+    this._bJPEGErrorReported = true;
+    if (paramString == null)
+      paramString = "Unknown";
+    utility.logMessageAsync(this.activity, "JPEG Decoding error: " + paramString);
+    utility.logd("BitmapFactory.decodeByteArray Exception: ", paramString);
+    this.sProgress = "The streamed JPEG image cannot be decoded.";
+    Bitmap[] arrayOfBitmap = new Bitmap[1];
+    arrayOfBitmap[0] = null;
+    publishProgress(arrayOfBitmap);
   }
 
   static enum PackeType
@@ -3,19 +3,41 @@ package net.biyee.android.ONVIF;
 import android.util.Base64;
 import android.util.Log;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.security.MessageDigest;
+import java.security.SecureRandom;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.TimeZone;
-import org.apache.http.impl.auth.DigestScheme;
 import org.ksoap2.SoapEnvelope;
 import org.ksoap2.transport.HttpTransportSE;
 
 public class SOAPHttpTransport extends HttpTransportSE
 {
   static String sHeaderTemplate = "DQo8czpIZWFkZXI+DQoJPFNlY3VyaXR5IHM6bXVzdFVuZGVyc3RhbmQ9IjEiDQoJCXhtbG5zPSJodHRwOi8vZG9jcy5vYXNpcy1vcGVuLm9yZy93c3MvMjAwNC8wMS9vYXNpcy0yMDA0MDEtd3NzLXdzc2VjdXJpdHktc2VjZXh0LTEuMC54c2QiPg0KCQk8VXNlcm5hbWVUb2tlbg0KCQkJeG1sbnM9Imh0dHA6Ly9kb2NzLm9hc2lzLW9wZW4ub3JnL3dzcy8yMDA0LzAxL29hc2lzLTIwMDQwMS13c3Mtd3NzZWN1cml0eS1zZWNleHQtMS4wLnhzZCI+DQoJCQk8VXNlcm5hbWU+W3VzZXJuYW1lXTwvVXNlcm5hbWU+DQoJCQk8UGFzc3dvcmQNCgkJCQlUeXBlPSJodHRwOi8vZG9jcy5vYXNpcy1vcGVuLm9yZy93c3MvMjAwNC8wMS9vYXNpcy0yMDA0MDEtd3NzLXVzZXJuYW1lLXRva2VuLXByb2ZpbGUtMS4wI1Bhc3N3b3JkRGlnZXN0Ij5bcGFzc3dvcmRkaWdlc3RdPC9QYXNzd29yZD4NCgkJCTxOb25jZT5bbm9uY2VdPC9Ob25jZT4NCgkJCTxDcmVhdGVkDQoJCQkJeG1sbnM9Imh0dHA6Ly9kb2NzLm9hc2lzLW9wZW4ub3JnL3dzcy8yMDA0LzAxL29hc2lzLTIwMDQwMS13c3Mtd3NzZWN1cml0eS11dGlsaXR5LTEuMC54c2QiPltjcmVhdGVkXTwvQ3JlYXRlZD4NCgkJPC9Vc2VybmFtZVRva2VuPg0KCTwvU2VjdXJpdHk+DQo8L3M6SGVhZGVyPg0KDQo=";
+  static final String[] HEADER_SLOTS = { "[username]", "[passworddigest]", "[nonce]", "[created]" };
+  static final byte[] HEADER_START = "<v:Header".getBytes();
+  static final byte[] EMPTY_ELEMENT_END = "/>".getBytes();
+  static final byte[] PLACEHOLDER = "<PlaceHolder>PlaceHolder</PlaceHolder>".getBytes();
+  static final byte[] TYPE_ATTRIBUTE = "i:type=\"".getBytes();
+  static final byte[] XMLNS_PREFIX = "xmlns:n".getBytes();
+
+  // the fixed parts of the header around the slots of the token
+  static byte[][] arrayHeaderSegments;
+  static final SecureRandom random = new SecureRandom();
+  static final ThreadLocal<SimpleDateFormat> sdfCreated = new ThreadLocal<SimpleDateFormat>()
+  {
+    protected SimpleDateFormat initialValue()
+    {
+      SimpleDateFormat localSimpleDateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+      localSimpleDateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+      return localSimpleDateFormat;
+    }
+  };
+
   String sMethodName = null;
   String sParams = null;
   String sPassword;
@@ -25,7 +47,7 @@ public class SOAPHttpTransport extends HttpTransportSE
   {
     try
     {
-      BufferedReader localBufferedReader = new BufferedReader(new InputStreamReader(SOAPHttpTransport.class.getClassLoader().getResourceAsStream("res/raw/header_ws__usernametoken.xml")));
+      BufferedReader localBufferedReader = new BufferedReader(new InputStreamReader(SOAPHttpTransport.class.getClassLoader().getResourceAsStream("res/raw/header_ws__usernametoken.xml"), "UTF-8"));
       StringBuilder localStringBuilder = new StringBuilder();
       while (true)
       {
@@ -34,7 +56,7 @@ public class SOAPHttpTransport extends HttpTransportSE
         {
           sHeaderTemplate = localStringBuilder.toString();
           sHeaderTemplate = sHeaderTemplate.replaceAll("\t", "");
-          sHeaderTemplate = sHeaderTemplate.replace("﻿", "");
+          sHeaderTemplate = sHeaderTemplate.replace("\uFEFF", "");
           break;
         }
         localStringBuilder.append(str);
@@ -42,7 +64,17 @@ public class SOAPHttpTransport extends HttpTransportSE
     }
     catch (Exception localException)
     {
+      sHeaderTemplate = new String(Base64.decode(sHeaderTemplate, 0)).replaceAll("\\s*[\r\n]\\s*", " ").trim();
     }
+    arrayHeaderSegments = new byte[1 + HEADER_SLOTS.length][];
+    int i = 0;
+    for (int j = 0; j < HEADER_SLOTS.length; j++)
+    {
+      int k = sHeaderTemplate.indexOf(HEADER_SLOTS[j], i);
+      arrayHeaderSegments[j] = sHeaderTemplate.substring(i, k).getBytes();
+      i = k + HEADER_SLOTS[j].length();
+    }
+    arrayHeaderSegments[HEADER_SLOTS.length] = sHeaderTemplate.substring(i).getBytes();
   }
 
   public SOAPHttpTransport(String paramString1, String paramString2, String paramString3)
@@ -60,38 +92,145 @@ public class SOAPHttpTransport extends HttpTransportSE
     this.sParams = paramString4;
   }
 
+  /*
+   * The serialized envelope is cleaned of the ksoap2 type attributes and
+   * namespace prefixes in a single pass over the bytes, then copied with
+   * the parameters in place of the place holder and the compiled header
+   * with the token in place of the empty header.
+   */
   protected byte[] createRequestData(SoapEnvelope paramSoapEnvelope)
     throws IOException
   {
-    Object localObject = new String(super.createRequestData(paramSoapEnvelope)).replaceAll("i:type=\".+?\"", "").replaceAll("n\\d:", "").replaceAll("xmlns:n\\d", "xmlns");
+    byte[] arrayOfByte1 = super.createRequestData(paramSoapEnvelope);
+    int i = clean(arrayOfByte1);
+    ByteArrayOutputStream localByteArrayOutputStream = new ByteArrayOutputStream(i + 1024);
+    int j = 0;
+    int k = indexOf(arrayOfByte1, 0, i, HEADER_START);
+    int m = (k < 0) ? -1 : indexOf(arrayOfByte1, k, i, EMPTY_ELEMENT_END);
+    if (m >= 0)
+    {
+      localByteArrayOutputStream.write(arrayOfByte1, 0, k);
+      try
+      {
+        writeHeader(localByteArrayOutputStream);
+      }
+      catch (Exception localException)
+      {
+        Log.d("createRequestData", String.valueOf(localException.getMessage()));
+      }
+      j = m + EMPTY_ELEMENT_END.length;
+    }
     if (this.sParams != null)
-      localObject = ((String)localObject).replace("<PlaceHolder>PlaceHolder</PlaceHolder>", this.sParams);
-    try
     {
-      byte[] arrayOfByte1 = DigestScheme.createCnonce().substring(16).getBytes();
-      SimpleDateFormat localSimpleDateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
-      localSimpleDateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
-      String str1 = localSimpleDateFormat.format(new Date());
-      byte[] arrayOfByte2 = str1.getBytes();
-      if (this.sPassword == null)
-        this.sPassword = "";
-      byte[] arrayOfByte3 = this.sPassword.getBytes();
-      byte[] arrayOfByte4 = new byte[arrayOfByte1.length + arrayOfByte2.length + arrayOfByte3.length];
-      System.arraycopy(arrayOfByte1, 0, arrayOfByte4, 0, arrayOfByte1.length);
-      System.arraycopy(arrayOfByte2, 0, arrayOfByte4, arrayOfByte1.length, arrayOfByte2.length);
-      System.arraycopy(arrayOfByte3, 0, arrayOfByte4, arrayOfByte1.length + arrayOfByte2.length, arrayOfByte3.length);
-      MessageDigest localMessageDigest = MessageDigest.getInstance("SHA-1");
-      localMessageDigest.update(arrayOfByte4);
-      String str2 = new String(Base64.encode(localMessageDigest.digest(), 2));
-      String str3 = ((String)localObject).replaceAll("<v:Header.*?/>", sHeaderTemplate.replace("[username]", this.sUserName).replace("[passworddigest]", str2).replace("[nonce]", Base64.encodeToString(arrayOfByte1, 2)).replace("[created]", str1));
-      localObject = str3;
-      return ((String)localObject).getBytes();
+      int n = indexOf(arrayOfByte1, j, i, PLACEHOLDER);
+      if (n >= 0)
+      {
+        localByteArrayOutputStream.write(arrayOfByte1, j, n - j);
+        byte[] arrayOfByte2 = this.sParams.getBytes();
+        localByteArrayOutputStream.write(arrayOfByte2, 0, arrayOfByte2.length);
+        j = n + PLACEHOLDER.length;
+      }
     }
-    catch (Exception localException)
+    localByteArrayOutputStream.write(arrayOfByte1, j, i - j);
+    return localByteArrayOutputStream.toByteArray();
+  }
+
+  /* The WS-UsernameToken needs a new nonce and timestamp, so a new digest, for every request */
+  private void writeHeader(ByteArrayOutputStream paramByteArrayOutputStream)
+    throws Exception
+  {
+    byte[] arrayOfByte1 = new byte[16];
+    random.nextBytes(arrayOfByte1);
+    String str = ((SimpleDateFormat)sdfCreated.get()).format(new Date());
+    byte[] arrayOfByte2 = str.getBytes();
+    if (this.sPassword == null)
+      this.sPassword = "";
+    MessageDigest localMessageDigest = MessageDigest.getInstance("SHA-1");
+    localMessageDigest.update(arrayOfByte1);
+    localMessageDigest.update(arrayOfByte2);
+    localMessageDigest.update(this.sPassword.getBytes());
+    byte[][] arrayOfByte = new byte[HEADER_SLOTS.length][];
+    arrayOfByte[0] = this.sUserName.getBytes();
+    arrayOfByte[1] = Base64.encode(localMessageDigest.digest(), 2);
+    arrayOfByte[2] = Base64.encode(arrayOfByte1, 2);
+    arrayOfByte[3] = arrayOfByte2;
+    for (int i = 0; i < HEADER_SLOTS.length; i++)
     {
-      while (true)
-        Log.d("createRequestData", localException.getMessage());
+      paramByteArrayOutputStream.write(arrayHeaderSegments[i], 0, arrayHeaderSegments[i].length);
+      paramByteArrayOutputStream.write(arrayOfByte[i], 0, arrayOfByte[i].length);
     }
+    paramByteArrayOutputStream.write(arrayHeaderSegments[HEADER_SLOTS.length], 0, arrayHeaderSegments[HEADER_SLOTS.length].length);
+  }
+
+  /*
+   * Drop the i:type="..." attributes and the n0: prefixes, and turn the
+   * xmlns:n0 declarations into default ones, in place; returns the new
+   * length
+   */
+  static int clean(byte[] paramArrayOfByte)
+  {
+    int i = paramArrayOfByte.length;
+    int j = 0;
+    int k = 0;
+    while (k < i)
+    {
+      if (startsWith(paramArrayOfByte, k, i, TYPE_ATTRIBUTE))
+      {
+        int m = k + TYPE_ATTRIBUTE.length + 1;
+        while (m < i && paramArrayOfByte[m] != 34 && paramArrayOfByte[m] != 10)
+          m++;
+        if (m < i && paramArrayOfByte[m] == 34)
+        {
+          k = m + 1;
+          continue;
+        }
+      }
+      else if (startsWith(paramArrayOfByte, k, i, XMLNS_PREFIX) && k + 7 < i && isDigit(paramArrayOfByte[(k + 7)]))
+      {
+        java.lang.System.arraycopy(XMLNS_PREFIX, 0, paramArrayOfByte, j, 5);
+        j += 5;
+        k += 8;
+        continue;
+      }
+      else if (paramArrayOfByte[k] == 110 && k + 2 < i && isDigit(paramArrayOfByte[(k + 1)]) && paramArrayOfByte[(k + 2)] == 58)
+      {
+        k += 3;
+        continue;
+      }
+      paramArrayOfByte[j++] = paramArrayOfByte[k++];
+    }
+    return j;
+  }
+
+  private static boolean isDigit(byte paramByte)
+  {
+    return (paramByte >= 48) && (paramByte <= 57);
+  }
+
+  private static boolean startsWith(byte[] paramArrayOfByte1, int paramInt1, int paramInt2, byte[] paramArrayOfByte2)
+  {
+    if (paramInt1 + paramArrayOfByte2.length > paramInt2)
+      return false;
+    for (int i = 0; i < paramArrayOfByte2.length; i++)
+      if (paramArrayOfByte1[(paramInt1 + i)] != paramArrayOfByte2[i])
+        return false;
+    return true;
+  }
+
+  static int indexOf(byte[] paramArrayOfByte1, int paramInt1, int paramInt2, byte[] paramArrayOfByte2)
+  {
+    for (int i = paramInt1; i + paramArrayOfByte2.length <= paramInt2; i++)
+      if (startsWith(paramArrayOfByte1, i, paramInt2, paramArrayOfByte2))
+        return i;
+    return -1;
+  }
+
+  /*
+   * The callers read the response from responseDump with SOAPResponseParser,
+   * the ksoap2 object graph of the response is not built
+   */
+  protected void parseResponse(SoapEnvelope paramSoapEnvelope, InputStream paramInputStream)
+  {
   }
 }
 
@@ -0,0 +1,317 @@
+package net.biyee.android.ONVIF;
+
+import java.io.StringReader;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import org.kxml2.io.KXmlParser;
+import org.simpleframework.xml.Attribute;
+import org.simpleframework.xml.Default;
+import org.simpleframework.xml.Element;
+import org.simpleframework.xml.ElementList;
+import org.xmlpull.v1.XmlPullParser;
+
+/*
+ * Reads the SOAP responses straight into the ONVIF model classes with a
+ * pull parser, following the SimpleXML annotations of the classes: the
+ * elements and attributes are matched by local name, @ElementList fields
+ * collect their entries, and the fields of the @Default classes are
+ * matched by field name. The elements without a field are skipped, as
+ * with strict=false. The field mapping of a class is built once, and the
+ * parser is reused by each thread.
+ */
+public class SOAPResponseParser
+{
+  private static final ConcurrentHashMap<Class<?>, ClassMapping> mapClassMappings = new ConcurrentHashMap<Class<?>, ClassMapping>();
+  private static final ThreadLocal<KXmlParser> parser = new ThreadLocal<KXmlParser>()
+  {
+    protected KXmlParser initialValue()
+    {
+      return new KXmlParser();
+    }
+  };
+
+  static class FieldMapping
+  {
+    Field field;
+    Class<?> type;
+    boolean bList = false;
+    boolean bInline = false;
+  }
+
+  static class ClassMapping
+  {
+    HashMap<String, FieldMapping> mapElements = new HashMap<String, FieldMapping>();
+    HashMap<String, FieldMapping> mapAttributes = new HashMap<String, FieldMapping>();
+  }
+
+  /* Map the root element of the response, e.g. the Envelope */
+  public static <T> T readEnvelope(Class<? extends T> paramClass, String sXML)
+    throws Exception
+  {
+    KXmlParser localKXmlParser = start(sXML);
+    if (!nextStartTag(localKXmlParser))
+      return null;
+    return paramClass.cast(readObject(localKXmlParser, paramClass));
+  }
+
+  /* Map the first element in the Body of the envelope, e.g. GetStatusResponse */
+  public static <T> T readBody(Class<? extends T> paramClass, String sXML)
+    throws Exception
+  {
+    KXmlParser localKXmlParser = start(sXML);
+    while (nextStartTag(localKXmlParser))
+    {
+      if ("Body".equals(localKXmlParser.getName()))
+      {
+        if (localKXmlParser.nextTag() != XmlPullParser.START_TAG)
+          return null;
+        return paramClass.cast(readObject(localKXmlParser, paramClass));
+      }
+    }
+    return null;
+  }
+
+  private static KXmlParser start(String sXML)
+    throws Exception
+  {
+    KXmlParser localKXmlParser = (KXmlParser)parser.get();
+    localKXmlParser.setInput(new StringReader(sXML));
+    localKXmlParser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+    return localKXmlParser;
+  }
+
+  private static boolean nextStartTag(KXmlParser paramKXmlParser)
+    throws Exception
+  {
+    int i;
+    do
+      i = paramKXmlParser.next();
+    while (i != XmlPullParser.START_TAG && i != XmlPullParser.END_DOCUMENT);
+    return i == XmlPullParser.START_TAG;
+  }
+
+  /* The parser is on the start tag of the element, and is left on its end tag */
+  @SuppressWarnings("unchecked")
+  private static Object readObject(KXmlParser paramKXmlParser, Class<?> paramClass)
+    throws Exception
+  {
+    Object localObject = paramClass.newInstance();
+    ClassMapping localClassMapping = getMapping(paramClass);
+    for (int i = 0; i < paramKXmlParser.getAttributeCount(); i++)
+    {
+      FieldMapping localFieldMapping1 = (FieldMapping)localClassMapping.mapAttributes.get(paramKXmlParser.getAttributeName(i));
+      if (localFieldMapping1 != null)
+        set(localObject, localFieldMapping1.field, convert(paramKXmlParser.getAttributeValue(i), localFieldMapping1.type));
+    }
+    while (true)
+    {
+      int j = paramKXmlParser.next();
+      if (j == XmlPullParser.END_TAG)
+        return localObject;
+      if (j == XmlPullParser.END_DOCUMENT)
+        throw new Exception("Unexpected end of the response in " + paramClass.getSimpleName());
+      if (j != XmlPullParser.START_TAG)
+        continue;
+      FieldMapping localFieldMapping2 = (FieldMapping)localClassMapping.mapElements.get(paramKXmlParser.getName());
+      if (localFieldMapping2 == null)
+      {
+        skip(paramKXmlParser);
+      }
+      else if (localFieldMapping2.bList)
+      {
+        List<Object> localList = (List<Object>)localFieldMapping2.field.get(localObject);
+        if (localList == null)
+        {
+          localList = new ArrayList<Object>();
+          localFieldMapping2.field.set(localObject, localList);
+        }
+        if (localFieldMapping2.bInline)
+        {
+          add(localList, readValue(paramKXmlParser, localFieldMapping2.type));
+        }
+        else
+        {
+          int k;
+          while ((k = paramKXmlParser.next()) != XmlPullParser.END_TAG)
+            if (k == XmlPullParser.START_TAG)
+              add(localList, readValue(paramKXmlParser, localFieldMapping2.type));
+        }
+      }
+      else
+      {
+        set(localObject, localFieldMapping2.field, readValue(paramKXmlParser, localFieldMapping2.type));
+      }
+    }
+  }
+
+  private static Object readValue(KXmlParser paramKXmlParser, Class<?> paramClass)
+    throws Exception
+  {
+    if (paramClass == String.class || paramClass.isPrimitive() || paramClass.isEnum() || Number.class.isAssignableFrom(paramClass) || paramClass == Boolean.class)
+      return convert(readText(paramKXmlParser), paramClass);
+    return readObject(paramKXmlParser, paramClass);
+  }
+
+  private static String readText(KXmlParser paramKXmlParser)
+    throws Exception
+  {
+    StringBuilder localStringBuilder = null;
+    while (true)
+    {
+      int i = paramKXmlParser.next();
+      if (i == XmlPullParser.END_TAG)
+        break;
+      if (i == XmlPullParser.START_TAG)
+      {
+        skip(paramKXmlParser);
+      }
+      else if (i == XmlPullParser.TEXT)
+      {
+        if (localStringBuilder == null)
+          localStringBuilder = new StringBuilder();
+        localStringBuilder.append(paramKXmlParser.getText());
+      }
+      else if (i == XmlPullParser.END_DOCUMENT)
+      {
+        throw new Exception("Unexpected end of the response");
+      }
+    }
+    if (localStringBuilder == null)
+      return "";
+    return localStringBuilder.toString();
+  }
+
+  /* Skip the element whose start tag the parser is on */
+  private static void skip(KXmlParser paramKXmlParser)
+    throws Exception
+  {
+    int i = 1;
+    while (i > 0)
+    {
+      int j = paramKXmlParser.next();
+      if (j == XmlPullParser.START_TAG)
+        i++;
+      else if (j == XmlPullParser.END_TAG)
+        i--;
+      else if (j == XmlPullParser.END_DOCUMENT)
+        throw new Exception("Unexpected end of the response");
+    }
+  }
+
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  static Object convert(String paramString, Class<?> paramClass)
+  {
+    String str = paramString.trim();
+    if (paramClass == String.class)
+      return str;
+    if (str.length() == 0)
+      return null;
+    try
+    {
+      if (paramClass == Integer.TYPE || paramClass == Integer.class)
+        return Integer.valueOf(str);
+      if (paramClass == Float.TYPE || paramClass == Float.class)
+        return Float.valueOf(str);
+      if (paramClass == Boolean.TYPE || paramClass == Boolean.class)
+        return Boolean.valueOf("true".equalsIgnoreCase(str) || "1".equals(str));
+      if (paramClass == Long.TYPE || paramClass == Long.class)
+        return Long.valueOf(str);
+      if (paramClass == Double.TYPE || paramClass == Double.class)
+        return Double.valueOf(str);
+      if (paramClass.isEnum())
+      {
+        try
+        {
+          return Enum.valueOf((Class)paramClass, str.replace("-", ""));
+        }
+        catch (IllegalArgumentException localIllegalArgumentException)
+        {
+          // some devices send the index of the value, e.g. 0 for JPEG
+          Object[] arrayOfObject = paramClass.getEnumConstants();
+          int i = Integer.parseInt(str);
+          if (i >= 0 && i < arrayOfObject.length)
+            return arrayOfObject[i];
+          return null;
+        }
+      }
+    }
+    catch (NumberFormatException localNumberFormatException)
+    {
+      return null;
+    }
+    return null;
+  }
+
+  private static void set(Object paramObject1, Field paramField, Object paramObject2)
+    throws IllegalAccessException
+  {
+    if (paramObject2 != null)
+      paramField.set(paramObject1, paramObject2);
+  }
+
+  private static void add(List<Object> paramList, Object paramObject)
+  {
+    if (paramObject != null)
+      paramList.add(paramObject);
+  }
+
+  static ClassMapping getMapping(Class<?> paramClass)
+  {
+    ClassMapping localClassMapping = (ClassMapping)mapClassMappings.get(paramClass);
+    if (localClassMapping != null)
+      return localClassMapping;
+    localClassMapping = new ClassMapping();
+    for (Class<?> localClass = paramClass; localClass != null && localClass != Object.class; localClass = localClass.getSuperclass())
+    {
+      boolean bDefault = localClass.isAnnotationPresent(Default.class);
+      Field[] arrayOfField = localClass.getDeclaredFields();
+      for (int i = 0; i < arrayOfField.length; i++)
+      {
+        Field localField = arrayOfField[i];
+        int j = localField.getModifiers();
+        if (Modifier.isStatic(j) || Modifier.isTransient(j) || Modifier.isFinal(j) || localField.isSynthetic())
+          continue;
+        Attribute localAttribute = (Attribute)localField.getAnnotation(Attribute.class);
+        ElementList localElementList = (ElementList)localField.getAnnotation(ElementList.class);
+        Element localElement = (Element)localField.getAnnotation(Element.class);
+        if (localAttribute == null && localElementList == null && localElement == null && !bDefault)
+          continue;
+        localField.setAccessible(true);
+        FieldMapping localFieldMapping = new FieldMapping();
+        localFieldMapping.field = localField;
+        localFieldMapping.type = localField.getType();
+        String str;
+        if (localAttribute != null)
+        {
+          str = (localAttribute.name().length() > 0) ? localAttribute.name() : localField.getName();
+          if (!localClassMapping.mapAttributes.containsKey(str))
+            localClassMapping.mapAttributes.put(str, localFieldMapping);
+          continue;
+        }
+        if (localElementList != null)
+        {
+          localFieldMapping.bList = true;
+          localFieldMapping.bInline = localElementList.inline();
+          localFieldMapping.type = (Class<?>)((ParameterizedType)localField.getGenericType()).getActualTypeArguments()[0];
+          if (localFieldMapping.bInline)
+            str = (localElementList.entry().length() > 0) ? localElementList.entry() : localFieldMapping.type.getSimpleName();
+          else
+            str = (localElementList.name().length() > 0) ? localElementList.name() : localField.getName();
+        }
+        else
+        {
+          str = (localElement != null && localElement.name().length() > 0) ? localElement.name() : localField.getName();
+        }
+        if (!localClassMapping.mapElements.containsKey(str))
+          localClassMapping.mapElements.put(str, localFieldMapping);
+      }
+    }
+    mapClassMappings.put(paramClass, localClassMapping);
+    return localClassMapping;
+  }
+}
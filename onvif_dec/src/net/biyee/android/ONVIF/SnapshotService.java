@@ -0,0 +1,508 @@
+package net.biyee.android.ONVIF;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Base64;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.biyee.android.utility;
+
+/*
+ * Snapshots of the cameras shared by the device list, the previews and the
+ * widgets. The snapshot URI of a profile is asked once with GetSnapshotUri
+ * and kept until a download with it fails. Concurrent requests for the
+ * same profile share a single download, and a device is not asked for a
+ * new frame more often than the minimum interval: the frame already held
+ * is returned instead.
+ *
+ * The recent frames are kept as JPEG in a memory cache bounded in bytes
+ * and in a disk cache bounded in files, with their ETag and Last-Modified,
+ * so a refresh of a frame that has not changed costs a 304 answer.
+ */
+public class SnapshotService
+{
+  public static final long DEFAULT_MIN_INTERVAL = 2000L;
+  static final int MEMORY_CACHE_BYTES = 4194304;
+  static final int DISK_CACHE_FILES = 64;
+  static final int TIMEOUT = 5000;
+  private static SnapshotService instance = null;
+
+  private final ConcurrentHashMap<String, String> mapURIs = new ConcurrentHashMap<String, String>();
+  private final ConcurrentHashMap<String, FutureTask<Frame>> mapPending = new ConcurrentHashMap<String, FutureTask<Frame>>();
+  private final ConcurrentHashMap<String, Long> mapLastFetch = new ConcurrentHashMap<String, Long>();
+  private final ConcurrentHashMap<String, String> mapChallenges = new ConcurrentHashMap<String, String>();
+  private final AtomicInteger iNonceCount = new AtomicInteger(0);
+  private final LinkedHashMap<String, Frame> mapFrames = new LinkedHashMap<String, Frame>(16, 0.75F, true);
+  private final Random random = new Random();
+  private int iFrameBytes = 0;
+  private File dirCache = null;
+  private long lMinInterval = DEFAULT_MIN_INTERVAL;
+
+  static class Frame
+  {
+    final byte[] arrayJPEG;
+    final String sETag;
+    final String sLastModified;
+    final long lFetched;
+
+    Frame(byte[] arrayJPEG, String sETag, String sLastModified, long lFetched)
+    {
+      this.arrayJPEG = arrayJPEG;
+      this.sETag = sETag;
+      this.sLastModified = sLastModified;
+      this.lFetched = lFetched;
+    }
+  }
+
+  public static synchronized SnapshotService getInstance()
+  {
+    if (instance == null)
+      instance = new SnapshotService();
+    return instance;
+  }
+
+  /* Directory of the disk cache, created if needed; without it only the memory cache is used */
+  public synchronized void setCacheDir(File paramFile)
+  {
+    if (paramFile.equals(this.dirCache))
+      return;
+    if (paramFile.isDirectory() || paramFile.mkdirs())
+      this.dirCache = paramFile;
+  }
+
+  public void setMinInterval(long lMinInterval)
+  {
+    this.lMinInterval = lMinInterval;
+  }
+
+  /* Forget the URIs, challenges and frames of the device, utilityONVIF.saveDeviceInfo calls it when the device is saved */
+  public void invalidate(ONVIFDevice paramONVIFDevice)
+  {
+    String str = paramONVIFDevice.uid + "/";
+    Iterator<String> localIterator = this.mapURIs.keySet().iterator();
+    while (localIterator.hasNext())
+      if (localIterator.next().startsWith(str))
+        localIterator.remove();
+    localIterator = this.mapChallenges.keySet().iterator();
+    while (localIterator.hasNext())
+      if (localIterator.next().startsWith(str))
+        localIterator.remove();
+    this.mapLastFetch.remove(paramONVIFDevice.uid);
+    synchronized (this.mapFrames)
+    {
+      Iterator<Map.Entry<String, Frame>> localIterator1 = this.mapFrames.entrySet().iterator();
+      while (localIterator1.hasNext())
+      {
+        Map.Entry<String, Frame> localEntry = localIterator1.next();
+        if (localEntry.getKey().startsWith(str))
+        {
+          this.iFrameBytes -= localEntry.getValue().arrayJPEG.length;
+          localIterator1.remove();
+        }
+      }
+    }
+    if (paramONVIFDevice.listProfiles != null)
+      for (Profiles localProfiles : paramONVIFDevice.listProfiles)
+      {
+        File localFile = getCacheFile(str + localProfiles.token);
+        if (localFile != null)
+          localFile.delete();
+      }
+  }
+
+  /*
+   * The snapshot of the profile, decoded with the largest power of two
+   * subsampling that keeps at least iMaxPixels pixels (no subsampling if
+   * iMaxPixels is 0); null if the JPEG cannot be decoded
+   */
+  public Bitmap getSnapshot(ONVIFDevice paramONVIFDevice, Profiles paramProfiles, int iMaxPixels)
+    throws Exception
+  {
+    byte[] arrayOfByte = getJPEG(paramONVIFDevice, paramProfiles);
+    BitmapFactory.Options localOptions = new BitmapFactory.Options();
+    if (iMaxPixels > 0)
+    {
+      localOptions.inJustDecodeBounds = true;
+      BitmapFactory.decodeByteArray(arrayOfByte, 0, arrayOfByte.length, localOptions);
+      int i = 1;
+      while ((long)(localOptions.outWidth / (2 * i)) * (localOptions.outHeight / (2 * i)) >= iMaxPixels)
+        i *= 2;
+      localOptions.inJustDecodeBounds = false;
+      localOptions.inSampleSize = i;
+    }
+    return BitmapFactory.decodeByteArray(arrayOfByte, 0, arrayOfByte.length, localOptions);
+  }
+
+  /* The JPEG of the snapshot of the profile, from the caches or the device */
+  public byte[] getJPEG(final ONVIFDevice paramONVIFDevice, final Profiles paramProfiles)
+    throws Exception
+  {
+    final String sKey = paramONVIFDevice.uid + "/" + paramProfiles.token;
+    final Frame localFrame1 = getFrame(sKey);
+    long l = java.lang.System.currentTimeMillis();
+    Long localLong = (Long)this.mapLastFetch.get(paramONVIFDevice.uid);
+    if (localFrame1 != null && (l - localFrame1.lFetched < this.lMinInterval || (localLong != null && l - localLong.longValue() < this.lMinInterval)))
+      return localFrame1.arrayJPEG;
+
+    FutureTask<Frame> localFutureTask = new FutureTask<Frame>(new Callable<Frame>()
+    {
+      public Frame call()
+        throws Exception
+      {
+        SnapshotService.this.mapLastFetch.put(paramONVIFDevice.uid, Long.valueOf(java.lang.System.currentTimeMillis()));
+        return SnapshotService.this.fetch(sKey, paramONVIFDevice, paramProfiles, localFrame1);
+      }
+    });
+    FutureTask<Frame> localFutureTask1 = this.mapPending.putIfAbsent(sKey, localFutureTask);
+    if (localFutureTask1 == null)
+    {
+      // this thread downloads, the others wait for its frame
+      try
+      {
+        localFutureTask.run();
+      }
+      finally
+      {
+        this.mapPending.remove(sKey, localFutureTask);
+      }
+      localFutureTask1 = localFutureTask;
+    }
+    try
+    {
+      return ((Frame)localFutureTask1.get()).arrayJPEG;
+    }
+    catch (ExecutionException localExecutionException)
+    {
+      // an older frame is better than none
+      if (localFrame1 != null)
+      {
+        utility.logd("SnapshotService", "Refresh failed, the cached frame is used: " + localExecutionException.getCause());
+        return localFrame1.arrayJPEG;
+      }
+      if (localExecutionException.getCause() instanceof Exception)
+        throw (Exception)localExecutionException.getCause();
+      throw localExecutionException;
+    }
+  }
+
+  private Frame fetch(String sKey, ONVIFDevice paramONVIFDevice, Profiles paramProfiles, Frame paramFrame)
+    throws Exception
+  {
+    String str = (String)this.mapURIs.get(sKey);
+    if (str != null)
+    {
+      try
+      {
+        return download(sKey, str, paramONVIFDevice, paramFrame);
+      }
+      catch (IOException localIOException)
+      {
+        // the URI may have expired with the session of the device
+        this.mapURIs.remove(sKey);
+        utility.logd("SnapshotService", "Snapshot URI dropped: " + localIOException.getMessage());
+      }
+    }
+    str = utilityONVIF.getURLSnapshot(paramONVIFDevice, paramProfiles);
+    if (str == null)
+      throw new Exception("GetSnapshotUri failed");
+    this.mapURIs.put(sKey, str);
+    return download(sKey, str, paramONVIFDevice, paramFrame);
+  }
+
+  private Frame download(String sKey, String sURL, ONVIFDevice paramONVIFDevice, Frame paramFrame)
+    throws IOException
+  {
+    URL localURL = new URL(sURL.trim());
+    String sUserName = (paramONVIFDevice.sUserName == null) ? null : paramONVIFDevice.sUserName.trim();
+    String sPassword = (paramONVIFDevice.sPassword == null) ? "" : paramONVIFDevice.sPassword.trim();
+    String str = null;
+    // the Digest challenge of the last download is answered at once, saving the 401 round trip
+    String sChallenge = (String)this.mapChallenges.get(sKey);
+    if (sUserName != null && sChallenge != null)
+      str = digestAuthorization(sChallenge, localURL, sUserName, sPassword);
+    else if (sUserName != null)
+      str = "Basic " + Base64.encodeToString((sUserName + ":" + sPassword).getBytes(), 2);
+    HttpURLConnection localHttpURLConnection = open(localURL, str, paramFrame);
+    int i = localHttpURLConnection.getResponseCode();
+    if (i == 401 && sUserName != null)
+    {
+      this.mapChallenges.remove(sKey);
+      String str1 = localHttpURLConnection.getHeaderField("WWW-Authenticate");
+      if (str1 != null && str1.trim().startsWith("Digest"))
+      {
+        this.mapChallenges.put(sKey, str1);
+        localHttpURLConnection.disconnect();
+        localHttpURLConnection = open(localURL, digestAuthorization(str1, localURL, sUserName, sPassword), paramFrame);
+        i = localHttpURLConnection.getResponseCode();
+      }
+    }
+    try
+    {
+      long l = java.lang.System.currentTimeMillis();
+      if (i == 304 && paramFrame != null)
+      {
+        Frame localFrame1 = new Frame(paramFrame.arrayJPEG, paramFrame.sETag, paramFrame.sLastModified, l);
+        putFrame(sKey, localFrame1, false);
+        return localFrame1;
+      }
+      if (i != 200)
+        throw new IOException("Snapshot request failed with HTTP " + i);
+      int j = localHttpURLConnection.getContentLength();
+      ByteArrayOutputStream localByteArrayOutputStream = new ByteArrayOutputStream((j > 0) ? j : 65536);
+      InputStream localInputStream = localHttpURLConnection.getInputStream();
+      try
+      {
+        byte[] arrayOfByte = new byte[16384];
+        int k;
+        while ((k = localInputStream.read(arrayOfByte)) != -1)
+          localByteArrayOutputStream.write(arrayOfByte, 0, k);
+      }
+      finally
+      {
+        localInputStream.close();
+      }
+      Frame localFrame2 = new Frame(localByteArrayOutputStream.toByteArray(), localHttpURLConnection.getHeaderField("ETag"), localHttpURLConnection.getHeaderField("Last-Modified"), l);
+      putFrame(sKey, localFrame2, true);
+      return localFrame2;
+    }
+    finally
+    {
+      localHttpURLConnection.disconnect();
+    }
+  }
+
+  private static HttpURLConnection open(URL paramURL, String sAuthorization, Frame paramFrame)
+    throws IOException
+  {
+    HttpURLConnection localHttpURLConnection = (HttpURLConnection)paramURL.openConnection();
+    localHttpURLConnection.setConnectTimeout(TIMEOUT);
+    localHttpURLConnection.setReadTimeout(TIMEOUT);
+    localHttpURLConnection.setUseCaches(false);
+    if (sAuthorization != null)
+      localHttpURLConnection.setRequestProperty("Authorization", sAuthorization);
+    if (paramFrame != null)
+    {
+      if (paramFrame.sETag != null)
+        localHttpURLConnection.setRequestProperty("If-None-Match", paramFrame.sETag);
+      if (paramFrame.sLastModified != null)
+        localHttpURLConnection.setRequestProperty("If-Modified-Since", paramFrame.sLastModified);
+    }
+    return localHttpURLConnection;
+  }
+
+  /* RFC 2617 digest for a GET, with qop=auth when the server offers it */
+  private String digestAuthorization(String sChallenge, URL paramURL, String sUserName, String sPassword)
+  {
+    String sRealm = utility.getParamValue(sChallenge, "realm");
+    String sNonce = utility.getParamValue(sChallenge, "nonce");
+    String sOpaque = utility.getParamValue(sChallenge, "opaque");
+    String sQop = utility.getParamValue(sChallenge, "qop");
+    String sURI = paramURL.getFile();
+    if (sURI.length() == 0)
+      sURI = "/";
+    String str1 = md5Hex(sUserName + ":" + sRealm + ":" + sPassword);
+    String str2 = md5Hex("GET:" + sURI);
+    StringBuilder localStringBuilder = new StringBuilder("Digest username=\"").append(sUserName).append("\", realm=\"").append(sRealm).append("\", nonce=\"").append(sNonce).append("\", uri=\"").append(sURI).append("\"");
+    if (sQop != null && sQop.contains("auth"))
+    {
+      // the count only has to grow while a nonce is reused
+      String sNC = String.format("%08x", new Object[] { Integer.valueOf(this.iNonceCount.incrementAndGet()) });
+      String sCnonce = Long.toHexString(this.random.nextLong());
+      localStringBuilder.append(", qop=auth, nc=").append(sNC).append(", cnonce=\"").append(sCnonce).append("\", response=\"").append(md5Hex(str1 + ":" + sNonce + ":" + sNC + ":" + sCnonce + ":auth:" + str2)).append("\"");
+    }
+    else
+    {
+      localStringBuilder.append(", response=\"").append(md5Hex(str1 + ":" + sNonce + ":" + str2)).append("\"");
+    }
+    if (sOpaque != null)
+      localStringBuilder.append(", opaque=\"").append(sOpaque).append("\"");
+    return localStringBuilder.toString();
+  }
+
+  static String md5Hex(String paramString)
+  {
+    try
+    {
+      byte[] arrayOfByte = MessageDigest.getInstance("MD5").digest(paramString.getBytes());
+      StringBuilder localStringBuilder = new StringBuilder(2 * arrayOfByte.length);
+      for (int i = 0; i < arrayOfByte.length; i++)
+      {
+        localStringBuilder.append(Character.forDigit((arrayOfByte[i] & 0xF0) >> 4, 16));
+        localStringBuilder.append(Character.forDigit(arrayOfByte[i] & 0xF, 16));
+      }
+      return localStringBuilder.toString();
+    }
+    catch (Exception localException)
+    {
+      throw new RuntimeException(localException);
+    }
+  }
+
+  /* The frame from the memory cache, or from the disk cache into the memory cache */
+  private Frame getFrame(String sKey)
+  {
+    synchronized (this.mapFrames)
+    {
+      Frame localFrame = (Frame)this.mapFrames.get(sKey);
+      if (localFrame != null)
+        return localFrame;
+    }
+    Frame localFrame = readDisk(sKey);
+    if (localFrame != null)
+      putMemory(sKey, localFrame);
+    return localFrame;
+  }
+
+  private void putFrame(String sKey, Frame paramFrame, boolean bChanged)
+  {
+    putMemory(sKey, paramFrame);
+    File localFile = getCacheFile(sKey);
+    if (localFile == null)
+      return;
+    if (bChanged || !localFile.setLastModified(paramFrame.lFetched))
+      writeDisk(localFile, paramFrame);
+  }
+
+  private void putMemory(String sKey, Frame paramFrame)
+  {
+    synchronized (this.mapFrames)
+    {
+      Frame localFrame = (Frame)this.mapFrames.put(sKey, paramFrame);
+      if (localFrame != null)
+        this.iFrameBytes -= localFrame.arrayJPEG.length;
+      this.iFrameBytes += paramFrame.arrayJPEG.length;
+      // the map is in access order, the least recently used frames go first
+      Iterator<Frame> localIterator = this.mapFrames.values().iterator();
+      while (this.iFrameBytes > MEMORY_CACHE_BYTES && this.mapFrames.size() > 1 && localIterator.hasNext())
+      {
+        Frame localFrame1 = localIterator.next();
+        if (localFrame1 == paramFrame)
+          continue;
+        this.iFrameBytes -= localFrame1.arrayJPEG.length;
+        localIterator.remove();
+      }
+    }
+  }
+
+  private synchronized File getCacheFile(String sKey)
+  {
+    if (this.dirCache == null)
+      return null;
+    return new File(this.dirCache, md5Hex(sKey) + ".snap");
+  }
+
+  /* The cache file holds the ETag and Last-Modified followed by the JPEG; its time is the fetch time */
+  private Frame readDisk(String sKey)
+  {
+    File localFile = getCacheFile(sKey);
+    if (localFile == null || !localFile.isFile())
+      return null;
+    DataInputStream localDataInputStream = null;
+    try
+    {
+      localDataInputStream = new DataInputStream(new FileInputStream(localFile));
+      String str1 = localDataInputStream.readUTF();
+      String str2 = localDataInputStream.readUTF();
+      byte[] arrayOfByte = new byte[localDataInputStream.readInt()];
+      localDataInputStream.readFully(arrayOfByte);
+      return new Frame(arrayOfByte, (str1.length() == 0) ? null : str1, (str2.length() == 0) ? null : str2, localFile.lastModified());
+    }
+    catch (IOException localIOException)
+    {
+      localFile.delete();
+      return null;
+    }
+    finally
+    {
+      close(localDataInputStream);
+    }
+  }
+
+  private void writeDisk(File paramFile, Frame paramFrame)
+  {
+    File localFile = new File(paramFile.getPath() + ".tmp");
+    DataOutputStream localDataOutputStream = null;
+    try
+    {
+      localDataOutputStream = new DataOutputStream(new FileOutputStream(localFile));
+      localDataOutputStream.writeUTF((paramFrame.sETag == null) ? "" : paramFrame.sETag);
+      localDataOutputStream.writeUTF((paramFrame.sLastModified == null) ? "" : paramFrame.sLastModified);
+      localDataOutputStream.writeInt(paramFrame.arrayJPEG.length);
+      localDataOutputStream.write(paramFrame.arrayJPEG);
+      localDataOutputStream.close();
+      localDataOutputStream = null;
+      if (!localFile.renameTo(paramFile))
+      {
+        paramFile.delete();
+        localFile.renameTo(paramFile);
+      }
+      paramFile.setLastModified(paramFrame.lFetched);
+      trimDisk(paramFile.getParentFile());
+    }
+    catch (IOException localIOException)
+    {
+      utility.logd("SnapshotService", "Caching the snapshot failed: " + localIOException.getMessage());
+      localFile.delete();
+    }
+    finally
+    {
+      close(localDataOutputStream);
+    }
+  }
+
+  /* Keep the most recently fetched DISK_CACHE_FILES frames */
+  private static void trimDisk(File paramFile)
+  {
+    File[] arrayOfFile = paramFile.listFiles();
+    if (arrayOfFile == null)
+      return;
+    int i = 0;
+    for (int j = 0; j < arrayOfFile.length; j++)
+      if (arrayOfFile[j].getName().endsWith(".snap"))
+        i++;
+    while (i > DISK_CACHE_FILES)
+    {
+      File localFile = null;
+      for (int k = 0; k < arrayOfFile.length; k++)
+        if (arrayOfFile[k] != null && arrayOfFile[k].getName().endsWith(".snap") && (localFile == null || arrayOfFile[k].lastModified() < localFile.lastModified()))
+          localFile = arrayOfFile[k];
+      for (int m = 0; m < arrayOfFile.length; m++)
+        if (arrayOfFile[m] == localFile)
+          arrayOfFile[m] = null;
+      localFile.delete();
+      i--;
+    }
+  }
+
+  private static void close(Closeable paramCloseable)
+  {
+    if (paramCloseable == null)
+      return;
+    try
+    {
+      paramCloseable.close();
+    }
+    catch (IOException localIOException)
+    {
+    }
+  }
+}
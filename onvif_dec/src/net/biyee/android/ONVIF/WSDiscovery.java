@@ -0,0 +1,340 @@
+package net.biyee.android.ONVIF;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.MulticastSocket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import net.biyee.android.utility;
+import org.kxml2.io.KXmlParser;
+import org.xmlpull.v1.XmlPullParser;
+
+/*
+ * WS-Discovery client shared by the activities. A single multicast socket
+ * bound to the discovery port receives the replies to the Probe as well as
+ * the Hello and Bye announcements of the devices. Each message is parsed
+ * with a pull parser as it arrives and the devices are published to the
+ * listeners one by one, deduplicated by their endpoint reference.
+ *
+ * The devices are kept in a cache with their XAddrs and scopes. A scan
+ * shows the cached devices at once and only probes the network again when
+ * the cache is older than the TTL, or when forced; a device is refreshed
+ * whenever it answers or says Hello, and dropped when it says Bye.
+ */
+public class WSDiscovery
+{
+  public static final String MULTICAST_ADDRESS = "239.255.255.250";
+  public static final int PORT = 3702;
+  public static final long DEFAULT_TTL = 300000L;
+  static final int PROBE_REPEAT = 3;
+  static final int UDP_MIN_DELAY = 50;
+  static final int UDP_MAX_DELAY = 250;
+  private static WSDiscovery instance = null;
+
+  private final ConcurrentHashMap<String, DiscoveredDevice> mapDevices = new ConcurrentHashMap<String, DiscoveredDevice>();
+  private final CopyOnWriteArrayList<Listener> listListeners = new CopyOnWriteArrayList<Listener>();
+  private final Random random = new Random();
+  private MulticastSocket socket = null;
+  private long lTTL = DEFAULT_TTL;
+  private volatile long lLastProbe = 0L;
+
+  public interface Listener
+  {
+    /* A device answered or said Hello for the first time, or its addresses changed */
+    void onDeviceFound(DiscoveredDevice paramDiscoveredDevice);
+
+    /* A known device said Bye */
+    void onDeviceLeft(DiscoveredDevice paramDiscoveredDevice);
+  }
+
+  public static class DiscoveredDevice
+  {
+    public final String sEndpointAddress;
+    public final String sXAddrs;
+    public final String sScopes;
+    public final String sTypes;
+    public final int iMetadataVersion;
+    final long lUpdated;
+
+    DiscoveredDevice(String sEndpointAddress, String sXAddrs, String sScopes, String sTypes, int iMetadataVersion, long lUpdated)
+    {
+      this.sEndpointAddress = sEndpointAddress;
+      this.sXAddrs = sXAddrs;
+      this.sScopes = sScopes;
+      this.sTypes = sTypes;
+      this.iMetadataVersion = iMetadataVersion;
+      this.lUpdated = lUpdated;
+    }
+
+    /* The first IPv4 transport address, or the last one, null if there is none */
+    public String getXAddr()
+    {
+      String[] arrayOfString = this.sXAddrs.trim().split("\\s+");
+      for (int i = 0; i < arrayOfString.length; i++)
+        if (arrayOfString[i].length() > 0 && arrayOfString[i].indexOf("://[") < 0)
+          return arrayOfString[i];
+      String str = arrayOfString[(-1 + arrayOfString.length)];
+      if (str.length() == 0)
+        return null;
+      return str;
+    }
+
+    public String getHost()
+      throws MalformedURLException
+    {
+      return new URL(getXAddr()).getHost();
+    }
+
+    /* Value of the first scope starting with the prefix, null if there is none */
+    public String getScope(String sPrefix)
+    {
+      String[] arrayOfString = this.sScopes.trim().split("\\s+");
+      for (int i = 0; i < arrayOfString.length; i++)
+        if (arrayOfString[i].startsWith(sPrefix))
+          return arrayOfString[i].substring(sPrefix.length());
+      return null;
+    }
+
+    boolean sameAs(DiscoveredDevice paramDiscoveredDevice)
+    {
+      return (this.iMetadataVersion == paramDiscoveredDevice.iMetadataVersion) && this.sXAddrs.equals(paramDiscoveredDevice.sXAddrs) && this.sScopes.equals(paramDiscoveredDevice.sScopes) && this.sTypes.equals(paramDiscoveredDevice.sTypes);
+    }
+  }
+
+  public static synchronized WSDiscovery getInstance()
+  {
+    if (instance == null)
+      instance = new WSDiscovery();
+    return instance;
+  }
+
+  public void setTTL(long lTTL)
+  {
+    this.lTTL = lTTL;
+  }
+
+  /* Open the socket if needed, the listener gets the devices found from now on */
+  public synchronized void addListener(Listener paramListener)
+    throws IOException
+  {
+    this.listListeners.addIfAbsent(paramListener);
+    if (this.socket != null)
+      return;
+    final MulticastSocket localMulticastSocket = new MulticastSocket(PORT);
+    try
+    {
+      localMulticastSocket.joinGroup(InetAddress.getByName(MULTICAST_ADDRESS));
+    }
+    catch (IOException localIOException)
+    {
+      // the probe replies are unicast, only the announcements are missed
+      utility.logd("WSDiscovery", "joinGroup() failed: " + localIOException.getMessage());
+    }
+    this.socket = localMulticastSocket;
+    Thread localThread = new Thread(new Runnable()
+    {
+      public void run()
+      {
+        WSDiscovery.this.receive(localMulticastSocket);
+      }
+    }, "WSDiscovery");
+    localThread.setDaemon(true);
+    localThread.start();
+  }
+
+  /* The socket is closed with the last listener, the cache is kept */
+  public synchronized void removeListener(Listener paramListener)
+  {
+    this.listListeners.remove(paramListener);
+    if (!this.listListeners.isEmpty() || this.socket == null)
+      return;
+    this.socket.close();
+    this.socket = null;
+  }
+
+  /* The cached devices refreshed within the TTL */
+  public List<DiscoveredDevice> getDevices()
+  {
+    ArrayList<DiscoveredDevice> localArrayList = new ArrayList<DiscoveredDevice>();
+    long l = java.lang.System.currentTimeMillis();
+    Iterator<DiscoveredDevice> localIterator = this.mapDevices.values().iterator();
+    while (localIterator.hasNext())
+    {
+      DiscoveredDevice localDiscoveredDevice = localIterator.next();
+      if (l - localDiscoveredDevice.lUpdated > this.lTTL)
+        localIterator.remove();
+      else
+        localArrayList.add(localDiscoveredDevice);
+    }
+    return localArrayList;
+  }
+
+  /*
+   * Multicast the Probe, with a new message ID, unless the cache was
+   * refreshed within the TTL. The Probe is sent on a worker thread;
+   * returns whether it is sent.
+   */
+  public boolean probe(String sProbe, boolean bForce)
+  {
+    final MulticastSocket localMulticastSocket;
+    synchronized (this)
+    {
+      localMulticastSocket = this.socket;
+    }
+    if (localMulticastSocket == null)
+      return false;
+    long l = java.lang.System.currentTimeMillis();
+    if (!bForce && !this.mapDevices.isEmpty() && l - this.lLastProbe < this.lTTL)
+      return false;
+    this.lLastProbe = l;
+    final byte[] arrayOfByte = sProbe.replaceFirst("<a:MessageID>uuid:.+?</a:MessageID>", "<a:MessageID>uuid:" + UUID.randomUUID().toString() + "</a:MessageID>").getBytes();
+    Thread localThread = new Thread(new Runnable()
+    {
+      public void run()
+      {
+        try
+        {
+          DatagramPacket localDatagramPacket = new DatagramPacket(arrayOfByte, arrayOfByte.length, InetAddress.getByName(MULTICAST_ADDRESS), PORT);
+          for (int i = 0; i < PROBE_REPEAT; i++)
+          {
+            if (i > 0)
+              Thread.sleep(UDP_MIN_DELAY + WSDiscovery.this.random.nextInt(UDP_MAX_DELAY - UDP_MIN_DELAY));
+            localMulticastSocket.send(localDatagramPacket);
+          }
+        }
+        catch (Exception localException)
+        {
+          utility.logd("WSDiscovery", "Probe failed: " + localException.getMessage());
+        }
+      }
+    }, "WSDiscovery Probe");
+    localThread.setDaemon(true);
+    localThread.start();
+    return true;
+  }
+
+  private void receive(MulticastSocket paramMulticastSocket)
+  {
+    byte[] arrayOfByte = new byte[65536];
+    DatagramPacket localDatagramPacket = new DatagramPacket(arrayOfByte, arrayOfByte.length);
+    while (!paramMulticastSocket.isClosed())
+    {
+      try
+      {
+        localDatagramPacket.setLength(arrayOfByte.length);
+        paramMulticastSocket.receive(localDatagramPacket);
+      }
+      catch (IOException localIOException)
+      {
+        // closed by removeListener()
+        return;
+      }
+      try
+      {
+        parse(arrayOfByte, localDatagramPacket.getLength());
+      }
+      catch (Exception localException)
+      {
+        utility.logd("WSDiscovery", "Unable to parse the message: " + localException.getMessage());
+      }
+    }
+  }
+
+  /* Pick the Hello, Bye and ProbeMatch elements of the message as they come */
+  void parse(byte[] paramArrayOfByte, int iLength)
+    throws Exception
+  {
+    KXmlParser localKXmlParser = new KXmlParser();
+    localKXmlParser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+    localKXmlParser.setInput(new ByteArrayInputStream(paramArrayOfByte, 0, iLength), null);
+    String sMessage = null;
+    String sAddress = null;
+    String sXAddrs = "";
+    String sScopes = "";
+    String sTypes = "";
+    int iMetadataVersion = 0;
+    for (int i = localKXmlParser.getEventType(); i != XmlPullParser.END_DOCUMENT; i = localKXmlParser.next())
+    {
+      if (i == XmlPullParser.START_TAG)
+      {
+        String str = localKXmlParser.getName();
+        if ("Hello".equals(str) || "Bye".equals(str) || "ProbeMatch".equals(str))
+        {
+          sMessage = str;
+          sAddress = null;
+          sXAddrs = "";
+          sScopes = "";
+          sTypes = "";
+          iMetadataVersion = 0;
+        }
+        else if (sMessage != null)
+        {
+          if ("Address".equals(str))
+            sAddress = localKXmlParser.nextText().trim();
+          else if ("XAddrs".equals(str))
+            sXAddrs = localKXmlParser.nextText().trim();
+          else if ("Scopes".equals(str))
+            sScopes = localKXmlParser.nextText().trim();
+          else if ("Types".equals(str))
+            sTypes = localKXmlParser.nextText().trim();
+          else if ("MetadataVersion".equals(str))
+            iMetadataVersion = Integer.parseInt(localKXmlParser.nextText().trim());
+        }
+      }
+      else if (i == XmlPullParser.END_TAG && localKXmlParser.getName().equals(sMessage))
+      {
+        if (sAddress != null)
+          update(sMessage, new DiscoveredDevice(sAddress, sXAddrs, sScopes, sTypes, iMetadataVersion, java.lang.System.currentTimeMillis()));
+        sMessage = null;
+      }
+    }
+  }
+
+  private void update(String sMessage, DiscoveredDevice paramDiscoveredDevice)
+  {
+    DiscoveredDevice localDiscoveredDevice = this.mapDevices.get(paramDiscoveredDevice.sEndpointAddress);
+    if ("Bye".equals(sMessage))
+    {
+      if (localDiscoveredDevice != null && this.mapDevices.remove(paramDiscoveredDevice.sEndpointAddress, localDiscoveredDevice))
+        notifyListeners(localDiscoveredDevice, false);
+      return;
+    }
+    if (paramDiscoveredDevice.sXAddrs.length() == 0)
+    {
+      // a Hello may leave the addresses to a Resolve, keep the known ones
+      if (localDiscoveredDevice == null)
+        return;
+      paramDiscoveredDevice = new DiscoveredDevice(paramDiscoveredDevice.sEndpointAddress, localDiscoveredDevice.sXAddrs, localDiscoveredDevice.sScopes, localDiscoveredDevice.sTypes, localDiscoveredDevice.iMetadataVersion, paramDiscoveredDevice.lUpdated);
+    }
+    else if ("Hello".equals(sMessage) && paramDiscoveredDevice.sScopes.indexOf("onvif://www.onvif.org/") < 0)
+    {
+      // announcements of the devices which are not ONVIF ones
+      return;
+    }
+    this.mapDevices.put(paramDiscoveredDevice.sEndpointAddress, paramDiscoveredDevice);
+    if (localDiscoveredDevice == null || java.lang.System.currentTimeMillis() - localDiscoveredDevice.lUpdated > this.lTTL || !localDiscoveredDevice.sameAs(paramDiscoveredDevice))
+      notifyListeners(paramDiscoveredDevice, true);
+  }
+
+  private void notifyListeners(DiscoveredDevice paramDiscoveredDevice, boolean bFound)
+  {
+    Iterator<Listener> localIterator = this.listListeners.iterator();
+    while (localIterator.hasNext())
+    {
+      Listener localListener = localIterator.next();
+      if (bFound)
+        localListener.onDeviceFound(paramDiscoveredDevice);
+      else
+        localListener.onDeviceLeft(paramDiscoveredDevice);
+    }
+  }
+}
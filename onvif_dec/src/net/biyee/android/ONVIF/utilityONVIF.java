@@ -6,20 +6,12 @@ import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Looper;
 import android.util.Log;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.StringReader;
 import java.io.StringWriter;
 import java.net.URISyntaxException;
 import java.util.Iterator;
 import java.util.List;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
 import net.biyee.android.utility;
 import org.ksoap2.serialization.PropertyInfo;
 import org.ksoap2.serialization.SoapObject;
@@ -28,10 +20,6 @@ import org.simpleframework.xml.Serializer;
 import org.simpleframework.xml.core.Persister;
 import org.simpleframework.xml.stream.CamelCaseStyle;
 import org.simpleframework.xml.stream.Format;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
 import org.xmlpull.v1.XmlPullParserException;
 
 public class utilityONVIF
@@ -128,42 +116,44 @@ public class utilityONVIF
     }
   }
 
+  /*
+   * The snapshot goes through SnapshotService, so the snapshot URI, the
+   * recent frames and the downloads in progress are shared with the other
+   * screens, and the JPEG is decoded subsampled close to paramInt pixels
+   */
   public static Bitmap RetrieveSnapshot(int paramInt, ONVIFDevice paramONVIFDevice, Profiles paramProfiles, ProgressDialog paramProgressDialog)
   {
     Object localObject = null;
-    if (paramProfiles != null);
+    if (paramProfiles == null)
+      return null;
+    SnapshotService localSnapshotService = SnapshotService.getInstance();
     try
     {
       paramProgressDialog.setMessage("Retrieving a snapshot...");
-      try
+      localSnapshotService.setCacheDir(new File(paramProgressDialog.getContext().getCacheDir(), "snapshots"));
+    }
+    catch (Exception localException1)
+    {
+    }
+    try
+    {
+      localObject = localSnapshotService.getSnapshot(paramONVIFDevice, paramProfiles, paramInt);
+      if (localObject != null)
       {
-        label13: String str = getURLSnapshot(paramONVIFDevice, paramProfiles);
-        if (str != null)
+        int i = ((Bitmap)localObject).getHeight() * ((Bitmap)localObject).getWidth();
+        if (i > paramInt)
         {
-          localObject = utility.loadBitmap(str, paramONVIFDevice.sUserName, paramONVIFDevice.sPassword);
-          if (localObject != null)
-          {
-            int i = ((Bitmap)localObject).getHeight() * ((Bitmap)localObject).getWidth();
-            if (i > paramInt)
-            {
-              double d = Math.sqrt(paramInt / i);
-              Bitmap localBitmap = Bitmap.createScaledBitmap((Bitmap)localObject, (int)(d * ((Bitmap)localObject).getWidth()), (int)(d * ((Bitmap)localObject).getHeight()), true);
-              localObject = localBitmap;
-            }
-          }
+          double d = Math.sqrt(paramInt / (double)i);
+          Bitmap localBitmap = Bitmap.createScaledBitmap((Bitmap)localObject, (int)(d * ((Bitmap)localObject).getWidth()), (int)(d * ((Bitmap)localObject).getHeight()), true);
+          localObject = localBitmap;
         }
-        return localObject;
-      }
-      catch (Exception localException2)
-      {
-        while (true)
-          Log.d("Onvifer", localException2.getMessage());
       }
     }
-    catch (Exception localException1)
+    catch (Exception localException2)
     {
-      break label13;
+      Log.d("Onvifer", String.valueOf(localException2.getMessage()));
     }
+    return (Bitmap)localObject;
   }
 
   public static void Zoom(Context paramContext, ONVIFDevice paramONVIFDevice, Profiles paramProfiles, float paramFloat)
@@ -246,8 +236,7 @@ public class utilityONVIF
         {
           if (localSOAPHttpTransport.responseDump.contains(paramString2 + "Response"))
           {
-            StringReader localStringReader = new StringReader(localSOAPHttpTransport.responseDump.replaceAll("<tt:Encoding>0</tt:Encoding>", "<tt:Encoding>JPEG</tt:Encoding>"));
-            Object localObject2 = new Persister().read(paramClass, localStringReader);
+            Object localObject2 = SOAPResponseParser.readEnvelope(paramClass, localSOAPHttpTransport.responseDump);
             localObject1 = localObject2;
           }
           return localObject1;
@@ -332,27 +321,8 @@ public class utilityONVIF
         localSOAPHttpTransport.call(str1, localSoapSerializationEnvelope);
         if ((paramClass != null) && (localSOAPHttpTransport.responseDump.contains(paramString2 + "Response")))
         {
-          DocumentBuilderFactory localDocumentBuilderFactory = DocumentBuilderFactory.newInstance();
-          localDocumentBuilderFactory.setNamespaceAware(true);
-          DocumentBuilder localDocumentBuilder = localDocumentBuilderFactory.newDocumentBuilder();
-          InputSource localInputSource = new InputSource();
-          localInputSource.setCharacterStream(new StringReader(localSOAPHttpTransport.responseDump));
-          NodeList localNodeList1 = localDocumentBuilder.parse(localInputSource).getElementsByTagNameNS("http://www.w3.org/2003/05/soap-envelope", "Body");
-          if ((localNodeList1 != null) && (localNodeList1.getLength() == 1))
-          {
-            NodeList localNodeList2 = localNodeList1.item(0).getChildNodes();
-            if ((localNodeList2 != null) && (localNodeList2.getLength() == 1))
-            {
-              Transformer localTransformer = TransformerFactory.newInstance().newTransformer();
-              DOMSource localDOMSource = new DOMSource(localNodeList2.item(0));
-              ByteArrayOutputStream localByteArrayOutputStream = new ByteArrayOutputStream();
-              StreamResult localStreamResult = new StreamResult(localByteArrayOutputStream);
-              localTransformer.transform(localDOMSource, localStreamResult);
-              StringReader localStringReader = new StringReader(localByteArrayOutputStream.toString());
-              Object localObject2 = new Persister().read(paramClass, localStringReader);
-              localObject1 = localObject2;
-            }
-          }
+          Object localObject2 = SOAPResponseParser.readBody(paramClass, localSOAPHttpTransport.responseDump);
+          localObject1 = localObject2;
         }
         return localObject1;
         localPersister.write(paramArrayOfSoapParam[j].oParam, localStringWriter);
@@ -605,6 +575,8 @@ public class utilityONVIF
   {
     File localFile = new File(paramContext.getDir("Devices", 0), paramONVIFDevice.uid.toString() + ".xml");
     new Persister().write(paramONVIFDevice, localFile);
+    // The address or the credentials may have changed
+    SnapshotService.getInstance().invalidate(paramONVIFDevice);
   }
 
   public static void saveListDevice(Context paramContext, ListDevice paramListDevice)
@@ -1,20 +0,0 @@
-package net.biyee.onvifer;
-
-import android.content.Intent;
-import android.view.View;
-import android.view.View.OnClickListener;
-
-class DiscoverActivity$2$1
-  implements View.OnClickListener
-{
-  public void onClick(View paramView)
-  {
-    DiscoverActivity.2.access$0(this.this$1).setResult(-1, this.val$intentResult);
-    DiscoverActivity.2.access$0(this.this$1).finish();
-  }
-}
-
-/* Location:           D:\setup\Android\Tools\classes_dex2jar.jar
- * Qualified Name:     net.biyee.onvifer.DiscoverActivity.2.1
- * JD-Core Version:    0.6.0
- */
\ No newline at end of file
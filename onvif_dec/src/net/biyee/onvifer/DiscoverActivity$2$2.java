@@ -1,18 +0,0 @@
-package net.biyee.onvifer;
-
-import android.widget.Button;
-import android.widget.LinearLayout;
-
-class DiscoverActivity$2$2
-  implements Runnable
-{
-  public void run()
-  {
-    this.val$ll.addView(this.val$bt);
-  }
-}
-
-/* Location:           D:\setup\Android\Tools\classes_dex2jar.jar
- * Qualified Name:     net.biyee.onvifer.DiscoverActivity.2.2
- * JD-Core Version:    0.6.0
- */
\ No newline at end of file
@@ -6,39 +6,30 @@ import android.content.DialogInterface;
 import android.content.DialogInterface.OnClickListener;
 import android.content.Intent;
 import android.net.wifi.WifiManager;
-import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
 import android.view.View;
 import android.widget.Button;
 import android.widget.LinearLayout;
 import android.widget.TextView;
-import java.io.StringReader;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
+import java.io.IOException;
 import java.net.MalformedURLException;
-import java.net.URL;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.UUID;
-import net.biyee.android.ONVIF.BodyProbeMatches;
-import net.biyee.android.ONVIF.EndpointReference;
-import net.biyee.android.ONVIF.EnvelopeProbeMatches;
+import java.util.HashMap;
+import java.util.Iterator;
 import net.biyee.android.ONVIF.GetDeviceInformationResponse;
-import net.biyee.android.ONVIF.ProbeMatch;
-import net.biyee.android.ONVIF.ProbeMatches;
+import net.biyee.android.ONVIF.WSDiscovery;
+import net.biyee.android.ONVIF.WSDiscovery.DiscoveredDevice;
 import net.biyee.android.utility;
-import org.simpleframework.xml.Serializer;
-import org.simpleframework.xml.core.Persister;
-import org.simpleframework.xml.stream.InputNode;
-import org.simpleframework.xml.stream.NodeBuilder;
 
 public class DiscoverActivity extends Activity
+  implements WSDiscovery.Listener
 {
   boolean bCanceled = false;
   boolean bDisposed = false;
   int iAddressTestedCount;
   int iTotalAddresseCount;
+  HashMap<String, Button> mapButtons = new HashMap<String, Button>();
+  WifiManager.MulticastLock multicastLock;
   ProgressDialog pd;
 
   public void onCreate(Bundle paramBundle)
@@ -56,143 +47,132 @@ public class DiscoverActivity extends Activity
       public void onClick(DialogInterface paramDialogInterface, int paramInt)
       {
         DiscoverActivity.this.bCanceled = true;
+        WSDiscovery.getInstance().removeListener(DiscoverActivity.this);
       }
     });
     this.pd.show();
-    new Thread()
+
+    // the Wi-Fi driver drops the multicast announcements without the lock
+    this.multicastLock = ((WifiManager)getSystemService("wifi")).createMulticastLock("Onvifer");
+    this.multicastLock.setReferenceCounted(false);
+    this.multicastLock.acquire();
+    WSDiscovery localWSDiscovery = WSDiscovery.getInstance();
+    try
+    {
+      localWSDiscovery.addListener(this);
+    }
+    catch (IOException localIOException)
+    {
+      this.pd.dismiss();
+      utility.logMessageAsync(this, "Search ONVIF device error:" + localIOException.getMessage());
+      return;
+    }
+    Iterator localIterator = localWSDiscovery.getDevices().iterator();
+    while (localIterator.hasNext())
+      showDevice((DiscoveredDevice)localIterator.next());
+    localWSDiscovery.probe(getString(2131099672), false);
+    new Handler().postDelayed(new Runnable()
+    {
+      public void run()
+      {
+        if ((DiscoverActivity.this.bDisposed) || (DiscoverActivity.this.bCanceled))
+          return;
+        DiscoverActivity.this.pd.dismiss();
+        if (DiscoverActivity.this.mapButtons.size() == 0)
+          utility.ShowMessage(DiscoverActivity.this, "No ONVIF conformant devices have been discovered.");
+      }
+    }, 4000L);
+  }
+
+  public void onDeviceFound(final DiscoveredDevice paramDiscoveredDevice)
+  {
+    runOnUiThread(new Runnable()
+    {
+      public void run()
+      {
+        if (!DiscoverActivity.this.bDisposed)
+          DiscoverActivity.this.showDevice(paramDiscoveredDevice);
+      }
+    });
+  }
+
+  public void onDeviceLeft(final DiscoveredDevice paramDiscoveredDevice)
+  {
+    runOnUiThread(new Runnable()
     {
       public void run()
       {
-        if ((((WifiManager)DiscoverActivity.this.getSystemService("wifi")).isWifiEnabled()) || ("sdk".equals(Build.PRODUCT)));
-        try
-        {
-          DatagramSocket localDatagramSocket = new DatagramSocket();
-          localDatagramSocket.setSoTimeout(4000);
-          InetAddress localInetAddress = InetAddress.getByName("239.255.255.250");
-          if (localInetAddress == null)
-            utility.logMessageAsync(DiscoverActivity.this, "IetAddress.getByName() for multicast returns null");
-          byte[] arrayOfByte1 = new byte[2048];
-          byte[] arrayOfByte2 = DiscoverActivity.this.getString(2131099672).replaceFirst("<a:MessageID>uuid:.+?</a:MessageID>", "<a:MessageID>uuid:" + UUID.randomUUID().toString() + "</a:MessageID>").getBytes();
-          DatagramPacket localDatagramPacket1 = new DatagramPacket(arrayOfByte2, arrayOfByte2.length, localInetAddress, 3702);
-          localDatagramSocket.send(localDatagramPacket1);
-          localDatagramSocket.send(localDatagramPacket1);
-          localDatagramSocket.send(localDatagramPacket1);
-          ArrayList localArrayList = new ArrayList();
-          while (true)
-          {
-            if ((DiscoverActivity.this.bDisposed) || (DiscoverActivity.this.bCanceled))
-            {
-              localDatagramSocket.disconnect();
-              localDatagramSocket.close();
-              super.run();
-              return;
-            }
-            try
-            {
-              DatagramPacket localDatagramPacket2 = new DatagramPacket(arrayOfByte1, arrayOfByte1.length);
-              localDatagramSocket.receive(localDatagramPacket2);
-              String str1 = new String(localDatagramPacket2.getData());
-              try
-              {
-                StringReader localStringReader = new StringReader(str1);
-                InputNode localInputNode = NodeBuilder.read(localStringReader);
-                EnvelopeProbeMatches localEnvelopeProbeMatches = (EnvelopeProbeMatches)new Persister().read(EnvelopeProbeMatches.class, localInputNode);
-                if (localEnvelopeProbeMatches.BodyProbeMatches.ProbeMatches.listProbeMatches.size() <= 0)
-                  continue;
-                ProbeMatch localProbeMatch = (ProbeMatch)localEnvelopeProbeMatches.BodyProbeMatches.ProbeMatches.listProbeMatches.get(0);
-                if (localArrayList.contains(localProbeMatch.EndpointReference.Address))
-                  continue;
-                localArrayList.add(localProbeMatch.EndpointReference.Address);
-                DiscoverActivity.this.pd.dismiss();
-                localIntent = new Intent();
-                String[] arrayOfString1 = localProbeMatch.XAddrs.split("\\s");
-                try
-                {
-                  URL localURL = new URL(arrayOfString1[(-1 + arrayOfString1.length)]);
-                  localIntent.putExtra("address", localURL.getHost());
-                  localObject = "";
-                  arrayOfString2 = localProbeMatch.Scopes.split("\\s");
-                  int i = arrayOfString2.length;
-                  j = 0;
-                  if (j < i)
-                    break;
-                  Button localButton = new Button(DiscoverActivity.this);
-                  localButton.setText((CharSequence)localObject);
-                  DiscoverActivity.2.1 local1 = new DiscoverActivity.2.1(this, localIntent);
-                  localButton.setOnClickListener(local1);
-                  LinearLayout localLinearLayout = (LinearLayout)DiscoverActivity.this.findViewById(2131296265);
-                  DiscoverActivity localDiscoverActivity = DiscoverActivity.this;
-                  DiscoverActivity.2.2 local2 = new DiscoverActivity.2.2(this, localLinearLayout, localButton);
-                  localDiscoverActivity.runOnUiThread(local2);
-                }
-                catch (MalformedURLException localMalformedURLException)
-                {
-                  utility.logMessageAsync(DiscoverActivity.this, "Cannot parse xAddr: " + arrayOfString1[0]);
-                }
-              }
-              catch (Exception localException3)
-              {
-                utility.logMessageAsync(DiscoverActivity.this, "Parse ONVIF search result error: " + localException3.getMessage() + "  Response: " + str1);
-              }
-            }
-            catch (Exception localException2)
-            {
-            }
-            if (localArrayList.size() != 0)
-              continue;
-            utility.ShowMessage(DiscoverActivity.this, "No ONVIF conformant devices have been discovered.");
-          }
-        }
-        catch (Exception localException1)
-        {
-          while (true)
-          {
-            Intent localIntent;
-            Object localObject;
-            String[] arrayOfString2;
-            int j;
-            utility.logMessageAsync(DiscoverActivity.this, "Search ONVIF device error:" + localException1.getMessage());
-            continue;
-            String str2 = arrayOfString2[j];
-            if (str2.contains("onvif://www.onvif.org/name/"))
-            {
-              String str6 = str2.replace("onvif://www.onvif.org/name/", "").replace("%20", " ");
-              localIntent.putExtra("name", str6);
-              localObject = localObject + " " + str6;
-            }
-            else if (str2.contains("onvif://www.onvif.org/type/video_encoder"))
-            {
-              localIntent.putExtra("video_encoder", "true");
-            }
-            else if (str2.contains("onvif://www.onvif.org/type/audio_encoder"))
-            {
-              localIntent.putExtra("audio_encoder", "true");
-            }
-            else if (str2.contains("onvif://www.onvif.org/hardware/"))
-            {
-              String str5 = str2.replace("onvif://www.onvif.org/hardware/", "");
-              localIntent.putExtra("hardware", str5);
-              localObject = localObject + " " + str5;
-            }
-            else if (str2.contains("onvif://www.onvif.org/location/"))
-            {
-              String str3 = str2.replace("onvif://www.onvif.org/location/", "");
-              localIntent.putExtra("location", str3);
-              String str4 = localObject + " " + str3;
-              localObject = str4;
-            }
-            j++;
-          }
-        }
+        Button localButton = (Button)DiscoverActivity.this.mapButtons.remove(paramDiscoveredDevice.sEndpointAddress);
+        if (localButton != null)
+          ((LinearLayout)DiscoverActivity.this.findViewById(2131296265)).removeView(localButton);
       }
+    });
+  }
+
+  /* Add the button of the device, or update it if the device is shown */
+  void showDevice(DiscoveredDevice paramDiscoveredDevice)
+  {
+    final Intent localIntent = new Intent();
+    try
+    {
+      localIntent.putExtra("address", paramDiscoveredDevice.getHost());
+    }
+    catch (MalformedURLException localMalformedURLException)
+    {
+      utility.logMessageAsync(this, "Cannot parse xAddr: " + paramDiscoveredDevice.sXAddrs);
+      return;
+    }
+    Object localObject = "";
+    String str1 = paramDiscoveredDevice.getScope("onvif://www.onvif.org/name/");
+    if (str1 != null)
+    {
+      str1 = str1.replace("%20", " ");
+      localIntent.putExtra("name", str1);
+      localObject = localObject + " " + str1;
+    }
+    if (paramDiscoveredDevice.getScope("onvif://www.onvif.org/type/video_encoder") != null)
+      localIntent.putExtra("video_encoder", "true");
+    if (paramDiscoveredDevice.getScope("onvif://www.onvif.org/type/audio_encoder") != null)
+      localIntent.putExtra("audio_encoder", "true");
+    String str2 = paramDiscoveredDevice.getScope("onvif://www.onvif.org/hardware/");
+    if (str2 != null)
+    {
+      localIntent.putExtra("hardware", str2);
+      localObject = localObject + " " + str2;
+    }
+    String str3 = paramDiscoveredDevice.getScope("onvif://www.onvif.org/location/");
+    if (str3 != null)
+    {
+      localIntent.putExtra("location", str3);
+      localObject = localObject + " " + str3;
+    }
+
+    Button localButton = (Button)this.mapButtons.get(paramDiscoveredDevice.sEndpointAddress);
+    if (localButton == null)
+    {
+      localButton = new Button(this);
+      this.mapButtons.put(paramDiscoveredDevice.sEndpointAddress, localButton);
+      ((LinearLayout)findViewById(2131296265)).addView(localButton);
     }
-    .start();
+    localButton.setText((CharSequence)localObject);
+    localButton.setOnClickListener(new View.OnClickListener()
+    {
+      public void onClick(View paramView)
+      {
+        DiscoverActivity.this.setResult(-1, localIntent);
+        DiscoverActivity.this.finish();
+      }
+    });
+    this.pd.dismiss();
   }
 
   protected void onPause()
   {
     super.onPause();
     this.bDisposed = true;
+    WSDiscovery.getInstance().removeListener(this);
+    if (this.multicastLock != null)
+      this.multicastLock.release();
   }
 
   class IPDevice
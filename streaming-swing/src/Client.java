@@ -23,18 +23,17 @@ public class Client {
 	JPanel mainPanel = new JPanel();
 	JPanel buttonPanel = new JPanel();
 	JLabel iconLabel = new JLabel();
-	ImageIcon icon;
+	JLabel statsLabel = new JLabel(" ", JLabel.CENTER);
 
 	// RTP variables:
 	// ----------------
-	DatagramPacket rcvdp; // UDP packet received from the server
 	DatagramSocket RTPsocket; // socket to be used to send and receive UDP
 								// packets
 	static int RTP_RCV_PORT = 25000; // port where the client will receive the
 										// RTP packets
 
-	Timer timer; // timer used to receive data from the UDP socket
-	byte[] buf; // buffer used to store data received from the server
+	Player player; // receives, decodes and displays the frames while playing
+	Timer timer; // timer used to update the counters of the player
 
 	// RTSP variables
 	// ----------------
@@ -90,22 +89,19 @@ public class Client {
 		mainPanel.setLayout(null);
 		mainPanel.add(iconLabel);
 		mainPanel.add(buttonPanel);
+		mainPanel.add(statsLabel);
 		iconLabel.setBounds(0, 0, 380, 280);
 		buttonPanel.setBounds(0, 280, 380, 50);
+		statsLabel.setBounds(0, 330, 380, 20);
 
 		f.getContentPane().add(mainPanel, BorderLayout.CENTER);
-		f.setSize(new Dimension(390, 370));
+		f.setSize(new Dimension(390, 390));
 		f.setVisible(true);
 
 		// init timer
 		// --------------------------
-		timer = new Timer(20, new timerListener());
-		timer.setInitialDelay(0);
+		timer = new Timer(500, new timerListener());
 		timer.setCoalesce(true);
-
-		// allocate enough memory for the buffer used to receive data from the
-		// server
-		buf = new byte[15000];
 	}
 
 	// ------------------------------------
@@ -216,7 +212,13 @@ public class Client {
 					state = PLAYING;
 					System.out.println("Novo estado RTP: PLAYING");
 
-					// start the timer
+					// start receiving and the timer
+					try {
+						player = new Player(RTPsocket, iconLabel);
+						player.start();
+					} catch (SocketException se) {
+						System.out.println("Socket exception: " + se);
+					}
 					timer.start();
 				}
 			}// else if state != READY then do nothing
@@ -249,7 +251,9 @@ public class Client {
 
 					System.out.println("Novo estado RTSP: Ready");
 
-					// stop the timer
+					// stop receiving and the timer
+					player.stop();
+					player = null;
 					timer.stop();
 				}
 			}
@@ -282,7 +286,9 @@ public class Client {
 
 				System.out.println("Novo estado RTSP: INIT");
 
-				// stop the timer
+				// stop receiving and the timer
+				if (player != null)
+					player.stop();
 				timer.stop();
 
 				// exit
@@ -298,43 +304,10 @@ public class Client {
 	class timerListener implements ActionListener {
 		public void actionPerformed(ActionEvent e) {
 
-			// Construct a DatagramPacket to receive data from the UDP socket
-			rcvdp = new DatagramPacket(buf, buf.length);
-
-			try {
-				// receive the DP from the socket:
-				RTPsocket.receive(rcvdp);
-
-				// create an RTPpacket object from the DP
-				RTPpacket rtp_packet = new RTPpacket(rcvdp.getData(),
-						rcvdp.getLength());
-
-				// print important header fields of the RTP packet received:
-				System.out.println("Got RTP packet with SeqNum # "
-						+ rtp_packet.getsequencenumber() + " TimeStamp "
-						+ rtp_packet.gettimestamp() + " ms, of type "
-						+ rtp_packet.getpayloadtype());
-
-				// print header bitstream:
-				rtp_packet.printheader();
-
-				// get the payload bitstream from the RTPpacket object
-				int payload_length = rtp_packet.getpayload_length();
-				byte[] payload = new byte[payload_length];
-				rtp_packet.getpayload(payload);
-
-				// get an Image object from the payload bitstream
-				Toolkit toolkit = Toolkit.getDefaultToolkit();
-				Image image = toolkit.createImage(payload, 0, payload_length);
-
-				// display the image as an ImageIcon object
-				icon = new ImageIcon(image);
-				iconLabel.setIcon(icon);
-			} catch (InterruptedIOException iioe) {
-				// System.out.println("Nothing to read");
-			} catch (IOException ioe) {
-				System.out.println("Exception caught: " + ioe);
-			}
+			// the frames are received and displayed by the player, show its
+			// counters
+			if (player != null)
+				statsLabel.setText(player.getstats());
 		}
 	}
 
@@ -0,0 +1,299 @@
+//JpegAssembler
+
+// Reassembles the JPEG frames sent with RFC 2435 (see JpegFragmenter).
+// The fragments of a frame are copied at their offset in a buffer allocated
+// once, so they may arrive out of order. A frame is complete when the
+// packet with the marker bit has been received along with all the bytes
+// before it. When a packet of the next frame arrives first, the incomplete
+// frame is discarded. The JFIF headers are rebuilt in front of the scan data
+// from the RFC 2435 header and the standard Huffman tables.
+
+import javax.imageio.plugins.jpeg.*;
+
+public class JpegAssembler {
+
+	static int HEADER_SPACE = 1024; // room kept before the scan data for the
+									// rebuilt headers
+
+	// zigzag order of the coefficients of a block
+	static int[] ZIGZAG = { 0, 1, 8, 16, 9, 2, 3, 10, 17, 24, 32, 25, 18,
+			11, 4, 5, 12, 19, 26, 33, 40, 48, 41, 34, 27, 20, 13, 6, 7, 14, 21,
+			28, 35, 42, 49, 56, 57, 50, 43, 36, 29, 22, 15, 23, 30, 37, 44, 51,
+			58, 59, 52, 45, 38, 31, 39, 46, 53, 60, 61, 54, 47, 55, 62, 63 };
+
+	byte[] buf = new byte[HEADER_SPACE + 256 * 1024]; // frame being assembled
+	byte[] header = new byte[HEADER_SPACE];
+	byte[][] qtables = new byte[256][]; // tables received or computed, by Q
+
+	// Frame being assembled
+	boolean started = false; // a packet of the frame has been received
+	boolean complete = false;
+	int timestamp;
+	int received; // bytes of scan data received
+	int total; // length of the scan data, -1 until the last packet arrived
+	boolean first; // the packet with offset 0 has been received
+	int type, q, width, height, restart_interval;
+
+	// Complete frame
+	int frame_offset, frame_length;
+	int dropped = 0; // number of incomplete frames discarded
+
+	// --------------------------
+	// addpacket: returns true when the packet completes a frame, the frame
+	// can then be read with getframe(), getoffset() and getlength() until the
+	// next call
+	// --------------------------
+	public boolean addpacket(RTPpacket packet) {
+		return addpayload(packet.gettimestamp(), packet.getmarker(),
+				packet.payload, 0, packet.payload_size);
+	}
+
+	// --------------------------
+	// addpacket: same from the bitstream of an RTP packet, the packet is not
+	// copied before its payload is added to the frame
+	// --------------------------
+	public boolean addpacket(byte[] packet, int packet_size) {
+		if (packet_size < RTPpacket.HEADER_SIZE)
+			return false;
+
+		// skip the CSRC list and the header extension
+		int start = RTPpacket.HEADER_SIZE + 4 * (packet[0] & 15);
+		if ((packet[0] & 0x10) != 0 && packet_size >= start + 4)
+			start += 4 + 4 * (((packet[start + 2] & 0xFF) << 8)
+					| (packet[start + 3] & 0xFF));
+		int length = packet_size - start;
+		if ((packet[0] & 0x20) != 0)
+			length -= packet[packet_size - 1] & 0xFF; // padding
+		if (length < 0)
+			return false;
+
+		int time = ((packet[4] & 0xFF) << 24) | ((packet[5] & 0xFF) << 16)
+				| ((packet[6] & 0xFF) << 8) | (packet[7] & 0xFF);
+		return addpayload(time, (packet[1] >> 7) & 1, packet, start, length);
+	}
+
+	// --------------------------
+	// addpayload: add the RTP payload found at start in p
+	// --------------------------
+	private boolean addpayload(int time, int marker, byte[] p, int start,
+			int length) {
+		int end = start + length;
+
+		if (length < JpegFragmenter.JPEG_HEADER_SIZE)
+			return false;
+
+		if (!started || time != timestamp) {
+			if (started && !complete)
+				dropped++;
+			started = true;
+			complete = false;
+			timestamp = time;
+			received = 0;
+			total = -1;
+			first = false;
+		}
+		if (complete)
+			return false;
+
+		int offset = ((p[start + 1] & 0xFF) << 16)
+				| ((p[start + 2] & 0xFF) << 8) | (p[start + 3] & 0xFF);
+		int t = p[start + 4] & 0xFF;
+		int pos = start + JpegFragmenter.JPEG_HEADER_SIZE;
+		int dri = 0;
+
+		if (t >= 64 && t < 128) {
+			if (end < pos + JpegFragmenter.RESTART_HEADER_SIZE)
+				return false;
+			dri = ((p[pos] & 0xFF) << 8) | (p[pos + 1] & 0xFF);
+			pos += JpegFragmenter.RESTART_HEADER_SIZE;
+		}
+		if ((t & ~64) > 1)
+			return false; // unknown type, the frame will be dropped
+
+		if (offset == 0) {
+			type = t;
+			q = p[start + 5] & 0xFF;
+			width = (p[start + 6] & 0xFF) * 8;
+			height = (p[start + 7] & 0xFF) * 8;
+			restart_interval = dri;
+			if (q >= 128) {
+				if (end < pos + JpegFragmenter.QTABLE_HEADER_SIZE)
+					return false;
+				int precision = p[pos + 1] & 0xFF;
+				int qlength = ((p[pos + 2] & 0xFF) << 8) | (p[pos + 3] & 0xFF);
+				pos += JpegFragmenter.QTABLE_HEADER_SIZE;
+				if (end < pos + qlength)
+					return false;
+				// 16-bit tables are not supported, a length of 0 means
+				// the tables of a previous frame are reused
+				if (qlength > 0 && (precision != 0 || qlength != 128))
+					return false;
+				if (qlength > 0) {
+					qtables[q] = new byte[128];
+					System.arraycopy(p, pos, qtables[q], 0, 128);
+				}
+				pos += qlength;
+			} else if (qtables[q] == null) {
+				qtables[q] = maketables(q);
+			}
+			first = true;
+		}
+
+		// copy the fragment at its offset
+		int n = end - pos;
+		if (HEADER_SPACE + offset + n + 2 > buf.length) {
+			byte[] bigger = new byte[Math.max(buf.length * 2, HEADER_SPACE
+					+ offset + n + 2)];
+			System.arraycopy(buf, 0, bigger, 0, buf.length);
+			buf = bigger;
+		}
+		System.arraycopy(p, pos, buf, HEADER_SPACE + offset, n);
+		received += n;
+		if (marker == 1)
+			total = offset + n;
+
+		if (!first || total < 0 || received < total)
+			return false;
+		complete = true;
+		if (qtables[q] == null) {
+			// tables were never received for this Q
+			dropped++;
+			return false;
+		}
+
+		// rebuild the headers in front of the scan data and append EOI
+		int header_length = makeheaders(qtables[q]);
+		frame_offset = HEADER_SPACE - header_length;
+		System.arraycopy(header, 0, buf, frame_offset, header_length);
+		buf[HEADER_SPACE + total] = (byte) 0xFF;
+		buf[HEADER_SPACE + total + 1] = (byte) 0xD9;
+		frame_length = header_length + total + 2;
+		return true;
+	}
+
+	public byte[] getframe() {
+		return buf;
+	}
+
+	public int getoffset() {
+		return frame_offset;
+	}
+
+	public int getlength() {
+		return frame_length;
+	}
+
+	public int getdropped() {
+		return dropped;
+	}
+
+	// --------------------------
+	// maketables: quantization tables for Q < 128 (RFC 2435, appendix A)
+	// --------------------------
+	static byte[] maketables(int q) {
+		int factor = Math.max(1, Math.min(99, q));
+		int scale = (q < 50) ? 5000 / factor : 200 - factor * 2;
+		int[] luma = JPEGQTable.K1Luminance.getTable();
+		int[] chroma = JPEGQTable.K2Chrominance.getTable();
+		byte[] tables = new byte[128];
+
+		for (int i = 0; i < 64; i++) {
+			int lq = (luma[ZIGZAG[i]] * scale + 50) / 100;
+			int cq = (chroma[ZIGZAG[i]] * scale + 50) / 100;
+			tables[i] = (byte) Math.max(1, Math.min(255, lq));
+			tables[i + 64] = (byte) Math.max(1, Math.min(255, cq));
+		}
+		return tables;
+	}
+
+	// --------------------------
+	// makeheaders: JFIF headers of the frame (RFC 2435, appendix B)
+	// --------------------------
+	private int makeheaders(byte[] tables) {
+		int p = 0;
+
+		// SOI
+		p = marker(p, 0xD8);
+
+		// DQT, one table for luma and one for chroma
+		for (int i = 0; i < 2; i++) {
+			p = marker(p, 0xDB);
+			p = u16(p, 2 + 1 + 64);
+			header[p++] = (byte) i;
+			System.arraycopy(tables, i * 64, header, p, 64);
+			p += 64;
+		}
+
+		// DRI
+		if (restart_interval > 0) {
+			p = marker(p, 0xDD);
+			p = u16(p, 4);
+			p = u16(p, restart_interval);
+		}
+
+		// SOF0
+		p = marker(p, 0xC0);
+		p = u16(p, 17);
+		header[p++] = 8;
+		p = u16(p, height);
+		p = u16(p, width);
+		header[p++] = 3;
+		header[p++] = 1;
+		header[p++] = (byte) (((type & 63) == 0) ? 0x21 : 0x22);
+		header[p++] = 0;
+		header[p++] = 2;
+		header[p++] = 0x11;
+		header[p++] = 1;
+		header[p++] = 3;
+		header[p++] = 0x11;
+		header[p++] = 1;
+
+		// DHT, the standard tables
+		p = huffman(p, JPEGHuffmanTable.StdDCLuminance, 0x00);
+		p = huffman(p, JPEGHuffmanTable.StdACLuminance, 0x10);
+		p = huffman(p, JPEGHuffmanTable.StdDCChrominance, 0x01);
+		p = huffman(p, JPEGHuffmanTable.StdACChrominance, 0x11);
+
+		// SOS
+		p = marker(p, 0xDA);
+		p = u16(p, 12);
+		header[p++] = 3;
+		header[p++] = 1;
+		header[p++] = 0x00;
+		header[p++] = 2;
+		header[p++] = 0x11;
+		header[p++] = 3;
+		header[p++] = 0x11;
+		header[p++] = 0;
+		header[p++] = 63;
+		header[p++] = 0;
+
+		return p;
+	}
+
+	private int huffman(int p, JPEGHuffmanTable table, int id) {
+		short[] lengths = table.getLengths();
+		short[] values = table.getValues();
+
+		p = marker(p, 0xC4);
+		p = u16(p, 2 + 1 + lengths.length + values.length);
+		header[p++] = (byte) id;
+		for (int i = 0; i < lengths.length; i++)
+			header[p++] = (byte) lengths[i];
+		for (int i = 0; i < values.length; i++)
+			header[p++] = (byte) values[i];
+		return p;
+	}
+
+	private int marker(int p, int marker) {
+		header[p++] = (byte) 0xFF;
+		header[p++] = (byte) marker;
+		return p;
+	}
+
+	private int u16(int p, int value) {
+		header[p++] = (byte) (value >> 8);
+		header[p++] = (byte) value;
+		return p;
+	}
+}
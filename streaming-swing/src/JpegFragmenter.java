@@ -0,0 +1,192 @@
+//JpegFragmenter
+
+// Splits the JPEG frames of the video into RTP payloads as described in
+// RFC 2435: the JFIF headers are stripped, the scan data is sent in
+// fragments that fit in the MTU and each fragment carries the fragment
+// offset, the frame type, the dimensions and (in the first fragment) the
+// quantization tables the receiver needs to rebuild the headers.
+// Only baseline YUV 4:2:2 and 4:2:0 frames with the standard Huffman
+// tables can be described by the RFC 2435 header.
+
+import java.nio.*;
+
+public class JpegFragmenter {
+
+	static int MAX_PAYLOAD = 1400; // size of the RTP payloads, fits in an
+									// Ethernet MTU with the IP/UDP/RTP headers
+	static int JPEG_HEADER_SIZE = 8;
+	static int RESTART_HEADER_SIZE = 4;
+	static int QTABLE_HEADER_SIZE = 4;
+	static int Q = 255; // Q >= 128: quantization tables are sent in-band
+
+	// Frame currently fragmented
+	ByteBuffer frame;
+	int scan_start; // position of the entropy coded data in frame
+	int scan_length; // its length
+	int offset; // fragment offset of the next payload
+	int type; // 0 for 4:2:2, 1 for 4:2:0, +64 when restart markers are used
+	int width, height; // in pixels
+	int restart_interval;
+	byte[] qtables = new byte[128]; // luma and chroma tables in zigzag order
+
+	// --------------------------
+	// setframe: parse the headers of a JPEG frame
+	// returns false if the frame can't be sent with RFC 2435
+	// --------------------------
+	public boolean setframe(byte[] data, int length) {
+		return setframe(ByteBuffer.wrap(data, 0, length));
+	}
+
+	// --------------------------
+	// setframe: same with the frame between 0 and the limit of data, the
+	// scan data is read from data when the fragments are built
+	// --------------------------
+	public boolean setframe(ByteBuffer data) {
+		byte[][] dqt = new byte[4][];
+		int luma_table = -1, chroma_table = -1;
+		boolean sof = false;
+		int length = data.limit();
+
+		frame = data.duplicate();
+		offset = 0;
+		scan_length = 0;
+		restart_interval = 0;
+
+		if (length < 4 || u8(0) != 0xFF || u8(1) != 0xD8)
+			return false;
+
+		int pos = 2;
+		while (pos + 4 <= length) {
+			if (u8(pos) != 0xFF)
+				return false;
+			int marker = u8(pos + 1);
+			if (marker == 0xFF) {
+				// fill byte
+				pos++;
+				continue;
+			}
+			int segment_length = u16(pos + 2);
+			int end = pos + 2 + segment_length;
+			if (end > length)
+				return false;
+
+			if (marker == 0xDB) {
+				// DQT: one or more 8-bit quantization tables
+				for (int p = pos + 4; p + 65 <= end; p += 65) {
+					if ((u8(p) >> 4) != 0)
+						return false;
+					dqt[u8(p) & 3] = new byte[64];
+					frame.position(p + 1);
+					frame.get(dqt[u8(p) & 3]);
+				}
+			} else if (marker == 0xC0) {
+				// SOF0: baseline, 3 components, Y subsampled horizontally
+				// (4:2:2) or in both directions (4:2:0)
+				if (u8(pos + 4) != 8 || u8(pos + 9) != 3)
+					return false;
+				height = u16(pos + 5);
+				width = u16(pos + 7);
+				if (u8(pos + 11) == 0x21)
+					type = 0;
+				else if (u8(pos + 11) == 0x22)
+					type = 1;
+				else
+					return false;
+				if (u8(pos + 14) != 0x11 || u8(pos + 17) != 0x11
+						|| u8(pos + 15) != u8(pos + 18))
+					return false;
+				luma_table = u8(pos + 12) & 3;
+				chroma_table = u8(pos + 15) & 3;
+				sof = true;
+			} else if (marker == 0xDD) {
+				// DRI
+				restart_interval = u16(pos + 4);
+			} else if (marker == 0xDA) {
+				// SOS: the entropy coded data follows, up to EOI
+				scan_start = end;
+				scan_length = length - end;
+				if (scan_length >= 2 && u8(length - 2) == 0xFF
+						&& u8(length - 1) == 0xD9)
+					scan_length -= 2;
+				break;
+			} else if (marker >= 0xC1 && marker <= 0xCF && marker != 0xC4
+					&& marker != 0xC8 && marker != 0xCC) {
+				// progressive, lossless, arithmetic coding...
+				return false;
+			}
+			pos = end;
+		}
+
+		if (!sof || scan_length == 0 || dqt[luma_table] == null
+				|| dqt[chroma_table] == null)
+			return false;
+		// the dimensions are sent in multiples of 8 pixels on 8 bits
+		if (width > 2040 || height > 2040)
+			return false;
+
+		System.arraycopy(dqt[luma_table], 0, qtables, 0, 64);
+		System.arraycopy(dqt[chroma_table], 0, qtables, 64, 64);
+		if (restart_interval > 0)
+			type += 64;
+		return true;
+	}
+
+	// --------------------------
+	// hasnext: true until all the fragments of the frame have been returned
+	// --------------------------
+	public boolean hasnext() {
+		return offset < scan_length;
+	}
+
+	// --------------------------
+	// next: write the next RTP payload in payload and return its length,
+	// payload must hold MAX_PAYLOAD bytes
+	// --------------------------
+	public int next(byte[] payload) {
+		int p = 0;
+
+		// main JPEG header
+		payload[p++] = 0; // type-specific
+		payload[p++] = (byte) (offset >> 16);
+		payload[p++] = (byte) (offset >> 8);
+		payload[p++] = (byte) offset;
+		payload[p++] = (byte) type;
+		payload[p++] = (byte) Q;
+		payload[p++] = (byte) ((width + 7) / 8);
+		payload[p++] = (byte) ((height + 7) / 8);
+
+		// restart marker header, the fragments are not aligned on restart
+		// intervals so F = L = 1 and the restart count is 0x3FFF
+		if (restart_interval > 0) {
+			payload[p++] = (byte) (restart_interval >> 8);
+			payload[p++] = (byte) restart_interval;
+			payload[p++] = (byte) 0xFF;
+			payload[p++] = (byte) 0xFF;
+		}
+
+		// quantization table header, in the first fragment only
+		if (offset == 0) {
+			payload[p++] = 0; // MBZ
+			payload[p++] = 0; // precision: 8 bits for both tables
+			payload[p++] = 0;
+			payload[p++] = (byte) qtables.length;
+			System.arraycopy(qtables, 0, payload, p, qtables.length);
+			p += qtables.length;
+		}
+
+		int n = Math.min(MAX_PAYLOAD - p, scan_length - offset);
+		frame.position(scan_start + offset);
+		frame.get(payload, p, n);
+		offset += n;
+
+		return (p + n);
+	}
+
+	private int u8(int pos) {
+		return frame.get(pos) & 0xFF;
+	}
+
+	private int u16(int pos) {
+		return (u8(pos) << 8) | u8(pos + 1);
+	}
+}
@@ -0,0 +1,73 @@
+//PacketRing
+
+// Fixed ring of packet buffers between the thread receiving the RTP packets
+// and the thread decoding them. The buffers are allocated once: the
+// receiver writes in the slot returned by acquire() and publishes it with
+// commit(), the decoder reads the slot returned by next() and gives it back
+// with release(). When the decoder falls behind the ring fills up and the
+// receiver drops the packets.
+
+public class PacketRing {
+
+	byte[][] slots;
+	int[] lengths;
+	int head = 0; // next slot written by the receiver
+	int tail = 0; // next slot read by the decoder
+	int count = 0; // slots written and not released yet
+	boolean closed = false;
+
+	// --------------------------
+	// Constructor
+	// --------------------------
+	public PacketRing(int size, int slot_size) {
+		slots = new byte[size][slot_size];
+		lengths = new int[size];
+	}
+
+	// --------------------------
+	// acquire: free slot for the next packet, null if the ring is full
+	// --------------------------
+	public synchronized byte[] acquire() {
+		return (count == slots.length) ? null : slots[head];
+	}
+
+	// --------------------------
+	// commit: publish the packet written in the slot returned by acquire()
+	// --------------------------
+	public synchronized void commit(int length) {
+		lengths[head] = length;
+		head = (head + 1) % slots.length;
+		count++;
+		notifyAll();
+	}
+
+	// --------------------------
+	// next: wait for a packet and return its slot, -1 once the ring is closed
+	// --------------------------
+	public synchronized int next() throws InterruptedException {
+		while (count == 0 && !closed)
+			wait();
+		return closed ? -1 : tail;
+	}
+
+	public byte[] getslot(int slot) {
+		return slots[slot];
+	}
+
+	public synchronized int getlength(int slot) {
+		return lengths[slot];
+	}
+
+	// --------------------------
+	// release: the slot returned by next() can be written again
+	// --------------------------
+	public synchronized void release() {
+		tail = (tail + 1) % slots.length;
+		count--;
+	}
+
+	public synchronized void close() {
+		closed = true;
+		notifyAll();
+	}
+}
@@ -0,0 +1,362 @@
+//Player
+
+// Plays the RTP/JPEG stream received on a socket with three threads:
+// - the receiver reads the packets into a PacketRing and keeps the loss and
+//   jitter counters (RFC 3550),
+// - the decoder reassembles the frames with a JpegAssembler and decodes them
+//   with ImageIO into a small pool of BufferedImage reused from frame to
+//   frame,
+// - the playout thread shows each frame at the time given by its RTP
+//   timestamp, after a fixed playout delay that absorbs the jitter. Late
+//   frames are skipped and only the latest due frame is handed to the event
+//   dispatch thread, so a slow GUI never slows down the other threads.
+
+import java.awt.image.*;
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import javax.imageio.*;
+import javax.imageio.stream.*;
+import javax.swing.*;
+
+public class Player {
+
+	static int RING_SIZE = 256; // packets buffered between receiver and decoder
+	static int PACKET_SIZE = 65536; // largest UDP payload
+	static int POOL_SIZE = 4; // images being decoded, waiting or displayed
+	static int PLAYOUT_DELAY = 100; // ms
+	static int CLOCK_RATE = 90; // RTP timestamp units per ms
+
+	DatagramSocket RTPsocket;
+	JLabel iconLabel; // where the frames are displayed
+	ImageIcon icon = null;
+	PacketRing ring = new PacketRing(RING_SIZE, PACKET_SIZE);
+	JpegAssembler assembler = new JpegAssembler();
+	ImageReader reader;
+	volatile boolean running = false;
+	Thread receiver, decoder, playout;
+
+	// Images: free ones, decoded ones waiting to be displayed (by
+	// timestamp), the one displayed. Guarded by the Player.
+	LinkedList<BufferedImage> free = new LinkedList<BufferedImage>();
+	LinkedList<BufferedImage> queued = new LinkedList<BufferedImage>();
+	LinkedList<Integer> timestamps = new LinkedList<Integer>();
+	BufferedImage displayed = null;
+	BufferedImage pending = null; // handed to the EDT, not displayed yet
+	int allocated = 0;
+	long base_time; // playout time of the frame with timestamp base_timestamp
+	int base_timestamp;
+	boolean based = false;
+
+	// Counters
+	int first_seq = -1, max_seq, received_packets = 0, overflows = 0;
+	double jitter = 0; // in timestamp units
+	long last_transit;
+	int decoded_frames = 0, shown_frames = 0, skipped_frames = 0;
+	long decode_time = 0; // ns, for decoded_frames
+	long stats_time = System.nanoTime();
+	int stats_shown = 0;
+
+	// --------------------------
+	// Constructor
+	// --------------------------
+	public Player(DatagramSocket socket, JLabel label) {
+		RTPsocket = socket;
+		iconLabel = label;
+		reader = ImageIO.getImageReadersByFormatName("jpeg").next();
+	}
+
+	// --------------------------
+	// start the threads
+	// --------------------------
+	public void start() throws SocketException {
+		// the receiver checks running at this interval
+		RTPsocket.setSoTimeout(100);
+		running = true;
+
+		receiver = new Thread("RTP-receiver") {
+			public void run() {
+				receive();
+			}
+		};
+		decoder = new Thread("JPEG-decoder") {
+			public void run() {
+				decode();
+			}
+		};
+		playout = new Thread("Playout") {
+			public void run() {
+				play();
+			}
+		};
+		receiver.setPriority(Thread.MAX_PRIORITY);
+		receiver.start();
+		decoder.start();
+		playout.start();
+	}
+
+	// --------------------------
+	// stop the threads, the frame displayed remains
+	// --------------------------
+	public void stop() {
+		running = false;
+		ring.close();
+		synchronized (this) {
+			notifyAll();
+		}
+		try {
+			receiver.join(500);
+			decoder.join(500);
+			playout.join(500);
+		} catch (InterruptedException ignore) {
+		}
+		reader.dispose();
+	}
+
+	// ------------------------------------
+	// Receiver thread
+	// ------------------------------------
+	private void receive() {
+		byte[] overflow = new byte[PACKET_SIZE];
+		DatagramPacket packet = new DatagramPacket(overflow, overflow.length);
+
+		while (running) {
+			// when the ring is full the packet is read and dropped
+			byte[] slot = ring.acquire();
+			packet.setData(slot != null ? slot : overflow);
+			try {
+				RTPsocket.receive(packet);
+			} catch (InterruptedIOException iioe) {
+				continue;
+			} catch (IOException ioe) {
+				if (running)
+					System.out.println("Exception caught: " + ioe);
+				break;
+			}
+			if (packet.getLength() < RTPpacket.HEADER_SIZE)
+				continue;
+			count(packet.getData());
+			if (slot != null)
+				ring.commit(packet.getLength());
+			else
+				overflows++;
+		}
+	}
+
+	// update the loss and jitter counters with a packet
+	private synchronized void count(byte[] data) {
+		int seq = ((data[2] & 0xFF) << 8) | (data[3] & 0xFF);
+		int timestamp = ((data[4] & 0xFF) << 24) | ((data[5] & 0xFF) << 16)
+				| ((data[6] & 0xFF) << 8) | (data[7] & 0xFF);
+		long arrival = System.nanoTime() * CLOCK_RATE / 1000000;
+		long transit = arrival - timestamp;
+
+		if (first_seq < 0) {
+			first_seq = seq;
+			max_seq = seq;
+		} else {
+			// sequence numbers wrap around at 65536
+			int delta = (seq - (max_seq & 0xFFFF)) & 0xFFFF;
+			if (delta < 0x8000)
+				max_seq += delta;
+			long d = Math.abs(transit - last_transit);
+			jitter += (d - jitter) / 16;
+		}
+		last_transit = transit;
+		received_packets++;
+	}
+
+	// ------------------------------------
+	// Decoder thread
+	// ------------------------------------
+	private void decode() {
+		try {
+			while (running) {
+				int slot = ring.next();
+				if (slot < 0)
+					break;
+				boolean complete = assembler.addpacket(ring.getslot(slot),
+						ring.getlength(slot));
+				ring.release();
+				if (!complete)
+					continue;
+
+				long start = System.nanoTime();
+				BufferedImage image = decodeframe();
+				if (image == null)
+					continue;
+				synchronized (this) {
+					decode_time += System.nanoTime() - start;
+					decoded_frames++;
+					queue(image, assembler.timestamp);
+				}
+			}
+		} catch (InterruptedException ignore) {
+		}
+	}
+
+	// decode the frame of the assembler into an image of the pool
+	private BufferedImage decodeframe() {
+		BufferedImage image = null;
+		try {
+			ImageInputStream input = new MemoryCacheImageInputStream(
+					new ByteArrayInputStream(assembler.getframe(), assembler
+							.getoffset(), assembler.getlength()));
+			reader.setInput(input, true, true);
+			image = takeimage(reader.getWidth(0), reader.getHeight(0));
+			if (image == null)
+				return null;
+			ImageReadParam param = reader.getDefaultReadParam();
+			param.setDestination(image);
+			reader.read(0, param);
+			return image;
+		} catch (IOException ioe) {
+			System.out.println("Exception caught: " + ioe);
+			if (image != null)
+				giveimage(image);
+			return null;
+		}
+	}
+
+	// image of the pool to decode a frame: a free one, a new one while the
+	// pool is not full, or the oldest frame waiting to be displayed
+	private synchronized BufferedImage takeimage(int width, int height)
+			throws IOException {
+		BufferedImage image = null;
+		if (!free.isEmpty()) {
+			image = free.removeFirst();
+		} else if (allocated == POOL_SIZE && !queued.isEmpty()) {
+			image = queued.removeFirst();
+			timestamps.removeFirst();
+			skipped_frames++;
+		}
+		if (image != null && image.getWidth() == width
+				&& image.getHeight() == height)
+			return image;
+		if (image == null && allocated == POOL_SIZE)
+			return null;
+		if (image == null)
+			allocated++;
+		return reader.getImageTypes(0).next().createBufferedImage(width,
+				height);
+	}
+
+	private synchronized void giveimage(BufferedImage image) {
+		free.addLast(image);
+	}
+
+	// queue a decoded frame for the playout thread
+	private void queue(BufferedImage image, int timestamp) {
+		// insert by timestamp, frames can be completed out of order
+		int i = timestamps.size();
+		while (i > 0 && timestamps.get(i - 1) - timestamp > 0)
+			i--;
+		queued.add(i, image);
+		timestamps.add(i, timestamp);
+		notifyAll();
+	}
+
+	// ------------------------------------
+	// Playout thread
+	// ------------------------------------
+	private void play() {
+		try {
+			while (running) {
+				BufferedImage image = null;
+				synchronized (this) {
+					while (running && queued.isEmpty())
+						wait();
+					if (!running)
+						break;
+
+					long now = System.nanoTime() / 1000000;
+					long due = due(timestamps.getFirst(), now);
+					if (due > now) {
+						wait(due - now);
+						continue;
+					}
+
+					// frames that are due: only the last one is displayed
+					while (!queued.isEmpty()
+							&& due(timestamps.getFirst(), now) <= now) {
+						if (image != null) {
+							free.addLast(image);
+							skipped_frames++;
+						}
+						image = queued.removeFirst();
+						timestamps.removeFirst();
+					}
+
+					// the EDT has not displayed the last frame handed to it
+					if (pending != null) {
+						free.addLast(pending);
+						skipped_frames++;
+					}
+					pending = image;
+				}
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						show();
+					}
+				});
+			}
+		} catch (InterruptedException ignore) {
+		}
+	}
+
+	// playout time of a frame, the clock is reset after a discontinuity
+	private long due(int timestamp, long now) {
+		long due = base_time + (timestamp - base_timestamp) / CLOCK_RATE;
+		if (!based || due < now - 1000 || due > now + 1000 + PLAYOUT_DELAY) {
+			based = true;
+			base_time = now + PLAYOUT_DELAY;
+			base_timestamp = timestamp;
+			due = base_time;
+		}
+		return due;
+	}
+
+	// display the pending frame, on the EDT
+	private void show() {
+		BufferedImage image;
+		synchronized (this) {
+			image = pending;
+			pending = null;
+			if (image == null)
+				return;
+			if (displayed != null)
+				free.addLast(displayed);
+			displayed = image;
+			shown_frames++;
+		}
+		if (icon == null) {
+			icon = new ImageIcon(image);
+			iconLabel.setIcon(icon);
+		} else {
+			icon.setImage(image);
+			iconLabel.repaint();
+		}
+	}
+
+	// ------------------------------------
+	// getstats: counters since the last call, for the GUI
+	// ------------------------------------
+	public synchronized String getstats() {
+		long now = System.nanoTime();
+		double fps = (shown_frames - stats_shown) * 1e9 / (now - stats_time);
+		stats_time = now;
+		stats_shown = shown_frames;
+
+		int expected = (first_seq < 0) ? 0 : max_seq - first_seq + 1;
+		double loss = (expected > 0) ? 100.0 * Math.max(0, expected
+				- received_packets) / expected : 0;
+		double decode = (decoded_frames > 0) ? decode_time / 1e6
+				/ decoded_frames : 0;
+
+		return String.format(
+				"%.1f fps  loss %.1f%%  jitter %.1f ms  decode %.1f ms  "
+						+ "dropped %d  skipped %d", fps, loss, jitter
+						/ CLOCK_RATE, decode, assembler.getdropped()
+						+ overflows, skipped_frames);
+	}
+}
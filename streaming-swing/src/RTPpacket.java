@@ -108,6 +108,7 @@ public class RTPpacket {
 				payload[i - HEADER_SIZE] = packet[i];
 
 			// interpret the changing fields of the header:
+			Marker = (header[1] >> 7) & 1;
 			PayloadType = header[1] & 127;
 			SequenceNumber = unsigned_int(header[3]) + 256
 					* unsigned_int(header[2]);
@@ -171,6 +172,21 @@ public class RTPpacket {
 		return (SequenceNumber);
 	}
 
+	// --------------------------
+	// setmarker: set the marker bit, for the last packet of a frame
+	// --------------------------
+	public void setmarker(int marker) {
+		Marker = marker;
+		header[1] = (byte) ((byte) (Marker << 7) | (byte) PayloadType);
+	}
+
+	// --------------------------
+	// getmarker
+	// --------------------------
+	public int getmarker() {
+		return (Marker);
+	}
+
 	// --------------------------
 	// getpayloadtype
 	// --------------------------
@@ -0,0 +1,315 @@
+//ServerSession
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class ServerSession implements Runnable {
+
+	// RTP variables:
+	// ----------------
+	DatagramSocket RTPsocket; // socket to be used to send UDP packets
+	InetAddress ClientIPAddr; // Client IP address
+	int RTP_dest_port = 0; // destination port for RTP packets (given by the
+							// RTSP Client)
+
+	// Video variables:
+	// ----------------
+	int imagenb = 0; // image nb of the image currently transmitted
+	VideoStream video; // VideoStream object used to access video frames
+	JpegFragmenter fragmenter = new JpegFragmenter(); // splits the images
+	byte[] payload = new byte[JpegFragmenter.MAX_PAYLOAD]; // RTP payload
+	int RTPSeqNb = 0; // sequence number of the RTP packets
+	ScheduledFuture<?> timer; // pending frame sends, null when not playing
+
+	// RTSP variables
+	// ----------------
+	Server server; // server which accepted the connection
+	int state; // RTSP state == INIT or READY or PLAYING
+	Socket RTSPsocket; // socket used to send/receive RTSP messages
+	// input and output stream filters
+	BufferedReader RTSPBufferedReader;
+	BufferedWriter RTSPBufferedWriter;
+	String VideoFileName; // video file requested from the client
+	double RangeStart; // start of the Range header of the request, in
+						// seconds, -1 if there is none
+	int RTSP_ID; // ID of the RTSP session
+	int RTSPSeqNb = 0; // Sequence number of RTSP messages within the session
+
+	final static String CRLF = "\r\n";
+
+	// --------------------------------
+	// Constructor
+	// --------------------------------
+	public ServerSession(Server server, Socket socket, int id)
+			throws IOException {
+		this.server = server;
+		RTSPsocket = socket;
+		RTSP_ID = id;
+		ClientIPAddr = socket.getInetAddress();
+		state = Server.INIT;
+
+		// Set input and output stream filters:
+		RTSPBufferedReader = new BufferedReader(new InputStreamReader(
+				RTSPsocket.getInputStream()));
+		RTSPBufferedWriter = new BufferedWriter(new OutputStreamWriter(
+				RTSPsocket.getOutputStream()));
+	}
+
+	// ------------------------------------
+	// loop to handle the RTSP requests of the client, runs on its own thread
+	// ------------------------------------
+	public void run() {
+		try {
+			while (true) {
+				// parse the request
+				int request_type = parse_RTSP_request(); // blocking
+
+				if ((request_type == Server.SETUP) && (state == Server.INIT)) {
+					// init the VideoStream object:
+					video = new VideoStream(VideoFileName);
+					video.setloop(server.loop);
+					// init RTP socket
+					RTPsocket = new DatagramSocket();
+					// send back response
+					send_RTSP_response();
+					// update state
+					state = Server.READY;
+					log("New RTSP state: READY");
+				} else if ((request_type == Server.PLAY)
+						&& (state == Server.READY)) {
+					// send back response
+					send_RTSP_response();
+					// move to the requested position, otherwise resume
+					if (RangeStart >= 0)
+						video.seek((int) (RangeStart * 1000 / Server.FRAME_PERIOD));
+					// start sending frames
+					play();
+					// update state
+					state = Server.PLAYING;
+					log("New RTSP state: PLAYING");
+				} else if ((request_type == Server.PAUSE)
+						&& (state == Server.PLAYING)) {
+					// send back response
+					send_RTSP_response();
+					// stop sending frames
+					pause();
+					// update state
+					state = Server.READY;
+					log("New RTSP state: READY");
+				} else if (request_type == Server.TEARDOWN) {
+					// send back response
+					send_RTSP_response();
+					break;
+				}
+			}
+		} catch (EOFException ex) {
+			log("Connection closed by the client");
+		} catch (Exception ex) {
+			log("Exception caught: " + ex);
+		} finally {
+			close();
+		}
+	}
+
+	// ------------------------------------
+	// Schedule the frame sends on the shared executor of the server
+	// Each send is due at a fixed offset from the first one, so the frame
+	// rate does not drift with the time spent sending
+	// ------------------------------------
+	private synchronized void play() {
+		timer = server.getScheduler().scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				send_frame();
+			}
+		}, 0, Server.FRAME_PERIOD, TimeUnit.MILLISECONDS);
+	}
+
+	private synchronized void pause() {
+		if (timer != null) {
+			timer.cancel(false);
+			timer = null;
+		}
+	}
+
+	// ------------------------
+	// Send the next frame, called by the scheduler
+	// ------------------------
+	private synchronized void send_frame() {
+		if (timer == null)
+			return;
+
+		// get next frame to send from the video, shared with the other
+		// sessions of the file
+		ByteBuffer frame = video.getnextframe();
+
+		// if we have reached the end of the video file, stop sending
+		if (frame == null) {
+			pause();
+			return;
+		}
+
+		// update current imagenb
+		imagenb++;
+
+		try {
+			if (!fragmenter.setframe(frame)) {
+				log("Frame #" + imagenb + " can't be sent with RFC 2435");
+				return;
+			}
+
+			// all the packets of a frame share its timestamp (90 kHz clock),
+			// the marker bit is set on the last one
+			int timestamp = imagenb * Server.FRAME_PERIOD * 90;
+			while (fragmenter.hasnext()) {
+				int payload_length = fragmenter.next(payload);
+
+				// Builds an RTPpacket object containing the fragment
+				RTPpacket rtp_packet = new RTPpacket(Server.MJPEG_TYPE,
+						++RTPSeqNb, timestamp, payload, payload_length);
+				if (!fragmenter.hasnext())
+					rtp_packet.setmarker(1);
+
+				// get to total length of the full rtp packet to send
+				int packet_length = rtp_packet.getlength();
+
+				// retrieve the packet bitstream and store it in an array of
+				// bytes
+				byte[] packet_bits = new byte[packet_length];
+				rtp_packet.getpacket(packet_bits);
+
+				// send the packet as a DatagramPacket over the UDP socket
+				RTPsocket.send(new DatagramPacket(packet_bits, packet_length,
+						ClientIPAddr, RTP_dest_port));
+			}
+
+			server.frameSent();
+		} catch (Exception ex) {
+			// the frame can't be read or sent, only this session is stopped
+			log("Exception caught: " + ex);
+			pause();
+			close();
+		}
+	}
+
+	// ------------------------------------
+	// Release the resources of the session, can be called several times
+	// ------------------------------------
+	synchronized void close() {
+		pause();
+		try {
+			RTSPsocket.close();
+		} catch (IOException ignore) {
+		}
+		if (RTPsocket != null)
+			RTPsocket.close();
+		if (video != null)
+			video.close();
+		if (state != -1) {
+			state = -1;
+			server.sessionClosed(this);
+		}
+	}
+
+	// ------------------------------------
+	// Parse RTSP Request
+	// ------------------------------------
+	private int parse_RTSP_request() throws IOException {
+		int request_type = -1;
+
+		// parse request line and extract the request_type:
+		String RequestLine = readLine();
+		log(RequestLine);
+
+		StringTokenizer tokens = new StringTokenizer(RequestLine);
+		String request_type_string = tokens.nextToken();
+
+		// convert to request_type structure:
+		if (request_type_string.equals("SETUP"))
+			request_type = Server.SETUP;
+		else if (request_type_string.equals("PLAY"))
+			request_type = Server.PLAY;
+		else if (request_type_string.equals("PAUSE"))
+			request_type = Server.PAUSE;
+		else if (request_type_string.equals("TEARDOWN"))
+			request_type = Server.TEARDOWN;
+
+		if (request_type == Server.SETUP) {
+			// extract VideoFileName from RequestLine
+			VideoFileName = tokens.nextToken();
+		}
+
+		// parse the SeqNumLine and extract CSeq field
+		String SeqNumLine = readLine();
+		log(SeqNumLine);
+		tokens = new StringTokenizer(SeqNumLine);
+		tokens.nextToken();
+		RTSPSeqNb = Integer.parseInt(tokens.nextToken());
+
+		// get LastLine
+		String LastLine = readLine();
+		log(LastLine);
+
+		if (request_type == Server.SETUP) {
+			// extract RTP_dest_port from LastLine
+			tokens = new StringTokenizer(LastLine);
+			for (int i = 0; i < 3; i++)
+				tokens.nextToken(); // skip unused stuff
+			RTP_dest_port = Integer.parseInt(tokens.nextToken());
+		}
+		// else LastLine will be the SessionId line ... do not check for
+		// now.
+
+		// other headers sent with the request, if any
+		RangeStart = -1;
+		parse_RTSP_header(LastLine);
+		while (RTSPBufferedReader.ready()) {
+			String HeaderLine = readLine();
+			if (HeaderLine.length() == 0)
+				break;
+			log(HeaderLine);
+			parse_RTSP_header(HeaderLine);
+		}
+		return (request_type);
+	}
+
+	// ------------------------------------
+	// Parse the headers used by the session: Range: npt=<start>-[<end>]
+	// ------------------------------------
+	private void parse_RTSP_header(String HeaderLine) {
+		if (!HeaderLine.regionMatches(true, 0, "Range:", 0, 6))
+			return;
+		String range = HeaderLine.substring(6).trim();
+		if (!range.startsWith("npt=") || range.indexOf('-') < 0)
+			return;
+		String start = range.substring(4, range.indexOf('-')).trim();
+		try {
+			RangeStart = start.equals("now") ? -1 : Double.parseDouble(start);
+		} catch (NumberFormatException ex) {
+			log("Invalid range: " + range);
+		}
+	}
+
+	private String readLine() throws IOException {
+		String line = RTSPBufferedReader.readLine();
+		if (line == null)
+			throw new EOFException();
+		return line;
+	}
+
+	// ------------------------------------
+	// Send RTSP Response
+	// ------------------------------------
+	private void send_RTSP_response() throws IOException {
+		RTSPBufferedWriter.write("RTSP/1.0 200 OK" + CRLF);
+		RTSPBufferedWriter.write("CSeq: " + RTSPSeqNb + CRLF);
+		RTSPBufferedWriter.write("Session: " + RTSP_ID + CRLF);
+		RTSPBufferedWriter.flush();
+	}
+
+	private void log(String message) {
+		System.out.println("[" + RTSP_ID + "] " + message);
+	}
+}
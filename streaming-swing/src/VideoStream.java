@@ -1,11 +1,76 @@
 //VideoStream
 
+// Frames of an MJPEG video file: each frame is stored after its length,
+// written on 5 ASCII digits. The file is mapped in memory and the frames
+// are indexed once, the mapping and the index are shared by all the
+// VideoStream objects opened on the same file. Each VideoStream only keeps
+// its own position, it can be moved with seek() and wrap around at the end
+// of the file with setloop().
+
 import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
 
 public class VideoStream {
 
-	FileInputStream fis; // video file
+	// file mapping and frame index, shared by the streams of a file
+	static class Index {
+		String path;
+		long modified; // to detect a file rewritten since it was indexed
+		int users = 0; // number of VideoStream objects using the index
+		MappedByteBuffer map;
+		int[] offsets; // position of each frame in the file
+		int[] lengths; // length of each frame
+		int count; // number of frames
+
+		Index(File file) throws IOException {
+			path = file.getCanonicalPath();
+			modified = file.lastModified();
+
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				FileChannel channel = raf.getChannel();
+				// the mapping remains valid after the file is closed
+				map = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+						channel.size());
+			} finally {
+				raf.close();
+			}
+
+			offsets = new int[1024];
+			lengths = new int[1024];
+			int pos = 0, size = map.limit();
+			while (pos + 5 <= size) {
+				int length = 0;
+				for (int i = 0; i < 5; i++) {
+					int digit = map.get(pos + i) - '0';
+					if (digit < 0 || digit > 9) {
+						length = -1;
+						break;
+					}
+					length = length * 10 + digit;
+				}
+				// stop at the first damaged or truncated frame
+				if (length < 0 || pos + 5 + length > size)
+					break;
+				if (count == offsets.length) {
+					offsets = Arrays.copyOf(offsets, count * 2);
+					lengths = Arrays.copyOf(lengths, count * 2);
+				}
+				offsets[count] = pos + 5;
+				lengths[count] = length;
+				count++;
+				pos += 5 + length;
+			}
+		}
+	}
+
+	static HashMap<String, Index> indexes = new HashMap<String, Index>();
+
+	Index index; // frames of the video file
 	int frame_nb; // current frame nb
+	boolean loop = false; // go back to the first frame at the end of the file
 
 	// -----------------------------------
 	// constructor
@@ -13,26 +78,89 @@ public class VideoStream {
 	public VideoStream(String filename) throws Exception {
 
 		// init variables
-		fis = new FileInputStream(filename);
+		index = open(new File(filename));
 		frame_nb = 0;
 	}
 
+	// -----------------------------------
+	// open: get the index of a file, build it if no stream uses it yet
+	// -----------------------------------
+	static Index open(File file) throws IOException {
+		String path = file.getCanonicalPath();
+		synchronized (indexes) {
+			Index index = indexes.get(path);
+			if (index == null || index.modified != file.lastModified()) {
+				index = new Index(file);
+				indexes.put(path, index);
+			}
+			index.users++;
+			return index;
+		}
+	}
+
+	// -----------------------------------
+	// close: the index is dropped when its last stream is closed
+	// -----------------------------------
+	public void close() {
+		synchronized (indexes) {
+			if (index != null && --index.users == 0
+					&& indexes.get(index.path) == index)
+				indexes.remove(index.path);
+			index = null;
+		}
+	}
+
 	// -----------------------------------
 	// getnextframe
-	// returns the next frame as an array of byte and the size of the frame
+	// returns the next frame as a read-only slice of the mapped file, or null
+	// at the end of the file
+	// -----------------------------------
+	public ByteBuffer getnextframe() {
+		if (frame_nb >= index.count) {
+			if (!loop || index.count == 0)
+				return null;
+			frame_nb = 0;
+		}
+
+		ByteBuffer frame = index.map.duplicate();
+		frame.position(index.offsets[frame_nb]);
+		frame.limit(index.offsets[frame_nb] + index.lengths[frame_nb]);
+		frame_nb++;
+		return frame.slice().asReadOnlyBuffer();
+	}
+
+	// -----------------------------------
+	// getnextframe
+	// copies the next frame in frame and returns its size, -1 at the end of
+	// the file
 	// -----------------------------------
 	public int getnextframe(byte[] frame) throws Exception {
-		int length = 0;
-		String length_string;
-		byte[] frame_length = new byte[5];
+		ByteBuffer next = getnextframe();
+		if (next == null)
+			return -1;
+
+		int length = next.remaining();
+		next.get(frame, 0, length);
+		return (length);
+	}
 
-		// read current frame length
-		fis.read(frame_length, 0, 5);
+	// -----------------------------------
+	// seek: the next frame returned will be frame nb
+	// -----------------------------------
+	public void seek(int nb) {
+		frame_nb = Math.max(0, Math.min(nb, index.count));
+	}
 
-		// transform frame_length to integer
-		length_string = new String(frame_length);
-		length = Integer.parseInt(length_string);
+	public void setloop(boolean loop) {
+		this.loop = loop;
+	}
+
+	// index of the next frame
+	public int getframenb() {
+		return frame_nb;
+	}
 
-		return (fis.read(frame, 0, length));
+	public int getframecount() {
+		return index.count;
 	}
-}
\ No newline at end of file
+}